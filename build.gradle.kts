@@ -51,6 +51,17 @@ testing {
                     setSrcDirs(listOf("src/integrationTest/java"))
                 }
             }
+
+            targets {
+                all {
+                    testTask.configure {
+                        // benchmarks take minutes, they only run with -Pbenchmark
+                        if (!project.hasProperty("benchmark")) {
+                            (options as JUnitPlatformOptions).excludeTags("benchmark")
+                        }
+                    }
+                }
+            }
         }
     }
 }
@@ -63,7 +74,9 @@ tasks.jar {
     manifest.attributes["Main-Class"] = "com.perapoch.tasksapp.TaskApplication"
 }
 
-java.toolchain.languageVersion.set(JavaLanguageVersion.of(17))
+// 17 by default; -PjavaVersion=21 builds and runs on a Java 21 toolchain, needed for virtualThreads in the configuration
+val javaVersion = (findProperty("javaVersion") as String? ?: "17").toInt()
+java.toolchain.languageVersion.set(JavaLanguageVersion.of(javaVersion))
 
 
 tasks.getByName<Test>("test") {
@@ -80,7 +93,7 @@ tasks.getByName("dockerPrepare").dependsOn(tasks.getByName("shadowJar"))
 docker {
     name = "hub.docker.com/perapoch/${project.name}:".plus(version)
     setDockerfile(file("Dockerfile"))
-    buildArgs(mapOf("APP_JAR" to "${project.name}-".plus(version).plus("-all.jar")))
+    buildArgs(mapOf("APP_JAR" to "${project.name}-".plus(version).plus("-all.jar"), "JAVA_VERSION" to javaVersion.toString()))
     copySpec.from("build/libs").into("dockerized")
     copySpec.from("src/config").into("dockerized")
 }
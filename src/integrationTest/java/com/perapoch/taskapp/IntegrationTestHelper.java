@@ -3,6 +3,9 @@ package com.perapoch.taskapp;
 import com.perapoch.taskapp.core.idgenerator.IdGeneratorFactoryForTesting;
 import com.perapoch.taskapp.storage.cache.CacheManagerForTesting;
 import com.perapoch.taskapp.storage.db.KeyValueStoreFactoryForTesting;
+import com.perapoch.tasksapp.core.search.TaskSearchIndex;
+import com.perapoch.tasksapp.core.stats.TaskStatsCounter;
+import com.perapoch.tasksapp.storage.db.schema.SchemaManager;
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 import org.jdbi.v3.core.Jdbi;
@@ -22,26 +25,44 @@ public class IntegrationTestHelper {
     private final IdGeneratorFactoryForTesting idGeneratorFactory;
     private final CacheManagerForTesting cacheManager;
     private final KeyValueStoreFactoryForTesting keyValueStoreFactory;
+    private final TaskSearchIndex searchIndex;
+    private final TaskStatsCounter statsCounter;
 
     @Inject
     public IntegrationTestHelper(Jdbi jdbi, IdGeneratorFactoryForTesting idGeneratorFactory, CacheManagerForTesting cacheManager,
-                                 KeyValueStoreFactoryForTesting keyValueStoreFactoryForTesting) {
+                                 KeyValueStoreFactoryForTesting keyValueStoreFactoryForTesting, TaskSearchIndex searchIndex,
+                                 TaskStatsCounter statsCounter) {
         this.jdbi = jdbi;
         this.idGeneratorFactory = idGeneratorFactory;
         this.cacheManager = cacheManager;
         this.keyValueStoreFactory = keyValueStoreFactoryForTesting;
+        this.searchIndex = searchIndex;
+        this.statsCounter = statsCounter;
     }
 
     public void clearAll() {
         clearDatabase();
         emptyCaches();
         clearIdGenerators();
+        // task ids are handed out again after clearing the generators, so stale postings would match the new tasks
+        searchIndex.clear();
+        statsCounter.clear();
     }
 
     public void clearDatabase() {
+        truncateTables(jdbi);
+        keyValueStoreFactory.getShardJdbis().forEach(IntegrationTestHelper::truncateTables);
+    }
+
+    private static void truncateTables(Jdbi jdbi) {
         List<String> truncatedTables = jdbi.inTransaction(handle -> {
             Query query = handle.createQuery("SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES where TABLE_SCHEMA='PUBLIC'");
-            List<String> tables = query.mapTo(String.class).list().stream().filter(Objects::nonNull).collect(Collectors.toList());
+            // schema versions and shard layouts describe tables that are only truncated, never dropped, so they must be kept
+            List<String> tables = query.mapTo(String.class).list().stream()
+                                       .filter(Objects::nonNull)
+                                       .filter(tableName -> !tableName.equalsIgnoreCase(SchemaManager.SCHEMA_VERSION_TABLE))
+                                       .filter(tableName -> !tableName.equalsIgnoreCase(SchemaManager.SHARD_LAYOUT_TABLE))
+                                       .collect(Collectors.toList());
             for (String tableName : tables) {
                 handle.createUpdate("TRUNCATE TABLE %s".formatted(tableName)).execute();
             }
@@ -0,0 +1,20 @@
+package com.perapoch.taskapp;
+
+import com.perapoch.taskapp.core.CoreModuleForTesting;
+import com.perapoch.taskapp.storage.StorageModuleForTesting;
+import com.perapoch.tasksapp.TaskApplication;
+import ru.vyarus.dropwizard.guice.hook.GuiceyConfigurationHook;
+import ru.vyarus.dropwizard.guice.test.EnableHook;
+import ru.vyarus.dropwizard.guice.test.jupiter.TestDropwizardApp;
+
+@TestDropwizardApp(value = TaskApplication.class, config="src/integrationTest/resources/test-config.yaml")
+public class PlatformThreadsBenchmark extends ThreadModeBenchmark {
+
+    @EnableHook
+    static GuiceyConfigurationHook HOOK = builder -> builder.modulesOverride(new StorageModuleForTesting(), new CoreModuleForTesting());
+
+    @Override
+    protected String threadMode() {
+        return "platform";
+    }
+}
@@ -0,0 +1,53 @@
+package com.perapoch.taskapp;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.perapoch.tasksapp.TaskApplication;
+import com.perapoch.tasksapp.api.NewTaskRequestDto;
+import com.perapoch.tasksapp.api.TaskDto;
+import com.perapoch.tasksapp.storage.db.ReplicaRouter;
+import io.dropwizard.core.setup.Environment;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.client.Entity;
+import jakarta.ws.rs.core.GenericType;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.junit.jupiter.api.Test;
+import ru.vyarus.dropwizard.guice.test.ClientSupport;
+import ru.vyarus.dropwizard.guice.test.jupiter.TestDropwizardApp;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// every endpoint test again, with the reads of the (unsharded) tasks store routed to a replica
+@TestDropwizardApp(value = TaskApplication.class, config="src/integrationTest/resources/test-config-replicas.yaml")
+public class ReplicaTaskApplicationIntegrationTest extends TaskApplicationIntegrationTest {
+
+    @Inject
+    private Environment environment;
+
+    @Test
+    void getTasks_shouldBeServedByTheReplicas(ClientSupport client) throws Exception {
+        // Given
+        Response created = client.targetRest("tasks").request()
+                                 .buildPost(Entity.entity(new NewTaskRequestDto("Replicated task", 908L), MediaType.APPLICATION_JSON_TYPE))
+                                 .invoke();
+        assertThat(created.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());
+        Timer replicaReads = environment.metrics().timer(MetricRegistry.name(ReplicaRouter.class, "replica-read-time"));
+        long replicaReadsBefore = replicaReads.getCount();
+
+        // When
+        // the replica starts getting reads once its first heartbeat has been checked. The list isn't cached when it's short
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (replicaReads.getCount() == replicaReadsBefore && System.currentTimeMillis() < deadline) {
+            Response response = client.targetRest("tasks").request().buildGet().invoke();
+            List<TaskDto> tasks = response.readEntity(new GenericType<>() {});
+            assertThat(tasks).extracting(TaskDto::description).containsExactly("Replicated task");
+            Thread.sleep(20);
+        }
+
+        // Then
+        assertThat(replicaReads.getCount()).isGreaterThan(replicaReadsBefore);
+    }
+}
@@ -0,0 +1,9 @@
+package com.perapoch.taskapp;
+
+import com.perapoch.tasksapp.TaskApplication;
+import ru.vyarus.dropwizard.guice.test.jupiter.TestDropwizardApp;
+
+// every endpoint test again, with the tasks store spread over two shards and written through group commit
+@TestDropwizardApp(value = TaskApplication.class, config="src/integrationTest/resources/test-config-sharded.yaml")
+public class ShardedTaskApplicationIntegrationTest extends TaskApplicationIntegrationTest {
+}
@@ -4,10 +4,18 @@ import com.perapoch.taskapp.core.CoreModuleForTesting;
 import com.perapoch.taskapp.storage.StorageModuleForTesting;
 import com.perapoch.tasksapp.TaskApplication;
 import com.perapoch.tasksapp.api.NewTaskRequestDto;
+import com.perapoch.tasksapp.api.TaskChangeDto;
+import com.perapoch.tasksapp.api.TaskChangesDto;
 import com.perapoch.tasksapp.api.TaskDto;
+import com.perapoch.tasksapp.api.TaskStatsDto;
+import com.perapoch.tasksapp.core.archive.TaskArchiver;
+import com.perapoch.tasksapp.core.json.JsonConverter;
+import com.perapoch.tasksapp.resources.TasksResource;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.client.Entity;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.GenericType;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import org.junit.jupiter.api.BeforeEach;
@@ -17,9 +25,16 @@ import ru.vyarus.dropwizard.guice.test.ClientSupport;
 import ru.vyarus.dropwizard.guice.test.EnableHook;
 import ru.vyarus.dropwizard.guice.test.jupiter.TestDropwizardApp;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 @TestDropwizardApp(value = TaskApplication.class, config="src/integrationTest/resources/test-config.yaml")
@@ -34,6 +49,10 @@ public class TaskApplicationIntegrationTest {
     static GuiceyConfigurationHook HOOK = builder -> builder.modulesOverride(new StorageModuleForTesting(), new CoreModuleForTesting());
     @Inject
     private IntegrationTestHelper testHelper;
+    @Inject
+    private JsonConverter jsonConverter;
+    @Inject
+    private TaskArchiver taskArchiver;
 
     @BeforeEach
     void init(ClientSupport client) {
@@ -117,6 +136,94 @@ public class TaskApplicationIntegrationTest {
         assertThat(taskDto.description()).isEqualTo(newDescription);
     }
 
+    @Test
+    void getTask_shouldReturnTheVersionAsETag() {
+        // Given
+        TaskDto task = createTask(new NewTaskRequestDto("versioned", ENDED_AT_MS));
+        // When
+        Response response = getTask(task.id());
+        // Then
+        assertStatusCode(response, Response.Status.OK);
+        assertThat(response.getEntityTag()).isEqualTo(new EntityTag("1"));
+    }
+
+    @Test
+    void getTask_shouldReturnNotModifiedWhenTheETagStillMatches() {
+        // Given
+        TaskDto task = createTask(new NewTaskRequestDto("versioned", ENDED_AT_MS));
+        // When
+        Response response = client.targetRest(TASKS_RESOURCE).path(String.valueOf(task.id())).request()
+                                  .header(HttpHeaders.IF_NONE_MATCH, "\"1\"").buildGet().invoke();
+        // Then
+        assertStatusCode(response, Response.Status.NOT_MODIFIED);
+    }
+
+    @Test
+    void getTask_shouldReturnTheTaskWhenTheETagNoLongerMatches() {
+        // Given
+        TaskDto task = createTask(new NewTaskRequestDto("versioned", ENDED_AT_MS));
+        updateTask(task.id(), new NewTaskRequestDto("versioned v2", ENDED_AT_MS, true));
+        // When
+        Response response = client.targetRest(TASKS_RESOURCE).path(String.valueOf(task.id())).request()
+                                  .header(HttpHeaders.IF_NONE_MATCH, "W/\"1\", \"7\"").buildGet().invoke();
+        // Then
+        assertStatusCode(response, Response.Status.OK);
+        assertThat(response.getEntityTag()).isEqualTo(new EntityTag("2"));
+    }
+
+    @Test
+    void updateTask_shouldHonorIfMatch() {
+        // Given
+        TaskDto task = createTask(new NewTaskRequestDto("versioned", ENDED_AT_MS));
+        NewTaskRequestDto update = new NewTaskRequestDto("versioned v2", ENDED_AT_MS, true);
+        // When
+        Response updated = updateTask(task.id(), update, "\"1\"");
+        Response stale = updateTask(task.id(), update, "\"1\"");
+        // Then
+        assertStatusCode(updated, Response.Status.OK);
+        assertThat(updated.getEntityTag()).isEqualTo(new EntityTag("2"));
+        assertStatusCode(stale, Response.Status.PRECONDITION_FAILED);
+    }
+
+    @Test
+    void updateTask_shouldRejectWeakIfMatch() {
+        // Given
+        TaskDto task = createTask(new NewTaskRequestDto("versioned", ENDED_AT_MS));
+        // When
+        Response response = updateTask(task.id(), new NewTaskRequestDto("versioned v2", ENDED_AT_MS, true), "W/\"1\"");
+        // Then
+        assertStatusCode(response, Response.Status.PRECONDITION_FAILED);
+        assertThat(getTask(task.id()).readEntity(TaskDto.class).description()).isEqualTo("versioned");
+    }
+
+    @Test
+    void updateTask_shouldMatchAnyOfTheIfMatchETags() {
+        // Given
+        TaskDto task = createTask(new NewTaskRequestDto("versioned", ENDED_AT_MS));
+        updateTask(task.id(), new NewTaskRequestDto("versioned v2", ENDED_AT_MS, false));
+        NewTaskRequestDto update = new NewTaskRequestDto("versioned v3", ENDED_AT_MS, true);
+        // When
+        Response updated = updateTask(task.id(), update, "\"1\", \"2\"");
+        Response stale = updateTask(task.id(), update, "\"1\", W/\"3\", \"2\"");
+        // Then
+        assertStatusCode(updated, Response.Status.OK);
+        assertThat(updated.getEntityTag()).isEqualTo(new EntityTag("3"));
+        assertStatusCode(stale, Response.Status.PRECONDITION_FAILED);
+    }
+
+    @Test
+    void deleteTask_shouldFailOnStaleIfMatch() {
+        // Given
+        TaskDto task = createTask(new NewTaskRequestDto("versioned", ENDED_AT_MS));
+        updateTask(task.id(), new NewTaskRequestDto("versioned v2", ENDED_AT_MS, false));
+        // When
+        Response response = client.targetRest(TASKS_RESOURCE).path(String.valueOf(task.id())).request()
+                                  .header(HttpHeaders.IF_MATCH, "\"1\"").buildDelete().invoke();
+        // Then
+        assertStatusCode(response, Response.Status.PRECONDITION_FAILED);
+        assertStatusCode(getTask(task.id()), Response.Status.OK);
+    }
+
     @Test
     void deleteTask_shouldRemoveExistingTask() {
         // Given
@@ -162,6 +269,7 @@ public class TaskApplicationIntegrationTest {
         assertThat(taskDtos.get(0).description()).isEqualTo(task1.description());
         assertThat(taskDtos.get(1).description()).isEqualTo(task2.description());
         assertThat(taskDtos.get(2).description()).isEqualTo(task3.description());
+        assertThat(tasksWithLimitResponse.getHeaderString(TasksResource.TOTAL_COUNT_HEADER)).isEqualTo("5");
     }
 
     @Test
@@ -229,6 +337,302 @@ public class TaskApplicationIntegrationTest {
         assertThat(taskDtos.get(2).description()).isEqualTo(task4.description());
     }
 
+    @Test
+    void getTasks_shouldPaginateWithCursors() {
+        // Given
+        var createdTasks = createTasks(new NewTaskRequestDto("task1", ENDED_AT_MS),
+                                       new NewTaskRequestDto("task2", ENDED_AT_MS),
+                                       new NewTaskRequestDto("task3", ENDED_AT_MS),
+                                       new NewTaskRequestDto("task4", ENDED_AT_MS),
+                                       new NewTaskRequestDto("task5", ENDED_AT_MS));
+
+        // When
+        Response firstPage = getTasksWithLimit(2);
+        String firstCursor = firstPage.getHeaderString(TasksResource.NEXT_CURSOR_HEADER);
+        List<TaskDto> firstTasks = toTaskDtoList(firstPage);
+        // a task deleted behind the cursor must not shift the following pages
+        deleteTask(createdTasks.get(0).id());
+        Response secondPage = getTasksAfter(firstCursor, 2);
+        String secondCursor = secondPage.getHeaderString(TasksResource.NEXT_CURSOR_HEADER);
+        List<TaskDto> secondTasks = toTaskDtoList(secondPage);
+        Response lastPage = getTasksAfter(secondCursor, 2);
+
+        // Then
+        assertThat(firstTasks).containsExactly(createdTasks.get(0), createdTasks.get(1));
+        assertThat(secondTasks).containsExactly(createdTasks.get(2), createdTasks.get(3));
+        assertThat(lastPage.getHeaderString(TasksResource.NEXT_CURSOR_HEADER)).isNull();
+        assertThat(toTaskDtoList(lastPage)).containsExactly(createdTasks.get(4));
+    }
+
+    @Test
+    void getTasks_shouldPageThroughDueTasksByDeadline() {
+        // Given
+        var createdTasks = createTasks(new NewTaskRequestDto("due last", 300L),
+                                       new NewTaskRequestDto("due first", 100L),
+                                       new NewTaskRequestDto("due second", 200L),
+                                       new NewTaskRequestDto("due too late", 400L),
+                                       new NewTaskRequestDto("due third", 200L));
+
+        // When
+        Response firstPage = getDueTasks(100L, 400L, null);
+        String firstCursor = firstPage.getHeaderString(TasksResource.NEXT_CURSOR_HEADER);
+        List<TaskDto> firstTasks = toTaskDtoList(firstPage);
+        Response lastPage = getDueTasks(100L, 400L, firstCursor);
+
+        // Then
+        assertThat(firstTasks).containsExactly(createdTasks.get(1), createdTasks.get(2));
+        assertThat(toTaskDtoList(lastPage)).containsExactly(createdTasks.get(4), createdTasks.get(0));
+        assertThat(getDueTasks(100L, 400L, lastPage.getHeaderString(TasksResource.NEXT_CURSOR_HEADER)).readEntity(String.class)).isEqualTo("[]");
+    }
+
+    @Test
+    void getTasks_shouldFailOnOffsetWhenOrderedByDeadline() {
+        // When
+        Response response = client.targetRest(TASKS_RESOURCE).queryParam("orderBy", "endsAtMs").queryParam("offset", 2).request().buildGet().invoke();
+        // Then
+        assertStatusCode(response, Response.Status.BAD_REQUEST);
+    }
+
+    @Test
+    void getTasks_shouldFailOnInvalidCursor() {
+        // When
+        Response response = getTasksAfter("garbage", 2);
+        // Then
+        assertStatusCode(response, Response.Status.BAD_REQUEST);
+    }
+
+    @Test
+    void getTasks_shouldReturnRequestedIds() {
+        // Given
+        var createdTasks = createTasks(new NewTaskRequestDto("task1", ENDED_AT_MS),
+                                       new NewTaskRequestDto("task2", ENDED_AT_MS),
+                                       new NewTaskRequestDto("task3", ENDED_AT_MS));
+
+        // When
+        Response response = getTasksWithIds("%d,%d,%d".formatted(createdTasks.get(2).id(), createdTasks.get(0).id(), 9999L));
+
+        // Then
+        List<TaskDto> taskDtos = toTaskDtoList(response);
+        assertThat(taskDtos).containsExactly(createdTasks.get(2), createdTasks.get(0));
+    }
+
+    @Test
+    void getTasks_shouldLookUpByDescription() {
+        // Given
+        var createdTasks = createTasks(new NewTaskRequestDto("task1", ENDED_AT_MS),
+                                       new NewTaskRequestDto("task2", ENDED_AT_MS));
+
+        // When
+        List<TaskDto> found = toTaskDtoList(getTasksWithDescription("task2"));
+        List<TaskDto> missing = toTaskDtoList(getTasksWithDescription("task3"));
+
+        // Then
+        assertThat(found).containsExactly(createdTasks.get(1));
+        assertThat(missing).isEmpty();
+    }
+
+    @Test
+    void archive_shouldMoveOldCompletedTasksOutOfTheListings() throws InterruptedException {
+        // Given
+        long inTwoHoursMs = System.currentTimeMillis() + 2 * 60 * 60_000L;
+        var createdTasks = createTasks(new NewTaskRequestDto("task1", ENDED_AT_MS),
+                                       new NewTaskRequestDto("task2", ENDED_AT_MS),
+                                       new NewTaskRequestDto("task3", inTwoHoursMs));
+        updateTask(createdTasks.get(0).id(), new NewTaskRequestDto("task1", ENDED_AT_MS, true));
+        updateTask(createdTasks.get(2).id(), new NewTaskRequestDto("task3", inTwoHoursMs, true));
+
+        // When
+        int archived = taskArchiver.archive();
+
+        // Then
+        assertThat(archived).isEqualTo(1);
+        Response hotTasks = getTasks();
+        assertThat(toTaskDtoList(hotTasks)).extracting(TaskDto::id).containsExactly(createdTasks.get(1).id(), createdTasks.get(2).id());
+        assertThat(hotTasks.getHeaderString(TasksResource.TOTAL_COUNT_HEADER)).isEqualTo("2");
+        Response archivedTasks = client.targetRest(TASKS_RESOURCE).queryParam("archived", true).request().buildGet().invoke();
+        assertThat(toTaskDtoList(archivedTasks)).extracting(TaskDto::id, TaskDto::completed).containsExactly(tuple(createdTasks.get(0).id(), true));
+        // single task reads fall back to the archive
+        assertThat(getTask(createdTasks.get(0).id()).readEntity(TaskDto.class).description()).isEqualTo("task1");
+        // and so do deletes
+        assertStatusCode(deleteTask(createdTasks.get(0).id()), Response.Status.NO_CONTENT);
+        assertStatusCode(getTask(createdTasks.get(0).id()), Response.Status.NOT_FOUND);
+    }
+
+    @Test
+    void archive_shouldLeaveArchivedTasksOutOfTheExportTheStatsAndTheSearch() throws InterruptedException {
+        // Given
+        var createdTasks = createTasks(new NewTaskRequestDto("archived milk", ENDED_AT_MS),
+                                       new NewTaskRequestDto("hot milk", ENDED_AT_MS));
+        updateTask(createdTasks.get(0).id(), new NewTaskRequestDto("archived milk", ENDED_AT_MS, true));
+
+        // When
+        int archived = taskArchiver.archive();
+
+        // Then
+        assertThat(archived).isEqualTo(1);
+        Response export = client.targetRest(TASKS_RESOURCE).path("export").request().buildGet().invoke();
+        assertThat(export.readEntity(String.class).lines().map(line -> jsonConverter.fromJson(line, TaskDto.class)))
+                .extracting(TaskDto::id)
+                .containsExactly(createdTasks.get(1).id());
+        TaskStatsDto stats = getTaskStats().readEntity(TaskStatsDto.class);
+        assertThat(stats.total()).isEqualTo(1L);
+        assertThat(stats.completed()).isZero();
+        assertThat(toTaskDtoList(searchTasks("milk"))).extracting(TaskDto::id).containsExactly(createdTasks.get(1).id());
+        // only the reads by id still find it
+        assertStatusCode(getTask(createdTasks.get(0).id()), Response.Status.OK);
+    }
+
+    @Test
+    void getTaskStats_shouldCountTheTasksAsTheyAreWritten() {
+        // Given
+        long inTwoHoursMs = System.currentTimeMillis() + 2 * 60 * 60_000L;
+        var createdTasks = createTasks(new NewTaskRequestDto("task1", ENDED_AT_MS),
+                                       new NewTaskRequestDto("task2", ENDED_AT_MS),
+                                       new NewTaskRequestDto("task3", inTwoHoursMs),
+                                       new NewTaskRequestDto("task4", inTwoHoursMs));
+        updateTask(createdTasks.get(1).id(), new NewTaskRequestDto("task2", ENDED_AT_MS, true));
+        deleteTask(createdTasks.get(3).id());
+
+        // When
+        TaskStatsDto stats = getTaskStats().readEntity(TaskStatsDto.class);
+
+        // Then
+        assertThat(stats.total()).isEqualTo(3L);
+        assertThat(stats.completed()).isEqualTo(1L);
+        assertThat(stats.open()).isEqualTo(2L);
+        assertThat(stats.overdue()).isEqualTo(1L);
+        assertThat(stats.dueSoon()).singleElement()
+                                   .satisfies(bucket -> {
+                                       assertThat(bucket.open()).isEqualTo(1L);
+                                       assertThat(inTwoHoursMs).isBetween(bucket.fromMs(), bucket.toMs() - 1);
+                                   });
+    }
+
+    @Test
+    void searchTasks_shouldFindTasksHoldingEveryWord() {
+        // Given
+        var createdTasks = createTasks(new NewTaskRequestDto("Buy milk", ENDED_AT_MS),
+                                       new NewTaskRequestDto("Buy bread", ENDED_AT_MS),
+                                       new NewTaskRequestDto("Milk the cow, then buy a bucket", ENDED_AT_MS));
+        updateTask(createdTasks.get(1).id(), new NewTaskRequestDto("Buy oat milk", ENDED_AT_MS, false));
+        deleteTask(createdTasks.get(2).id());
+
+        // When
+        List<TaskDto> found = toTaskDtoList(searchTasks("milk BUY"));
+        List<TaskDto> missing = toTaskDtoList(searchTasks("bucket"));
+
+        // Then
+        assertThat(found).extracting(TaskDto::id).containsExactlyInAnyOrder(createdTasks.get(0).id(), createdTasks.get(1).id());
+        assertThat(missing).isEmpty();
+        assertStatusCode(searchTasks(" "), Response.Status.BAD_REQUEST);
+    }
+
+    @Test
+    void getTasks_shouldFailOnInvalidIds() {
+        // When
+        Response response = getTasksWithIds("1,two");
+        // Then
+        assertStatusCode(response, Response.Status.BAD_REQUEST);
+    }
+
+    @Test
+    void exportTasks_shouldWriteOneTaskPerLine() {
+        // Given
+        var createdTasks = createTasks(new NewTaskRequestDto("task1", ENDED_AT_MS),
+                                       new NewTaskRequestDto("task2", ENDED_AT_MS),
+                                       new NewTaskRequestDto("task3", ENDED_AT_MS));
+
+        // When
+        Response response = client.targetRest(TASKS_RESOURCE).path("export").request().buildGet().invoke();
+
+        // Then
+        assertStatusCode(response, Response.Status.OK);
+        assertThat(response.getMediaType().toString()).isEqualTo(TasksResource.NDJSON);
+        List<TaskDto> exported = response.readEntity(String.class)
+                                         .lines()
+                                         .map(line -> jsonConverter.fromJson(line, TaskDto.class))
+                                         .collect(Collectors.toList());
+        assertThat(exported).containsExactlyElementsOf(createdTasks);
+    }
+
+    @Test
+    void getTaskChanges_shouldReturnTheChangesAfterTheCursor() {
+        // Given
+        String cursor = getTaskChanges(null).readEntity(TaskChangesDto.class).cursor();
+        TaskDto task = createTask(new NewTaskRequestDto("task1", ENDED_AT_MS));
+        deleteTask(task.id());
+
+        // When
+        Response response = getTaskChanges(cursor);
+
+        // Then
+        assertStatusCode(response, Response.Status.OK);
+        TaskChangesDto changes = response.readEntity(TaskChangesDto.class);
+        assertThat(changes.changes()).extracting(TaskChangeDto::taskId, TaskChangeDto::type)
+                                     .containsExactly(tuple(task.id(), "upsert"), tuple(task.id(), "delete"));
+        assertThat(changes.gap()).isFalse();
+        assertThat(getTaskChanges(changes.cursor()).readEntity(TaskChangesDto.class).changes()).isEmpty();
+    }
+
+    @Test
+    void getTaskChanges_shouldWaitForTheNextChange() throws Exception {
+        // Given
+        String cursor = getTaskChanges(null).readEntity(TaskChangesDto.class).cursor();
+        Future<Response> pendingResponse = client.targetRest(TASKS_RESOURCE)
+                                                 .path("changes")
+                                                 .queryParam("since", cursor)
+                                                 .queryParam("timeoutMs", 20_000)
+                                                 .request(MediaType.APPLICATION_JSON_TYPE)
+                                                 .async()
+                                                 .get();
+        Thread.sleep(200);
+        assertThat(pendingResponse).isNotDone();
+
+        // When
+        TaskDto task = createTask(new NewTaskRequestDto("task1", ENDED_AT_MS));
+
+        // Then
+        Response response = pendingResponse.get(10, TimeUnit.SECONDS);
+        assertStatusCode(response, Response.Status.OK);
+        assertThat(response.readEntity(TaskChangesDto.class).changes()).extracting(TaskChangeDto::taskId, TaskChangeDto::type)
+                                                                        .containsExactly(tuple(task.id(), "upsert"));
+    }
+
+    @Test
+    void streamTaskChanges_shouldSendTheChangesAsEvents() throws Exception {
+        // Given
+        String cursor = getTaskChanges(null).readEntity(TaskChangesDto.class).cursor();
+        TaskDto task = createTask(new NewTaskRequestDto("task1", ENDED_AT_MS));
+
+        // When
+        Response response = client.targetRest(TASKS_RESOURCE)
+                                  .path("changes")
+                                  .queryParam("since", cursor)
+                                  .request(MediaType.SERVER_SENT_EVENTS_TYPE)
+                                  .buildGet()
+                                  .invoke();
+
+        // Then
+        assertStatusCode(response, Response.Status.OK);
+        try (BufferedReader events = new BufferedReader(new InputStreamReader(response.readEntity(InputStream.class), StandardCharsets.UTF_8))) {
+            assertThat(events.readLine()).startsWith("id: ");
+            assertThat(events.readLine()).isEqualTo("event: change");
+            TaskChangeDto change = jsonConverter.fromJson(events.readLine().substring("data: ".length()), TaskChangeDto.class);
+            assertThat(change.taskId()).isEqualTo(task.id());
+            assertThat(change.type()).isEqualTo("upsert");
+        } finally {
+            response.close();
+        }
+    }
+
+    @Test
+    void getTaskChanges_shouldFailOnInvalidCursor() {
+        // When
+        Response response = getTaskChanges("not-a-cursor");
+        // Then
+        assertStatusCode(response, Response.Status.BAD_REQUEST);
+    }
+
     @Test
     void getTasks_shouldReadMyOwnWrites() {
         // Given
@@ -294,6 +698,41 @@ public class TaskApplicationIntegrationTest {
     }
 
 
+    private Response getTasksAfter(String cursor, int limit) {
+        return client.targetRest(TASKS_RESOURCE).queryParam("after", cursor).queryParam("limit", limit).request().buildGet().invoke();
+    }
+
+    private Response getTaskChanges(String sinceCursor) {
+        return client.targetRest(TASKS_RESOURCE).path("changes").queryParam("since", sinceCursor).request(MediaType.APPLICATION_JSON_TYPE).buildGet().invoke();
+    }
+
+    private Response getDueTasks(long dueAfter, long dueBefore, String cursor) {
+        return client.targetRest(TASKS_RESOURCE)
+                     .queryParam("dueAfter", dueAfter)
+                     .queryParam("dueBefore", dueBefore)
+                     .queryParam("after", cursor)
+                     .queryParam("limit", 2)
+                     .request()
+                     .buildGet()
+                     .invoke();
+    }
+
+    private Response getTasksWithIds(String ids) {
+        return client.targetRest(TASKS_RESOURCE).queryParam("ids", ids).request().buildGet().invoke();
+    }
+
+    private Response getTaskStats() {
+        return client.targetRest(TASKS_RESOURCE).path("stats").request().buildGet().invoke();
+    }
+
+    private Response searchTasks(String query) {
+        return client.targetRest(TASKS_RESOURCE).path("search").queryParam("q", query).request().buildGet().invoke();
+    }
+
+    private Response getTasksWithDescription(String description) {
+        return client.targetRest(TASKS_RESOURCE).queryParam("description", description).request().buildGet().invoke();
+    }
+
     private static void assertStatusCode(Response response, Response.Status expectedStatus) {
         assertThat(response.getStatus()).isEqualTo(expectedStatus.getStatusCode());
     }
@@ -320,6 +759,11 @@ public class TaskApplicationIntegrationTest {
         return client.targetRest(TASKS_RESOURCE).path(String.valueOf(taskId)).request().buildPut(Entity.entity(updatedTaskDto, MediaType.APPLICATION_JSON_TYPE)).invoke();
     }
 
+    private Response updateTask(long taskId, NewTaskRequestDto updatedTaskDto, String ifMatch) {
+        return client.targetRest(TASKS_RESOURCE).path(String.valueOf(taskId)).request().header(HttpHeaders.IF_MATCH, ifMatch)
+                     .buildPut(Entity.entity(updatedTaskDto, MediaType.APPLICATION_JSON_TYPE)).invoke();
+    }
+
     private Response deleteTask(long taskId) {
         return client.targetRest(TASKS_RESOURCE).path(String.valueOf(taskId)).request().buildDelete().invoke();
     }
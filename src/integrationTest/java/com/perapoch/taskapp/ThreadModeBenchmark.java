@@ -0,0 +1,129 @@
+package com.perapoch.taskapp;
+
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.perapoch.tasksapp.api.TaskDto;
+import com.perapoch.tasksapp.core.task.NewTaskRequest;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.client.Entity;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vyarus.dropwizard.guice.test.ClientSupport;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Every client creates a task and then reads and updates it as fast as it can. Run both subclasses with
+// ./gradlew integrationTest -PjavaVersion=21 -Pbenchmark and compare the throughput and latencies they log
+@Tag("benchmark")
+abstract class ThreadModeBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThreadModeBenchmark.class);
+    private static final int REQUESTS_PER_CLIENT = 40;
+    private static final String TASKS_RESOURCE = "tasks";
+
+    private ClientSupport client;
+
+    @Inject
+    private IntegrationTestHelper testHelper;
+
+    @BeforeEach
+    void init(ClientSupport client) {
+        this.client = client;
+        testHelper.clearAll();
+    }
+
+    protected abstract String threadMode();
+
+    @ParameterizedTest
+    @ValueSource(ints = {512, 1024, 2048})
+    void shouldServeConcurrentClients(int numClients) throws InterruptedException {
+        Timer latency = new Timer();
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch startLatch = new CountDownLatch(1);
+
+        // one thread per client, so every client really has a request in flight
+        ExecutorService clients = Executors.newFixedThreadPool(numClients);
+        for (int i = 0; i < numClients; ++i) {
+            int clientId = i;
+            clients.submit(() -> {
+                await(startLatch);
+                try {
+                    runClient(clientId, latency, failures);
+                } catch (RuntimeException e) {
+                    logger.warn("Client[{}] failed", clientId, e);
+                    failures.incrementAndGet();
+                }
+            });
+        }
+        long startNanos = System.nanoTime();
+        startLatch.countDown();
+        clients.shutdown();
+        assertThat(clients.awaitTermination(10, TimeUnit.MINUTES)).isTrue();
+        double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+        Snapshot snapshot = latency.getSnapshot();
+        logger.info("{} threads, {} clients: {} requests/s, p50 {} ms, p99 {} ms, max {} ms, {} failed",
+                    threadMode(), numClients,
+                    Math.round(latency.getCount() / elapsedSeconds),
+                    TimeUnit.NANOSECONDS.toMillis((long) snapshot.getMedian()),
+                    TimeUnit.NANOSECONDS.toMillis((long) snapshot.get99thPercentile()),
+                    TimeUnit.NANOSECONDS.toMillis(snapshot.getMax()),
+                    failures.get());
+        assertThat(failures).hasValue(0);
+    }
+
+    private void runClient(int clientId, Timer latency, AtomicInteger failures) {
+        TaskDto task;
+        try (Timer.Context ignored = latency.time()) {
+            task = createTask(new NewTaskRequest("Client[%d] task".formatted(clientId), 90L));
+        }
+        for (int n = 0; n < REQUESTS_PER_CLIENT; ++n) {
+            try (Timer.Context ignored = latency.time()) {
+                Response response = n % 4 == 0
+                                    ? updateTask(task.id(), new NewTaskRequest("Client[%d] task%d".formatted(clientId, n), 90L))
+                                    : getTask(task.id());
+                if (response.getStatus() != Response.Status.OK.getStatusCode()) {
+                    failures.incrementAndGet();
+                }
+                response.close();
+            }
+        }
+    }
+
+    private TaskDto createTask(NewTaskRequest newTaskRequest) {
+        return client.targetRest(TASKS_RESOURCE).request()
+                     .buildPost(Entity.entity(newTaskRequest, MediaType.APPLICATION_JSON_TYPE))
+                     .invoke()
+                     .readEntity(TaskDto.class);
+    }
+
+    private Response updateTask(long taskId, NewTaskRequest newTaskRequest) {
+        return client.targetRest(TASKS_RESOURCE).path(String.valueOf(taskId)).request()
+                     .buildPut(Entity.entity(newTaskRequest, MediaType.APPLICATION_JSON_TYPE))
+                     .invoke();
+    }
+
+    private Response getTask(long taskId) {
+        return client.targetRest(TASKS_RESOURCE).path(String.valueOf(taskId)).request().buildGet().invoke();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.perapoch.taskapp;
+
+import com.perapoch.taskapp.core.CoreModuleForTesting;
+import com.perapoch.taskapp.storage.StorageModuleForTesting;
+import com.perapoch.tasksapp.TaskApplication;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.junit.jupiter.api.condition.EnabledIf;
+import ru.vyarus.dropwizard.guice.hook.GuiceyConfigurationHook;
+import ru.vyarus.dropwizard.guice.test.EnableHook;
+import ru.vyarus.dropwizard.guice.test.jupiter.TestDropwizardApp;
+
+// skipped unless the tests run on Java 21 or later (-PjavaVersion=21)
+@EnabledIf("virtualThreadsSupported")
+@TestDropwizardApp(value = TaskApplication.class, config="src/integrationTest/resources/test-config.yaml", configOverride = "virtualThreads: true")
+public class VirtualThreadsBenchmark extends ThreadModeBenchmark {
+
+    @EnableHook
+    static GuiceyConfigurationHook HOOK = builder -> builder.modulesOverride(new StorageModuleForTesting(), new CoreModuleForTesting());
+
+    static boolean virtualThreadsSupported() {
+        return VirtualThreads.areSupported();
+    }
+
+    @Override
+    protected String threadMode() {
+        return "virtual";
+    }
+}
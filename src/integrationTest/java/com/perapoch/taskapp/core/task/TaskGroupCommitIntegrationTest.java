@@ -0,0 +1,82 @@
+package com.perapoch.taskapp.core.task;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.perapoch.taskapp.IntegrationTestHelper;
+import com.perapoch.taskapp.core.CoreModuleForTesting;
+import com.perapoch.taskapp.storage.StorageModuleForTesting;
+import com.perapoch.tasksapp.TaskApplication;
+import com.perapoch.tasksapp.core.task.NewTaskRequest;
+import com.perapoch.tasksapp.core.task.Task;
+import com.perapoch.tasksapp.core.task.TaskManager;
+import com.perapoch.tasksapp.storage.db.GroupCommitter;
+import io.dropwizard.core.setup.Environment;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.vyarus.dropwizard.guice.hook.GuiceyConfigurationHook;
+import ru.vyarus.dropwizard.guice.test.EnableHook;
+import ru.vyarus.dropwizard.guice.test.jupiter.TestGuiceyApp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// the unsharded tasks store with group commit turned on
+@TestGuiceyApp(value = TaskApplication.class, config="src/integrationTest/resources/test-config.yaml",
+               configOverride = "storage.groupCommit.enabled: true")
+public class TaskGroupCommitIntegrationTest {
+
+    @EnableHook
+    static GuiceyConfigurationHook HOOK = builder -> builder.modulesOverride(new StorageModuleForTesting(), new CoreModuleForTesting());
+
+    @Inject
+    private IntegrationTestHelper testHelper;
+    @Inject
+    private TaskManager taskManager;
+    @Inject
+    private Environment environment;
+
+    @BeforeEach
+    void setUp() {
+        testHelper.clearAll();
+    }
+
+    @Test
+    void createTask_shouldBatchConcurrentCreatesInGroupCommits() throws Exception {
+        // Given
+        Meter commits = environment.metrics().meter(MetricRegistry.name(GroupCommitter.class, "tasks", "commits"));
+        long commitsBefore = commits.getCount();
+        int creates = 64;
+        ExecutorService executor = Executors.newFixedThreadPool(creates);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        List<Future<Task>> results = new ArrayList<>();
+
+        // When
+        try {
+            for (int i = 0; i < creates; i++) {
+                String description = "task " + i;
+                results.add(executor.submit(() -> {
+                    startLatch.await();
+                    return taskManager.createTask(new NewTaskRequest(description, 100L));
+                }));
+            }
+            startLatch.countDown();
+            for (Future<Task> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Then
+        // every create is a single insert of the tasks store, so concurrent ones share a commit
+        assertThat(commits.getCount() - commitsBefore).isPositive().isLessThan(creates);
+        assertThat(taskManager.getTasks(0, 100)).hasSize(creates);
+    }
+}
@@ -0,0 +1,129 @@
+package com.perapoch.taskapp.core.task;
+
+import com.perapoch.taskapp.IntegrationTestHelper;
+import com.perapoch.taskapp.core.CoreModuleForTesting;
+import com.perapoch.taskapp.storage.StorageModuleForTesting;
+import com.perapoch.taskapp.storage.db.KeyValueStoreFactoryForTesting;
+import com.perapoch.tasksapp.TaskApplication;
+import com.perapoch.tasksapp.core.task.NewTaskRequest;
+import com.perapoch.tasksapp.core.task.Task;
+import com.perapoch.tasksapp.core.task.TaskManager;
+import jakarta.inject.Inject;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.HandleListener;
+import org.jdbi.v3.core.Handles;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.vyarus.dropwizard.guice.hook.GuiceyConfigurationHook;
+import ru.vyarus.dropwizard.guice.test.EnableHook;
+import ru.vyarus.dropwizard.guice.test.jupiter.TestGuiceyApp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@TestGuiceyApp(value = TaskApplication.class, config="src/integrationTest/resources/test-config-sharded.yaml")
+public class TaskManagerIntegrationTest {
+
+    // the threads a store call can hand its work to
+    private static final List<String> STORE_THREADS = List.of("group-commit-", "shard-io-");
+
+    @EnableHook
+    static GuiceyConfigurationHook HOOK = builder -> builder.modulesOverride(new StorageModuleForTesting(), new CoreModuleForTesting());
+
+    @Inject
+    private IntegrationTestHelper testHelper;
+    @Inject
+    private TaskManager taskManager;
+    @Inject
+    private Jdbi jdbi;
+    @Inject
+    private KeyValueStoreFactoryForTesting keyValueStoreFactory;
+
+    private final Map<Jdbi, AtomicInteger> openedHandles = new LinkedHashMap<>();
+    private final Map<Jdbi, HandleListener> listeners = new LinkedHashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        testHelper.clearAll();
+        List<Jdbi> databases = new ArrayList<>(keyValueStoreFactory.getShardJdbis());
+        databases.add(jdbi);
+        Thread caller = Thread.currentThread();
+        for (Jdbi database : databases) {
+            AtomicInteger opened = new AtomicInteger();
+            HandleListener listener = new HandleListener() {
+                @Override
+                public void handleCreated(Handle handle) {
+                    // the replica heartbeat and the background jobs open handles of their own meanwhile
+                    if (Thread.currentThread() == caller || STORE_THREADS.stream().anyMatch(Thread.currentThread().getName()::startsWith)) {
+                        opened.incrementAndGet();
+                    }
+                }
+            };
+            database.getConfig(Handles.class).addListener(listener);
+            openedHandles.put(database, opened);
+            listeners.put(database, listener);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        listeners.forEach((database, listener) -> database.getConfig(Handles.class).removeListener(listener));
+    }
+
+    @Test
+    void createTask_shouldUseOneHandlePerDatabase() {
+        // Given
+        // hands out the first id range, which the id generator writes with a handle of its own
+        taskManager.createTask(new NewTaskRequest("first", 100L));
+        resetCounts();
+
+        // When
+        // the description claim and the row, in one unit of work
+        taskManager.createTask(new NewTaskRequest("second", 100L));
+
+        // Then
+        assertAtMostOneHandlePerDatabase();
+    }
+
+    @Test
+    void updateTask_shouldUseOneHandlePerDatabase() {
+        // Given
+        Task task = taskManager.createTask(new NewTaskRequest("first", 100L));
+        resetCounts();
+
+        // When
+        taskManager.updateTask(task.id(), new NewTaskRequest("renamed", 200L, true));
+
+        // Then
+        assertAtMostOneHandlePerDatabase();
+    }
+
+    @Test
+    void deleteTask_shouldUseOneHandlePerDatabase() {
+        // Given
+        Task task = taskManager.createTask(new NewTaskRequest("first", 100L));
+        resetCounts();
+
+        // When
+        taskManager.deleteTask(task.id());
+
+        // Then
+        assertAtMostOneHandlePerDatabase();
+    }
+
+    private void resetCounts() {
+        openedHandles.values().forEach(opened -> opened.set(0));
+    }
+
+    private void assertAtMostOneHandlePerDatabase() {
+        assertThat(openedHandles.values()).allSatisfy(opened -> assertThat(opened.get()).isLessThanOrEqualTo(1));
+        assertThat(openedHandles.values().stream().mapToInt(AtomicInteger::get).sum()).isPositive();
+    }
+}
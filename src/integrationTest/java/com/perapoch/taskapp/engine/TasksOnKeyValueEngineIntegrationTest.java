@@ -0,0 +1,46 @@
+package com.perapoch.taskapp.engine;
+
+import jakarta.ws.rs.core.Response;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.vyarus.dropwizard.guice.test.ClientSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// the tasks store on an engine without range scans nor change feed: the application still starts, and only the
+// endpoints needing them answer 501
+abstract class TasksOnKeyValueEngineIntegrationTest {
+
+    private static final String TASKS_RESOURCE = "tasks";
+
+    private ClientSupport client;
+
+    @BeforeEach
+    void init(ClientSupport client) {
+        this.client = client;
+    }
+
+    @Test
+    void getTasks_shouldListTasks() {
+        // When
+        Response response = client.targetRest(TASKS_RESOURCE).request().buildGet().invoke();
+        // Then
+        assertThat(response.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());
+    }
+
+    @Test
+    void getTasksByDeadline_shouldBeNotImplemented() {
+        // When
+        Response response = client.targetRest(TASKS_RESOURCE).queryParam("orderBy", "endsAtMs").request().buildGet().invoke();
+        // Then
+        assertThat(response.getStatus()).isEqualTo(Response.Status.NOT_IMPLEMENTED.getStatusCode());
+    }
+
+    @Test
+    void getTaskChanges_shouldBeNotImplemented() {
+        // When
+        Response response = client.targetRest(TASKS_RESOURCE).path("changes").request().buildGet().invoke();
+        // Then
+        assertThat(response.getStatus()).isEqualTo(Response.Status.NOT_IMPLEMENTED.getStatusCode());
+    }
+}
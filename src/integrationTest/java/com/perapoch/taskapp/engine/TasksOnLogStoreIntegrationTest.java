@@ -0,0 +1,8 @@
+package com.perapoch.taskapp.engine;
+
+import com.perapoch.tasksapp.TaskApplication;
+import ru.vyarus.dropwizard.guice.test.jupiter.TestDropwizardApp;
+
+@TestDropwizardApp(value = TaskApplication.class, config = "src/integrationTest/resources/test-config-log-store-tasks.yaml")
+public class TasksOnLogStoreIntegrationTest extends TasksOnKeyValueEngineIntegrationTest {
+}
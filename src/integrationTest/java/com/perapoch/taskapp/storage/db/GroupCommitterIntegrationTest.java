@@ -0,0 +1,162 @@
+package com.perapoch.taskapp.storage.db;
+
+import com.codahale.metrics.MetricRegistry;
+import com.perapoch.tasksapp.storage.GroupCommitConfiguration;
+import com.perapoch.tasksapp.storage.db.DatabaseException;
+import com.perapoch.tasksapp.storage.db.GroupCommitter;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+public class GroupCommitterIntegrationTest {
+
+    private static final Duration MAX_WAIT = Duration.ofSeconds(5);
+
+    private GroupCommitter groupCommitter;
+
+    @BeforeEach
+    void setUp() {
+        Jdbi jdbi = Jdbi.create("jdbc:h2:mem:group_commit;DB_CLOSE_DELAY=-1;mode=MySQL");
+        groupCommitter = new GroupCommitter(jdbi, new GroupCommitConfiguration(), new MetricRegistry(), "test");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        groupCommitter.stop();
+    }
+
+    @Test
+    void submit_shouldRunTheWriteOnceStarted() {
+        // Given
+        groupCommitter.start();
+
+        // When
+        Integer result = assertTimeoutPreemptively(MAX_WAIT, () -> groupCommitter.submit(handle -> handle.createQuery("select 1")
+                                                                                                         .mapTo(Integer.class)
+                                                                                                         .one()));
+
+        // Then
+        assertThat(result).isEqualTo(1);
+    }
+
+    @Test
+    void submit_shouldFailInsteadOfWaitingWhenNotStarted() {
+        assertTimeoutPreemptively(MAX_WAIT, () -> assertThrows(DatabaseException.class, () -> groupCommitter.submit(handle -> 1)));
+    }
+
+    @Test
+    void submit_shouldFailInsteadOfWaitingOnceStopped() throws Exception {
+        // Given
+        groupCommitter.start();
+        groupCommitter.stop();
+
+        // When / Then
+        assertTimeoutPreemptively(MAX_WAIT, () -> assertThrows(DatabaseException.class, () -> groupCommitter.submit(handle -> 1)));
+    }
+
+    @Test
+    void submit_shouldFailAndNeverApplyAWriteTheCommitterDoesntTakeInTime() throws Exception {
+        // Given
+        GroupCommitConfiguration configuration = new GroupCommitConfiguration();
+        configuration.setTimeout(io.dropwizard.util.Duration.milliseconds(300));
+        Jdbi jdbi = Jdbi.create("jdbc:h2:mem:group_commit;DB_CLOSE_DELAY=-1;mode=MySQL");
+        groupCommitter = new GroupCommitter(jdbi, configuration, new MetricRegistry(), "test");
+        groupCommitter.start();
+        CountDownLatch blocking = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        AtomicBoolean applied = new AtomicBoolean();
+
+        try {
+            // the committer is busy with a write that doesn't end
+            writer.submit(() -> groupCommitter.submit(handle -> {
+                blocking.countDown();
+                awaitQuietly(release);
+                return 1;
+            }));
+            assertThat(blocking.await(MAX_WAIT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+
+            // When / Then
+            assertTimeoutPreemptively(MAX_WAIT, () -> assertThrows(DatabaseException.class, () -> groupCommitter.submit(handle -> {
+                applied.set(true);
+                return 2;
+            })));
+        } finally {
+            release.countDown();
+            writer.shutdown();
+        }
+        assertThat(writer.awaitTermination(MAX_WAIT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+        // one more write to make sure the committer went past the abandoned one
+        Integer next = groupCommitter.submit(handle -> 3);
+        assertThat(next).isEqualTo(3);
+        assertThat(applied).isFalse();
+    }
+
+    @Test
+    void submit_shouldFailTheWaitingWritesWhenTheCommitterDies() {
+        // Given
+        groupCommitter.start();
+
+        // When / Then
+        assertTimeoutPreemptively(MAX_WAIT, () -> assertThrows(DatabaseException.class, () -> groupCommitter.submit(handle -> {
+            throw new AssertionError("committer thread killed");
+        })));
+        assertTimeoutPreemptively(MAX_WAIT, () -> assertThrows(DatabaseException.class, () -> groupCommitter.submit(handle -> 1)));
+    }
+
+    @Test
+    void stop_shouldLetTheWriteInProgressCommitInsteadOfInterruptingIt() throws Exception {
+        // Given
+        groupCommitter.start();
+        CountDownLatch blocking = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> inProgress = writer.submit(() -> groupCommitter.submit(handle -> {
+                blocking.countDown();
+                awaitQuietly(release);
+                return handle.createQuery("select 1").mapTo(Integer.class).one();
+            }));
+            assertThat(blocking.await(MAX_WAIT.toMillis(), TimeUnit.MILLISECONDS)).isTrue();
+
+            // When
+            CompletableFuture<Void> stopped = CompletableFuture.runAsync(() -> {
+                try {
+                    groupCommitter.stop();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            release.countDown();
+
+            // Then
+            assertThat(inProgress.get(MAX_WAIT.toMillis(), TimeUnit.MILLISECONDS)).isEqualTo(1);
+            assertThat(stopped).succeedsWithin(MAX_WAIT);
+        } finally {
+            release.countDown();
+            writer.shutdownNow();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,20 +1,28 @@
 package com.perapoch.taskapp.storage.db;
 
+import com.perapoch.tasksapp.TaskAppConfiguration;
 import com.perapoch.tasksapp.core.json.JsonConverter;
 import com.perapoch.tasksapp.storage.db.KeyValueStoreFactoryImpl;
+import io.dropwizard.core.setup.Environment;
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 import org.jdbi.v3.core.Jdbi;
 
+import java.util.List;
+
 @Singleton
 public class KeyValueStoreFactoryForTesting extends KeyValueStoreFactoryImpl {
 
     @Inject
-    public KeyValueStoreFactoryForTesting(Jdbi jdbi, JsonConverter jsonConverter) {
-        super(jdbi, jsonConverter);
+    public KeyValueStoreFactoryForTesting(Jdbi jdbi, JsonConverter jsonConverter, Environment environment, TaskAppConfiguration configuration) {
+        super(jdbi, jsonConverter, environment, configuration);
     }
 
     public void cleanExistingStores() {
         existingStores.clear();
     }
+
+    public List<Jdbi> getShardJdbis() {
+        return shardJdbis;
+    }
 }
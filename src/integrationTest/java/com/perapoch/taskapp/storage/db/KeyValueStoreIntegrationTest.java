@@ -3,41 +3,91 @@ package com.perapoch.taskapp.storage.db;
 import com.perapoch.taskapp.IntegrationTestHelper;
 import com.perapoch.taskapp.core.CoreModuleForTesting;
 import com.perapoch.taskapp.storage.StorageModuleForTesting;
+import com.perapoch.tasksapp.TaskAppConfiguration;
 import com.perapoch.tasksapp.TaskApplication;
+import com.perapoch.tasksapp.storage.db.BatchUpdateResult;
+import com.perapoch.tasksapp.storage.db.Change;
+import com.perapoch.tasksapp.storage.db.ChangeBatch;
+import com.perapoch.tasksapp.storage.db.ChangeFeed;
+import com.perapoch.tasksapp.storage.db.ChangeType;
+import com.perapoch.tasksapp.storage.db.DatabaseExecutor;
+import com.perapoch.tasksapp.storage.db.EntityAlreadyExistsException;
+import com.perapoch.tasksapp.storage.db.IndexColumn;
+import com.perapoch.tasksapp.storage.db.IndexPosition;
+import com.perapoch.tasksapp.storage.db.IndexRangeScan;
 import com.perapoch.tasksapp.storage.db.KeyValueStore;
 import com.perapoch.tasksapp.storage.db.KeyValueStoreFactory;
+import com.perapoch.tasksapp.storage.db.StoreOptions;
+import com.perapoch.tasksapp.storage.db.StringUniqueIndexColumn;
+import com.perapoch.tasksapp.storage.db.UnsupportedCapabilityException;
+import com.perapoch.tasksapp.storage.db.UnitOfWork;
+import com.perapoch.tasksapp.storage.db.VersionConflictException;
+import com.perapoch.tasksapp.storage.db.Versioned;
+import com.perapoch.tasksapp.storage.db.log.LogStructuredKeyValueStore;
 import jakarta.inject.Inject;
+import org.jdbi.v3.core.Jdbi;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import ru.vyarus.dropwizard.guice.hook.GuiceyConfigurationHook;
 import ru.vyarus.dropwizard.guice.test.EnableHook;
 import ru.vyarus.dropwizard.guice.test.jupiter.TestGuiceyApp;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static java.util.Map.entry;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 
 
-@TestGuiceyApp(value = TaskApplication.class, config="src/integrationTest/resources/test-config.yaml")
+// on the sharded config, so that the sharded and group commit stores can be created next to the plain ones
+@TestGuiceyApp(value = TaskApplication.class, config="src/integrationTest/resources/test-config-sharded.yaml")
 public class KeyValueStoreIntegrationTest {
 
+    // listed in the logStore stores of the test configuration
+    private static final String LOG_STORE = "log_store_test";
+
     @EnableHook
     static GuiceyConfigurationHook HOOK = builder -> builder.modulesOverride(new StorageModuleForTesting(), new CoreModuleForTesting());
 
     @Inject
     private KeyValueStoreFactory keyValueStoreFactory;
     @Inject
+    private KeyValueStoreFactoryForTesting keyValueStoreFactoryForTesting;
+    @Inject
     private IntegrationTestHelper testHelper;
+    @Inject
+    private Jdbi jdbi;
+    @Inject
+    private TaskAppConfiguration configuration;
+    @Inject
+    private UnitOfWork unitOfWork;
+    @Inject
+    private DatabaseExecutor databaseExecutor;
     private KeyValueStore<Long, TestClass> store;
 
     @BeforeEach
@@ -134,6 +184,620 @@ public class KeyValueStoreIntegrationTest {
         assertThat(result).containsExactly(tc1, tc2, tc4);
     }
 
+    @Test
+    void stream_shouldWalkAllEntriesInKeyOrder() {
+        TestClass tc1 = createTestClass("first", 1);
+        TestClass tc2 = createTestClass("second", 2);
+        TestClass tc4 = createTestClass("forth", 4);
+
+        store.update(4L, old -> tc4);
+        store.update(1L, old -> tc1);
+        store.update(2L, old -> tc2);
+
+        List<TestClass> result;
+        try (Stream<TestClass> stream = store.stream(2)) {
+            result = stream.collect(Collectors.toList());
+        }
+        assertThat(result).containsExactly(tc1, tc2, tc4);
+    }
+
+    @Test
+    void updateAll_shouldCreateModifyAndDeleteInOneBatch() {
+        TestClass tc1 = createTestClass("first", 1);
+        TestClass tc2 = createTestClass("second", 2);
+        store.update(1L, old -> tc1);
+        store.update(2L, old -> tc2);
+
+        Map<Long, UnaryOperator<TestClass>> operations = new LinkedHashMap<>();
+        operations.put(1L, old -> createTestClass(old.field2 + "-modified", old.field1));
+        operations.put(2L, old -> null);
+        operations.put(3L, old -> createTestClass("third", 3));
+        BatchUpdateResult<Long, TestClass> result = store.updateAll(operations);
+
+        assertFalse(result.hasFailures());
+        assertThat(result.updated()).containsOnly(entry(1L, createTestClass("first-modified", 1)), entry(3L, createTestClass("third", 3)));
+        assertThat(result.deleted()).containsExactly(2L);
+        assertThat(store.getByIds(List.of(1L, 2L, 3L))).containsOnly(entry(1L, createTestClass("first-modified", 1)), entry(3L, createTestClass("third", 3)));
+    }
+
+    @Test
+    void updateAll_shouldReportFailingKeysAndApplyTheRest() {
+        Map<Long, UnaryOperator<TestClass>> operations = new LinkedHashMap<>();
+        operations.put(1L, old -> createTestClass("first", 1));
+        operations.put(2L, old -> {
+            throw new IllegalStateException("boom");
+        });
+        BatchUpdateResult<Long, TestClass> result = store.updateAll(operations);
+
+        assertThat(result.updated()).containsOnlyKeys(1L);
+        assertThat(result.failures()).containsOnlyKeys(2L);
+        assertThat(store.getById(1L)).contains(createTestClass("first", 1));
+        assertThat(store.getById(2L)).isEmpty();
+    }
+
+    @Test
+    void updateAll_shouldRejectUniqueIndexConflicts() {
+        KeyValueStore<Long, TestClass> indexedStore = keyValueStoreFactory.createLongKeyValueStore("mIndexedStore", TestClass.class,
+                                                                                                   StringUniqueIndexColumn.of("field2", tc -> tc.field2));
+        indexedStore.update(1L, old -> createTestClass("taken", 1));
+
+        Map<Long, UnaryOperator<TestClass>> operations = new LinkedHashMap<>();
+        operations.put(2L, old -> createTestClass("taken", 2));
+        operations.put(3L, old -> createTestClass("free", 3));
+        operations.put(4L, old -> createTestClass("free", 4));
+        BatchUpdateResult<Long, TestClass> result = indexedStore.updateAll(operations);
+
+        assertThat(result.updated()).containsOnlyKeys(3L);
+        assertThat(result.failures()).containsOnlyKeys(2L, 4L);
+        assertThat(result.failures().get(2L)).isInstanceOf(EntityAlreadyExistsException.class);
+        assertThat(indexedStore.getByIds(List.of(1L, 2L, 3L, 4L))).containsOnlyKeys(1L, 3L);
+    }
+
+    @Test
+    void update_withGroupCommitShouldIsolateEachCallerResult() throws Exception {
+        KeyValueStore<Long, TestClass> groupStore = keyValueStoreFactory.createLongKeyValueStore("mGroupStore", TestClass.class,
+                                                                                                 StoreOptions.<TestClass>defaults().withGroupCommit());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<TestClass>> results = new ArrayList<>();
+            for (int i = 1; i <= 32; i++) {
+                int id = i;
+                results.add(executor.submit(() -> groupStore.update((long) id, old -> {
+                    if (id == 13) {
+                        throw new IllegalStateException("unlucky");
+                    }
+                    return createTestClass("item" + id, id);
+                })));
+            }
+            for (int i = 1; i <= 32; i++) {
+                Future<TestClass> result = results.get(i - 1);
+                if (i == 13) {
+                    Exception e = assertThrows(Exception.class, result::get);
+                    assertThat(e).hasCauseInstanceOf(IllegalStateException.class);
+                } else {
+                    assertEquals(createTestClass("item" + i, i), result.get());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(groupStore.getAll(0, 100)).hasSize(31);
+        assertThat(groupStore.getById(13L)).isEmpty();
+    }
+
+    @Test
+    void updateVersioned_shouldBumpTheVersionOnEveryWrite() {
+        Versioned<TestClass> created = store.updateVersioned(1L, null, Versioned.ANY_VERSION, old -> createTestClass("first", 1));
+        Versioned<TestClass> updated = store.updateVersioned(1L, null, created.version(), old -> createTestClass("first", 2));
+
+        assertEquals(1L, created.version());
+        assertEquals(2L, updated.version());
+        assertThat(store.getVersionedById(1L)).contains(Versioned.of(createTestClass("first", 2), 2L));
+    }
+
+    @Test
+    void insert_shouldWriteTheFirstVersionAndRejectTakenKeysAndIndexValues() {
+        KeyValueStore<Long, TestClass> indexedStore = keyValueStoreFactory.createLongKeyValueStore("mInsertStore", TestClass.class,
+                                                                                                   StoreOptions.<TestClass>defaults()
+                                                                                                               .withUniqueIndex(StringUniqueIndexColumn.of("field2", tc -> tc.field2)));
+
+        assertEquals(Versioned.of(createTestClass("first", 1), 1L), indexedStore.insert(1L, createTestClass("first", 1)));
+        assertThrows(EntityAlreadyExistsException.class, () -> indexedStore.insert(1L, createTestClass("other", 1)));
+        assertThrows(EntityAlreadyExistsException.class, () -> indexedStore.insert(2L, createTestClass("first", 2)));
+        assertThat(indexedStore.getVersionedById(1L)).contains(Versioned.of(createTestClass("first", 1), 1L));
+        assertThat(indexedStore.getById(2L)).isEmpty();
+    }
+
+        @Test
+    void updateVersioned_shouldRejectStaleVersions() {
+        store.update(1L, old -> createTestClass("first", 1));
+        store.update(1L, old -> createTestClass("first", 2));
+
+        assertThrows(VersionConflictException.class, () -> store.updateVersioned(1L, null, 1L, old -> createTestClass("first", 3)));
+        assertThrows(VersionConflictException.class, () -> store.updateVersioned(2L, null, 1L, old -> createTestClass("second", 1)));
+        assertThat(store.getById(1L)).contains(createTestClass("first", 2));
+    }
+
+    @Test
+    void unitOfWork_shouldCommitTheWritesOfEveryStoreTogether() {
+        KeyValueStore<Long, TestClass> changesStore = keyValueStoreFactory.createLongKeyValueStore("mChangesStore", TestClass.class,
+                                                                                                   StoreOptions.<TestClass>defaults().withChangeFeed());
+        String cursor = ChangeFeed.of(changesStore).latestChangeCursor();
+
+        unitOfWork.execute(() -> {
+            store.update(1L, old -> createTestClass("first", 1));
+            changesStore.update(2L, old -> createTestClass("second", 2));
+            changesStore.updateAll(Map.of(3L, old -> createTestClass("third", 3)));
+        });
+
+        assertThat(store.getById(1L)).contains(createTestClass("first", 1));
+        assertThat(changesStore.getByIds(List.of(2L, 3L))).containsOnlyKeys(2L, 3L);
+        // the change sequence numbers are released with the commit, not with each write
+        assertThat(ChangeFeed.of(changesStore).changesSince(cursor, 10, 0).changes()).extracting(Change::key).containsExactly(2L, 3L);
+    }
+
+    @Test
+    void unitOfWork_shouldRollBackTheWritesOfEveryStoreTogether() {
+        KeyValueStore<Long, TestClass> otherStore = keyValueStoreFactory.createLongKeyValueStore("mOtherStore", TestClass.class,
+                                                                                                 StoreOptions.<TestClass>defaults().withOptimisticLocking());
+        KeyValueStore<Long, TestClass> autonomousStore = keyValueStoreFactory.createLongKeyValueStore("mAutonomousStore", TestClass.class,
+                                                                                                      StoreOptions.<TestClass>defaults().withAutonomousWrites());
+        store.update(1L, old -> createTestClass("first", 1));
+
+        assertThrows(VersionConflictException.class, () -> unitOfWork.execute(() -> {
+            store.update(1L, old -> createTestClass("first", 2));
+            otherStore.update(1L, old -> createTestClass("other", 1));
+            autonomousStore.update(1L, old -> createTestClass("autonomous", 1));
+            // the work reads its own uncommitted writes
+            assertThat(store.getById(1L)).contains(createTestClass("first", 2));
+            store.updateVersioned(1L, null, 1L, old -> createTestClass("first", 3));
+        }));
+
+        assertThat(store.getById(1L)).contains(createTestClass("first", 1));
+        assertThat(otherStore.getById(1L)).isEmpty();
+        assertThat(autonomousStore.getById(1L)).contains(createTestClass("autonomous", 1));
+    }
+
+    @Test
+    void databaseExecutor_shouldCompleteStoreCallsOffTheCallingThread() {
+        KeyValueStore<Long, TestClass> optimisticStore = keyValueStoreFactory.createLongKeyValueStore("mAsyncStore", TestClass.class,
+                                                                                                      StoreOptions.<TestClass>defaults().withOptimisticLocking());
+
+        List<CompletableFuture<TestClass>> writes = new ArrayList<>();
+        for (long key = 1; key <= 10; key++) {
+            long value = key;
+            writes.add(databaseExecutor.submit(() -> optimisticStore.update(value, old -> createTestClass("async", (int) value))));
+        }
+        CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new)).join();
+
+        assertThat(databaseExecutor.submit(() -> optimisticStore.getAll(0, 100)).join()).hasSize(10);
+        assertThat(databaseExecutor.submit(() -> optimisticStore.getVersionedById(3L)).join()).contains(Versioned.of(createTestClass("async", 3), 1L));
+        CompletableFuture<Versioned<TestClass>> staleWrite = databaseExecutor.submit(() -> optimisticStore.updateVersioned(3L, null, 5L, old -> createTestClass("stale", 3)));
+        CompletionException error = assertThrows(CompletionException.class, staleWrite::join);
+        assertThat(error.getCause()).isInstanceOf(VersionConflictException.class);
+    }
+
+    @Test
+    void update_withOptimisticLockingShouldNotLoseConcurrentWrites() throws Exception {
+        KeyValueStore<Long, TestClass> optimisticStore = keyValueStoreFactory.createLongKeyValueStore("mOptimisticStore", TestClass.class,
+                                                                                                      StoreOptions.<TestClass>defaults().withOptimisticLocking());
+        optimisticStore.update(1L, old -> createTestClass("counter", 0));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<TestClass>> increments = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                increments.add(executor.submit(() -> optimisticStore.update(1L, old -> createTestClass("counter", old.field1 + 1))));
+            }
+            for (Future<TestClass> increment : increments) {
+                increment.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(optimisticStore.getVersionedById(1L)).contains(Versioned.of(createTestClass("counter", 20), 21L));
+    }
+
+    @Test
+    void getByIndex_shouldReturnMatchingEntriesInKeyOrder() {
+        KeyValueStore<Long, TestClass> indexedStore = keyValueStoreFactory.createLongKeyValueStore("mSecondaryIndexStore", TestClass.class,
+                                                                                                   StoreOptions.<TestClass>defaults()
+                                                                                                               .withIndex(IndexColumn.nonUnique("field1", Integer.class, tc -> tc.field1)));
+        indexedStore.update(3L, old -> createTestClass("third", 7));
+        indexedStore.update(1L, old -> createTestClass("first", 7));
+        indexedStore.update(2L, old -> createTestClass("second", 8));
+
+        assertThat(indexedStore.getByIndex("field1", 7, 10)).containsExactly(createTestClass("first", 7), createTestClass("third", 7));
+        assertThat(indexedStore.getByIndex("field1", 7, 1)).containsExactly(createTestClass("first", 7));
+        assertThat(indexedStore.getByIndex("field1", 9, 10)).isEmpty();
+        assertThrows(IllegalArgumentException.class, () -> indexedStore.getByIndex("unknown", 7, 10));
+    }
+
+    @Test
+    void getByIndex_withIndexCacheShouldSeeCommittedWrites() {
+        KeyValueStore<Long, TestClass> indexedStore = keyValueStoreFactory.createLongKeyValueStore("mCachedIndexStore", TestClass.class,
+                                                                                                   StoreOptions.<TestClass>defaults()
+                                                                                                               .withIndex(IndexColumn.nonUnique("field1", Integer.class, tc -> tc.field1))
+                                                                                                               .withIndexCache("field1", 100));
+        indexedStore.update(1L, old -> createTestClass("first", 7));
+        assertThat(indexedStore.getByIndex("field1", 7, 10)).containsExactly(createTestClass("first", 7));
+
+        indexedStore.update(2L, old -> createTestClass("second", 7));
+        indexedStore.update(1L, old -> createTestClass("first", 8));
+
+        assertThat(indexedStore.getByIndex("field1", 7, 10)).containsExactly(createTestClass("second", 7));
+        assertThat(indexedStore.getByIndex("field1", 8, 10)).containsExactly(createTestClass("first", 8));
+    }
+
+    @Test
+    void getByIndex_shouldBackfillIndexesAddedToAnExistingStore() {
+        KeyValueStore<Long, TestClass> plainStore = keyValueStoreFactory.createLongKeyValueStore("mBackfilledStore", TestClass.class);
+        plainStore.update(1L, old -> createTestClass("first", 7));
+        plainStore.update(2L, old -> createTestClass("second", 8));
+        testHelper.clearCreatedStores();
+
+        KeyValueStore<Long, TestClass> indexedStore = keyValueStoreFactory.createLongKeyValueStore("mBackfilledStore", TestClass.class,
+                                                                                                   StoreOptions.<TestClass>defaults()
+                                                                                                               .withIndex(IndexColumn.nonUnique("field1", Integer.class, tc -> tc.field1)));
+
+        assertThat(indexedStore.getByIndex("field1", 7, 10)).containsExactly(createTestClass("first", 7));
+        assertThat(indexedStore.getByIndex("field1", 8, 10)).containsExactly(createTestClass("second", 8));
+    }
+
+    @Test
+    void getByIndexRange_shouldPageThroughTheRangeInIndexOrder() {
+        KeyValueStore<Long, TestClass> indexedStore = keyValueStoreFactory.createLongKeyValueStore("mRangeIndexStore", TestClass.class,
+                                                                                                   StoreOptions.<TestClass>defaults()
+                                                                                                               .withIndex(IndexColumn.nonUnique("field1", Integer.class, tc -> tc.field1)));
+        indexedStore.update(1L, old -> createTestClass("first", 30));
+        indexedStore.update(2L, old -> createTestClass("second", 10));
+        indexedStore.update(3L, old -> createTestClass("third", 20));
+        indexedStore.update(4L, old -> createTestClass("fourth", 20));
+        indexedStore.update(5L, old -> createTestClass("fifth", 40));
+
+        assertThat(IndexRangeScan.of(indexedStore).getByIndexRange("field1", 20, 40, null, 10)).extracting(tc -> tc.field2).containsExactly("third", "fourth", "first");
+        assertThat(IndexRangeScan.of(indexedStore).getByIndexRange("field1", null, 20, null, 10)).extracting(tc -> tc.field2).containsExactly("second");
+        assertThat(IndexRangeScan.of(indexedStore).getByIndexRange("field1", 20, null, IndexPosition.of(20, 3L), 2)).extracting(tc -> tc.field2).containsExactly("fourth", "first");
+        assertThat(IndexRangeScan.of(indexedStore).getByIndexRange("field1", null, null, null, 2)).extracting(tc -> tc.field2).containsExactly("second", "third");
+        assertThrows(IllegalArgumentException.class, () -> IndexRangeScan.of(indexedStore).getByIndexRange("unknown", null, null, null, 10));
+    }
+
+    @Test
+    void sharded_shouldMergeIndexRangesInIndexOrder() {
+        KeyValueStore<Long, TestClass> shardedStore = keyValueStoreFactory.createLongKeyValueStore("mShardedRangeIndexStore", TestClass.class,
+                                                                                                   StoreOptions.<TestClass>defaults()
+                                                                                                               .withIndex(IndexColumn.nonUnique("field1", Integer.class, tc -> tc.field1))
+                                                                                                               .withSharding());
+        for (long id = 1; id <= 6; id++) {
+            int field1 = (int) (100 - id);
+            shardedStore.update(id, old -> createTestClass("item" + field1, field1));
+        }
+
+        assertThat(IndexRangeScan.of(shardedStore).getByIndexRange("field1", 95, 99, null, 3)).extracting(tc -> tc.field1).containsExactly(95, 96, 97);
+        assertThat(IndexRangeScan.of(shardedStore).getByIndexRange("field1", 95, 99, IndexPosition.of(97, 3L), 3)).extracting(tc -> tc.field1).containsExactly(98);
+    }
+
+    @Test
+    void sharded_shouldSpreadKeysAcrossShardsAndMergeReadsInKeyOrder() {
+        KeyValueStore<Long, TestClass> shardedStore = keyValueStoreFactory.createLongKeyValueStore("mShardedStore", TestClass.class,
+                                                                                                   StoreOptions.<TestClass>defaults().withSharding());
+        for (long id = 10; id >= 1; id--) {
+            int field1 = (int) id;
+            shardedStore.update(id, old -> createTestClass("item" + field1, field1));
+        }
+
+        List<Integer> rowsPerShard = keyValueStoreFactoryForTesting.getShardJdbis().stream()
+                                                                   .map(shardJdbi -> shardJdbi.withHandle(handle -> handle.createQuery("select count(*) from mShardedStore")
+                                                                                                                          .mapTo(Integer.class)
+                                                                                                                          .one()))
+                                                                   .collect(Collectors.toList());
+        assertThat(rowsPerShard).hasSize(2).allMatch(rows -> rows == 5);
+        assertThat(shardedStore.getAll(3, 4)).extracting(tc -> tc.field1).containsExactly(4, 5, 6, 7);
+        assertThat(shardedStore.getAllAfter(8L, 5)).extracting(tc -> tc.field1).containsExactly(9, 10);
+        assertThat(shardedStore.getByIds(List.of(2L, 3L, 11L))).containsOnlyKeys(2L, 3L);
+        try (Stream<TestClass> all = shardedStore.stream(2)) {
+            assertThat(all.map(tc -> tc.field1)).containsExactly(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+        }
+    }
+
+    @Test
+    void sharded_shouldEnforceTheUniqueIndexAcrossShards() {
+        KeyValueStore<Long, TestClass> shardedStore = keyValueStoreFactory.createLongKeyValueStore("mShardedIndexedStore", TestClass.class,
+                                                                                                   StoreOptions.<TestClass>defaults()
+                                                                                                               .withUniqueIndex(StringUniqueIndexColumn.of("field2", tc -> tc.field2))
+                                                                                                               .withSharding());
+        shardedStore.update(1L, old -> createTestClass("taken", 1));
+
+        // keys 1 and 2 live in different shards
+        assertThrows(EntityAlreadyExistsException.class, () -> shardedStore.update(2L, old -> createTestClass("taken", 2)));
+        AtomicReference<TestClass> seenByOperation = new AtomicReference<>();
+        shardedStore.update(2L, "taken", old -> {
+            seenByOperation.set(old);
+            return null;
+        });
+        assertThat(seenByOperation.get()).isEqualTo(createTestClass("taken", 1));
+        assertThat(shardedStore.getById(2L)).isEmpty();
+
+        shardedStore.update(1L, old -> createTestClass("released", 1));
+        shardedStore.update(2L, old -> createTestClass("taken", 2));
+        assertThat(shardedStore.getByIndex("field2", "taken", 10)).containsExactly(createTestClass("taken", 2));
+    }
+
+    @Test
+    void sharded_withGroupCommitShouldWriteEveryClaimWithItsRow() throws Exception {
+        KeyValueStore<Long, TestClass> shardedStore = keyValueStoreFactory.createLongKeyValueStore("mShardedGroupStore", TestClass.class,
+                                                                                                   StoreOptions.<TestClass>defaults()
+                                                                                                               .withUniqueIndex(StringUniqueIndexColumn.of("field2", tc -> tc.field2))
+                                                                                                               .withGroupCommit()
+                                                                                                               .withSharding());
+        ExecutorService writers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<TestClass>> writes = new ArrayList<>();
+            for (long key = 1; key <= 20; key++) {
+                long writtenKey = key;
+                writes.add(writers.submit(() -> shardedStore.update(writtenKey, old -> createTestClass("value" + writtenKey, (int) writtenKey))));
+            }
+            for (Future<TestClass> write : writes) {
+                write.get();
+            }
+        } finally {
+            writers.shutdownNow();
+        }
+
+        assertThrows(EntityAlreadyExistsException.class, () -> shardedStore.update(21L, old -> createTestClass("value1", 21)));
+        assertThat(shardedStore.getById(21L)).isEmpty();
+        shardedStore.update(1L, old -> null);
+        shardedStore.update(21L, old -> createTestClass("value1", 21));
+        assertThat(shardedStore.getByIndex("field2", "value1", 10)).containsExactly(createTestClass("value1", 21));
+        assertThat(shardedStore.getAll(0, 100)).hasSize(20);
+    }
+
+    @Test
+    void sharded_shouldRollTheClaimBackWhenTheRowCantBeWritten() {
+        // field1 is unique within a shard only, so the row write fails there once the field2 claim has been written
+        KeyValueStore<Long, TestClass> shardedStore = keyValueStoreFactory.createLongKeyValueStore("mShardedClaimStore", TestClass.class,
+                                                                                                   StoreOptions.<TestClass>defaults()
+                                                                                                               .withUniqueIndex(StringUniqueIndexColumn.of("field2", tc -> tc.field2))
+                                                                                                               .withIndex(IndexColumn.unique("field1", Integer.class, tc -> tc.field1))
+                                                                                                               .withSharding());
+        shardedStore.insert(1L, createTestClass("first", 7));
+
+        // keys 1 and 3 live in the same shard
+        assertThrows(EntityAlreadyExistsException.class, () -> shardedStore.insert(3L, createTestClass("second", 7)));
+
+        // the claim of "second" went with the failed row, so another key takes it right away instead of after CLAIM_TIMEOUT_MS
+        shardedStore.insert(2L, createTestClass("second", 8));
+        assertThat(shardedStore.getByIndex("field2", "second", 10)).containsExactly(createTestClass("second", 8));
+        assertThat(shardedStore.getById(3L)).isEmpty();
+    }
+
+    @Test
+    void changesSince_shouldReturnTheChangesAfterTheCursorInOrder() {
+        KeyValueStore<Long, TestClass> changesStore = keyValueStoreFactory.createLongKeyValueStore("mChangesStore", TestClass.class,
+                                                                                                   StoreOptions.<TestClass>defaults().withChangeFeed());
+        changesStore.update(1L, old -> createTestClass("first", 1));
+        String cursor = ChangeFeed.of(changesStore).latestChangeCursor();
+        changesStore.update(2L, old -> createTestClass("second", 2));
+        changesStore.update(1L, old -> null);
+        changesStore.updateAll(Map.of(3L, old -> createTestClass("third", 3)));
+        // deleting a missing key changes nothing
+        changesStore.update(4L, old -> null);
+
+        ChangeBatch<Long> changes = ChangeFeed.of(changesStore).changesSince(cursor, 2, 0);
+        assertThat(changes.changes()).extracting(Change::key, Change::type)
+                                     .containsExactly(tuple(2L, ChangeType.UPSERT), tuple(1L, ChangeType.DELETE));
+        assertThat(changes.gap()).isFalse();
+        ChangeBatch<Long> nextChanges = ChangeFeed.of(changesStore).changesSince(changes.cursor(), 2, 0);
+        assertThat(nextChanges.changes()).extracting(Change::key, Change::type).containsExactly(tuple(3L, ChangeType.UPSERT));
+        assertThat(ChangeFeed.of(changesStore).changesSince(nextChanges.cursor(), 2, 0).changes()).isEmpty();
+        assertThat(nextChanges.cursor()).isEqualTo(ChangeFeed.of(changesStore).latestChangeCursor());
+        assertThrows(IllegalArgumentException.class, () -> ChangeFeed.of(changesStore).changesSince("not-a-cursor", 2, 0));
+    }
+
+    @Test
+    void changesSince_shouldMergeTheChangesOfEveryShard() {
+        KeyValueStore<Long, TestClass> shardedStore = keyValueStoreFactory.createLongKeyValueStore("mShardedChangesStore", TestClass.class,
+                                                                                                   StoreOptions.<TestClass>defaults()
+                                                                                                               .withSharding()
+                                                                                                               .withChangeFeed());
+        String cursor = ChangeFeed.of(shardedStore).latestChangeCursor();
+        for (long id = 1; id <= 6; id++) {
+            int field1 = (int) id;
+            shardedStore.update(id, old -> createTestClass("item" + field1, field1));
+        }
+
+        List<Long> changedKeys = new ArrayList<>();
+        ChangeBatch<Long> changes;
+        do {
+            changes = ChangeFeed.of(shardedStore).changesSince(cursor, 4, 0);
+            changes.changes().forEach(change -> changedKeys.add(change.key()));
+            cursor = changes.cursor();
+        } while (!changes.changes().isEmpty());
+
+        // keys 1 to 6 are spread over both shards
+        assertThat(changedKeys).containsExactlyInAnyOrder(1L, 2L, 3L, 4L, 5L, 6L);
+        assertThat(cursor).isEqualTo(ChangeFeed.of(shardedStore).latestChangeCursor());
+        assertThrows(IllegalArgumentException.class, () -> ChangeFeed.of(shardedStore).changesSince("1", 4, 0));
+    }
+
+    @Test
+    void changesSince_shouldWaitForTheNextChange() throws Exception {
+        KeyValueStore<Long, TestClass> changesStore = keyValueStoreFactory.createLongKeyValueStore("mChangesStore", TestClass.class,
+                                                                                                   StoreOptions.<TestClass>defaults().withChangeFeed());
+        String cursor = ChangeFeed.of(changesStore).latestChangeCursor();
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> write = writer.submit(() -> {
+                Thread.sleep(200);
+                return changesStore.update(7L, old -> createTestClass("late", 7));
+            });
+
+            ChangeBatch<Long> changes = ChangeFeed.of(changesStore).changesSince(cursor, 10, 10_000);
+
+            assertThat(changes.changes()).extracting(Change::key).containsExactly(7L);
+            write.get();
+        } finally {
+            writer.shutdownNow();
+        }
+    }
+
+    @Test
+    void nextChange_shouldCompleteOnTheNextWriteOfAnyShard() {
+        KeyValueStore<Long, TestClass> shardedStore = keyValueStoreFactory.createLongKeyValueStore("mShardedChangesStore", TestClass.class,
+                                                                                                   StoreOptions.<TestClass>defaults()
+                                                                                                               .withSharding()
+                                                                                                               .withChangeFeed());
+        CompletableFuture<Boolean> nextChange = ChangeFeed.of(shardedStore).nextChange(60_000L);
+        // a reader giving up on its future leaves the others waiting
+        ChangeFeed.of(shardedStore).nextChange(60_000L).cancel(false);
+        assertThat(nextChange).isNotDone();
+
+        shardedStore.update(3L, old -> createTestClass("third", 3));
+
+        assertThat(nextChange).isCompletedWithValue(true);
+        assertThat(ChangeFeed.of(shardedStore).nextChange(60_000L)).isNotDone();
+        assertThat(ChangeFeed.of(shardedStore).nextChange(1L)).succeedsWithin(Duration.ofSeconds(5)).isEqualTo(false);
+    }
+
+    @Test
+    void logStore_shouldRecoverItsEntriesWhenReopened() throws Exception {
+        StoreOptions<TestClass> options = StoreOptions.<TestClass>defaults().withUniqueIndex(StringUniqueIndexColumn.of("field2", tc -> tc.field2));
+        KeyValueStore<Long, TestClass> logStore = openLogStore(options);
+        for (long id = 1; id <= 50; id++) {
+            int field1 = (int) id;
+            logStore.update(id, old -> createTestClass("item" + field1, field1));
+        }
+        logStore.update(7L, old -> createTestClass("renamed", 7));
+        logStore.update(8L, old -> null);
+
+        KeyValueStore<Long, TestClass> reopened = reopenLogStore(logStore, options);
+
+        assertThat(reopened.getVersionedById(7L)).contains(Versioned.of(createTestClass("renamed", 7), 2L));
+        assertThat(reopened.getById(8L)).isEmpty();
+        assertThat(reopened.getAllAfter(45L, 10)).extracting(tc -> tc.field1).containsExactly(46, 47, 48, 49, 50);
+        assertThat(reopened.getByIndex("field2", "item9", 10)).containsExactly(createTestClass("item9", 9));
+        assertThat(reopened.getByIndex("field2", "item7", 10)).isEmpty();
+        assertThrows(EntityAlreadyExistsException.class, () -> reopened.update(100L, old -> createTestClass("renamed", 100)));
+    }
+
+    @Test
+    void logStore_shouldCompactOverwrittenSegments() throws Exception {
+        KeyValueStore<Long, TestClass> logStore = openLogStore(StoreOptions.defaults());
+        // the test segments are 4KB, so this rolls a few of them
+        for (int i = 1; i <= 300; i++) {
+            int field1 = i;
+            logStore.update((long) (i % 3), old -> createTestClass("overwritten", field1));
+        }
+        logStore.update(0L, old -> null);
+        long segmentsBefore = countLogSegments();
+
+        ((LogStructuredKeyValueStore<Long, TestClass>) logStore).compact();
+
+        assertThat(countLogSegments()).isLessThan(segmentsBefore);
+        assertThat(logStore.getAll(0, 10)).containsExactly(createTestClass("overwritten", 298), createTestClass("overwritten", 299));
+        KeyValueStore<Long, TestClass> reopened = reopenLogStore(logStore, StoreOptions.defaults());
+        assertThat(reopened.getAll(0, 10)).containsExactly(createTestClass("overwritten", 298), createTestClass("overwritten", 299));
+        assertThat(reopened.getVersionedById(2L)).contains(Versioned.of(createTestClass("overwritten", 299), 100L));
+    }
+
+    @Test
+    void mvStore_shouldKeepVersionedEntriesInKeyOrder() {
+        KeyValueStore<Long, TestClass> mvStore = keyValueStoreFactory.createLongKeyValueStore("mv_store_test", TestClass.class);
+        for (long id = 10; id >= 1; id--) {
+            int field1 = (int) id;
+            mvStore.update(id, old -> createTestClass("item" + field1, field1));
+        }
+        mvStore.update(3L, old -> createTestClass("updated", 3));
+        mvStore.update(4L, old -> null);
+
+        assertThat(mvStore.getVersionedById(3L)).contains(Versioned.of(createTestClass("updated", 3), 2L));
+        assertThat(mvStore.getById(4L)).isEmpty();
+        assertThrows(VersionConflictException.class, () -> mvStore.updateVersioned(3L, null, 1L, old -> old));
+        assertThat(mvStore.getAll(1, 3)).extracting(tc -> tc.field1).containsExactly(2, 3, 5);
+        assertThat(mvStore.getAllAfter(3L, 2)).extracting(tc -> tc.field1).containsExactly(5, 6);
+        assertThat(mvStore.getByIds(List.of(1L, 4L, 11L))).containsOnlyKeys(1L);
+        try (Stream<TestClass> all = mvStore.stream(2)) {
+            assertThat(all.map(tc -> tc.field1)).containsExactly(1, 2, 3, 5, 6, 7, 8, 9, 10);
+        }
+    }
+
+    @Test
+    void mvStore_shouldLeaveOutTheCapabilitiesOnlyTheJdbcStoresHave() {
+        // the change feed option is ignored rather than refused, callers find out through the capability
+        KeyValueStore<Long, TestClass> mvStore = keyValueStoreFactory.createLongKeyValueStore("mv_store_test", TestClass.class,
+                                                                                              StoreOptions.<TestClass>defaults().withChangeFeed());
+        assertThat(IndexRangeScan.maybeOf(mvStore)).isEmpty();
+        assertThat(ChangeFeed.maybeOf(mvStore)).isEmpty();
+        assertThrows(UnsupportedCapabilityException.class, () -> IndexRangeScan.of(mvStore));
+        assertThrows(UnsupportedCapabilityException.class, () -> ChangeFeed.of(mvStore));
+    }
+
+    @Test
+    void mvStore_shouldMaintainUniqueAndSecondaryIndexes() {
+        KeyValueStore<Long, TestClass> mvStore = keyValueStoreFactory.createLongKeyValueStore("mv_indexed_store_test", TestClass.class,
+                                                                                              StoreOptions.<TestClass>defaults()
+                                                                                                          .withUniqueIndex(StringUniqueIndexColumn.of("field2", tc -> tc.field2))
+                                                                                                          .withIndex(IndexColumn.nonUnique("field1", Integer.class, tc -> tc.field1)));
+        mvStore.update(12L, old -> createTestClass("twelve", 7));
+        mvStore.update(2L, old -> createTestClass("two", 7));
+        mvStore.update(5L, old -> createTestClass("five", 8));
+
+        assertThrows(EntityAlreadyExistsException.class, () -> mvStore.update(6L, old -> createTestClass("two", 9)));
+        assertThat(mvStore.getById(6L)).isEmpty();
+        AtomicReference<TestClass> seenByOperation = new AtomicReference<>();
+        mvStore.update(6L, "five", old -> {
+            seenByOperation.set(old);
+            return null;
+        });
+        assertThat(seenByOperation.get()).isEqualTo(createTestClass("five", 8));
+        assertThat(mvStore.getByIndex("field1", 7, 10)).containsExactly(createTestClass("two", 7), createTestClass("twelve", 7));
+
+        mvStore.update(2L, old -> createTestClass("renamed", 8));
+        assertThat(mvStore.getByIndex("field2", "two", 10)).isEmpty();
+        assertThat(mvStore.getByIndex("field2", "renamed", 10)).containsExactly(createTestClass("renamed", 8));
+        assertThat(mvStore.getByIndex("field1", 8, 10)).containsExactly(createTestClass("renamed", 8), createTestClass("five", 8));
+        assertThat(mvStore.getByIndex("field1", 8, 1)).containsExactly(createTestClass("renamed", 8));
+    }
+
+    @Test
+    void getByIds_shouldReturnOnlyExistingEntries() {
+        TestClass tc1 = createTestClass("first", 1);
+        TestClass tc2 = createTestClass("second", 2);
+        TestClass tc4 = createTestClass("forth", 4);
+
+        store.update(1L, old -> tc1);
+        store.update(2L, old -> tc2);
+        store.update(4L, old -> tc4);
+
+        Map<Long, TestClass> result = store.getByIds(List.of(4L, 3L, 1L, 4L));
+        assertThat(result).containsOnly(entry(1L, tc1), entry(4L, tc4));
+    }
+
+    @Test
+    void getByIds_shouldReturnEmptyMapForNoKeys() {
+        assertThat(store.getByIds(List.of())).isEmpty();
+    }
+
+    @Test
+    void getById_shouldReadLegacyJsonRowsAndMigrateThemOnWrite() {
+        // Given
+        jdbi.useHandle(handle -> handle.execute("insert into mStore (id, payload) values (5, '{\"field1\":5,\"field2\":\"legacy\",\"list\":[],\"map\":{}}')"));
+
+        // When
+        TestClass legacy = store.getById(5L).orElseThrow();
+        store.update(5L, old -> {
+            old.field1 = 6;
+            return old;
+        });
+
+        // Then
+        assertThat(legacy).isEqualTo(createTestClass("legacy", 5));
+        assertThat(store.getById(5L)).contains(createTestClass("legacy", 6));
+        int migratedRows = jdbi.withHandle(handle -> handle.createQuery("select count(*) from mStore where id = 5 and payload is null and payload_bin is not null")
+                                                           .mapTo(Integer.class)
+                                                           .one());
+        assertEquals(1, migratedRows);
+    }
+
     @Test
     void get_shouldCreateNonExistingTable() {
         Optional<TestClass> testClass = store.getById(1L);
@@ -141,6 +805,34 @@ public class KeyValueStoreIntegrationTest {
         assertThat(testClass).isEmpty();
     }
 
+    private KeyValueStore<Long, TestClass> openLogStore(StoreOptions<TestClass> options) throws IOException {
+        Path directory = logStoreDirectory();
+        if (Files.exists(directory)) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.delete(file);
+                }
+            }
+        }
+        return keyValueStoreFactory.createLongKeyValueStore(LOG_STORE, TestClass.class, options);
+    }
+
+    private KeyValueStore<Long, TestClass> reopenLogStore(KeyValueStore<Long, TestClass> logStore, StoreOptions<TestClass> options) {
+        ((LogStructuredKeyValueStore<Long, TestClass>) logStore).stop();
+        testHelper.clearCreatedStores();
+        return keyValueStoreFactory.createLongKeyValueStore(LOG_STORE, TestClass.class, options);
+    }
+
+    private long countLogSegments() throws IOException {
+        try (Stream<Path> files = Files.list(logStoreDirectory())) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).count();
+        }
+    }
+
+    private Path logStoreDirectory() {
+        return Path.of(configuration.getStorage().getLogStore().getDirectory(), LOG_STORE);
+    }
+
     private TestClass createTestClass(String name, int id) {
         TestClass tc = new TestClass();
         tc.field2 = name;
@@ -0,0 +1,112 @@
+package com.perapoch.taskapp.storage.db;
+
+import com.perapoch.taskapp.IntegrationTestHelper;
+import com.perapoch.taskapp.core.CoreModuleForTesting;
+import com.perapoch.taskapp.storage.StorageModuleForTesting;
+import com.perapoch.tasksapp.TaskApplication;
+import com.perapoch.tasksapp.core.json.JsonConverter;
+import com.perapoch.tasksapp.core.task.Task;
+import com.perapoch.tasksapp.core.task.TaskPayloadCodec;
+import com.perapoch.tasksapp.storage.db.KeyValueStore;
+import com.perapoch.tasksapp.storage.db.KeyValueStoreFactory;
+import com.perapoch.tasksapp.storage.db.StoreOptions;
+import com.perapoch.tasksapp.storage.db.codec.JsonPayloadCodec;
+import com.perapoch.tasksapp.storage.db.codec.PayloadCodec;
+import com.perapoch.tasksapp.storage.db.codec.PayloadSerializer;
+import jakarta.inject.Inject;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vyarus.dropwizard.guice.hook.GuiceyConfigurationHook;
+import ru.vyarus.dropwizard.guice.test.EnableHook;
+import ru.vyarus.dropwizard.guice.test.jupiter.TestGuiceyApp;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Bytes allocated per row by getAll, H2 included since the in-memory database runs on the calling thread. Each store is
+// read once through getAll, which streams the payload column into the codec, and once the way rows used to be read:
+// the column copied out with getBytes and then decoded. Run with ./gradlew integrationTest -Pbenchmark
+@Tag("benchmark")
+@TestGuiceyApp(value = TaskApplication.class, config="src/integrationTest/resources/test-config.yaml")
+public class PayloadAllocationBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(PayloadAllocationBenchmark.class);
+    private static final int ROWS = 10_000;
+    private static final int WARM_UP_RUNS = 10;
+    private static final int MEASURED_RUNS = 20;
+
+    @EnableHook
+    static GuiceyConfigurationHook HOOK = builder -> builder.modulesOverride(new StorageModuleForTesting(), new CoreModuleForTesting());
+
+    @Inject
+    private KeyValueStoreFactory keyValueStoreFactory;
+    @Inject
+    private IntegrationTestHelper testHelper;
+    @Inject
+    private JsonConverter jsonConverter;
+    @Inject
+    private Jdbi jdbi;
+
+    @BeforeEach
+    void setUp() {
+        testHelper.clearAll();
+        testHelper.clearCreatedStores();
+    }
+
+    @Test
+    void getAll_jsonPayloads() {
+        KeyValueStore<Long, Task> store = keyValueStoreFactory.createLongKeyValueStore("mJsonAllocStore", Task.class);
+        var jsonCodec = new JsonPayloadCodec<>(jsonConverter, Task.class);
+        measure("json", "mJsonAllocStore", store, new PayloadSerializer<>(jsonCodec, jsonCodec));
+    }
+
+    @Test
+    void getAll_binaryPayloads() {
+        PayloadCodec<Task> codec = new TaskPayloadCodec();
+        KeyValueStore<Long, Task> store = keyValueStoreFactory.createLongKeyValueStore("mBinaryAllocStore", Task.class,
+                                                                                       StoreOptions.<Task>defaults().withCodec(codec));
+        measure("binary", "mBinaryAllocStore", store, new PayloadSerializer<>(codec, new JsonPayloadCodec<>(jsonConverter, Task.class)));
+    }
+
+    private void measure(String codecName, String table, KeyValueStore<Long, Task> store, PayloadSerializer<Task> serializer) {
+        Map<Long, UnaryOperator<Task>> writes = new LinkedHashMap<>();
+        for (long id = 1; id <= ROWS; id++) {
+            Task task = new Task(id, "Task number %d, due some day soon".formatted(id), id, id + 1_000, id % 2 == 0);
+            writes.put(id, old -> task);
+        }
+        store.updateAll(writes);
+
+        Supplier<List<Task>> streamed = () -> store.getAll(0, ROWS);
+        Supplier<List<Task>> copied = () -> jdbi.withHandle(handle -> handle.createQuery("select id, payload_bin from %s order by id limit ?".formatted(table))
+                                                                            .bind(0, ROWS)
+                                                                            .map((rs, ctx) -> serializer.deserialize(rs.getBytes("payload_bin")))
+                                                                            .list());
+        long streamedBytesPerRow = allocatedBytesPerRow(streamed);
+        long copiedBytesPerRow = allocatedBytesPerRow(copied);
+        logger.info("{} payloads, getAll of {} rows: {} bytes/row streaming the column, {} bytes/row copying it first",
+                    codecName, ROWS, streamedBytesPerRow, copiedBytesPerRow);
+        assertThat(streamed.get()).isEqualTo(copied.get());
+    }
+
+    private static long allocatedBytesPerRow(Supplier<List<Task>> read) {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            assertThat(read.get()).hasSize(ROWS);
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            read.get();
+        }
+        return (threads.getCurrentThreadAllocatedBytes() - before) / ((long) MEASURED_RUNS * ROWS);
+    }
+}
@@ -0,0 +1,62 @@
+package com.perapoch.taskapp.storage.db;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.perapoch.taskapp.IntegrationTestHelper;
+import com.perapoch.taskapp.core.CoreModuleForTesting;
+import com.perapoch.taskapp.storage.StorageModuleForTesting;
+import com.perapoch.tasksapp.TaskApplication;
+import com.perapoch.tasksapp.storage.db.KeyValueStore;
+import com.perapoch.tasksapp.storage.db.KeyValueStoreFactory;
+import com.perapoch.tasksapp.storage.db.ReplicaRouter;
+import com.perapoch.tasksapp.storage.db.StoreOptions;
+import io.dropwizard.core.setup.Environment;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.vyarus.dropwizard.guice.hook.GuiceyConfigurationHook;
+import ru.vyarus.dropwizard.guice.test.EnableHook;
+import ru.vyarus.dropwizard.guice.test.jupiter.TestGuiceyApp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@TestGuiceyApp(value = TaskApplication.class, config="src/integrationTest/resources/test-config-replicas.yaml")
+public class ReplicaReadsIntegrationTest {
+
+    @EnableHook
+    static GuiceyConfigurationHook HOOK = builder -> builder.modulesOverride(new StorageModuleForTesting(), new CoreModuleForTesting());
+
+    @Inject
+    private KeyValueStoreFactory keyValueStoreFactory;
+    @Inject
+    private IntegrationTestHelper testHelper;
+    @Inject
+    private Environment environment;
+
+    @BeforeEach
+    void setUp() {
+        testHelper.clearAll();
+        testHelper.clearCreatedStores();
+    }
+
+    @Test
+    void getById_withReplicaReadsShouldBeServedByTheReplicas() throws Exception {
+        KeyValueStore<Long, Item> replicatedStore = keyValueStoreFactory.createLongKeyValueStore("mReplicatedStore", Item.class,
+                                                                                                 StoreOptions.<Item>defaults().withReplicaReads());
+        replicatedStore.update(1L, old -> new Item("first", 1));
+        Timer replicaReads = environment.metrics().timer(MetricRegistry.name(ReplicaRouter.class, "replica-read-time"));
+        long replicaReadsBefore = replicaReads.getCount();
+
+        // the replica starts getting reads once its first heartbeat has been checked
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (replicaReads.getCount() == replicaReadsBefore && System.currentTimeMillis() < deadline) {
+            assertThat(replicatedStore.getById(1L)).contains(new Item("first", 1));
+            Thread.sleep(20);
+        }
+
+        assertThat(replicaReads.getCount()).isGreaterThan(replicaReadsBefore);
+        assertThat(replicatedStore.getAll(0, 10)).containsExactly(new Item("first", 1));
+    }
+
+    public record Item(String name, int id) {}
+}
@@ -0,0 +1,99 @@
+package com.perapoch.taskapp.storage.db.schema;
+
+import com.perapoch.taskapp.core.CoreModuleForTesting;
+import com.perapoch.taskapp.storage.StorageModuleForTesting;
+import com.perapoch.tasksapp.TaskApplication;
+import com.perapoch.tasksapp.storage.db.schema.SchemaManager;
+import com.perapoch.tasksapp.storage.db.schema.SchemaMigration;
+import com.perapoch.tasksapp.storage.db.schema.StoreSchema;
+import jakarta.inject.Inject;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.JdbiException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.vyarus.dropwizard.guice.hook.GuiceyConfigurationHook;
+import ru.vyarus.dropwizard.guice.test.EnableHook;
+import ru.vyarus.dropwizard.guice.test.jupiter.TestGuiceyApp;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@TestGuiceyApp(value = TaskApplication.class, config="src/integrationTest/resources/test-config.yaml")
+public class SchemaManagerIntegrationTest {
+
+    @EnableHook
+    static GuiceyConfigurationHook HOOK = builder -> builder.modulesOverride(new StorageModuleForTesting(), new CoreModuleForTesting());
+
+    @Inject
+    private Jdbi jdbi;
+
+    private final AtomicInteger secondMigrationRuns = new AtomicInteger();
+    private List<SchemaMigration> migrations;
+
+    @BeforeEach
+    void setUp() {
+        jdbi.useHandle(handle -> {
+            handle.execute("drop table if exists schema_test");
+            handle.execute("delete from %s where store_name = 'schema_test'".formatted(SchemaManager.SCHEMA_VERSION_TABLE));
+        });
+        migrations = List.of(
+          new SchemaMigration(1, "create", schema -> List.of("create table if not exists %s (id bigint primary key)".formatted(schema.tableName()))),
+          new SchemaMigration(2, "add column", schema -> {
+              secondMigrationRuns.incrementAndGet();
+              return List.of("alter table %s add column if not exists extra int".formatted(schema.tableName()));
+          })
+        );
+    }
+
+    @Test
+    void migrate_shouldApplyAllPendingMigrationsInOrder() {
+        // When
+        int version = new SchemaManager(jdbi, migrations).migrate(StoreSchema.of("schema_test", Long.class));
+
+        // Then
+        assertThat(version).isEqualTo(2);
+        assertThat(secondMigrationRuns.get()).isEqualTo(1);
+        int extraColumns = jdbi.withHandle(handle -> handle.createQuery("select count(*) from INFORMATION_SCHEMA.COLUMNS where TABLE_NAME = 'SCHEMA_TEST' and COLUMN_NAME = 'EXTRA'")
+                                                           .mapTo(Integer.class)
+                                                           .one());
+        assertThat(extraColumns).isEqualTo(1);
+    }
+
+    @Test
+    void migrate_shouldNotReapplyMigrations() {
+        // Given
+        var schema = StoreSchema.of("schema_test", Long.class);
+        new SchemaManager(jdbi, migrations).migrate(schema);
+
+        // When
+        int version = new SchemaManager(jdbi, migrations).migrate(schema);
+
+        // Then
+        assertThat(version).isEqualTo(2);
+        assertThat(secondMigrationRuns.get()).isEqualTo(1);
+    }
+
+    @Test
+    void migrate_shouldRollBackAFailedStepWithItsVersion() {
+        // Given
+        var schema = StoreSchema.of("schema_test", Long.class);
+        new SchemaManager(jdbi, migrations).migrate(schema);
+        List<SchemaMigration> withFailingStep = List.of(
+          migrations.get(0),
+          migrations.get(1),
+          new SchemaMigration(3, "insert and fail", failing -> List.of("insert into %s (id) values (1)".formatted(failing.tableName()),
+                                                                       "insert into missing_table (id) values (1)"))
+        );
+
+        // When
+        assertThrows(JdbiException.class, () -> new SchemaManager(jdbi, withFailingStep).migrate(schema));
+
+        // Then
+        int rows = jdbi.withHandle(handle -> handle.createQuery("select count(*) from schema_test").mapTo(Integer.class).one());
+        assertThat(rows).isZero();
+        assertThat(new SchemaManager(jdbi, migrations).migrate(schema)).isEqualTo(2);
+    }
+}
@@ -0,0 +1,117 @@
+package com.perapoch.taskapp.storage.db.snapshot;
+
+import com.perapoch.tasksapp.TaskAppConfiguration;
+import com.perapoch.tasksapp.storage.db.DatabaseException;
+import com.perapoch.tasksapp.storage.db.snapshot.DatabaseSnapshots;
+import io.dropwizard.db.DataSourceFactory;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// the test config uses in-memory databases, which have no files to back up, so these use file databases of their own
+public class DatabaseSnapshotsIntegrationTest {
+
+    @TempDir
+    Path tempDir;
+
+    private DataSourceFactory main;
+    private DataSourceFactory shard;
+    private DatabaseSnapshots databaseSnapshots;
+
+    @BeforeEach
+    void setUp() {
+        main = dataSource("taskappdb");
+        shard = dataSource("taskappdb_shard0");
+        var configuration = new TaskAppConfiguration();
+        configuration.setDataSourceFactory(main);
+        configuration.getStorage().getSharding().setShards(List.of(shard));
+        configuration.getStorage().getSnapshot().setDirectory(tempDir.resolve("snapshots").toString());
+        databaseSnapshots = new DatabaseSnapshots(configuration);
+    }
+
+    private DataSourceFactory dataSource(String name) {
+        var dataSource = new DataSourceFactory();
+        dataSource.setUrl("jdbc:h2:%s;mode=MySQL".formatted(tempDir.resolve("db").resolve(name)));
+        dataSource.setUser("task-app-user");
+        dataSource.setPassword("iAMs00perSecrEET");
+        return dataSource;
+    }
+
+    @Test
+    void restore_shouldBringBackEveryDatabaseAsItWasWhenTheSnapshotWasTaken() {
+        Path snapshot;
+        // handles kept open, like the pools of a running service
+        try (Handle mainHandle = jdbi(main).open(); Handle shardHandle = jdbi(shard).open()) {
+            mainHandle.execute("create table tasks (id bigint primary key, description varchar(255))");
+            mainHandle.execute("insert into tasks values (1, 'first')");
+            shardHandle.execute("create table tasks (id bigint primary key, description varchar(255))");
+            shardHandle.execute("insert into tasks values (2, 'second')");
+
+            snapshot = databaseSnapshots.snapshot();
+
+            mainHandle.execute("update tasks set description = 'changed' where id = 1");
+            mainHandle.execute("insert into tasks values (3, 'third')");
+            shardHandle.execute("delete from tasks");
+        }
+
+        databaseSnapshots.restore(snapshot);
+
+        assertThat(descriptions(main)).containsExactly("first");
+        assertThat(descriptions(shard)).containsExactly("second");
+    }
+
+    @Test
+    void restore_shouldLeaveTheDatabasesUntouchedWhenTheSnapshotMissesOne() throws Exception {
+        jdbi(main).useHandle(handle -> {
+            handle.execute("create table tasks (id bigint primary key, description varchar(255))");
+            handle.execute("insert into tasks values (1, 'first')");
+        });
+        Path snapshot = databaseSnapshots.snapshot();
+        jdbi(main).useHandle(handle -> handle.execute("update tasks set description = 'changed' where id = 1"));
+        Files.delete(snapshot.resolve("shard-0.zip"));
+
+        assertThrows(DatabaseException.class, () -> databaseSnapshots.restore(snapshot));
+        assertThat(descriptions(main)).containsExactly("changed");
+    }
+
+    @Test
+    void restore_shouldLeaveEveryDatabaseUntouchedWhenAShardCantBeUnzipped() throws Exception {
+        jdbi(main).useHandle(handle -> {
+            handle.execute("create table tasks (id bigint primary key, description varchar(255))");
+            handle.execute("insert into tasks values (1, 'first')");
+        });
+        jdbi(shard).useHandle(handle -> {
+            handle.execute("create table tasks (id bigint primary key, description varchar(255))");
+            handle.execute("insert into tasks values (2, 'second')");
+        });
+        Path snapshot = databaseSnapshots.snapshot();
+        jdbi(main).useHandle(handle -> handle.execute("update tasks set description = 'changed' where id = 1"));
+        jdbi(shard).useHandle(handle -> handle.execute("update tasks set description = 'changed too' where id = 2"));
+        Files.write(snapshot.resolve("shard-0.zip"), new byte[]{1, 2, 3});
+
+        assertThrows(DatabaseException.class, () -> databaseSnapshots.restore(snapshot));
+        assertThat(descriptions(main)).containsExactly("changed");
+        assertThat(descriptions(shard)).containsExactly("changed too");
+        try (Stream<Path> files = Files.list(tempDir.resolve("db"))) {
+            assertThat(files.map(file -> file.getFileName().toString())).noneMatch(file -> file.startsWith(".restore-"));
+        }
+    }
+
+    private static List<String> descriptions(DataSourceFactory database) {
+        return jdbi(database).withHandle(handle -> handle.createQuery("select description from tasks order by id").mapTo(String.class).list());
+    }
+
+    private static Jdbi jdbi(DataSourceFactory database) {
+        return Jdbi.create(database.getUrl(), database.getUser(), database.getPassword());
+    }
+}
@@ -1,6 +1,9 @@
 package com.perapoch.tasksapp;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.perapoch.tasksapp.core.archive.TaskArchiveConfiguration;
+import com.perapoch.tasksapp.core.stats.TaskStatsConfiguration;
+import com.perapoch.tasksapp.storage.StorageConfiguration;
 import io.dropwizard.core.Configuration;
 import io.dropwizard.db.DataSourceFactory;
 import jakarta.validation.Valid;
@@ -9,10 +12,25 @@ import jakarta.validation.constraints.NotNull;
 public class TaskAppConfiguration extends Configuration {
     private int defaultGetAllTasksSize = 100;
 
+    // runs Jetty request handling and the db work of the async endpoints on virtual threads. Needs Java 21
+    private boolean virtualThreads = false;
+
     @Valid
     @NotNull
     private DataSourceFactory database = new DataSourceFactory();
 
+    @Valid
+    @NotNull
+    private StorageConfiguration storage = new StorageConfiguration();
+
+    @Valid
+    @NotNull
+    private TaskStatsConfiguration stats = new TaskStatsConfiguration();
+
+    @Valid
+    @NotNull
+    private TaskArchiveConfiguration archive = new TaskArchiveConfiguration();
+
     @JsonProperty
     public int getDefaultGetAllTasksSize() {
         return defaultGetAllTasksSize;
@@ -23,6 +41,15 @@ public class TaskAppConfiguration extends Configuration {
         this.defaultGetAllTasksSize = defaultGetAllTasksSize;
     }
 
+    @JsonProperty
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    @JsonProperty
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
 
     @JsonProperty("database")
     public void setDataSourceFactory(DataSourceFactory factory) {
@@ -33,4 +60,34 @@ public class TaskAppConfiguration extends Configuration {
     public DataSourceFactory getDataSourceFactory() {
         return database;
     }
+
+    @JsonProperty
+    public StorageConfiguration getStorage() {
+        return storage;
+    }
+
+    @JsonProperty
+    public void setStorage(StorageConfiguration storage) {
+        this.storage = storage;
+    }
+
+    @JsonProperty
+    public TaskStatsConfiguration getStats() {
+        return stats;
+    }
+
+    @JsonProperty
+    public void setStats(TaskStatsConfiguration stats) {
+        this.stats = stats;
+    }
+
+    @JsonProperty
+    public TaskArchiveConfiguration getArchive() {
+        return archive;
+    }
+
+    @JsonProperty
+    public void setArchive(TaskArchiveConfiguration archive) {
+        this.archive = archive;
+    }
 }
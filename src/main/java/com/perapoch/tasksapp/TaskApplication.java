@@ -1,10 +1,14 @@
 package com.perapoch.tasksapp;
 
+import com.perapoch.tasksapp.admin.RestoreCommand;
 import com.perapoch.tasksapp.core.CoreModule;
 import com.perapoch.tasksapp.storage.StorageModule;
 import io.dropwizard.core.Application;
 import io.dropwizard.core.setup.Bootstrap;
 import io.dropwizard.core.setup.Environment;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.component.LifeCycle;
 import ru.vyarus.dropwizard.guice.GuiceBundle;
 import ru.vyarus.guicey.jdbi3.JdbiBundle;
 
@@ -26,12 +30,32 @@ public class TaskApplication extends Application<TaskAppConfiguration> {
                                        .modules(new CoreModule(), new StorageModule())
                                        .bundles(JdbiBundle.<TaskAppConfiguration>forDatabase((conf, env) -> conf.getDataSourceFactory()))
                                        .build());
+        bootstrap.addCommand(new RestoreCommand());
     }
 
     @Override
     public void run(TaskAppConfiguration configuration, Environment environment) {
+        if (configuration.isVirtualThreads()) {
+            useVirtualThreads(environment);
+        }
 //        final JdbiFactory factory = new JdbiFactory();
 //        final Jdbi jdbi = factory.build(environment, configuration.getDataSourceFactory(), "h2");
 //        environment.jersey().register(new TaskStoreImpl(jdbi));
     }
+
+    // Jetty keeps its platform threads for selecting and parsing, and hands the requests (Jersey included) to virtual
+    // threads. The thread pool can only be switched before it starts, which is right when the server starts
+    private static void useVirtualThreads(Environment environment) {
+        if (!VirtualThreads.areSupported()) {
+            throw new IllegalStateException("virtualThreads needs Java 21 or later, running on " + Runtime.version());
+        }
+        environment.lifecycle().addEventListener(new LifeCycle.Listener() {
+            @Override
+            public void lifeCycleStarting(LifeCycle event) {
+                if (event instanceof Server server && server.getThreadPool() instanceof VirtualThreads.Configurable threadPool) {
+                    threadPool.setVirtualThreadsExecutor(VirtualThreads.getDefaultVirtualThreadsExecutor());
+                }
+            }
+        });
+    }
 }
@@ -0,0 +1,34 @@
+package com.perapoch.tasksapp.admin;
+
+import com.perapoch.tasksapp.TaskAppConfiguration;
+import com.perapoch.tasksapp.storage.db.snapshot.DatabaseSnapshots;
+import io.dropwizard.core.cli.ConfiguredCommand;
+import io.dropwizard.core.setup.Bootstrap;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import java.nio.file.Path;
+
+// java -jar task-app.jar restore --snapshot <directory written by the snapshot task> config.yaml, with the service stopped
+public class RestoreCommand extends ConfiguredCommand<TaskAppConfiguration> {
+
+    private static final String SNAPSHOT = "snapshot";
+
+    public RestoreCommand() {
+        super("restore", "Replaces the databases with the ones in a snapshot");
+    }
+
+    @Override
+    public void configure(Subparser subparser) {
+        super.configure(subparser);
+        subparser.addArgument("--" + SNAPSHOT)
+                 .dest(SNAPSHOT)
+                 .required(true)
+                 .help("directory of the snapshot to restore");
+    }
+
+    @Override
+    protected void run(Bootstrap<TaskAppConfiguration> bootstrap, Namespace namespace, TaskAppConfiguration configuration) {
+        new DatabaseSnapshots(configuration).restore(Path.of(namespace.getString(SNAPSHOT)));
+    }
+}
@@ -0,0 +1,30 @@
+package com.perapoch.tasksapp.admin;
+
+import com.perapoch.tasksapp.storage.db.snapshot.DatabaseSnapshots;
+import io.dropwizard.servlets.tasks.Task;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+// POST /tasks/snapshot on the admin port. Requests keep being served while the snapshot is written
+@Singleton
+public class SnapshotTask extends Task {
+
+    private final DatabaseSnapshots databaseSnapshots;
+
+    @Inject
+    public SnapshotTask(DatabaseSnapshots databaseSnapshots) {
+        super("snapshot");
+        this.databaseSnapshots = databaseSnapshots;
+    }
+
+    @Override
+    public void execute(Map<String, List<String>> parameters, PrintWriter output) {
+        Path snapshot = databaseSnapshots.snapshot();
+        output.println("Snapshot written to " + snapshot.toAbsolutePath());
+    }
+}
@@ -0,0 +1,5 @@
+package com.perapoch.tasksapp.api;
+
+public record DueBucketDto(long fromMs, long toMs, long open) {
+
+}
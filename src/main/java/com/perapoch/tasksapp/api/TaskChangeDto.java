@@ -0,0 +1,5 @@
+package com.perapoch.tasksapp.api;
+
+public record TaskChangeDto(long taskId, String type, long changedAtMs, String cursor) {
+
+}
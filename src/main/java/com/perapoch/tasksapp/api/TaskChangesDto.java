@@ -0,0 +1,7 @@
+package com.perapoch.tasksapp.api;
+
+import java.util.List;
+
+public record TaskChangesDto(List<TaskChangeDto> changes, String cursor, boolean gap) {
+
+}
@@ -0,0 +1,7 @@
+package com.perapoch.tasksapp.api;
+
+import java.util.List;
+
+public record TaskStatsDto(long total, long completed, long open, long overdue, List<DueBucketDto> dueSoon, long reconciledAtMs) {
+
+}
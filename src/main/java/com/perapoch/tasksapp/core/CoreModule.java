@@ -7,6 +7,12 @@ import com.perapoch.tasksapp.core.idgenerator.IdGeneratorFactory;
 import com.perapoch.tasksapp.core.idgenerator.IdGeneratorFactoryImpl;
 import com.perapoch.tasksapp.core.json.JacksonJsonConverter;
 import com.perapoch.tasksapp.core.json.JsonConverter;
+import com.perapoch.tasksapp.core.search.TaskSearchIndex;
+import com.perapoch.tasksapp.core.search.TaskSearchIndexImpl;
+import com.perapoch.tasksapp.core.stats.TaskStatsCounter;
+import com.perapoch.tasksapp.core.stats.TaskStatsCounterImpl;
+import com.perapoch.tasksapp.core.task.AsyncTaskManager;
+import com.perapoch.tasksapp.core.task.AsyncTaskManagerImpl;
 import com.perapoch.tasksapp.core.task.TaskManager;
 import com.perapoch.tasksapp.core.task.TaskManagerImpl;
 import com.perapoch.tasksapp.core.time.TimeProvider;
@@ -18,8 +24,11 @@ public class CoreModule extends AbstractModule {
     protected void configure() {
         bind(DtoConverter.class).to(DtoConverterImpl.class);
         bind(TaskManager.class).to(TaskManagerImpl.class);
+        bind(AsyncTaskManager.class).to(AsyncTaskManagerImpl.class);
         bind(JsonConverter.class).to(JacksonJsonConverter.class);
         bind(IdGeneratorFactory.class).to(IdGeneratorFactoryImpl.class);
         bind(TimeProvider.class).to(TimeProviderImpl.class);
+        bind(TaskSearchIndex.class).to(TaskSearchIndexImpl.class);
+        bind(TaskStatsCounter.class).to(TaskStatsCounterImpl.class);
     }
 }
@@ -0,0 +1,75 @@
+package com.perapoch.tasksapp.core.archive;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+
+public class TaskArchiveConfiguration {
+
+    private boolean enabled = true;
+
+    // completed tasks are archived once their deadline is this old
+    @NotNull
+    private Duration minAge = Duration.days(30);
+
+    @NotNull
+    private Duration interval = Duration.hours(1);
+
+    @Min(1)
+    private int batchSize = 500;
+
+    // pause between two batches of a run, so archiving never competes with the traffic for long
+    @NotNull
+    private Duration batchPause = Duration.milliseconds(200);
+
+    @JsonProperty
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @JsonProperty
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @JsonProperty
+    public Duration getMinAge() {
+        return minAge;
+    }
+
+    @JsonProperty
+    public void setMinAge(Duration minAge) {
+        this.minAge = minAge;
+    }
+
+    @JsonProperty
+    public Duration getInterval() {
+        return interval;
+    }
+
+    @JsonProperty
+    public void setInterval(Duration interval) {
+        this.interval = interval;
+    }
+
+    @JsonProperty
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    @JsonProperty
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @JsonProperty
+    public Duration getBatchPause() {
+        return batchPause;
+    }
+
+    @JsonProperty
+    public void setBatchPause(Duration batchPause) {
+        this.batchPause = batchPause;
+    }
+}
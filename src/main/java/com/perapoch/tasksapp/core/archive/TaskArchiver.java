@@ -0,0 +1,79 @@
+package com.perapoch.tasksapp.core.archive;
+
+import com.perapoch.tasksapp.TaskAppConfiguration;
+import com.perapoch.tasksapp.core.task.ArchiveBatch;
+import com.perapoch.tasksapp.core.task.TaskManager;
+import com.perapoch.tasksapp.core.time.TimeProvider;
+import io.dropwizard.core.setup.Environment;
+import io.dropwizard.lifecycle.Managed;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Every interval, walks the deadline index up to now - minAge (or every task, on engines without one) and moves the
+// completed tasks it finds to the archive, one throttled batch at a time
+@Singleton
+public class TaskArchiver implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskArchiver.class);
+
+    private final TaskManager taskManager;
+    private final TimeProvider timeProvider;
+    private final TaskArchiveConfiguration configuration;
+    private final ScheduledExecutorService executor;
+    private volatile boolean stopped;
+
+    @Inject
+    public TaskArchiver(TaskManager taskManager, TimeProvider timeProvider, TaskAppConfiguration configuration, Environment environment) {
+        this.taskManager = taskManager;
+        this.timeProvider = timeProvider;
+        this.configuration = configuration.getArchive();
+        this.executor = environment.lifecycle().scheduledExecutorService("task-archiver-%d").build();
+    }
+
+    @Override
+    public void start() {
+        if (!configuration.isEnabled()) {
+            return;
+        }
+        long intervalMs = configuration.getInterval().toMilliseconds();
+        executor.scheduleWithFixedDelay(this::archiveQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+    }
+
+    public int archive() throws InterruptedException {
+        long endedBeforeMs = timeProvider.getCurrentTimeMs() - configuration.getMinAge().toMilliseconds();
+        int archived = 0;
+        String cursor = null;
+        do {
+            ArchiveBatch batch = taskManager.archiveTasks(endedBeforeMs, cursor, configuration.getBatchSize());
+            archived += batch.archived();
+            cursor = batch.nextCursor().orElse(null);
+            if (cursor != null) {
+                Thread.sleep(configuration.getBatchPause().toMilliseconds());
+            }
+        } while (cursor != null && !stopped);
+        return archived;
+    }
+
+    private void archiveQuietly() {
+        try {
+            long startMs = System.currentTimeMillis();
+            int archived = archive();
+            LOGGER.info("Archived {} completed tasks in {} ms", archived, System.currentTimeMillis() - startMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            // whatever was archived stays archived, the next run picks up the rest
+            LOGGER.warn("Task archiving failed", e);
+        }
+    }
+}
@@ -1,13 +1,25 @@
 package com.perapoch.tasksapp.core.converter;
 
 import com.perapoch.tasksapp.api.NewTaskRequestDto;
+import com.perapoch.tasksapp.api.TaskChangeDto;
+import com.perapoch.tasksapp.api.TaskChangesDto;
 import com.perapoch.tasksapp.api.TaskDto;
+import com.perapoch.tasksapp.api.TaskStatsDto;
+import com.perapoch.tasksapp.core.stats.TaskStats;
 import com.perapoch.tasksapp.core.task.NewTaskRequest;
 import com.perapoch.tasksapp.core.task.Task;
+import com.perapoch.tasksapp.storage.db.Change;
+import com.perapoch.tasksapp.storage.db.ChangeBatch;
 
 public interface DtoConverter {
 
     NewTaskRequest toNewTaskRequest(NewTaskRequestDto newTaskRequestDto);
 
     TaskDto toTaskDto(Task task);
+
+    TaskChangeDto toTaskChangeDto(Change<Long> change);
+
+    TaskChangesDto toTaskChangesDto(ChangeBatch<Long> changes);
+
+    TaskStatsDto toTaskStatsDto(TaskStats stats);
 }
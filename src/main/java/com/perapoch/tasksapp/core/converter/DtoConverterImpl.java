@@ -1,11 +1,21 @@
 package com.perapoch.tasksapp.core.converter;
 
+import com.perapoch.tasksapp.api.DueBucketDto;
 import com.perapoch.tasksapp.api.NewTaskRequestDto;
+import com.perapoch.tasksapp.api.TaskChangeDto;
+import com.perapoch.tasksapp.api.TaskChangesDto;
 import com.perapoch.tasksapp.api.TaskDto;
+import com.perapoch.tasksapp.api.TaskStatsDto;
+import com.perapoch.tasksapp.core.stats.TaskStats;
 import com.perapoch.tasksapp.core.task.NewTaskRequest;
 import com.perapoch.tasksapp.core.task.Task;
+import com.perapoch.tasksapp.storage.db.Change;
+import com.perapoch.tasksapp.storage.db.ChangeBatch;
 import jakarta.inject.Singleton;
 
+import java.util.Locale;
+import java.util.stream.Collectors;
+
 @Singleton
 public class DtoConverterImpl implements DtoConverter {
 
@@ -18,4 +28,21 @@ public class DtoConverterImpl implements DtoConverter {
     public TaskDto toTaskDto(Task task) {
         return new TaskDto(task.id(), task.description(), task.createdAtMs(), task.endsAtMs(), task.completed());
     }
+
+    @Override
+    public TaskChangeDto toTaskChangeDto(Change<Long> change) {
+        return new TaskChangeDto(change.key(), change.type().name().toLowerCase(Locale.ROOT), change.changedAtMs(), change.cursor());
+    }
+
+    @Override
+    public TaskChangesDto toTaskChangesDto(ChangeBatch<Long> changes) {
+        return new TaskChangesDto(changes.changes().stream().map(this::toTaskChangeDto).collect(Collectors.toList()), changes.cursor(), changes.gap());
+    }
+
+    @Override
+    public TaskStatsDto toTaskStatsDto(TaskStats stats) {
+        return new TaskStatsDto(stats.total(), stats.completed(), stats.open(), stats.overdue(),
+                                stats.dueSoon().stream().map(bucket -> new DueBucketDto(bucket.fromMs(), bucket.toMs(), bucket.open())).collect(Collectors.toList()),
+                                stats.reconciledAtMs());
+    }
 }
@@ -2,6 +2,7 @@ package com.perapoch.tasksapp.core.idgenerator;
 
 import com.perapoch.tasksapp.storage.db.KeyValueStore;
 import com.perapoch.tasksapp.storage.db.KeyValueStoreFactory;
+import com.perapoch.tasksapp.storage.db.StoreOptions;
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 
@@ -17,7 +18,11 @@ public class IdGeneratorFactoryImpl implements IdGeneratorFactory {
     @Inject
     public IdGeneratorFactoryImpl(KeyValueStoreFactory keyValueStoreFactory) {
         this.idGeneratorMap = new ConcurrentHashMap<>();
-        this.idGeneratorStore = keyValueStoreFactory.createStringKeyValueStore("id_generator", IdRange.class);
+        // a range handed out must stay handed out, even if the unit of work that asked for it rolls back
+        this.idGeneratorStore = keyValueStoreFactory.createStringKeyValueStore("id_generator", IdRange.class,
+                                                                            StoreOptions.<IdRange>defaults()
+                                                                                        .withCodec(new IdRangePayloadCodec())
+                                                                                        .withAutonomousWrites());
     }
 
     @Override
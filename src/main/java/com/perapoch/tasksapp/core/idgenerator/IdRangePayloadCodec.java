@@ -0,0 +1,38 @@
+package com.perapoch.tasksapp.core.idgenerator;
+
+import com.perapoch.tasksapp.storage.db.DatabaseException;
+import com.perapoch.tasksapp.storage.db.codec.PayloadCodec;
+
+import java.nio.ByteBuffer;
+
+public class IdRangePayloadCodec implements PayloadCodec<IdRange> {
+
+    public static final byte ID = 11;
+    private static final byte VERSION = 1;
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public byte version() {
+        return VERSION;
+    }
+
+    @Override
+    public byte[] encode(IdRange idRange) {
+        return ByteBuffer.allocate(Long.BYTES * 2)
+                         .putLong(idRange.from())
+                         .putLong(idRange.to())
+                         .array();
+    }
+
+    @Override
+    public IdRange decode(ByteBuffer buffer, byte version) {
+        if (version != VERSION) {
+            throw new DatabaseException("Unsupported IdRange codec version " + version, null);
+        }
+        return new IdRange(buffer.getLong(), buffer.getLong());
+    }
+}
@@ -8,6 +8,8 @@ import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 
 @Singleton
@@ -39,6 +41,24 @@ public class JacksonJsonConverter implements JsonConverter {
         }
     }
 
+    @Override
+    public <T> T fromJson(byte[] bytes, int offset, int length, Class<T> klass) {
+        try {
+            return objectMapper.readValue(bytes, offset, length, klass);
+        } catch (IOException e) {
+            throw new JsonException("Error reading json", e);
+        }
+    }
+
+    @Override
+    public <T> T fromJson(InputStream inputStream, Class<T> klass) {
+        try {
+            return objectMapper.readValue(inputStream, klass);
+        } catch (IOException e) {
+            throw new JsonException("Error reading json", e);
+        }
+    }
+
     @Override
     public String toJson(Object object) {
         try {
@@ -47,4 +67,22 @@ public class JacksonJsonConverter implements JsonConverter {
             throw new JsonException("Error writing json", e);
         }
     }
+
+    @Override
+    public byte[] toJsonBytes(Object object) {
+        try {
+            return objectMapper.writeValueAsBytes(object);
+        } catch (JsonProcessingException e) {
+            throw new JsonException("Error writing json", e);
+        }
+    }
+
+    @Override
+    public void toJson(OutputStream outputStream, Object object) {
+        try {
+            objectMapper.writeValue(outputStream, object);
+        } catch (IOException e) {
+            throw new JsonException("Error writing json", e);
+        }
+    }
 }
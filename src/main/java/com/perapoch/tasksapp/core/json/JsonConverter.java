@@ -1,5 +1,7 @@
 package com.perapoch.tasksapp.core.json;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 
 public interface JsonConverter {
@@ -8,5 +10,13 @@ public interface JsonConverter {
 
     <T> T fromJson(Reader reader, Class<T> klass);
 
+    <T> T fromJson(byte[] bytes, int offset, int length, Class<T> klass);
+
+    <T> T fromJson(InputStream inputStream, Class<T> klass);
+
     String toJson(Object object);
+
+    byte[] toJsonBytes(Object object);
+
+    void toJson(OutputStream outputStream, Object object);
 }
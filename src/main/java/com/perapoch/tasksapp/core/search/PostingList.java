@@ -0,0 +1,65 @@
+package com.perapoch.tasksapp.core.search;
+
+import java.util.Arrays;
+
+// The sorted ids of the tasks holding a token, in a primitive array. Ids are handed out in increasing order, so adding
+// a new task is an append and only updates and deletes pay for shifting the tail
+final class PostingList {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private long[] ids;
+    private int size;
+
+    PostingList() {
+        this.ids = new long[INITIAL_CAPACITY];
+    }
+
+    int size() {
+        return size;
+    }
+
+    long get(int position) {
+        return ids[position];
+    }
+
+    void add(long id) {
+        int position = Arrays.binarySearch(ids, 0, size, id);
+        if (position >= 0) {
+            return;
+        }
+        int insertAt = -position - 1;
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, ids.length * 2);
+        }
+        System.arraycopy(ids, insertAt, ids, insertAt + 1, size - insertAt);
+        ids[insertAt] = id;
+        size++;
+    }
+
+    void remove(long id) {
+        int position = Arrays.binarySearch(ids, 0, size, id);
+        if (position < 0) {
+            return;
+        }
+        System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+        size--;
+        if (size > INITIAL_CAPACITY && size < ids.length / 4) {
+            ids = Arrays.copyOf(ids, ids.length / 2);
+        }
+    }
+
+    // the position of the first id >= id at or after from, galloping first so that intersecting a short list with a
+    // long one costs log(distance) per step instead of a linear walk
+    int seek(long id, int from) {
+        if (from >= size) {
+            return size;
+        }
+        int bound = 1;
+        while (from + bound < size && ids[from + bound] < id) {
+            bound *= 2;
+        }
+        int position = Arrays.binarySearch(ids, from + bound / 2, Math.min(from + bound + 1, size), id);
+        return position >= 0 ? position : -position - 1;
+    }
+}
@@ -0,0 +1,18 @@
+package com.perapoch.tasksapp.core.search;
+
+import java.util.List;
+
+public interface TaskSearchIndex {
+
+    // a version lower than the indexed one means a concurrent write got there first, so the call is ignored
+    void index(long taskId, String description, long version);
+
+    void remove(long taskId);
+
+    // ids of the tasks holding every word of the query, best matches first
+    List<Long> search(String query, int limit);
+
+    int size();
+
+    void clear();
+}
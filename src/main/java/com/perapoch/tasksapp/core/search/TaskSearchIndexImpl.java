@@ -0,0 +1,188 @@
+package com.perapoch.tasksapp.core.search;
+
+import jakarta.inject.Singleton;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// In-memory inverted index of the task descriptions: one posting list of task ids per token. A query intersects the
+// posting lists of its tokens, shortest first, and ranks the tasks holding all of them with BM25.
+@Singleton
+public class TaskSearchIndexImpl implements TaskSearchIndex {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final ReadWriteLock lock;
+    private final Map<String, PostingList> postings;
+    private final Map<Long, IndexedTask> tasks;
+    private long totalTokens;
+
+    public TaskSearchIndexImpl() {
+        this.lock = new ReentrantReadWriteLock();
+        this.postings = new HashMap<>();
+        this.tasks = new HashMap<>();
+    }
+
+    @Override
+    public void index(long taskId, String description, long version) {
+        // tokenized before taking the lock, which is only held for the posting list updates
+        String[] tokens = Tokenizer.tokenize(description).toArray(String[]::new);
+        lock.writeLock().lock();
+        try {
+            IndexedTask previous = tasks.get(taskId);
+            if (previous != null) {
+                if (previous.version() > version) {
+                    return;
+                }
+                unpost(taskId, previous.tokens());
+            }
+            post(taskId, tokens);
+            tasks.put(taskId, new IndexedTask(tokens, version));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(long taskId) {
+        lock.writeLock().lock();
+        try {
+            IndexedTask previous = tasks.remove(taskId);
+            if (previous != null) {
+                unpost(taskId, previous.tokens());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Long> search(String query, int limit) {
+        List<String> terms = List.copyOf(new LinkedHashSet<>(Tokenizer.tokenize(query)));
+        if (terms.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        lock.readLock().lock();
+        try {
+            List<Term> queryTerms = new ArrayList<>(terms.size());
+            for (String term : terms) {
+                PostingList postingList = postings.get(term);
+                if (postingList == null) {
+                    return List.of();
+                }
+                queryTerms.add(new Term(term, postingList, idf(postingList.size())));
+            }
+            queryTerms.sort(Comparator.comparingInt(term -> term.postings().size()));
+            return topMatches(queryTerms, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return tasks.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            tasks.clear();
+            totalTokens = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // walks the shortest posting list and seeks every other one forward, keeping the best limit matches in a min-heap
+    private List<Long> topMatches(List<Term> terms, int limit) {
+        PriorityQueue<Match> best = new PriorityQueue<>(limit + 1, Match.WORST_FIRST);
+        double averageLength = (double) totalTokens / tasks.size();
+        int[] positions = new int[terms.size()];
+        PostingList shortest = terms.get(0).postings();
+        candidates:
+        for (int i = 0; i < shortest.size(); i++) {
+            long taskId = shortest.get(i);
+            for (int t = 1; t < terms.size(); t++) {
+                PostingList postingList = terms.get(t).postings();
+                positions[t] = postingList.seek(taskId, positions[t]);
+                if (positions[t] == postingList.size()) {
+                    break candidates;
+                }
+                if (postingList.get(positions[t]) != taskId) {
+                    continue candidates;
+                }
+            }
+            best.add(new Match(taskId, score(tasks.get(taskId).tokens(), terms, averageLength)));
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+        List<Match> matches = new ArrayList<>(best);
+        matches.sort(Match.WORST_FIRST.reversed());
+        return matches.stream().map(Match::taskId).toList();
+    }
+
+    private static double score(String[] tokens, List<Term> terms, double averageLength) {
+        double score = 0;
+        for (Term term : terms) {
+            int frequency = 0;
+            for (String token : tokens) {
+                if (token.equals(term.token())) {
+                    frequency++;
+                }
+            }
+            score += term.idf() * frequency * (K1 + 1) / (frequency + K1 * (1 - B + B * tokens.length / averageLength));
+        }
+        return score;
+    }
+
+    private double idf(int documentFrequency) {
+        return Math.log(1 + (tasks.size() - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+
+    private void post(long taskId, String[] tokens) {
+        for (String token : tokens) {
+            postings.computeIfAbsent(token, ignored -> new PostingList()).add(taskId);
+        }
+        totalTokens += tokens.length;
+    }
+
+    private void unpost(long taskId, String[] tokens) {
+        for (String token : tokens) {
+            PostingList postingList = postings.get(token);
+            if (postingList != null) {
+                postingList.remove(taskId);
+                if (postingList.size() == 0) {
+                    postings.remove(token);
+                }
+            }
+        }
+        totalTokens -= tokens.length;
+    }
+
+    private record IndexedTask(String[] tokens, long version) {}
+
+    private record Term(String token, PostingList postings, double idf) {}
+
+    // ties go to the oldest task, so results are stable
+    private record Match(long taskId, double score) {
+        static final Comparator<Match> WORST_FIRST = Comparator.comparingDouble(Match::score)
+                                                               .thenComparing(Comparator.comparingLong(Match::taskId).reversed());
+    }
+}
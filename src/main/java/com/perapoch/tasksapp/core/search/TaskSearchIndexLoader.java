@@ -0,0 +1,39 @@
+package com.perapoch.tasksapp.core.search;
+
+import com.perapoch.tasksapp.core.task.Task;
+import com.perapoch.tasksapp.core.task.TaskManager;
+import io.dropwizard.lifecycle.Managed;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.stream.Stream;
+
+// The search index only lives in memory, so it is rebuilt from the store on startup. Managed objects are started before
+// the server accepts requests, so no search is answered from a half built index.
+@Singleton
+public class TaskSearchIndexLoader implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskSearchIndexLoader.class);
+    // lower than any stored version, so a write racing with the rebuild always wins
+    private static final long REBUILD_VERSION = 0L;
+
+    private final TaskManager taskManager;
+    private final TaskSearchIndex searchIndex;
+
+    @Inject
+    public TaskSearchIndexLoader(TaskManager taskManager, TaskSearchIndex searchIndex) {
+        this.taskManager = taskManager;
+        this.searchIndex = searchIndex;
+    }
+
+    @Override
+    public void start() {
+        long startMs = System.currentTimeMillis();
+        try (Stream<Task> tasks = taskManager.streamTasks()) {
+            tasks.forEach(task -> searchIndex.index(task.id(), task.description(), REBUILD_VERSION));
+        }
+        LOGGER.info("Search index rebuilt with {} tasks in {} ms", searchIndex.size(), System.currentTimeMillis() - startMs);
+    }
+}
@@ -0,0 +1,9 @@
+package com.perapoch.tasksapp.core.stats;
+
+import java.util.List;
+
+// overdue counts the open tasks due before the current hour, dueSoon the open ones due in each of the next hours
+public record TaskStats(long total, long completed, long open, long overdue, List<DueBucket> dueSoon, long reconciledAtMs) {
+
+    public record DueBucket(long fromMs, long toMs, long open) {}
+}
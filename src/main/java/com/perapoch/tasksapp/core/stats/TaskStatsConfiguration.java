@@ -0,0 +1,22 @@
+package com.perapoch.tasksapp.core.stats;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import jakarta.validation.constraints.NotNull;
+
+public class TaskStatsConfiguration {
+
+    // how often the counters are recounted from the store, which fixes any drift from writes racing with a recount
+    @NotNull
+    private Duration reconcileInterval = Duration.minutes(10);
+
+    @JsonProperty
+    public Duration getReconcileInterval() {
+        return reconcileInterval;
+    }
+
+    @JsonProperty
+    public void setReconcileInterval(Duration reconcileInterval) {
+        this.reconcileInterval = reconcileInterval;
+    }
+}
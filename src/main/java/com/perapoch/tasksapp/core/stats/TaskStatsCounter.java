@@ -0,0 +1,18 @@
+package com.perapoch.tasksapp.core.stats;
+
+import com.perapoch.tasksapp.core.task.Task;
+
+import java.util.stream.Stream;
+
+public interface TaskStatsCounter {
+
+    // a null previous task means it has been created, a null current one that it has been deleted
+    void record(Task previous, Task current);
+
+    TaskStats getStats(long nowMs);
+
+    // recounts everything from the given tasks, replacing whatever the write path had counted
+    void reconcile(Stream<Task> tasks, long nowMs);
+
+    void clear();
+}
@@ -0,0 +1,111 @@
+package com.perapoch.tasksapp.core.stats;
+
+import com.perapoch.tasksapp.core.task.Task;
+import jakarta.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+// Task counters kept up to date by the write path, so the stats never need a scan. Open tasks are also counted per hour
+// they are due in; the buckets before the current hour are summed into overdue as time goes by, each bucket once.
+@Singleton
+public class TaskStatsCounterImpl implements TaskStatsCounter {
+
+    static final long BUCKET_MS = 60 * 60_000L;
+    static final int DUE_SOON_BUCKETS = 24;
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskStatsCounterImpl.class);
+
+    private Counts counts;
+    private long reconciledAtMs;
+
+    public TaskStatsCounterImpl() {
+        this.counts = new Counts(0L);
+    }
+
+    @Override
+    public synchronized void record(Task previous, Task current) {
+        if (previous != null) {
+            counts.add(previous, -1);
+        }
+        if (current != null) {
+            counts.add(current, 1);
+        }
+    }
+
+    @Override
+    public synchronized TaskStats getStats(long nowMs) {
+        long currentBucket = bucketOf(nowMs);
+        counts.advanceOverdue(currentBucket);
+        List<TaskStats.DueBucket> dueSoon = new ArrayList<>();
+        for (Map.Entry<Long, Long> bucket : counts.openByDueBucket.subMap(currentBucket, currentBucket + DUE_SOON_BUCKETS * BUCKET_MS).entrySet()) {
+            dueSoon.add(new TaskStats.DueBucket(bucket.getKey(), bucket.getKey() + BUCKET_MS, bucket.getValue()));
+        }
+        return new TaskStats(counts.total, counts.completed, counts.total - counts.completed, counts.overdue, dueSoon, reconciledAtMs);
+    }
+
+    @Override
+    public void reconcile(Stream<Task> tasks, long nowMs) {
+        // counted without the lock, so writes racing with the scan may be missed until the next reconciliation
+        Counts recounted = new Counts(bucketOf(nowMs));
+        tasks.forEach(task -> recounted.add(task, 1));
+        synchronized (this) {
+            if (recounted.total != counts.total || recounted.completed != counts.completed) {
+                LOGGER.info("Task stats drifted: total {} -> {}, completed {} -> {}", counts.total, recounted.total, counts.completed, recounted.completed);
+            }
+            counts = recounted;
+            reconciledAtMs = nowMs;
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        counts = new Counts(0L);
+        reconciledAtMs = 0L;
+    }
+
+    private static long bucketOf(long timeMs) {
+        return Math.floorDiv(timeMs, BUCKET_MS) * BUCKET_MS;
+    }
+
+    private static final class Counts {
+
+        private final TreeMap<Long, Long> openByDueBucket = new TreeMap<>();
+        private long total;
+        private long completed;
+        // open tasks due in the buckets before overdueBoundary
+        private long overdue;
+        private long overdueBoundary;
+
+        private Counts(long overdueBoundary) {
+            this.overdueBoundary = overdueBoundary;
+        }
+
+        private void add(Task task, int delta) {
+            total += delta;
+            if (task.completed()) {
+                completed += delta;
+                return;
+            }
+            long bucket = bucketOf(task.endsAtMs());
+            openByDueBucket.merge(bucket, (long) delta, (count, added) -> count + added == 0 ? null : count + added);
+            if (bucket < overdueBoundary) {
+                overdue += delta;
+            }
+        }
+
+        private void advanceOverdue(long currentBucket) {
+            if (currentBucket <= overdueBoundary) {
+                return;
+            }
+            for (long open : openByDueBucket.subMap(overdueBoundary, currentBucket).values()) {
+                overdue += open;
+            }
+            overdueBoundary = currentBucket;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.perapoch.tasksapp.core.stats;
+
+import com.perapoch.tasksapp.TaskAppConfiguration;
+import com.perapoch.tasksapp.core.task.Task;
+import com.perapoch.tasksapp.core.task.TaskManager;
+import com.perapoch.tasksapp.core.time.TimeProvider;
+import io.dropwizard.core.setup.Environment;
+import io.dropwizard.lifecycle.Managed;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Counts the tasks on startup, before the server accepts requests, and recounts them every reconcileInterval
+@Singleton
+public class TaskStatsReconciler implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskStatsReconciler.class);
+
+    private final TaskManager taskManager;
+    private final TaskStatsCounter statsCounter;
+    private final TimeProvider timeProvider;
+    private final long reconcileIntervalMs;
+    private final ScheduledExecutorService executor;
+
+    @Inject
+    public TaskStatsReconciler(TaskManager taskManager, TaskStatsCounter statsCounter, TimeProvider timeProvider,
+                               TaskAppConfiguration configuration, Environment environment) {
+        this.taskManager = taskManager;
+        this.statsCounter = statsCounter;
+        this.timeProvider = timeProvider;
+        this.reconcileIntervalMs = configuration.getStats().getReconcileInterval().toMilliseconds();
+        this.executor = environment.lifecycle().scheduledExecutorService("task-stats-reconciler-%d").build();
+    }
+
+    @Override
+    public void start() {
+        reconcile();
+        executor.scheduleWithFixedDelay(this::reconcileQuietly, reconcileIntervalMs, reconcileIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void reconcile() {
+        try (Stream<Task> tasks = taskManager.streamTasks()) {
+            statsCounter.reconcile(tasks, timeProvider.getCurrentTimeMs());
+        }
+    }
+
+    private void reconcileQuietly() {
+        try {
+            reconcile();
+        } catch (RuntimeException e) {
+            // the counters are still maintained by the write path, the next run will try again
+            LOGGER.warn("Task stats reconciliation failed", e);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.perapoch.tasksapp.core.task;
+
+import java.util.Optional;
+
+// one page of the deadline index scanned by the archiver: how many tasks it moved and where the next page starts
+public record ArchiveBatch(int scanned, int archived, Optional<String> nextCursor) {
+
+}
@@ -0,0 +1,39 @@
+package com.perapoch.tasksapp.core.task;
+
+import com.perapoch.tasksapp.storage.db.ChangeBatch;
+import com.perapoch.tasksapp.storage.db.Versioned;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+// The TaskManager operations that touch the db, as futures completed on the DatabaseExecutor. Each operation runs whole
+// on one db thread, so its unit of work and cache updates behave as in the blocking call
+public interface AsyncTaskManager {
+
+    CompletableFuture<Optional<Versioned<Task>>> getVersionedTaskById(long id);
+
+    CompletableFuture<TaskPage> getArchivedTasks(String afterCursor, int limit);
+
+    CompletableFuture<List<Task>> getTasks(int offset, int limit);
+
+    CompletableFuture<TaskPage> getTasks(String afterCursor, int limit);
+
+    CompletableFuture<TaskPage> getTasksByDeadline(Long dueAfterMs, Long dueBeforeMs, String afterCursor, int limit);
+
+    CompletableFuture<List<Task>> getTasksByIds(Collection<Long> taskIds);
+
+    CompletableFuture<List<Task>> getTasksByDescription(String description);
+
+    CompletableFuture<List<Task>> searchTasks(String query, int limit);
+
+    // waits for the next change without any thread: the feed is read again once a change is committed
+    CompletableFuture<ChangeBatch<Long>> getTaskChanges(String sinceCursor, int limit, long maxWaitMs);
+
+    CompletableFuture<Task> createTask(NewTaskRequest newTaskRequest);
+
+    CompletableFuture<Versioned<Task>> updateTask(long taskId, NewTaskRequest newTaskRequest, long expectedVersion);
+
+    CompletableFuture<Void> deleteTask(long taskId, long expectedVersion);
+}
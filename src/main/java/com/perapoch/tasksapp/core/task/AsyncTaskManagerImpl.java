@@ -0,0 +1,114 @@
+package com.perapoch.tasksapp.core.task;
+
+import com.perapoch.tasksapp.storage.db.ChangeBatch;
+import com.perapoch.tasksapp.storage.db.DatabaseExecutor;
+import com.perapoch.tasksapp.storage.db.Versioned;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+@Singleton
+public class AsyncTaskManagerImpl implements AsyncTaskManager {
+
+    private final TaskManager taskManager;
+    private final DatabaseExecutor databaseExecutor;
+
+    @Inject
+    public AsyncTaskManagerImpl(TaskManager taskManager, DatabaseExecutor databaseExecutor) {
+        this.taskManager = taskManager;
+        this.databaseExecutor = databaseExecutor;
+    }
+
+    @Override
+    public CompletableFuture<Optional<Versioned<Task>>> getVersionedTaskById(long id) {
+        return databaseExecutor.submit(() -> taskManager.getVersionedTaskById(id));
+    }
+
+    @Override
+    public CompletableFuture<TaskPage> getArchivedTasks(String afterCursor, int limit) {
+        return databaseExecutor.submit(() -> taskManager.getArchivedTasks(afterCursor, limit));
+    }
+
+    @Override
+    public CompletableFuture<List<Task>> getTasks(int offset, int limit) {
+        return databaseExecutor.submit(() -> taskManager.getTasks(offset, limit));
+    }
+
+    @Override
+    public CompletableFuture<TaskPage> getTasks(String afterCursor, int limit) {
+        return databaseExecutor.submit(() -> taskManager.getTasks(afterCursor, limit));
+    }
+
+    @Override
+    public CompletableFuture<TaskPage> getTasksByDeadline(Long dueAfterMs, Long dueBeforeMs, String afterCursor, int limit) {
+        return databaseExecutor.submit(() -> taskManager.getTasksByDeadline(dueAfterMs, dueBeforeMs, afterCursor, limit));
+    }
+
+    @Override
+    public CompletableFuture<List<Task>> getTasksByIds(Collection<Long> taskIds) {
+        return databaseExecutor.submit(() -> taskManager.getTasksByIds(taskIds));
+    }
+
+    @Override
+    public CompletableFuture<List<Task>> getTasksByDescription(String description) {
+        return databaseExecutor.submit(() -> taskManager.getTasksByDescription(description));
+    }
+
+    @Override
+    public CompletableFuture<List<Task>> searchTasks(String query, int limit) {
+        return databaseExecutor.submit(() -> taskManager.searchTasks(query, limit));
+    }
+
+    @Override
+    public CompletableFuture<ChangeBatch<Long>> getTaskChanges(String sinceCursor, int limit, long maxWaitMs) {
+        TaskManagerImpl.checkValidChangesWait(maxWaitMs);
+        if (maxWaitMs == 0) {
+            return databaseExecutor.submit(() -> taskManager.getTaskChanges(sinceCursor, limit, 0L));
+        }
+        return pollTaskChanges(sinceCursor, limit, maxWaitMs, System.currentTimeMillis() + maxWaitMs);
+    }
+
+    private CompletableFuture<ChangeBatch<Long>> pollTaskChanges(String sinceCursor, int limit, long waitMs, long deadlineMs) {
+        // taken before the read, so a change committed while reading still ends the wait
+        CompletableFuture<Boolean> changed = taskManager.nextTaskChange(waitMs);
+        CompletableFuture<ChangeBatch<Long>> poll = databaseExecutor.submit(() -> taskManager.getTaskChanges(sinceCursor, limit, 0L)).thenCompose(changes -> {
+            if (!changes.changes().isEmpty()) {
+                return CompletableFuture.completedFuture(changes);
+            }
+            return changed.thenCompose(signalled -> {
+                if (!signalled) {
+                    return CompletableFuture.completedFuture(changes);
+                }
+                // the signalling write may have rolled back and left nothing to read: then the poll keeps waiting
+                long remainingMs = deadlineMs - System.currentTimeMillis();
+                return remainingMs > 0
+                       ? pollTaskChanges(changes.cursor(), limit, remainingMs, deadlineMs)
+                       : databaseExecutor.submit(() -> taskManager.getTaskChanges(changes.cursor(), limit, 0L));
+            });
+        });
+        // however the poll ends (changes read right away, a failed read), the feed stops holding on to its wait
+        return poll.whenComplete((changes, error) -> changed.cancel(false));
+    }
+
+    @Override
+    public CompletableFuture<Task> createTask(NewTaskRequest newTaskRequest) {
+        return databaseExecutor.submit(() -> taskManager.createTask(newTaskRequest));
+    }
+
+    @Override
+    public CompletableFuture<Versioned<Task>> updateTask(long taskId, NewTaskRequest newTaskRequest, long expectedVersion) {
+        return databaseExecutor.submit(() -> taskManager.updateTask(taskId, newTaskRequest, expectedVersion));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteTask(long taskId, long expectedVersion) {
+        return databaseExecutor.submit(() -> {
+            taskManager.deleteTask(taskId, expectedVersion);
+            return null;
+        });
+    }
+}
@@ -0,0 +1,54 @@
+package com.perapoch.tasksapp.core.task;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.stream.Collectors;
+
+import static com.perapoch.tasksapp.core.check.Checks.isBlank;
+
+// encodes the keyset cursors as url safe base64 of a versioned prefix followed by their values, e.g. "v1:42"
+class CursorCodec {
+
+    private static final String SEPARATOR = ":";
+
+    private CursorCodec() {}
+
+    static String encode(String prefix, long... values) {
+        String raw = prefix + Arrays.stream(values).mapToObj(Long::toString).collect(Collectors.joining(SEPARATOR));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // the values of a cursor made by encode with the same prefix and number of values. The last one, the id of the
+    // last task of the previous page, can't be negative
+    static long[] decode(String cursor, String prefix, int valueCount) {
+        if (isBlank(cursor)) {
+            throw new InvalidParameterException("Cursor can't be empty");
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (!raw.startsWith(prefix)) {
+                throw invalid(cursor);
+            }
+            String[] parts = raw.substring(prefix.length()).split(SEPARATOR, -1);
+            if (parts.length != valueCount) {
+                throw invalid(cursor);
+            }
+            long[] values = new long[valueCount];
+            for (int i = 0; i < valueCount; i++) {
+                values[i] = Long.parseLong(parts[i]);
+            }
+            if (values[valueCount - 1] < 0) {
+                throw invalid(cursor);
+            }
+            return values;
+        } catch (IllegalArgumentException e) {
+            // covers both malformed base64 and NumberFormatException
+            throw invalid(cursor);
+        }
+    }
+
+    private static InvalidParameterException invalid(String cursor) {
+        return new InvalidParameterException("Invalid cursor: " + cursor);
+    }
+}
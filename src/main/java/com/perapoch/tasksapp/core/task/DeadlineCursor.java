@@ -0,0 +1,16 @@
+package com.perapoch.tasksapp.core.task;
+
+// keyset cursor of the pages ordered by deadline: the deadline and id of the last task of the previous page
+public record DeadlineCursor(long afterEndsAtMs, long afterTaskId) {
+
+    private static final String VERSION_PREFIX = "d1:";
+
+    public String encode() {
+        return CursorCodec.encode(VERSION_PREFIX, afterEndsAtMs, afterTaskId);
+    }
+
+    public static DeadlineCursor decode(String cursor) {
+        long[] values = CursorCodec.decode(cursor, VERSION_PREFIX, 2);
+        return new DeadlineCursor(values[0], values[1]);
+    }
+}
@@ -0,0 +1,15 @@
+package com.perapoch.tasksapp.core.task;
+
+public record TaskCursor(long afterTaskId) {
+
+    private static final String VERSION_PREFIX = "v1:";
+
+    public String encode() {
+        return CursorCodec.encode(VERSION_PREFIX, afterTaskId);
+    }
+
+    public static TaskCursor decode(String cursor) {
+        long[] values = CursorCodec.decode(cursor, VERSION_PREFIX, 1);
+        return new TaskCursor(values[0]);
+    }
+}
@@ -1,17 +1,63 @@
 package com.perapoch.tasksapp.core.task;
 
+import com.perapoch.tasksapp.core.stats.TaskStats;
+import com.perapoch.tasksapp.storage.db.ChangeBatch;
+import com.perapoch.tasksapp.storage.db.Versioned;
+
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 public interface TaskManager {
 
     Optional<Task> getTaskById(long id);
 
+    // archived tasks included, like deleteTask
+    Optional<Versioned<Task>> getVersionedTaskById(long id);
+
+    // pages of the archived tasks, in id order
+    TaskPage getArchivedTasks(String afterCursor, int limit);
+
     List<Task> getTasks(int offset, int limit);
 
+    TaskPage getTasks(String afterCursor, int limit);
+
+    // tasks due within [dueAfterMs, dueBeforeMs), either bound being optional, ordered by deadline then id
+    TaskPage getTasksByDeadline(Long dueAfterMs, Long dueBeforeMs, String afterCursor, int limit);
+
+    List<Task> getTasksByIds(Collection<Long> taskIds);
+
+    List<Task> getTasksByDescription(String description);
+
+    // counters kept by the write path, so no scan is needed. Archived tasks aren't counted
+    TaskStats getTaskStats();
+
+    // tasks whose description holds every word of the query, best matches first. Archived tasks aren't searched
+    List<Task> searchTasks(String query, int limit);
+
+    // every task not archived, in id order
+    Stream<Task> streamTasks();
+
+    // the task changes after sinceCursor (or after the latest change when null), waiting up to maxWaitMs for one to happen
+    ChangeBatch<Long> getTaskChanges(String sinceCursor, int limit, long maxWaitMs);
+
+    // completed with true by the next task change or with false after maxWaitMs, for the callers that wait for changes
+    // without blocking a thread. Cancelling it stops the wait
+    CompletableFuture<Boolean> nextTaskChange(long maxWaitMs);
+
     Task createTask(NewTaskRequest newTaskRequest);
 
     Task updateTask(long taskId, NewTaskRequest newTaskRequest);
 
+    // fails with TaskVersionMismatchException unless the task is still at expectedVersion (or it is Versioned.ANY_VERSION)
+    Versioned<Task> updateTask(long taskId, NewTaskRequest newTaskRequest, long expectedVersion);
+
     void deleteTask(long taskId);
+
+    void deleteTask(long taskId, long expectedVersion);
+
+    // moves the completed tasks of one page of the tasks due before endedBeforeMs to the archive
+    ArchiveBatch archiveTasks(long endedBeforeMs, String afterCursor, int limit);
 }
@@ -2,20 +2,46 @@ package com.perapoch.tasksapp.core.task;
 
 import com.perapoch.tasksapp.core.idgenerator.IdGenerator;
 import com.perapoch.tasksapp.core.idgenerator.IdGeneratorFactory;
+import com.perapoch.tasksapp.core.search.TaskSearchIndex;
+import com.perapoch.tasksapp.core.search.Tokenizer;
+import com.perapoch.tasksapp.core.stats.TaskStats;
+import com.perapoch.tasksapp.core.stats.TaskStatsCounter;
 import com.perapoch.tasksapp.core.time.TimeProvider;
 import com.perapoch.tasksapp.storage.cache.CacheManager;
+import com.perapoch.tasksapp.storage.cache.CacheMissHandler;
 import com.perapoch.tasksapp.storage.cache.LruCache;
+import com.perapoch.tasksapp.storage.db.ChangeBatch;
+import com.perapoch.tasksapp.storage.db.ChangeFeed;
+import com.perapoch.tasksapp.storage.db.EntityAlreadyExistsException;
+import com.perapoch.tasksapp.storage.db.IndexColumn;
+import com.perapoch.tasksapp.storage.db.IndexPosition;
+import com.perapoch.tasksapp.storage.db.IndexRangeScan;
 import com.perapoch.tasksapp.storage.db.KeyValueStore;
 import com.perapoch.tasksapp.storage.db.KeyValueStoreFactory;
+import com.perapoch.tasksapp.storage.db.StoreOptions;
 import com.perapoch.tasksapp.storage.db.StringUniqueIndexColumn;
+import com.perapoch.tasksapp.storage.db.UnitOfWork;
+import com.perapoch.tasksapp.storage.db.UnsupportedCapabilityException;
+import com.perapoch.tasksapp.storage.db.VersionConflictException;
+import com.perapoch.tasksapp.storage.db.Versioned;
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static com.perapoch.tasksapp.core.check.Checks.isBlank;
 import static com.perapoch.tasksapp.core.check.Checks.throwIf;
@@ -23,20 +49,64 @@ import static com.perapoch.tasksapp.core.check.Checks.throwIf;
 @Singleton
 public class TaskManagerImpl implements TaskManager {
 
+    private static final int MAX_TASK_IDS = 1000;
+    private static final int TASK_COMPRESSION_THRESHOLD_BYTES = 512;
+    private static final int EXPORT_CHUNK_SIZE = 1000;
+    private static final String DESCRIPTION_INDEX = "description";
+    private static final String ENDS_AT_INDEX = "ends_at_ms";
+    private static final String ARCHIVE_TABLE = "tasks_archive";
+    private static final long MAX_CHANGES_WAIT_MS = 30_000;
+
     private final KeyValueStore<Long, Task> taskStore;
-    private final LruCache<Long, Task> taskCache;
+    // null when the tasks are kept on an engine without range scans or change feeds (the log-structured or MVStore ones)
+    private final IndexRangeScan<Long, Task> taskRangeScan;
+    private final ChangeFeed<Long> taskChanges;
+    private final KeyValueStore<Long, Task> archiveStore;
+    private final LruCache<Long, Versioned<Task>> taskCache;
     private final LruCache<GetAllCacheKey, List<Task>> getAllCache;
     private final IdGenerator idGenerator;
     private final TimeProvider timeProvider;
+    private final TaskSearchIndex searchIndex;
+    private final TaskStatsCounter statsCounter;
+    private final UnitOfWork unitOfWork;
 
     @Inject
     public TaskManagerImpl(KeyValueStoreFactory keyValueStoreFactory,
                            CacheManager cacheManager,
                            IdGeneratorFactory idGeneratorFactory,
-                           TimeProvider timeProvider) {
-        this.taskStore = keyValueStoreFactory.createLongKeyValueStore("tasks", Task.class, StringUniqueIndexColumn.of("description", Task::description));
+                           TimeProvider timeProvider,
+                           TaskSearchIndex searchIndex,
+                           TaskStatsCounter statsCounter,
+                           UnitOfWork unitOfWork) {
+        this.taskStore = keyValueStoreFactory.createLongKeyValueStore("tasks", Task.class, StoreOptions.<Task>defaults()
+                                                                                                  .withUniqueIndex(StringUniqueIndexColumn.of(DESCRIPTION_INDEX, Task::description))
+                                                                                                  .withCodec(new TaskPayloadCodec())
+                                                                                                  .withCompression(TASK_COMPRESSION_THRESHOLD_BYTES)
+                                                                                                  .withGroupCommit()
+                                                                                                  .withOptimisticLocking()
+                                                                                                  .withIndexCache(DESCRIPTION_INDEX, 1000)
+                                                                                                  .withIndex(IndexColumn.nonUnique(ENDS_AT_INDEX, Long.class, Task::endsAtMs))
+                                                                                                  .withSharding()
+                                                                                                  .withReplicaReads()
+                                                                                                  .withChangeFeed());
+        this.taskRangeScan = IndexRangeScan.maybeOf(taskStore).orElse(null);
+        this.taskChanges = ChangeFeed.maybeOf(taskStore).orElse(null);
+        // the cold tier: completed tasks moved out of the tasks table so it only holds the working set
+        this.archiveStore = keyValueStoreFactory.createLongKeyValueStore(ARCHIVE_TABLE, Task.class, StoreOptions.<Task>defaults()
+                                                                                                        .withCodec(new TaskPayloadCodec())
+                                                                                                        .withCompression(TASK_COMPRESSION_THRESHOLD_BYTES));
         this.taskCache = cacheManager.createLruCache("task-cache",
-                                                     key -> taskStore.getById(key).orElse(null),
+                                                     new CacheMissHandler<Long, Versioned<Task>>() {
+                                                         @Override
+                                                         public Versioned<Task> fetch(Long key) {
+                                                             return taskStore.getVersionedById(key).orElse(null);
+                                                         }
+
+                                                         @Override
+                                                         public Map<Long, Versioned<Task>> fetchAll(Set<? extends Long> keys) {
+                                                             return taskStore.getVersionedByIds(keys);
+                                                         }
+                                                     },
                                                      1000,
                                                      Duration.of(5, ChronoUnit.MINUTES));
         this.getAllCache = cacheManager.createLruCache("task-get-all-cache",
@@ -44,20 +114,38 @@ public class TaskManagerImpl implements TaskManager {
                                                        Duration.of(5, ChronoUnit.MINUTES));
         this.idGenerator = idGeneratorFactory.getOrCreate("taskId", 10);
         this.timeProvider = timeProvider;
+        this.searchIndex = searchIndex;
+        this.statsCounter = statsCounter;
+        this.unitOfWork = unitOfWork;
     }
 
     @Override
     public Optional<Task> getTaskById(long id) {
         checkValidTaskId(id);
 
-        return taskCache.get(id);
+        return getVersionedTaskById(id).map(Versioned::value);
+    }
+
+    @Override
+    public Optional<Versioned<Task>> getVersionedTaskById(long id) {
+        checkValidTaskId(id);
+
+        // archived tasks aren't cached: the task cache is for the working set only
+        return taskCache.get(id).or(() -> archiveStore.getVersionedById(id));
+    }
+
+    @Override
+    public TaskPage getArchivedTasks(String afterCursor, int limit) {
+        checkValidLimit(limit);
+        Long afterTaskId = afterCursor == null ? null : TaskCursor.decode(afterCursor).afterTaskId();
+
+        return TaskPage.of(archiveStore.getAllAfter(afterTaskId, limit), limit);
     }
 
     @Override
     public List<Task> getTasks(int offset, int limit) {
         throwIf(offset < 0, () -> new InvalidParameterException("Offset can't be negative. Got: " + offset));
-        throwIf(limit <= 0, () -> new InvalidParameterException("Limit must be positive number. Got: " + limit));
-        throwIf(limit > 10_000, () -> new InvalidParameterException("Limit must be <= 10000. Got: " + limit));
+        checkValidLimit(limit);
 
         GetAllCacheKey cacheKey = new GetAllCacheKey(offset, limit);
         List<Task> tasks = getAllCache.get(cacheKey).orElseGet(Collections::emptyList);
@@ -71,49 +159,263 @@ public class TaskManagerImpl implements TaskManager {
         return tasks;
     }
 
+    @Override
+    public TaskPage getTasks(String afterCursor, int limit) {
+        checkValidLimit(limit);
+        Long afterTaskId = afterCursor == null ? null : TaskCursor.decode(afterCursor).afterTaskId();
+
+        // keyset pages are cheap index seeks and stay stable under concurrent inserts/deletes, so they are not cached
+        List<Task> tasks = taskStore.getAllAfter(afterTaskId, limit);
+        return TaskPage.of(tasks, limit);
+    }
+
+    @Override
+    public TaskPage getTasksByDeadline(Long dueAfterMs, Long dueBeforeMs, String afterCursor, int limit) {
+        checkValidLimit(limit);
+        throwIf(dueAfterMs != null && dueBeforeMs != null && dueAfterMs >= dueBeforeMs,
+                () -> new InvalidParameterException("dueAfter must be lower than dueBefore. Got: %d and %d".formatted(dueAfterMs, dueBeforeMs)));
+        IndexPosition<Long> after = null;
+        if (afterCursor != null) {
+            DeadlineCursor cursor = DeadlineCursor.decode(afterCursor);
+            after = IndexPosition.of(cursor.afterEndsAtMs(), cursor.afterTaskId());
+        }
+
+        // a range scan of the deadline index, not cached for the same reason as the keyset pages
+        List<Task> tasks = taskRangeScan().getByIndexRange(ENDS_AT_INDEX, dueAfterMs, dueBeforeMs, after, limit);
+        return TaskPage.byDeadline(tasks, limit);
+    }
+
+    @Override
+    public List<Task> getTasksByIds(Collection<Long> taskIds) {
+        throwIf(taskIds == null || taskIds.isEmpty(), () -> new InvalidParameterException("At least one taskId must be provided"));
+        throwIf(taskIds.size() > MAX_TASK_IDS, () -> new InvalidParameterException("At most %d taskIds can be requested. Got: %d".formatted(MAX_TASK_IDS, taskIds.size())));
+        taskIds.forEach(TaskManagerImpl::checkValidTaskId);
+
+        Map<Long, Versioned<Task>> tasks = taskCache.getAll(taskIds);
+        return taskIds.stream()
+                      .distinct()
+                      .map(tasks::get)
+                      .filter(Objects::nonNull)
+                      .map(Versioned::value)
+                      .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<Task> getTasksByDescription(String description) {
+        throwIf(isBlank(description), () -> new InvalidParameterException("Task description can't be empty"));
+
+        // descriptions are unique, so this is a single index seek
+        return taskStore.getByIndex(DESCRIPTION_INDEX, description, 1);
+    }
+
+    @Override
+    public TaskStats getTaskStats() {
+        return statsCounter.getStats(timeProvider.getCurrentTimeMs());
+    }
+
+    @Override
+    public List<Task> searchTasks(String query, int limit) {
+        throwIf(isBlank(query), () -> new InvalidParameterException("Search query can't be empty"));
+        throwIf(limit <= 0 || limit > MAX_TASK_IDS, () -> new InvalidParameterException("Limit must be between 1 and %d. Got: %d".formatted(MAX_TASK_IDS, limit)));
+
+        List<Long> taskIds = searchIndex.search(query, limit);
+        if (taskIds.isEmpty()) {
+            return List.of();
+        }
+        // the index is only updated after the store write, so a hit is checked against the stored description
+        Set<String> terms = new HashSet<>(Tokenizer.tokenize(query));
+        Map<Long, Versioned<Task>> tasks = taskCache.getAll(taskIds);
+        return taskIds.stream()
+                      .map(tasks::get)
+                      .filter(Objects::nonNull)
+                      .map(Versioned::value)
+                      .filter(task -> Tokenizer.tokenize(task.description()).containsAll(terms))
+                      .collect(Collectors.toList());
+    }
+
+    @Override
+    public Stream<Task> streamTasks() {
+        // bypasses the caches on purpose: a full dump would only evict the hot entries. The archive isn't part of it, like
+        // it isn't part of the stats nor the search index
+        return taskStore.stream(EXPORT_CHUNK_SIZE);
+    }
+
+    @Override
+    public ChangeBatch<Long> getTaskChanges(String sinceCursor, int limit, long maxWaitMs) {
+        checkValidLimit(limit);
+        checkValidChangesWait(maxWaitMs);
+
+        // like the export, the feed bypasses the caches: it reads the change log only
+        ChangeFeed<Long> taskChanges = taskChanges();
+        String cursor = sinceCursor != null ? sinceCursor : taskChanges.latestChangeCursor();
+        try {
+            return taskChanges.changesSince(cursor, limit, maxWaitMs);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidParameterException("Invalid change cursor: " + sinceCursor);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> nextTaskChange(long maxWaitMs) {
+        return taskChanges().nextChange(maxWaitMs);
+    }
+
     @Override
     public Task createTask(NewTaskRequest newTaskRequest) {
         checkValidNewTask(newTaskRequest);
 
         long nextTaskId = idGenerator.newId();
         var task = new Task(nextTaskId, newTaskRequest.description(), timeProvider.getCurrentTimeMs(), newTaskRequest.endsAtMs(), false);
-        Task newTask = taskStore.update(nextTaskId, task.description(), existing -> {
-            if (existing != null) {
-                throw new TaskAlreadyExistsException("Task already exists!");
-            }
-            return task;
-        });
-        taskCache.put(newTask.id(), newTask);
-        return newTask;
+        // the id was just generated, so the row is written without reading it first and only the description can clash.
+        // A single store write: unsharded it joins the group commit of the tasks store, sharded the store writes the
+        // description claim and the row in a unit of work of its own. The id generator commits on its own either way
+        Versioned<Task> newTask;
+        try {
+            newTask = taskStore.insert(nextTaskId, task);
+        } catch (EntityAlreadyExistsException e) {
+            throw new TaskAlreadyExistsException("Task already exists!");
+        }
+        taskCache.put(newTask.value().id(), newTask);
+        searchIndex.index(nextTaskId, task.description(), newTask.version());
+        statsCounter.record(null, newTask.value());
+        return newTask.value();
     }
 
     @Override
     public Task updateTask(long taskId, NewTaskRequest newTaskRequest) {
+        return updateTask(taskId, newTaskRequest, Versioned.ANY_VERSION).value();
+    }
+
+    @Override
+    public Versioned<Task> updateTask(long taskId, NewTaskRequest newTaskRequest, long expectedVersion) {
         checkValidTaskId(taskId);
         checkValidNewTask(newTaskRequest);
 
-        Task updatedTask = taskStore.update(taskId, existing -> {
+        // the operation runs again on a retried write, so the last task it saw is the one replaced. Like createTask, a
+        // single store write, whose claim and row the sharded store keeps together
+        AtomicReference<Task> previousTask = new AtomicReference<>();
+        Versioned<Task> updatedTask = withVersionCheck(taskId, expectedVersion, () -> taskStore.updateVersioned(taskId, null, expectedVersion, existing -> {
+            previousTask.set(existing);
             if (existing == null) {
                 throw new TaskNotFoundException("Task with id=%d does not exist!".formatted(taskId));
             }
             return new Task(existing.id(), newTaskRequest.description(), existing.createdAtMs(), newTaskRequest.endsAtMs(), newTaskRequest.completed());
-        });
-        taskCache.put(updatedTask.id(), updatedTask);
+        }));
+        taskCache.put(taskId, updatedTask);
+        searchIndex.index(taskId, updatedTask.value().description(), updatedTask.version());
+        statsCounter.record(previousTask.get(), updatedTask.value());
         return updatedTask;
     }
 
     @Override
     public void deleteTask(long taskId) {
+        deleteTask(taskId, Versioned.ANY_VERSION);
+    }
+
+    @Override
+    public void deleteTask(long taskId, long expectedVersion) {
         checkValidTaskId(taskId);
 
-        taskStore.update(taskId, existing -> null);
+        AtomicReference<Task> deletedTask = new AtomicReference<>();
+        unitOfWork.execute(() -> {
+            withVersionCheck(taskId, expectedVersion, () -> taskStore.updateVersioned(taskId, null, expectedVersion, existing -> {
+                deletedTask.set(existing);
+                return null;
+            }));
+            if (deletedTask.get() == null && expectedVersion == Versioned.ANY_VERSION) {
+                // not in the working set, it may have been archived
+                archiveStore.update(taskId, existing -> null);
+            }
+        });
         taskCache.remove(taskId);
+        searchIndex.remove(taskId);
+        if (deletedTask.get() != null) {
+            statsCounter.record(deletedTask.get(), null);
+        }
+    }
+
+    @Override
+    public ArchiveBatch archiveTasks(long endedBeforeMs, String afterCursor, int limit) {
+        // without a deadline index every task is walked in id order instead, and the ones ending later are skipped
+        TaskPage page = taskRangeScan != null ? getTasksByDeadline(null, endedBeforeMs, afterCursor, limit) : getTasks(afterCursor, limit);
+        List<Long> completedTaskIds = page.tasks().stream()
+                                          .filter(task -> task.completed() && task.endsAtMs() < endedBeforeMs)
+                                          .map(Task::id)
+                                          .collect(Collectors.toList());
+        int archived = 0;
+        if (!completedTaskIds.isEmpty()) {
+            for (Versioned<Task> task : taskStore.getVersionedByIds(completedTaskIds).values()) {
+                if (task.value().completed() && archiveTask(task)) {
+                    archived++;
+                }
+            }
+        }
+        return new ArchiveBatch(page.tasks().size(), archived, page.nextCursor());
+    }
+
+    // copies the task to the archive first and then deletes it if it hasn't changed since it was read, so a task is
+    // never lost nor archived while it is being reopened. Once archived it leaves the stats and the search index as a
+    // deleted task would, only the single task reads and deletes still find it
+    private boolean archiveTask(Versioned<Task> task) {
+        long taskId = task.value().id();
+        try {
+            unitOfWork.execute(() -> {
+                archiveStore.update(taskId, existing -> task.value());
+                taskStore.updateVersioned(taskId, null, task.version(), existing -> null);
+            });
+        } catch (VersionConflictException e) {
+            // the copy is rolled back with the delete when both stores live in the same database, not when tasks are sharded
+            archiveStore.update(taskId, existing -> null);
+            return false;
+        }
+        taskCache.remove(taskId);
+        searchIndex.remove(taskId);
+        statsCounter.record(task.value(), null);
+        return true;
+    }
+
+    private IndexRangeScan<Long, Task> taskRangeScan() {
+        if (taskRangeScan == null) {
+            throw new UnsupportedCapabilityException("Tasks can't be listed by deadline: their store engine doesn't keep a deadline index");
+        }
+        return taskRangeScan;
+    }
+
+    private ChangeFeed<Long> taskChanges() {
+        if (taskChanges == null) {
+            throw new UnsupportedCapabilityException("Task changes can't be followed: their store engine doesn't keep a change feed");
+        }
+        return taskChanges;
+    }
+
+    private <T> T withVersionCheck(long taskId, long expectedVersion, Supplier<T> versionedWrite) {
+        try {
+            return versionedWrite.get();
+        } catch (VersionConflictException e) {
+            if (expectedVersion == Versioned.ANY_VERSION) {
+                throw e;
+            }
+            // the cached copy is the one the client based its request on, it is stale for sure
+            taskCache.remove(taskId);
+            throw new TaskVersionMismatchException("Task with id=%d has been modified concurrently".formatted(taskId));
+        }
     }
 
     private static void checkValidTaskId(long id) {
         throwIf(id <= 0, () -> new InvalidParameterException("TaskId must be positive number. Got: " + id));
     }
 
+    private static void checkValidLimit(int limit) {
+        throwIf(limit <= 0, () -> new InvalidParameterException("Limit must be positive number. Got: " + limit));
+        throwIf(limit > 10_000, () -> new InvalidParameterException("Limit must be <= 10000. Got: " + limit));
+    }
+
+    // also checked by AsyncTaskManagerImpl, which waits for changes itself
+    static void checkValidChangesWait(long maxWaitMs) {
+        throwIf(maxWaitMs < 0 || maxWaitMs > MAX_CHANGES_WAIT_MS,
+                () -> new InvalidParameterException("Wait must be between 0 and %d ms. Got: %d".formatted(MAX_CHANGES_WAIT_MS, maxWaitMs)));
+    }
+
     private static void checkValidNewTask(NewTaskRequest newTaskRequest) {
         throwIf(newTaskRequest == null, () -> new InvalidParameterException("New task can't be null"));
         throwIf(isBlank(newTaskRequest.description()), () -> new InvalidParameterException("Task description can't be empty"));
@@ -0,0 +1,23 @@
+package com.perapoch.tasksapp.core.task;
+
+import java.util.List;
+import java.util.Optional;
+
+public record TaskPage(List<Task> tasks, Optional<String> nextCursor) {
+
+    public static TaskPage of(List<Task> tasks, int limit) {
+        if (tasks.size() < limit) {
+            return new TaskPage(tasks, Optional.empty());
+        }
+        long lastTaskId = tasks.get(tasks.size() - 1).id();
+        return new TaskPage(tasks, Optional.of(new TaskCursor(lastTaskId).encode()));
+    }
+
+    public static TaskPage byDeadline(List<Task> tasks, int limit) {
+        if (tasks.size() < limit) {
+            return new TaskPage(tasks, Optional.empty());
+        }
+        Task lastTask = tasks.get(tasks.size() - 1);
+        return new TaskPage(tasks, Optional.of(new DeadlineCursor(lastTask.endsAtMs(), lastTask.id()).encode()));
+    }
+}
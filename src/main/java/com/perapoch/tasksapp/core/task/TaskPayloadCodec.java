@@ -0,0 +1,63 @@
+package com.perapoch.tasksapp.core.task;
+
+import com.perapoch.tasksapp.storage.db.DatabaseException;
+import com.perapoch.tasksapp.storage.db.codec.PayloadBuffer;
+import com.perapoch.tasksapp.storage.db.codec.PayloadCodec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class TaskPayloadCodec implements PayloadCodec<Task> {
+
+    public static final byte ID = 10;
+    private static final byte VERSION = 1;
+    private static final int FIXED_SIZE = Long.BYTES * 3 + Integer.BYTES + 1;
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public byte version() {
+        return VERSION;
+    }
+
+    @Override
+    public byte[] encode(Task task) {
+        byte[] description = task.description().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(FIXED_SIZE + description.length);
+        buffer.putLong(task.id());
+        buffer.putLong(task.createdAtMs());
+        buffer.putLong(task.endsAtMs());
+        buffer.put((byte) (task.completed() ? 1 : 0));
+        buffer.putInt(description.length);
+        buffer.put(description);
+        return buffer.array();
+    }
+
+    @Override
+    public void encode(Task task, PayloadBuffer out) {
+        byte[] description = task.description().getBytes(StandardCharsets.UTF_8);
+        out.writeLong(task.id());
+        out.writeLong(task.createdAtMs());
+        out.writeLong(task.endsAtMs());
+        out.write(task.completed() ? 1 : 0);
+        out.writeInt(description.length);
+        out.writeBytes(description);
+    }
+
+    @Override
+    public Task decode(ByteBuffer buffer, byte version) {
+        if (version != VERSION) {
+            throw new DatabaseException("Unsupported Task codec version " + version, null);
+        }
+        long id = buffer.getLong();
+        long createdAtMs = buffer.getLong();
+        long endsAtMs = buffer.getLong();
+        boolean completed = buffer.get() == 1;
+        int descriptionLength = buffer.getInt();
+        String description = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), descriptionLength, StandardCharsets.UTF_8);
+        return new Task(id, description, createdAtMs, endsAtMs, completed);
+    }
+}
@@ -0,0 +1,10 @@
+package com.perapoch.tasksapp.core.task;
+
+import com.perapoch.tasksapp.exception.InternalException;
+
+public class TaskVersionMismatchException extends InternalException {
+
+    public TaskVersionMismatchException(String message) {
+        super(message);
+    }
+}
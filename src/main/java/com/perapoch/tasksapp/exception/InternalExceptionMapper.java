@@ -3,6 +3,9 @@ package com.perapoch.tasksapp.exception;
 import com.perapoch.tasksapp.core.task.InvalidParameterException;
 import com.perapoch.tasksapp.core.task.TaskAlreadyExistsException;
 import com.perapoch.tasksapp.core.task.TaskNotFoundException;
+import com.perapoch.tasksapp.core.task.TaskVersionMismatchException;
+import com.perapoch.tasksapp.storage.db.DatabaseBusyException;
+import com.perapoch.tasksapp.storage.db.UnsupportedCapabilityException;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.ext.ExceptionMapper;
@@ -25,6 +28,22 @@ public class InternalExceptionMapper implements ExceptionMapper<InternalExceptio
                            .entity(exception.getMessage())
                            .type(MediaType.TEXT_PLAIN)
                            .build();
+        } else if (exception instanceof TaskVersionMismatchException) {
+            return Response.status(Response.Status.PRECONDITION_FAILED)
+                           .entity(exception.getMessage())
+                           .type(MediaType.TEXT_PLAIN)
+                           .build();
+        } else if (exception instanceof DatabaseBusyException) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                           .entity(exception.getMessage())
+                           .type(MediaType.TEXT_PLAIN)
+                           .build();
+        } else if (exception instanceof UnsupportedCapabilityException) {
+            // the store engine in use can't serve this kind of request
+            return Response.status(Response.Status.NOT_IMPLEMENTED)
+                           .entity(exception.getMessage())
+                           .type(MediaType.TEXT_PLAIN)
+                           .build();
         }
         logger.error("Got InternalException", exception);
         return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
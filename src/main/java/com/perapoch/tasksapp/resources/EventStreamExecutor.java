@@ -0,0 +1,41 @@
+package com.perapoch.tasksapp.resources;
+
+import com.perapoch.tasksapp.TaskAppConfiguration;
+import io.dropwizard.core.setup.Environment;
+import io.dropwizard.util.Duration;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.eclipse.jetty.util.VirtualThreads;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+
+// Writes the events of the Server-Sent Events streams. A write blocks until the client takes it, so it gets a thread of
+// its own rather than one of the db threads, the timer's or the common pool's, which a slow client would hold for
+// everybody. Threads are created as the blocked writes need them and go away once idle. With virtualThreads every write
+// runs on a virtual thread instead
+@Singleton
+public class EventStreamExecutor implements Executor {
+
+    private final Executor executor;
+
+    @Inject
+    public EventStreamExecutor(TaskAppConfiguration configuration, Environment environment) {
+        if (configuration.isVirtualThreads()) {
+            this.executor = VirtualThreads.getDefaultVirtualThreadsExecutor();
+        } else {
+            this.executor = environment.lifecycle()
+                                       .executorService("event-stream-%d")
+                                       .minThreads(0)
+                                       .maxThreads(Integer.MAX_VALUE)
+                                       .keepAliveTime(Duration.seconds(60))
+                                       .workQueue(new SynchronousQueue<>())
+                                       .build();
+        }
+    }
+
+    @Override
+    public void execute(Runnable write) {
+        executor.execute(write);
+    }
+}
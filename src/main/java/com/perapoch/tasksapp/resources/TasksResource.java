@@ -1,80 +1,439 @@
 package com.perapoch.tasksapp.resources;
 
 import com.codahale.metrics.annotation.Timed;
+import com.perapoch.tasksapp.TaskAppConfiguration;
 import com.perapoch.tasksapp.core.converter.DtoConverter;
 import com.perapoch.tasksapp.api.NewTaskRequestDto;
 import com.perapoch.tasksapp.api.TaskDto;
+import com.perapoch.tasksapp.api.TaskStatsDto;
+import com.perapoch.tasksapp.core.json.JsonConverter;
+import com.perapoch.tasksapp.core.task.AsyncTaskManager;
+import com.perapoch.tasksapp.core.task.InvalidParameterException;
+import com.perapoch.tasksapp.core.task.Task;
 import com.perapoch.tasksapp.core.task.TaskManager;
+import com.perapoch.tasksapp.core.task.TaskNotFoundException;
+import com.perapoch.tasksapp.core.task.TaskPage;
+import com.perapoch.tasksapp.core.task.TaskVersionMismatchException;
+import com.perapoch.tasksapp.storage.db.Change;
+import com.perapoch.tasksapp.storage.db.ChangeBatch;
+import com.perapoch.tasksapp.storage.db.Versioned;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.DELETE;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.PUT;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 import jakarta.ws.rs.core.UriBuilder;
+import jakarta.ws.rs.core.UriInfo;
+import org.glassfish.jersey.server.ChunkedOutput;
 
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Path("/tasks")
 @Produces(MediaType.APPLICATION_JSON)
 public class TasksResource {
 
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+    public static final String NDJSON = "application/x-ndjson";
+    private static final int NEW_LINE = '\n';
+    private static final String ORDER_BY_ID = "id";
+    private static final String ORDER_BY_DEADLINE = "endsAtMs";
+    private static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+    private static final int SEARCH_LIMIT = 20;
+    private static final int CHANGES_BATCH_SIZE = 100;
+    private static final long CHANGES_WAIT_MS = 15_000;
+    // clients reconnect with Last-Event-ID, so a stream ends now and then instead of keeping a dead connection forever
+    private static final long CHANGES_STREAM_MAX_DURATION_MS = 5 * 60_000;
+
     private final TaskManager taskManager;
+    private final AsyncTaskManager asyncTaskManager;
     private final DtoConverter dtoConverter;
+    private final JsonConverter jsonConverter;
+    private final EventStreamExecutor eventStreamExecutor;
+    private final long requestTimeoutMs;
 
     @Inject
-    public TasksResource(TaskManager taskManager, DtoConverter dtoConverter) {
+    public TasksResource(TaskManager taskManager, AsyncTaskManager asyncTaskManager, DtoConverter dtoConverter,
+                         JsonConverter jsonConverter, EventStreamExecutor eventStreamExecutor, TaskAppConfiguration configuration) {
         this.taskManager = taskManager;
+        this.asyncTaskManager = asyncTaskManager;
         this.dtoConverter = dtoConverter;
+        this.jsonConverter = jsonConverter;
+        this.eventStreamExecutor = eventStreamExecutor;
+        this.requestTimeoutMs = configuration.getStorage().getDatabaseExecutor().getRequestTimeout().toMilliseconds();
+    }
+
+    @GET
+    @Timed
+    public void getTasks(@QueryParam("offset") Integer maybeOffset, @QueryParam("limit") Integer maybeLimit,
+                         @QueryParam("after") String maybeAfterCursor, @QueryParam("ids") List<String> maybeIds,
+                         @QueryParam("description") String maybeDescription, @QueryParam("dueAfter") Long maybeDueAfter,
+                         @QueryParam("dueBefore") Long maybeDueBefore, @QueryParam("orderBy") String maybeOrderBy,
+                         @QueryParam("archived") boolean archived, @Context UriInfo uriInfo, @Suspended AsyncResponse asyncResponse) {
+        respond(asyncResponse, () -> {
+            if (maybeIds != null && !maybeIds.isEmpty()) {
+                return asyncTaskManager.getTasksByIds(parseTaskIds(maybeIds))
+                                       .thenApply(tasks -> Response.ok(toTaskDtos(tasks)).build());
+            }
+            if (maybeDescription != null) {
+                return asyncTaskManager.getTasksByDescription(maybeDescription)
+                                       .thenApply(tasks -> Response.ok(toTaskDtos(tasks)).build());
+            }
+            if (maybeOffset != null && maybeAfterCursor != null) {
+                throw new InvalidParameterException("offset and after can't be used together");
+            }
+            int limit = maybeLimit != null ? maybeLimit : 100;
+            CompletableFuture<TaskPage> page;
+            if (archived) {
+                // the cold tier is only listed on demand, in id order with keyset cursors
+                if (maybeOffset != null || isOrderedByDeadline(maybeDueAfter, maybeDueBefore, maybeOrderBy)) {
+                    throw new InvalidParameterException("archived tasks can only be paged with after and limit");
+                }
+                page = asyncTaskManager.getArchivedTasks(maybeAfterCursor, limit);
+            } else if (isOrderedByDeadline(maybeDueAfter, maybeDueBefore, maybeOrderBy)) {
+                // deadline views are range scans of the endsAtMs index, paged with keyset cursors only
+                if (maybeOffset != null) {
+                    throw new InvalidParameterException("offset can't be used when ordering by endsAtMs");
+                }
+                page = asyncTaskManager.getTasksByDeadline(maybeDueAfter, maybeDueBefore, maybeAfterCursor, limit);
+            } else if (maybeAfterCursor != null) {
+                page = asyncTaskManager.getTasks(maybeAfterCursor, limit);
+            } else {
+                // offset pagination is kept for compatibility, but it also hands out a cursor so clients can switch
+                int offset = maybeOffset != null ? maybeOffset : 0;
+                page = asyncTaskManager.getTasks(offset, limit).thenApply(tasks -> TaskPage.of(tasks, limit));
+            }
+            boolean withTotalCount = !archived && maybeDueAfter == null && maybeDueBefore == null;
+            // read now, the request context isn't there anymore once the page completes on a db thread
+            UriBuilder requestUri = uriInfo.getRequestUriBuilder();
+            return page.thenApply(taskPage -> toPageResponse(taskPage, limit, withTotalCount, requestUri));
+        });
+    }
+
+    @GET
+    @Path("/stats")
+    @Timed
+    public TaskStatsDto getTaskStats() {
+        return dtoConverter.toTaskStatsDto(taskManager.getTaskStats());
+    }
+
+    @GET
+    @Path("/search")
+    @Timed
+    public void searchTasks(@QueryParam("q") String query, @QueryParam("limit") Integer maybeLimit,
+                            @Suspended AsyncResponse asyncResponse) {
+        respond(asyncResponse, () -> asyncTaskManager.searchTasks(query, maybeLimit != null ? maybeLimit : SEARCH_LIMIT)
+                                                     .thenApply(this::toTaskDtos));
     }
 
     @GET
+    @Path("/export")
+    @Produces(NDJSON)
     @Timed
-    public List<TaskDto> getTasks(@QueryParam("offset") Integer maybeOffset, @QueryParam("limit") Integer maybeLimit) {
-        int offset = maybeOffset != null ? maybeOffset : 0;
-        int limit = maybeLimit != null ? maybeLimit : 100;
-        return taskManager.getTasks(offset, limit).stream()
-                          .map(dtoConverter::toTaskDto)
-                          .collect(Collectors.toList());
+    public StreamingOutput exportTasks() {
+        // one task per line, written as the store reads them chunk by chunk so memory stays flat whatever the table size.
+        // Archived tasks aren't exported
+        return output -> {
+            try (Stream<Task> tasks = taskManager.streamTasks()) {
+                Iterator<Task> iterator = tasks.iterator();
+                while (iterator.hasNext()) {
+                    output.write(jsonConverter.toJsonBytes(dtoConverter.toTaskDto(iterator.next())));
+                    output.write(NEW_LINE);
+                }
+            }
+        };
+    }
+
+    @GET
+    @Path("/changes")
+    @Timed
+    public void getTaskChanges(@QueryParam("since") String maybeSinceCursor, @QueryParam("limit") Integer maybeLimit,
+                               @QueryParam("timeoutMs") Long maybeTimeoutMs, @Suspended AsyncResponse asyncResponse) {
+        // long polling: with a timeout the request waits for the next change instead of coming back empty. Neither a
+        // request thread nor a db thread is held meanwhile, so the response timeout covers the db reads on top of the wait
+        long waitMs = maybeTimeoutMs != null ? maybeTimeoutMs : 0L;
+        respond(asyncResponse, requestTimeoutMs + Math.max(waitMs, 0L),
+                () -> asyncTaskManager.getTaskChanges(maybeSinceCursor, maybeLimit != null ? maybeLimit : CHANGES_BATCH_SIZE, waitMs)
+                                      .thenApply(dtoConverter::toTaskChangesDto));
+    }
+
+    @GET
+    @Path("/changes")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @Timed
+    public void streamTaskChanges(@QueryParam("since") String maybeSinceCursor,
+                                  @HeaderParam(LAST_EVENT_ID_HEADER) String maybeLastEventId, @Suspended AsyncResponse asyncResponse) {
+        String sinceCursor = maybeLastEventId != null ? maybeLastEventId : maybeSinceCursor;
+        // resumed once the first batch is read, so a bad cursor is still a 400. The stream then goes on from callbacks
+        respond(asyncResponse, () -> asyncTaskManager.getTaskChanges(sinceCursor, CHANGES_BATCH_SIZE, 0L).thenApply(firstChanges -> {
+            ChunkedOutput<String> output = new ChunkedOutput<>(String.class);
+            streamChanges(output, firstChanges, System.currentTimeMillis() + CHANGES_STREAM_MAX_DURATION_MS);
+            return output;
+        }));
     }
 
     @GET
     @Path("/{taskId}")
     @Timed
-    public Optional<TaskDto> getTask(@PathParam("taskId") long taskId) {
-        return taskManager.getTaskById(taskId)
-                          .map(dtoConverter::toTaskDto);
+    public void getTask(@PathParam("taskId") long taskId, @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+                        @Suspended AsyncResponse asyncResponse) {
+        // the precondition is taken from the headers here and checked by the db thread, which has no request context
+        respond(asyncResponse, () -> asyncTaskManager.getVersionedTaskById(taskId).thenApply(maybeTask -> {
+            Versioned<Task> task = maybeTask.orElseThrow(() -> new TaskNotFoundException("Task with id=%d does not exist!".formatted(taskId)));
+            EntityTag entityTag = toEntityTag(task);
+            if (matchesAny(ifNoneMatch, entityTag)) {
+                return Response.notModified(entityTag).build();
+            }
+            return Response.ok(dtoConverter.toTaskDto(task.value()))
+                           .tag(entityTag)
+                           .build();
+        }));
     }
 
     @POST
     @Timed
-    public TaskDto createTask(NewTaskRequestDto newTaskRequestDto) {
-        var newTaskRequest = dtoConverter.toNewTaskRequest(newTaskRequestDto);
-        var task = taskManager.createTask(newTaskRequest);
-        return dtoConverter.toTaskDto(task);
+    public void createTask(NewTaskRequestDto newTaskRequestDto, @Suspended AsyncResponse asyncResponse) {
+        respond(asyncResponse, () -> {
+            var newTaskRequest = dtoConverter.toNewTaskRequest(newTaskRequestDto);
+            return asyncTaskManager.createTask(newTaskRequest).thenApply(dtoConverter::toTaskDto);
+        });
     }
 
     @PUT
     @Path("/{taskId}")
     @Timed
-    public TaskDto updateTask(@PathParam("taskId") long taskId, NewTaskRequestDto newTaskRequestDto) {
-        var newTask = dtoConverter.toNewTaskRequest(newTaskRequestDto);
-        var updatedTask = taskManager.updateTask(taskId, newTask);
-        return dtoConverter.toTaskDto(updatedTask);
+    public void updateTask(@PathParam("taskId") long taskId, @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch,
+                           NewTaskRequestDto newTaskRequestDto, @Suspended AsyncResponse asyncResponse) {
+        respond(asyncResponse, () -> {
+            var newTask = dtoConverter.toNewTaskRequest(newTaskRequestDto);
+            return expectedVersion(taskId, parseIfMatch(ifMatch))
+                    .thenCompose(expectedVersion -> asyncTaskManager.updateTask(taskId, newTask, expectedVersion))
+                    .thenApply(updatedTask -> Response.ok(dtoConverter.toTaskDto(updatedTask.value()))
+                                                      .tag(toEntityTag(updatedTask))
+                                                      .build());
+        });
     }
 
     @DELETE
     @Path("/{taskId}")
     @Timed
-    public void deleteTask(@PathParam("taskId") long taskId) {
-        taskManager.deleteTask(taskId);
+    public void deleteTask(@PathParam("taskId") long taskId, @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch,
+                           @Suspended AsyncResponse asyncResponse) {
+        respond(asyncResponse, () -> expectedVersion(taskId, parseIfMatch(ifMatch))
+                .thenCompose(expectedVersion -> asyncTaskManager.deleteTask(taskId, expectedVersion))
+                .thenApply(ignored -> Response.noContent().build()));
+    }
+
+    // the request thread goes back to Jetty as soon as the db work is queued, and the response is written by the db
+    // thread completing it. Past the timeout the client gets a 503 while the work still runs to completion
+    private void respond(AsyncResponse asyncResponse, Supplier<CompletionStage<?>> response) {
+        respond(asyncResponse, requestTimeoutMs, response);
+    }
+
+    private void respond(AsyncResponse asyncResponse, long timeoutMs, Supplier<CompletionStage<?>> response) {
+        asyncResponse.setTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+        try {
+            response.get().whenComplete((result, error) -> {
+                if (error != null) {
+                    asyncResponse.resume(unwrap(error));
+                } else {
+                    asyncResponse.resume(result);
+                }
+            });
+        } catch (RuntimeException e) {
+            asyncResponse.resume(e);
+        }
+    }
+
+    private Response toPageResponse(TaskPage page, int limit, boolean withTotalCount, UriBuilder requestUri) {
+        Response.ResponseBuilder response = Response.ok(toTaskDtos(page.tasks()));
+        if (withTotalCount) {
+            // every task is listed, so the total comes from the stats counters rather than a count over the table
+            response.header(TOTAL_COUNT_HEADER, taskManager.getTaskStats().total());
+        }
+        page.nextCursor().ifPresent(nextCursor -> {
+            URI nextPage = requestUri.replaceQueryParam("offset")
+                                     .replaceQueryParam("after", nextCursor)
+                                     .replaceQueryParam("limit", limit)
+                                     .build();
+            response.header(NEXT_CURSOR_HEADER, nextCursor)
+                    .link(nextPage, "next");
+        });
+        return response.build();
+    }
+
+    // every subscriber pulls its own changes, one batch after the other. Written from the EventStreamExecutor: the batches
+    // come from db threads and from the wait timer, and a slow client must not hold either of them
+    private void streamChanges(ChunkedOutput<String> output, ChangeBatch<Long> changes, long deadline) {
+        try {
+            output.write(toChangeEvents(changes));
+            if (System.currentTimeMillis() >= deadline) {
+                output.close();
+                return;
+            }
+        } catch (IOException e) {
+            // the client went away
+            closeQuietly(output);
+            return;
+        }
+        asyncTaskManager.getTaskChanges(changes.cursor(), CHANGES_BATCH_SIZE, CHANGES_WAIT_MS).whenCompleteAsync((nextChanges, error) -> {
+            if (error != null) {
+                closeQuietly(output);
+            } else {
+                streamChanges(output, nextChanges, deadline);
+            }
+        }, eventStreamExecutor);
+    }
+
+    private String toChangeEvents(ChangeBatch<Long> changes) {
+        StringBuilder events = new StringBuilder();
+        if (changes.gap()) {
+            // some changes were pruned before being read, the client has to reload the tasks
+            events.append("event: gap\ndata: {}\n\n");
+        }
+        for (Change<Long> change : changes.changes()) {
+            events.append("id: %s\nevent: change\ndata: %s\n\n".formatted(change.cursor(), jsonConverter.toJson(dtoConverter.toTaskChangeDto(change))));
+        }
+        if (changes.changes().isEmpty()) {
+            // a comment keeps proxies from closing an idle stream and finds out about clients that went away
+            events.append(": keep-alive\n\n");
+        }
+        return events.toString();
+    }
+
+    private static void closeQuietly(ChunkedOutput<String> output) {
+        try {
+            output.close();
+        } catch (IOException e) {
+            // nothing left to tell the client
+        }
+    }
+
+    private List<TaskDto> toTaskDtos(List<Task> tasks) {
+        return tasks.stream()
+                    .map(dtoConverter::toTaskDto)
+                    .collect(Collectors.toList());
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private static EntityTag toEntityTag(Versioned<Task> task) {
+        return new EntityTag(String.valueOf(task.version()));
+    }
+
+    private static boolean isOrderedByDeadline(Long maybeDueAfter, Long maybeDueBefore, String maybeOrderBy) {
+        if (maybeOrderBy != null && !maybeOrderBy.equals(ORDER_BY_ID) && !maybeOrderBy.equals(ORDER_BY_DEADLINE)) {
+            throw new InvalidParameterException("orderBy must be %s or %s. Got: %s".formatted(ORDER_BY_ID, ORDER_BY_DEADLINE, maybeOrderBy));
+        }
+        boolean dueRange = maybeDueAfter != null || maybeDueBefore != null;
+        if (dueRange && ORDER_BY_ID.equals(maybeOrderBy)) {
+            throw new InvalidParameterException("dueAfter and dueBefore results are ordered by endsAtMs");
+        }
+        return dueRange || ORDER_BY_DEADLINE.equals(maybeOrderBy);
+    }
+
+    // the ETag is the row version of the task. If-Match holds * or a comma separated list of ETags, compared strongly as
+    // it is for writes (RFC 9110), so a weak ETag never matches. Returns the versions the write may apply to: ANY_VERSION
+    // alone for no header or *, none when every ETag is weak
+    private static List<Long> parseIfMatch(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank()) {
+            return List.of(Versioned.ANY_VERSION);
+        }
+        List<Long> versions = new ArrayList<>();
+        for (String tag : ifMatch.split(",")) {
+            String trimmed = tag.trim();
+            if (trimmed.equals("*")) {
+                return List.of(Versioned.ANY_VERSION);
+            }
+            if (trimmed.startsWith("W/")) {
+                continue;
+            }
+            try {
+                versions.add(Long.parseLong(tagValue(trimmed)));
+            } catch (NumberFormatException e) {
+                throw new InvalidParameterException("If-Match must be a list of ETags returned by this API. Got: " + ifMatch);
+            }
+        }
+        return versions;
+    }
+
+    // a single version is checked by the conditional write itself. With several, the write is made conditional on the
+    // current one if it is listed, so it still fails if the task is modified in between
+    private CompletableFuture<Long> expectedVersion(long taskId, List<Long> versions) {
+        if (versions.isEmpty()) {
+            return CompletableFuture.failedFuture(new TaskVersionMismatchException("If-Match of task with id=%d has no strong ETag".formatted(taskId)));
+        }
+        if (versions.size() == 1) {
+            return CompletableFuture.completedFuture(versions.get(0));
+        }
+        // a missing task is left for the write to report
+        return asyncTaskManager.getVersionedTaskById(taskId)
+                               .thenApply(task -> task.map(Versioned::version).orElse(versions.get(0)))
+                               .thenApply(currentVersion -> {
+                                   if (!versions.contains(currentVersion)) {
+                                       throw new TaskVersionMismatchException("Task with id=%d matches none of the If-Match ETags".formatted(taskId));
+                                   }
+                                   return currentVersion;
+                               });
+    }
+
+    // If-None-Match holds * or a comma separated list of ETags, compared weakly as it is for GETs
+    private static boolean matchesAny(String ifNoneMatch, EntityTag entityTag) {
+        if (ifNoneMatch == null || ifNoneMatch.isBlank()) {
+            return false;
+        }
+        return Arrays.stream(ifNoneMatch.split(","))
+                     .map(String::trim)
+                     .anyMatch(tag -> tag.equals("*") || tagValue(tag).equals(entityTag.getValue()));
+    }
+
+    private static String tagValue(String tag) {
+        String value = tag.trim();
+        if (value.startsWith("W/")) {
+            value = value.substring(2);
+        }
+        return value.replace("\"", "");
+    }
+
+    // accepts both ?ids=1,2,3 and ?ids=1&ids=2&ids=3
+    private static List<Long> parseTaskIds(List<String> rawIds) {
+        try {
+            return rawIds.stream()
+                         .flatMap(rawId -> Arrays.stream(rawId.split(",")))
+                         .map(String::trim)
+                         .filter(id -> !id.isEmpty())
+                         .map(Long::parseLong)
+                         .collect(Collectors.toList());
+        } catch (NumberFormatException e) {
+            throw new InvalidParameterException("ids must be a comma separated list of task ids. Got: " + rawIds);
+        }
     }
 
 }
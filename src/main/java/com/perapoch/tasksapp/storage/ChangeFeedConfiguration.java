@@ -0,0 +1,35 @@
+package com.perapoch.tasksapp.storage;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import jakarta.validation.constraints.NotNull;
+
+public class ChangeFeedConfiguration {
+
+    // changes older than this are deleted, a reader further behind gets told it missed some
+    @NotNull
+    private Duration retention = Duration.hours(24);
+
+    @NotNull
+    private Duration pruneInterval = Duration.minutes(1);
+
+    @JsonProperty
+    public Duration getRetention() {
+        return retention;
+    }
+
+    @JsonProperty
+    public void setRetention(Duration retention) {
+        this.retention = retention;
+    }
+
+    @JsonProperty
+    public Duration getPruneInterval() {
+        return pruneInterval;
+    }
+
+    @JsonProperty
+    public void setPruneInterval(Duration pruneInterval) {
+        this.pruneInterval = pruneInterval;
+    }
+}
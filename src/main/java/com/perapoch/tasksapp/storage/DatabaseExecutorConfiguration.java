@@ -0,0 +1,51 @@
+package com.perapoch.tasksapp.storage;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+
+public class DatabaseExecutorConfiguration {
+
+    // defaults to the maxSize of the database pool, so every thread can hold a connection. Unused with virtual threads
+    @Min(1)
+    private Integer threads;
+
+    // db work waiting for a thread beyond this is rejected with a 503 instead of piling up
+    @Min(1)
+    private int queueSize = 1024;
+
+    // how long an async request waits for its db work before getting a 503
+    @NotNull
+    private Duration requestTimeout = Duration.seconds(10);
+
+    @JsonProperty
+    public Integer getThreads() {
+        return threads;
+    }
+
+    @JsonProperty
+    public void setThreads(Integer threads) {
+        this.threads = threads;
+    }
+
+    @JsonProperty
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    @JsonProperty
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    @JsonProperty
+    public Duration getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    @JsonProperty
+    public void setRequestTimeout(Duration requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+}
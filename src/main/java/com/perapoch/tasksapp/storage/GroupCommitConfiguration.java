@@ -0,0 +1,62 @@
+package com.perapoch.tasksapp.storage;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+
+public class GroupCommitConfiguration {
+
+    private boolean enabled = false;
+
+    // how long the committer waits for more writes once the first one of a batch has arrived
+    @NotNull
+    private Duration window = Duration.milliseconds(2);
+
+    @Min(1)
+    private int maxBatchSize = 64;
+
+    // how long a writer waits for the committer to take its write, and again for the commit once taken
+    @NotNull
+    private Duration timeout = Duration.seconds(10);
+
+    @JsonProperty
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @JsonProperty
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @JsonProperty
+    public Duration getWindow() {
+        return window;
+    }
+
+    @JsonProperty
+    public void setWindow(Duration window) {
+        this.window = window;
+    }
+
+    @JsonProperty
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    @JsonProperty
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    @JsonProperty
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    @JsonProperty
+    public void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+}
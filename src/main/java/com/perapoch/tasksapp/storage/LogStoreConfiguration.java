@@ -0,0 +1,114 @@
+package com.perapoch.tasksapp.storage;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.DataSize;
+import io.dropwizard.util.Duration;
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.NotNull;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class LogStoreConfiguration {
+
+    // every log structured store keeps its segments in a sub directory named after the store
+    @NotNull
+    private String directory = "data/log-stores";
+
+    // stores listed here use the log structured engine instead of the database
+    @NotNull
+    private Set<String> stores = new HashSet<>();
+
+    @NotNull
+    private DataSize segmentSize = DataSize.megabytes(64);
+
+    // appended records are fsync-ed together at most this often
+    @NotNull
+    private Duration fsyncInterval = Duration.milliseconds(2);
+
+    // writes wait for the fsync covering them. Turning it off trades the last fsyncInterval of writes on a crash for latency
+    private boolean durableWrites = true;
+
+    @NotNull
+    private Duration compactionInterval = Duration.minutes(1);
+
+    // sealed segments get merged once at least this fraction of their bytes is overwritten or deleted data
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    private double compactionGarbageRatio = 0.5;
+
+    @JsonProperty
+    public String getDirectory() {
+        return directory;
+    }
+
+    @JsonProperty
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    @JsonProperty
+    public Set<String> getStores() {
+        return stores;
+    }
+
+    @JsonProperty
+    public void setStores(Set<String> stores) {
+        this.stores = stores;
+    }
+
+    @JsonProperty
+    public DataSize getSegmentSize() {
+        return segmentSize;
+    }
+
+    @JsonProperty
+    public void setSegmentSize(DataSize segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    @JsonProperty
+    public Duration getFsyncInterval() {
+        return fsyncInterval;
+    }
+
+    @JsonProperty
+    public void setFsyncInterval(Duration fsyncInterval) {
+        this.fsyncInterval = fsyncInterval;
+    }
+
+    @JsonProperty
+    public boolean isDurableWrites() {
+        return durableWrites;
+    }
+
+    @JsonProperty
+    public void setDurableWrites(boolean durableWrites) {
+        this.durableWrites = durableWrites;
+    }
+
+    @JsonProperty
+    public Duration getCompactionInterval() {
+        return compactionInterval;
+    }
+
+    @JsonProperty
+    public void setCompactionInterval(Duration compactionInterval) {
+        this.compactionInterval = compactionInterval;
+    }
+
+    @JsonProperty
+    public double getCompactionGarbageRatio() {
+        return compactionGarbageRatio;
+    }
+
+    @JsonProperty
+    public void setCompactionGarbageRatio(double compactionGarbageRatio) {
+        this.compactionGarbageRatio = compactionGarbageRatio;
+    }
+
+    public boolean isEnabledFor(String storeName) {
+        return stores.contains(storeName);
+    }
+}
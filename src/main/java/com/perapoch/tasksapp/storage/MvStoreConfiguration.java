@@ -0,0 +1,83 @@
+package com.perapoch.tasksapp.storage;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.DataSize;
+import io.dropwizard.util.Duration;
+import jakarta.validation.constraints.NotNull;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class MvStoreConfiguration {
+
+    // file shared by every MVStore backed store, each one in its own maps. Without a file the data only lives in memory
+    private String file;
+
+    // stores listed here skip the SQL layer and use H2's MVStore maps directly
+    @NotNull
+    private Set<String> stores = new HashSet<>();
+
+    @NotNull
+    private DataSize cacheSize = DataSize.megabytes(16);
+
+    // committed transactions reach the file within this delay, like H2's own write delay
+    @NotNull
+    private Duration autoCommitDelay = Duration.milliseconds(500);
+
+    // every write also commits the MVStore and syncs the file before returning
+    private boolean durableWrites = false;
+
+    @JsonProperty
+    public String getFile() {
+        return file;
+    }
+
+    @JsonProperty
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    @JsonProperty
+    public Set<String> getStores() {
+        return stores;
+    }
+
+    @JsonProperty
+    public void setStores(Set<String> stores) {
+        this.stores = stores;
+    }
+
+    @JsonProperty
+    public DataSize getCacheSize() {
+        return cacheSize;
+    }
+
+    @JsonProperty
+    public void setCacheSize(DataSize cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    @JsonProperty
+    public Duration getAutoCommitDelay() {
+        return autoCommitDelay;
+    }
+
+    @JsonProperty
+    public void setAutoCommitDelay(Duration autoCommitDelay) {
+        this.autoCommitDelay = autoCommitDelay;
+    }
+
+    @JsonProperty
+    public boolean isDurableWrites() {
+        return durableWrites;
+    }
+
+    @JsonProperty
+    public void setDurableWrites(boolean durableWrites) {
+        this.durableWrites = durableWrites;
+    }
+
+    public boolean isEnabledFor(String storeName) {
+        return stores.contains(storeName);
+    }
+}
@@ -0,0 +1,86 @@
+package com.perapoch.tasksapp.storage;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.db.DataSourceFactory;
+import io.dropwizard.util.Duration;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ReplicaConfiguration {
+
+    // read-only copies of the main database kept in sync outside of the application (e.g. H2 cluster mode)
+    @Valid
+    @NotNull
+    private List<DataSourceFactory> dataSources = new ArrayList<>();
+
+    // replicas whose last replicated heartbeat is older than this don't get reads
+    @NotNull
+    private Duration maxStaleness = Duration.seconds(1);
+
+    @NotNull
+    private Duration heartbeatInterval = Duration.milliseconds(200);
+
+    // a backup read is sent to another replica once the first one takes longer than the p95 read latency
+    private boolean hedgedReads = true;
+
+    // lower bound of the hedging delay, so a very fast p95 doesn't double the load
+    @NotNull
+    private Duration minHedgeDelay = Duration.milliseconds(2);
+
+    @JsonProperty
+    public List<DataSourceFactory> getDataSources() {
+        return dataSources;
+    }
+
+    @JsonProperty
+    public void setDataSources(List<DataSourceFactory> dataSources) {
+        this.dataSources = dataSources;
+    }
+
+    @JsonProperty
+    public Duration getMaxStaleness() {
+        return maxStaleness;
+    }
+
+    @JsonProperty
+    public void setMaxStaleness(Duration maxStaleness) {
+        this.maxStaleness = maxStaleness;
+    }
+
+    @JsonProperty
+    public Duration getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    @JsonProperty
+    public void setHeartbeatInterval(Duration heartbeatInterval) {
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    @JsonProperty
+    public boolean isHedgedReads() {
+        return hedgedReads;
+    }
+
+    @JsonProperty
+    public void setHedgedReads(boolean hedgedReads) {
+        this.hedgedReads = hedgedReads;
+    }
+
+    @JsonProperty
+    public Duration getMinHedgeDelay() {
+        return minHedgeDelay;
+    }
+
+    @JsonProperty
+    public void setMinHedgeDelay(Duration minHedgeDelay) {
+        this.minHedgeDelay = minHedgeDelay;
+    }
+
+    public boolean isEnabled() {
+        return !dataSources.isEmpty();
+    }
+}
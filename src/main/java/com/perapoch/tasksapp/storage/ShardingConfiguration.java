@@ -0,0 +1,32 @@
+package com.perapoch.tasksapp.storage;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.db.DataSourceFactory;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ShardingConfiguration {
+
+    // databases the stores that opt in are hash partitioned across, each one with its own pool. The list can't be
+    // reordered nor resized once data has been written: rows are not moved between shards
+    @Valid
+    @NotNull
+    private List<DataSourceFactory> shards = new ArrayList<>();
+
+    @JsonProperty
+    public List<DataSourceFactory> getShards() {
+        return shards;
+    }
+
+    @JsonProperty
+    public void setShards(List<DataSourceFactory> shards) {
+        this.shards = shards;
+    }
+
+    public boolean isEnabled() {
+        return !shards.isEmpty();
+    }
+}
@@ -0,0 +1,21 @@
+package com.perapoch.tasksapp.storage;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import jakarta.validation.constraints.NotEmpty;
+
+public class SnapshotConfiguration {
+
+    // every snapshot is a sub-directory named after the time it was taken, holding one zip per database
+    @NotEmpty
+    private String directory = "data/snapshots";
+
+    @JsonProperty
+    public String getDirectory() {
+        return directory;
+    }
+
+    @JsonProperty
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+}
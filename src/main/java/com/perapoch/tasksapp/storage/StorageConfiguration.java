@@ -0,0 +1,120 @@
+package com.perapoch.tasksapp.storage;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotNull;
+
+public class StorageConfiguration {
+
+    @Valid
+    @NotNull
+    private GroupCommitConfiguration groupCommit = new GroupCommitConfiguration();
+
+    @Valid
+    @NotNull
+    private ShardingConfiguration sharding = new ShardingConfiguration();
+
+    @Valid
+    @NotNull
+    private ReplicaConfiguration replicas = new ReplicaConfiguration();
+
+    @Valid
+    @NotNull
+    private LogStoreConfiguration logStore = new LogStoreConfiguration();
+
+    @Valid
+    @NotNull
+    private MvStoreConfiguration mvStore = new MvStoreConfiguration();
+
+    @Valid
+    @NotNull
+    private ChangeFeedConfiguration changeFeed = new ChangeFeedConfiguration();
+
+    @Valid
+    @NotNull
+    private DatabaseExecutorConfiguration databaseExecutor = new DatabaseExecutorConfiguration();
+
+    @Valid
+    @NotNull
+    private SnapshotConfiguration snapshot = new SnapshotConfiguration();
+
+    @JsonProperty
+    public GroupCommitConfiguration getGroupCommit() {
+        return groupCommit;
+    }
+
+    @JsonProperty
+    public void setGroupCommit(GroupCommitConfiguration groupCommit) {
+        this.groupCommit = groupCommit;
+    }
+
+    @JsonProperty
+    public ShardingConfiguration getSharding() {
+        return sharding;
+    }
+
+    @JsonProperty
+    public void setSharding(ShardingConfiguration sharding) {
+        this.sharding = sharding;
+    }
+
+    @JsonProperty
+    public ReplicaConfiguration getReplicas() {
+        return replicas;
+    }
+
+    @JsonProperty
+    public void setReplicas(ReplicaConfiguration replicas) {
+        this.replicas = replicas;
+    }
+
+    @JsonProperty
+    public LogStoreConfiguration getLogStore() {
+        return logStore;
+    }
+
+    @JsonProperty
+    public void setLogStore(LogStoreConfiguration logStore) {
+        this.logStore = logStore;
+    }
+
+    @JsonProperty
+    public MvStoreConfiguration getMvStore() {
+        return mvStore;
+    }
+
+    @JsonProperty
+    public void setMvStore(MvStoreConfiguration mvStore) {
+        this.mvStore = mvStore;
+    }
+
+    @JsonProperty
+    public ChangeFeedConfiguration getChangeFeed() {
+        return changeFeed;
+    }
+
+    @JsonProperty
+    public void setChangeFeed(ChangeFeedConfiguration changeFeed) {
+        this.changeFeed = changeFeed;
+    }
+
+    @JsonProperty
+    public DatabaseExecutorConfiguration getDatabaseExecutor() {
+        return databaseExecutor;
+    }
+
+    @JsonProperty
+    public void setDatabaseExecutor(DatabaseExecutorConfiguration databaseExecutor) {
+        this.databaseExecutor = databaseExecutor;
+    }
+
+    @JsonProperty
+    public SnapshotConfiguration getSnapshot() {
+        return snapshot;
+    }
+
+    @JsonProperty
+    public void setSnapshot(SnapshotConfiguration snapshot) {
+        this.snapshot = snapshot;
+    }
+}
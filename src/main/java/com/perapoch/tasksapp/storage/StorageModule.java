@@ -5,6 +5,8 @@ import com.perapoch.tasksapp.storage.cache.CacheManager;
 import com.perapoch.tasksapp.storage.cache.CacheManagerImpl;
 import com.perapoch.tasksapp.storage.db.KeyValueStoreFactory;
 import com.perapoch.tasksapp.storage.db.KeyValueStoreFactoryImpl;
+import com.perapoch.tasksapp.storage.db.UnitOfWork;
+import com.perapoch.tasksapp.storage.db.UnitOfWorkImpl;
 
 public class StorageModule extends AbstractModule {
 
@@ -12,5 +14,6 @@ public class StorageModule extends AbstractModule {
     protected void configure() {
         bind(KeyValueStoreFactory.class).to(KeyValueStoreFactoryImpl.class);
         bind(CacheManager.class).to(CacheManagerImpl.class);
+        bind(UnitOfWork.class).to(UnitOfWorkImpl.class);
     }
 }
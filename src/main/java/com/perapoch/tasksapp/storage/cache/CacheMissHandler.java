@@ -1,6 +1,21 @@
 package com.perapoch.tasksapp.storage.cache;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
 public interface CacheMissHandler<K, V> {
 
     V fetch(K key);
+
+    default Map<K, V> fetchAll(Set<? extends K> keys) {
+        Map<K, V> result = new HashMap<>();
+        for (K key : keys) {
+            V value = fetch(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
 }
@@ -1,11 +1,13 @@
 package com.perapoch.tasksapp.storage.cache;
 
+import com.github.benmanes.caffeine.cache.CacheLoader;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
 
 import java.time.Duration;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 public class CaffeineLruCacheWithMissHandler<K, V> implements LruCache<K, V> {
 
@@ -15,7 +17,18 @@ public class CaffeineLruCacheWithMissHandler<K, V> implements LruCache<K, V> {
         this.cache = Caffeine.newBuilder()
                              .maximumSize(maxSize)
                              .expireAfterWrite(expireAfter)
-                             .build(missHandler::fetch);
+                             .build(new CacheLoader<K, V>() {
+                                 @Override
+                                 public V load(K key) {
+                                     return missHandler.fetch(key);
+                                 }
+
+                                 @Override
+                                 public Map<? extends K, ? extends V> loadAll(Set<? extends K> keys) {
+                                     // only the keys that missed get here, so they can be fetched in a single round trip
+                                     return missHandler.fetchAll(keys);
+                                 }
+                             });
     }
 
     @Override
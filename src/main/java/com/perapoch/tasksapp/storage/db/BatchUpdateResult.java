@@ -0,0 +1,16 @@
+package com.perapoch.tasksapp.storage.db;
+
+import java.util.Map;
+import java.util.Set;
+
+// Outcome of KeyValueStore.updateAll: every requested key ends up in exactly one of the three collections
+public record BatchUpdateResult<K, V>(Map<K, V> updated, Set<K> deleted, Map<K, RuntimeException> failures) {
+
+    public static <K, V> BatchUpdateResult<K, V> of(Map<K, V> updated, Set<K> deleted, Map<K, RuntimeException> failures) {
+        return new BatchUpdateResult<>(updated, deleted, failures);
+    }
+
+    public boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+}
@@ -0,0 +1,82 @@
+package com.perapoch.tasksapp.storage.db;
+
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// The handles of the unit of work running on the current thread, one per database, opened (and their transaction begun)
+// the first time a store asks for one. Work that has to wait for the commit, like releasing change sequence numbers or
+// invalidating caches, is queued until the unit of work completes either way.
+final class BoundHandles {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BoundHandles.class);
+    private static final ThreadLocal<BoundHandles> CURRENT = new ThreadLocal<>();
+
+    private final Map<Jdbi, Handle> handles;
+    private final List<Runnable> afterCompletion;
+
+    private BoundHandles() {
+        this.handles = new LinkedHashMap<>();
+        this.afterCompletion = new ArrayList<>();
+    }
+
+    static BoundHandles current() {
+        return CURRENT.get();
+    }
+
+    static BoundHandles bind() {
+        BoundHandles handles = new BoundHandles();
+        CURRENT.set(handles);
+        return handles;
+    }
+
+    Handle handle(Jdbi jdbi) {
+        return handles.computeIfAbsent(jdbi, ignored -> {
+            Handle handle = jdbi.open();
+            handle.begin();
+            return handle;
+        });
+    }
+
+    void afterCompletion(Runnable callback) {
+        afterCompletion.add(callback);
+    }
+
+    void commit() {
+        for (Handle handle : handles.values()) {
+            handle.commit();
+        }
+    }
+
+    void rollback(Throwable cause) {
+        for (Handle handle : handles.values()) {
+            try {
+                handle.rollback();
+            } catch (RuntimeException e) {
+                cause.addSuppressed(e);
+            }
+        }
+    }
+
+    void unbind() {
+        CURRENT.remove();
+        for (Handle handle : handles.values()) {
+            try {
+                // a handle whose commit failed is still in its transaction, closing it rolls that back
+                if (handle.isInTransaction()) {
+                    handle.rollback();
+                }
+                handle.close();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Can't close unit of work handle", e);
+            }
+        }
+        afterCompletion.forEach(Runnable::run);
+    }
+}
@@ -0,0 +1,9 @@
+package com.perapoch.tasksapp.storage.db;
+
+// A committed write of a store with a change feed. Reading the feed again from cursor returns the changes after this one
+public record Change<K>(K key, ChangeType type, long changedAtMs, String cursor) {
+
+    public static <K> Change<K> of(K key, ChangeType type, long changedAtMs, String cursor) {
+        return new Change<>(key, type, changedAtMs, cursor);
+    }
+}
@@ -0,0 +1,12 @@
+package com.perapoch.tasksapp.storage.db;
+
+import java.util.List;
+
+// The changes after a cursor, oldest first, and the cursor to read the next ones from. A gap means some of the changes
+// right after the requested cursor were pruned already, so whoever follows the feed has to re-read the whole store
+public record ChangeBatch<K>(List<Change<K>> changes, String cursor, boolean gap) {
+
+    public static <K> ChangeBatch<K> of(List<Change<K>> changes, String cursor, boolean gap) {
+        return new ChangeBatch<>(List.copyOf(changes), cursor, gap);
+    }
+}
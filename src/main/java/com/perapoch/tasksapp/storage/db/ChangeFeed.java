@@ -0,0 +1,35 @@
+package com.perapoch.tasksapp.storage.db;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+// implemented by the stores whose engine can keep a change feed: the JDBC ones, plain or sharded. Only those created
+// with StoreOptions.withChangeFeed() keep changes, the other engines ignore that option
+public interface ChangeFeed<K> {
+
+    // changes committed after cursor (null for the oldest one still kept), oldest first. When there are none yet it waits
+    // up to maxWaitMs for the next one
+    ChangeBatch<K> changesSince(String cursor, int limit, long maxWaitMs);
+
+    // completed with true by the next change committed to the store, or with false once maxWaitMs is over, so a reader
+    // can wait for it without holding a thread. Taken before reading the feed, a change committed meanwhile completes it
+    // too. A reader that no longer needs it cancels it, which stops the wait
+    CompletableFuture<Boolean> nextChange(long maxWaitMs);
+
+    // the cursor to follow only the changes from now on
+    String latestChangeCursor();
+
+    // meant to be called when the store is created, so a store on an engine without change feeds fails on startup
+    static <K> ChangeFeed<K> of(KeyValueStore<K, ?> store) {
+        return ChangeFeed.<K>maybeOf(store).orElseThrow(() -> new UnsupportedCapabilityException("%s doesn't keep a change feed".formatted(store.getClass().getSimpleName())));
+    }
+
+    // for callers that can do without a change feed on the other engines
+    @SuppressWarnings("unchecked")
+    static <K> Optional<ChangeFeed<K>> maybeOf(KeyValueStore<K, ?> store) {
+        if (store instanceof ChangeFeed<?> changeFeed) {
+            return Optional.of((ChangeFeed<K>) changeFeed);
+        }
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,161 @@
+package com.perapoch.tasksapp.storage.db;
+
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.statement.PreparedBatch;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.TreeSet;
+
+// The change table of a store with a change feed, written in the same transaction as the rows. Sequence numbers are
+// handed out here instead of by the database, which assumes a single application writes the store, so that readers can
+// stop right before the oldest write still in flight: a change only shows up once every change before it has been
+// committed or rolled back, and a reader never moves its cursor past a change that commits later.
+final class ChangeLog<K> {
+
+    private static final byte UPSERT = 1;
+    private static final byte DELETE = 2;
+
+    private final Jdbi jdbi;
+    private final Class<K> keyKlass;
+    private final ChangeSignal signal;
+    private final String insert;
+    private final String selectSince;
+    private final String selectPrunable;
+    private final String deleteUpTo;
+    private final NavigableSet<Long> inFlight;
+    private long lastAllocated;
+    // changes up to here may have been deleted, so reading from an older cursor can miss some
+    private volatile long prunedUpTo;
+
+    ChangeLog(Jdbi jdbi, String changesTable, Class<K> keyKlass, ChangeSignal signal) {
+        this.jdbi = jdbi;
+        this.keyKlass = keyKlass;
+        this.signal = signal;
+        this.insert = "insert into %s (seq, id, change_type, changed_at_ms) values (?, ?, ?, ?)".formatted(changesTable);
+        this.selectSince = "select seq, id, change_type, changed_at_ms from %s where seq > ? and seq <= ? order by seq limit ?".formatted(changesTable);
+        // the latest change is always kept, it's where the sequence carries on from after a restart
+        this.selectPrunable = "select max(seq) from %1$s where changed_at_ms < ? and seq < (select max(seq) from %1$s)".formatted(changesTable);
+        this.deleteUpTo = "delete from %s where seq <= ?".formatted(changesTable);
+        this.inFlight = new TreeSet<>();
+        SeqRange kept = jdbi.withHandle(handle -> handle.createQuery("select min(seq) as first_seq, max(seq) as last_seq from %s".formatted(changesTable))
+                                                        .map((rs, ctx) -> new SeqRange(rs.getLong("first_seq"), rs.getLong("last_seq")))
+                                                        .one());
+        this.lastAllocated = kept.lastSeq();
+        this.prunedUpTo = Math.max(0L, kept.firstSeq() - 1);
+    }
+
+    ChangeSignal signal() {
+        return signal;
+    }
+
+    // must run in the transaction of the write. The returned sequence numbers have to be released once it is over
+    List<Long> append(Handle handle, Collection<K> keys, ChangeType type) {
+        List<Long> seqs = new ArrayList<>(keys.size());
+        if (keys.isEmpty()) {
+            return seqs;
+        }
+        long nowMs = System.currentTimeMillis();
+        PreparedBatch batch = handle.prepareBatch(insert);
+        for (K key : keys) {
+            long seq = allocate();
+            seqs.add(seq);
+            batch.bind(0, seq)
+                 .bind(1, key)
+                 .bind(2, type == ChangeType.UPSERT ? UPSERT : DELETE)
+                 .bind(3, nowMs)
+                 .add();
+        }
+        batch.execute();
+        return seqs;
+    }
+
+    void release(Collection<Long> seqs) {
+        if (seqs.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            inFlight.removeAll(seqs);
+        }
+        signal.signal();
+    }
+
+    private synchronized long allocate() {
+        long seq = ++lastAllocated;
+        inFlight.add(seq);
+        return seq;
+    }
+
+    private synchronized long readableUpTo() {
+        return inFlight.isEmpty() ? lastAllocated : inFlight.first() - 1;
+    }
+
+    String latestCursor() {
+        return String.valueOf(readableUpTo());
+    }
+
+    // always reads the primary: a replica may not have caught up with the changes below readableUpTo yet
+    ChangeBatch<K> since(String cursor, int limit) {
+        long afterSeq = cursor == null ? 0L : parseCursor(cursor);
+        long upToSeq = readableUpTo();
+        boolean gap = cursor != null && afterSeq < prunedUpTo;
+        List<Change<K>> changes = jdbi.withHandle(handle -> handle.createQuery(selectSince)
+                                                                 .bind(0, afterSeq)
+                                                                 .bind(1, upToSeq)
+                                                                 .bind(2, limit)
+                                                                 .map((rs, ctx) -> Change.of(readKey(rs),
+                                                                                             rs.getByte("change_type") == UPSERT ? ChangeType.UPSERT : ChangeType.DELETE,
+                                                                                             rs.getLong("changed_at_ms"),
+                                                                                             String.valueOf(rs.getLong("seq"))))
+                                                                 .list());
+        String nextCursor;
+        if (!changes.isEmpty()) {
+            nextCursor = changes.get(changes.size() - 1).cursor();
+        } else {
+            nextCursor = cursor == null ? String.valueOf(upToSeq) : cursor;
+        }
+        return ChangeBatch.of(changes, nextCursor, gap);
+    }
+
+    private K readKey(ResultSet rs) throws SQLException {
+        Object key = keyKlass.equals(Long.class) ? rs.getLong("id") : rs.getString("id");
+        return keyKlass.cast(key);
+    }
+
+    static long parseCursor(String cursor) {
+        try {
+            long seq = Long.parseLong(cursor);
+            if (seq < 0) {
+                throw new IllegalArgumentException("Invalid change cursor " + cursor);
+            }
+            return seq;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid change cursor " + cursor, e);
+        }
+    }
+
+    void prune(long olderThanMs) {
+        jdbi.useHandle(handle -> {
+            Optional<Long> prunableUpTo = handle.createQuery(selectPrunable)
+                                                .bind(0, olderThanMs)
+                                                .mapTo(Long.class)
+                                                .findOne();
+            prunableUpTo.ifPresent(seq -> {
+                // raised before deleting, so a concurrent reader reports a gap rather than silently missing changes
+                prunedUpTo = Math.max(prunedUpTo, seq);
+                handle.createUpdate(deleteUpTo)
+                      .bind(0, seq)
+                      .execute();
+            });
+        });
+    }
+
+    // both 0 when there are no changes
+    private record SeqRange(long firstSeq, long lastSeq) {}
+}
@@ -0,0 +1,108 @@
+package com.perapoch.tasksapp.storage.db;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Wakes up the readers of a change feed waiting for new changes. All the shards of a store share the same one
+final class ChangeSignal {
+
+    // times the async waits out. A wait that ends earlier cancels its timeout, which leaves the queue right away instead
+    // of staying there until maxWaitMs is over
+    private static final ScheduledThreadPoolExecutor TIMER = timer();
+
+    private long generation;
+    // one future per async reader, so a reader that gives up takes its own out instead of leaving it behind until the next
+    // write, which on an idle feed may never come
+    private final Set<CompletableFuture<Boolean>> waiters = new HashSet<>();
+
+    void signal() {
+        List<CompletableFuture<Boolean>> signalled;
+        synchronized (this) {
+            generation++;
+            notifyAll();
+            signalled = new ArrayList<>(waiters);
+            waiters.clear();
+        }
+        // outside the lock: the async readers' callbacks run on the writer thread
+        signalled.forEach(waiter -> waiter.complete(true));
+    }
+
+    // completed with true by the next signal, or with false once maxWaitMs is over. However it completes, cancelled
+    // included, it is no longer waited on
+    CompletableFuture<Boolean> nextSignal(long maxWaitMs) {
+        CompletableFuture<Boolean> waiter = new CompletableFuture<>();
+        synchronized (this) {
+            waiters.add(waiter);
+        }
+        // taken out before completing, so whoever sees the timeout sees it gone. Run on the timer thread itself
+        ScheduledFuture<?> timeout = TIMER.schedule(() -> {
+            removeWaiter(waiter);
+            waiter.complete(false);
+        }, maxWaitMs, TimeUnit.MILLISECONDS);
+        waiter.whenComplete((signalled, error) -> {
+            removeWaiter(waiter);
+            timeout.cancel(false);
+        });
+        return waiter;
+    }
+
+    private static ScheduledThreadPoolExecutor timer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "change-signal-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    private synchronized void removeWaiter(CompletableFuture<Boolean> waiter) {
+        waiters.remove(waiter);
+    }
+
+    synchronized int waiterCount() {
+        return waiters.size();
+    }
+
+    static int pendingTimeoutCount() {
+        return TIMER.getQueue().size();
+    }
+
+    // reads the feed and, if it has nothing new yet, reads it again after every signal until it has, or until maxWaitMs
+    // is over: a write that signals and then rolls back leaves nothing new to read
+    <K> ChangeBatch<K> awaitChanges(Supplier<ChangeBatch<K>> read, long maxWaitMs) {
+        long deadline = System.currentTimeMillis() + maxWaitMs;
+        while (true) {
+            long seenGeneration;
+            synchronized (this) {
+                seenGeneration = generation;
+            }
+            ChangeBatch<K> batch = read.get();
+            long remainingMs = deadline - System.currentTimeMillis();
+            if (!batch.changes().isEmpty() || remainingMs <= 0) {
+                return batch;
+            }
+            synchronized (this) {
+                while (generation == seenGeneration && remainingMs > 0) {
+                    try {
+                        wait(remainingMs);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new DatabaseException("Interrupted while waiting for changes", e);
+                    }
+                    remainingMs = deadline - System.currentTimeMillis();
+                }
+                if (generation == seenGeneration) {
+                    return batch;
+                }
+            }
+        }
+    }
+}
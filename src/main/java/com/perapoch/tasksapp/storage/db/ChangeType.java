@@ -0,0 +1,6 @@
+package com.perapoch.tasksapp.storage.db;
+
+public enum ChangeType {
+    UPSERT,
+    DELETE
+}
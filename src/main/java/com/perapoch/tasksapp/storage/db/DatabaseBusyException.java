@@ -0,0 +1,10 @@
+package com.perapoch.tasksapp.storage.db;
+
+import com.perapoch.tasksapp.exception.InternalException;
+
+public class DatabaseBusyException extends InternalException {
+
+    public DatabaseBusyException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,107 @@
+package com.perapoch.tasksapp.storage.db;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.perapoch.tasksapp.TaskAppConfiguration;
+import com.perapoch.tasksapp.storage.DatabaseExecutorConfiguration;
+import io.dropwizard.core.setup.Environment;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.eclipse.jetty.util.VirtualThreads;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+// Runs the blocking db work of async callers. It has as many threads as the database pool has connections, so requests
+// wait for a connection in its bounded queue instead of on a request thread, and fail fast once the queue is full.
+// Work runs on one of its threads, so a unit of work started by the caller doesn't cover it.
+//
+// With virtualThreads every piece of work gets its own virtual thread instead, and two semaphores take the place of the
+// pool and its queue. The connection semaphore has as many permits as the pool has connections: a virtual thread that
+// would wait for a connection inside the pool's synchronized code, pinning its carrier, parks on the semaphore instead
+// and leaves the carrier to the others. Work that waits on something other than its own connection, like a group commit,
+// hands its permit back meanwhile (see withoutConnection).
+@Singleton
+public class DatabaseExecutor {
+
+    // the connection permit held by the virtual thread running the work, if any
+    private static final ThreadLocal<Semaphore> HELD_CONNECTION = new ThreadLocal<>();
+
+    private final Executor executor;
+    private final Semaphore connections;
+    private final Semaphore admissions;
+
+    @Inject
+    public DatabaseExecutor(TaskAppConfiguration configuration, Environment environment) {
+        DatabaseExecutorConfiguration databaseExecutor = configuration.getStorage().getDatabaseExecutor();
+        int threads = databaseExecutor.getThreads() != null ? databaseExecutor.getThreads() : configuration.getDataSourceFactory().getMaxSize();
+        if (configuration.isVirtualThreads()) {
+            this.executor = VirtualThreads.getDefaultVirtualThreadsExecutor();
+            int inJdbc = configuration.getDataSourceFactory().getMaxSize();
+            this.connections = new Semaphore(inJdbc);
+            int maxInFlight = inJdbc + databaseExecutor.getQueueSize();
+            this.admissions = new Semaphore(maxInFlight);
+            // admitted work that isn't holding a connection permit: waiting for one, or for a group commit
+            environment.metrics().register(MetricRegistry.name(DatabaseExecutor.class, "queued"),
+                                           (Gauge<Integer>) () -> Math.max(0, (maxInFlight - admissions.availablePermits()) - (inJdbc - connections.availablePermits())));
+        } else {
+            BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(databaseExecutor.getQueueSize());
+            this.executor = environment.lifecycle()
+                                       .executorService("db-%d")
+                                       .minThreads(threads)
+                                       .maxThreads(threads)
+                                       .workQueue(queue)
+                                       .build();
+            this.connections = null;
+            this.admissions = null;
+            environment.metrics().register(MetricRegistry.name(DatabaseExecutor.class, "queued"), (Gauge<Integer>) queue::size);
+        }
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<T> work) {
+        if (admissions == null) {
+            try {
+                return CompletableFuture.supplyAsync(work, executor);
+            } catch (RejectedExecutionException e) {
+                return CompletableFuture.failedFuture(new DatabaseBusyException("Too many database requests in flight", e));
+            }
+        }
+        if (!admissions.tryAcquire()) {
+            return CompletableFuture.failedFuture(new DatabaseBusyException("Too many database requests in flight", null));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                connections.acquireUninterruptibly();
+                HELD_CONNECTION.set(connections);
+                try {
+                    return work.get();
+                } finally {
+                    HELD_CONNECTION.remove();
+                    connections.release();
+                }
+            } finally {
+                admissions.release();
+            }
+        }, executor);
+    }
+
+    // runs a wait that doesn't need the caller's connection, giving its connection permit back in the meantime so that
+    // other work can use the connection. Does nothing special off the virtual thread executor
+    static <T> T withoutConnection(Supplier<T> wait) {
+        Semaphore connections = HELD_CONNECTION.get();
+        if (connections == null) {
+            return wait.get();
+        }
+        connections.release();
+        try {
+            return wait.get();
+        } finally {
+            connections.acquireUninterruptibly();
+        }
+    }
+}
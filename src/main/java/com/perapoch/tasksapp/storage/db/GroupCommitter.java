@@ -0,0 +1,234 @@
+package com.perapoch.tasksapp.storage.db;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.perapoch.tasksapp.storage.GroupCommitConfiguration;
+import io.dropwizard.lifecycle.Managed;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vyarus.dropwizard.guice.module.installer.scanner.InvisibleForScanner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+// Runs the writes submitted by concurrent callers in a shared transaction, so a burst of N writes pays one commit
+// instead of N. Every write gets its own savepoint: a failing write is rolled back alone and only its caller sees the
+// exception. Callers are released once the shared transaction is committed, so they never observe uncommitted data.
+// Built and managed by KeyValueStoreFactoryImpl, so it is hidden from the classpath scan.
+@InvisibleForScanner
+public class GroupCommitter implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GroupCommitter.class);
+    // how often an idle committer checks whether it has been stopped
+    private static final long IDLE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long STOP_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(5);
+
+    private final Jdbi jdbi;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final long timeoutNanos;
+    private final BlockingQueue<PendingWrite<?>> pendingWrites;
+    private final Histogram batchSizes;
+    private final Meter commits;
+    private final Thread committerThread;
+    private volatile boolean running;
+
+    public GroupCommitter(Jdbi jdbi, GroupCommitConfiguration configuration, MetricRegistry metricRegistry, String storeName) {
+        this.jdbi = jdbi;
+        this.windowNanos = configuration.getWindow().toNanoseconds();
+        this.maxBatchSize = configuration.getMaxBatchSize();
+        this.timeoutNanos = configuration.getTimeout().toNanoseconds();
+        this.pendingWrites = new LinkedBlockingQueue<>();
+        this.batchSizes = metricRegistry.histogram(MetricRegistry.name(GroupCommitter.class, storeName, "batch-size"));
+        this.commits = metricRegistry.meter(MetricRegistry.name(GroupCommitter.class, storeName, "commits"));
+        this.committerThread = new Thread(this::commitLoop, "group-commit-" + storeName);
+        this.committerThread.setDaemon(true);
+    }
+
+    // stores can be created after the server has started, so the factory starts it too: a second call does nothing
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        committerThread.start();
+    }
+
+    public <T> T submit(Function<Handle, T> write) {
+        var pendingWrite = new PendingWrite<>(write, new CompletableFuture<>(), new AtomicBoolean());
+        pendingWrites.add(pendingWrite);
+        // checked after enqueueing: the committer only exits once running is cleared and the queue is empty, so a write
+        // that missed it sees it here. If the committer took it first, its future is completed by the committer
+        if (!running && pendingWrites.remove(pendingWrite)) {
+            throw new DatabaseException("Group committer is stopped", null);
+        }
+        // the caller holds no connection while the committer writes for it, so it gives its connection permit back
+        return DatabaseExecutor.withoutConnection(() -> await(pendingWrite));
+    }
+
+    private <T> T await(PendingWrite<T> pendingWrite) {
+        try {
+            return awaitResult(pendingWrite);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new DatabaseException("Group commit failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseException("Interrupted while waiting for group commit", e);
+        }
+    }
+
+    // bounded, so a committer that hangs or dies never holds its callers (and the threads they run on) forever
+    private <T> T awaitResult(PendingWrite<T> pendingWrite) throws ExecutionException, InterruptedException {
+        try {
+            return pendingWrite.result().get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            if (pendingWrite.take()) {
+                throw new DatabaseException("Group commit didn't take the write in time, it wasn't applied", e);
+            }
+        }
+        // the committer is applying it already: its batch completes it, or the loop fails it when it exits
+        try {
+            return pendingWrite.result().get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new DatabaseException("Group commit didn't complete in time, the write may still be committed", e);
+        }
+    }
+
+    // the committer commits what is queued already and then exits. It isn't interrupted, which could abort it in the
+    // middle of H2 I/O
+    @Override
+    public void stop() throws Exception {
+        running = false;
+        if (committerThread.isAlive()) {
+            committerThread.join(STOP_TIMEOUT_MS);
+            if (committerThread.isAlive()) {
+                LOGGER.warn("Group committer {} didn't stop within {} ms, its writes fail once it does", committerThread.getName(), STOP_TIMEOUT_MS);
+                return;
+            }
+        }
+        failAll(drain(), new DatabaseException("Group committer is stopped", null));
+    }
+
+    private void commitLoop() {
+        List<PendingWrite<?>> batch = List.of();
+        Throwable cause = null;
+        try {
+            while (running || !pendingWrites.isEmpty()) {
+                try {
+                    batch = nextBatch();
+                    if (!batch.isEmpty()) {
+                        batchSizes.update(batch.size());
+                        commit(batch);
+                    }
+                } catch (RuntimeException e) {
+                    LOGGER.error("Unexpected error in group commit loop", e);
+                    failAll(batch, e);
+                }
+                batch = List.of();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cause = e;
+        } catch (Error e) {
+            cause = e;
+            throw e;
+        } finally {
+            running = false;
+            // whatever ended the loop, nobody is left waiting for a write that won't be committed anymore
+            DatabaseException stopped = new DatabaseException("Group committer is stopped", cause);
+            failAll(batch, stopped);
+            failAll(drain(), stopped);
+        }
+    }
+
+    // waits for the first write, then keeps collecting until the window closes or the batch is full. Empty when no write
+    // arrived for a while, so that the loop sees it has been stopped
+    private List<PendingWrite<?>> nextBatch() throws InterruptedException {
+        List<PendingWrite<?>> batch = new ArrayList<>(maxBatchSize);
+        PendingWrite<?> first = pendingWrites.poll(IDLE_POLL_NANOS, TimeUnit.NANOSECONDS);
+        if (first == null) {
+            return batch;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + windowNanos;
+        while (batch.size() < maxBatchSize) {
+            long remaining = deadline - System.nanoTime();
+            PendingWrite<?> next = remaining > 0 ? pendingWrites.poll(remaining, TimeUnit.NANOSECONDS) : pendingWrites.poll();
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+        return batch;
+    }
+
+    private void commit(List<PendingWrite<?>> batch) {
+        List<Runnable> completions = new ArrayList<>(batch.size());
+        try (Handle handle = jdbi.open()) {
+            handle.begin();
+            try {
+                for (int i = 0; i < batch.size(); i++) {
+                    PendingWrite<?> pendingWrite = batch.get(i);
+                    // left out if its caller gave up waiting for it
+                    if (pendingWrite.take()) {
+                        completions.add(apply(handle, pendingWrite, "gc" + i));
+                    }
+                }
+                handle.commit();
+            } catch (RuntimeException e) {
+                handle.rollback();
+                throw e;
+            }
+        } catch (RuntimeException e) {
+            failAll(batch, e);
+            return;
+        }
+        commits.mark();
+        completions.forEach(Runnable::run);
+    }
+
+    private <T> Runnable apply(Handle handle, PendingWrite<T> pendingWrite, String savepoint) {
+        handle.savepoint(savepoint);
+        try {
+            T result = pendingWrite.write().apply(handle);
+            handle.release(savepoint);
+            return () -> pendingWrite.result().complete(result);
+        } catch (RuntimeException e) {
+            handle.rollbackToSavepoint(savepoint);
+            return () -> pendingWrite.result().completeExceptionally(e);
+        }
+    }
+
+    private List<PendingWrite<?>> drain() {
+        List<PendingWrite<?>> remaining = new ArrayList<>();
+        pendingWrites.drainTo(remaining);
+        return remaining;
+    }
+
+    private static void failAll(List<PendingWrite<?>> writes, RuntimeException e) {
+        writes.forEach(pendingWrite -> pendingWrite.result().completeExceptionally(e));
+    }
+
+    // taken either by the committer, to apply it, or by its caller once it stopped waiting, whichever comes first
+    private record PendingWrite<T>(Function<Handle, T> write, CompletableFuture<T> result, AtomicBoolean taken) {
+
+        boolean take() {
+            return taken.compareAndSet(false, true);
+        }
+    }
+}
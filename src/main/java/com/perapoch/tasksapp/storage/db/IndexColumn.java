@@ -0,0 +1,19 @@
+package com.perapoch.tasksapp.storage.db;
+
+import java.util.function.Function;
+
+// A payload field copied into its own indexed column on every write, so the store can be queried by it
+public record IndexColumn<V, T>(String name, Class<T> type, Function<V, T> extractor, boolean unique) {
+
+    public static <V, T> IndexColumn<V, T> unique(String name, Class<T> type, Function<V, T> extractor) {
+        return new IndexColumn<>(name, type, extractor, true);
+    }
+
+    public static <V, T> IndexColumn<V, T> nonUnique(String name, Class<T> type, Function<V, T> extractor) {
+        return new IndexColumn<>(name, type, extractor, false);
+    }
+
+    public T extract(V target) {
+        return target == null ? null : extractor.apply(target);
+    }
+}
@@ -0,0 +1,9 @@
+package com.perapoch.tasksapp.storage.db;
+
+// Where a range scan of an index stopped: the index value and the key of the last entry returned
+public record IndexPosition<K>(Object value, K key) {
+
+    public static <K> IndexPosition<K> of(Object value, K key) {
+        return new IndexPosition<>(value, key);
+    }
+}
@@ -0,0 +1,26 @@
+package com.perapoch.tasksapp.storage.db;
+
+import java.util.List;
+import java.util.Optional;
+
+// implemented by the stores whose engine keeps its indexes in value order: the JDBC ones, plain or sharded
+public interface IndexRangeScan<K, V> {
+
+    // values whose index value is within [fromInclusive, toExclusive), a null bound meaning unbounded, in index value then
+    // key order. Pages are read one after the other by passing the position of the last entry of the previous one as after
+    List<V> getByIndexRange(String indexName, Object fromInclusive, Object toExclusive, IndexPosition<K> after, int limit);
+
+    // meant to be called when the store is created, so a store on an engine without range scans fails on startup
+    static <K, V> IndexRangeScan<K, V> of(KeyValueStore<K, V> store) {
+        return maybeOf(store).orElseThrow(() -> new UnsupportedCapabilityException("%s doesn't support index range scans".formatted(store.getClass().getSimpleName())));
+    }
+
+    // for callers that can do without range scans on the other engines
+    @SuppressWarnings("unchecked")
+    static <K, V> Optional<IndexRangeScan<K, V>> maybeOf(KeyValueStore<K, V> store) {
+        if (store instanceof IndexRangeScan<?, ?> rangeScan) {
+            return Optional.of((IndexRangeScan<K, V>) rangeScan);
+        }
+        return Optional.empty();
+    }
+}
@@ -1,20 +1,82 @@
 package com.perapoch.tasksapp.storage.db;
 
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
 
 public interface KeyValueStore<K, V> {
 
     Optional<V> getById(K key);
 
+    Optional<Versioned<V>> getVersionedById(K key);
+
+    Map<K, V> getByIds(Collection<? extends K> keys);
+
+    Map<K, Versioned<V>> getVersionedByIds(Collection<? extends K> keys);
+
     default V update(K key, UnaryOperator<V> updateOperation) {
         return update(key, null, updateOperation);
     }
 
-    V update(K key, String indexValue, UnaryOperator<V> updateOperation);
+    default V update(K key, String indexValue, UnaryOperator<V> updateOperation) {
+        return updateVersioned(key, indexValue, Versioned.ANY_VERSION, updateOperation).value();
+    }
+
+    // expectedVersion other than Versioned.ANY_VERSION turns the update into a compare-and-set: it throws
+    // VersionConflictException unless the row is still at that version
+    Versioned<V> updateVersioned(K key, String indexValue, long expectedVersion, UnaryOperator<V> updateOperation);
+
+    // writes the value of a key nobody has written yet, e.g. one just generated, failing with EntityAlreadyExistsException
+    // when the key or the unique index value is taken. This fallback pays the read of updateVersioned, stores that can
+    // leave the conflicts to their constraints should override it
+    default Versioned<V> insert(K key, V value) {
+        return updateVersioned(key, null, Versioned.ANY_VERSION, existing -> {
+            if (existing != null) {
+                throw new EntityAlreadyExistsException("%s already exists".formatted(value.getClass().getSimpleName()));
+            }
+            return value;
+        });
+    }
+
+    // applies every operation and reports per-key failures instead of aborting the whole batch. This fallback pays one
+    // transaction per key, stores that can lock and write many rows at once should override it
+    default BatchUpdateResult<K, V> updateAll(Map<K, UnaryOperator<V>> updateOperations) {
+        Map<K, V> updated = new LinkedHashMap<>();
+        Set<K> deleted = new LinkedHashSet<>();
+        Map<K, RuntimeException> failures = new LinkedHashMap<>();
+        updateOperations.forEach((key, updateOperation) -> {
+            try {
+                V result = update(key, updateOperation);
+                if (result == null) {
+                    deleted.add(key);
+                } else {
+                    updated.put(key, result);
+                }
+            } catch (RuntimeException e) {
+                failures.put(key, e);
+            }
+        });
+        return BatchUpdateResult.of(updated, deleted, failures);
+    }
 
+    // skips offset rows, which every engine has to read first (and a sharded store from every shard). Prefer getAllAfter
+    // for anything but shallow pages
     List<V> getAll(int offset, int limit);
 
+    List<V> getAllAfter(K afterKey, int limit);
+
+    // values whose index (the unique one or a declared secondary one) equals value, in key order
+    List<V> getByIndex(String indexName, Object value, int limit);
+
+    // walks the whole store in key order, reading chunkSize entries at a time as the stream is consumed. Engines may hold
+    // resources open while it is, so the returned stream must be closed
+    Stream<V> stream(int chunkSize);
+
 }
@@ -3,16 +3,24 @@ package com.perapoch.tasksapp.storage.db;
 public interface KeyValueStoreFactory {
 
     default <V> KeyValueStore<Long, V> createLongKeyValueStore(String tableName, Class<V> payloadKlass) {
-        return createLongKeyValueStore(tableName, payloadKlass, null);
+        return createLongKeyValueStore(tableName, payloadKlass, StoreOptions.defaults());
     }
 
-    <V> KeyValueStore<Long, V> createLongKeyValueStore(String tableName, Class<V> payloadKlass, StringUniqueIndexColumn<V> stringUniqueIndexColumn);
+    default <V> KeyValueStore<Long, V> createLongKeyValueStore(String tableName, Class<V> payloadKlass, StringUniqueIndexColumn<V> stringUniqueIndexColumn) {
+        return createLongKeyValueStore(tableName, payloadKlass, StoreOptions.<V>defaults().withUniqueIndex(stringUniqueIndexColumn));
+    }
+
+    <V> KeyValueStore<Long, V> createLongKeyValueStore(String tableName, Class<V> payloadKlass, StoreOptions<V> options);
 
     default <V> KeyValueStore<String, V> createStringKeyValueStore(String tableName, Class<V> payloadKlass) {
-        return createStringKeyValueStore(tableName, payloadKlass, null);
+        return createStringKeyValueStore(tableName, payloadKlass, StoreOptions.defaults());
+    }
+
+    default <V> KeyValueStore<String, V> createStringKeyValueStore(String tableName, Class<V> payloadKlass, StringUniqueIndexColumn<V> stringUniqueIndexColumn) {
+        return createStringKeyValueStore(tableName, payloadKlass, StoreOptions.<V>defaults().withUniqueIndex(stringUniqueIndexColumn));
     }
 
-    <V> KeyValueStore<String, V> createStringKeyValueStore(String tableName, Class<V> payloadKlass, StringUniqueIndexColumn<V> stringUniqueIndexColumn);
+    <V> KeyValueStore<String, V> createStringKeyValueStore(String tableName, Class<V> payloadKlass, StoreOptions<V> options);
 
 
 }
@@ -1,47 +1,271 @@
 package com.perapoch.tasksapp.storage.db;
 
+import com.codahale.metrics.MetricRegistry;
+import com.perapoch.tasksapp.TaskAppConfiguration;
 import com.perapoch.tasksapp.core.json.JsonConverter;
+import com.perapoch.tasksapp.storage.ChangeFeedConfiguration;
+import com.perapoch.tasksapp.storage.GroupCommitConfiguration;
+import com.perapoch.tasksapp.storage.LogStoreConfiguration;
+import com.perapoch.tasksapp.storage.MvStoreConfiguration;
+import com.perapoch.tasksapp.storage.ReplicaConfiguration;
+import com.perapoch.tasksapp.storage.ShardingConfiguration;
+import com.perapoch.tasksapp.storage.db.codec.JsonPayloadCodec;
+import com.perapoch.tasksapp.storage.db.codec.PayloadCompressor;
+import com.perapoch.tasksapp.storage.db.codec.PayloadSerializer;
+import com.perapoch.tasksapp.storage.db.log.LogStructuredKeyValueStore;
+import com.perapoch.tasksapp.storage.db.mvstore.MvStoreEngine;
+import com.perapoch.tasksapp.storage.db.mvstore.MvStoreKeyValueStore;
+import com.perapoch.tasksapp.storage.db.schema.SchemaManager;
+import com.perapoch.tasksapp.storage.db.schema.SecondaryIndex;
+import com.perapoch.tasksapp.storage.db.schema.StoreSchema;
+import io.dropwizard.core.setup.Environment;
+import io.dropwizard.jdbi3.JdbiFactory;
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 import org.jdbi.v3.core.Jdbi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 @Singleton
 public class KeyValueStoreFactoryImpl implements KeyValueStoreFactory {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(KeyValueStoreFactoryImpl.class);
 
     private final Jdbi jdbi;
     private final JsonConverter jsonConverter;
+    private final SchemaManager schemaManager;
+    private final MetricRegistry metricRegistry;
+    private final Environment environment;
+    private final GroupCommitConfiguration groupCommitConfiguration;
+    private final List<SchemaManager> shardSchemaManagers;
+    private final ExecutorService shardExecutor;
+    private final ReplicaRouter replicaRouter;
+    private final LogStoreConfiguration logStoreConfiguration;
+    private final ScheduledExecutorService logStoreExecutor;
+    private final MvStoreConfiguration mvStoreConfiguration;
+    private final MvStoreEngine mvStoreEngine;
+    private final long changeRetentionMs;
+    private final long changePruneIntervalMs;
+    private final List<ChangeLog<?>> changeLogs;
+    private ScheduledExecutorService changePruner;
 
     protected final Map<String, KeyValueStore<?, ?>> existingStores;
+    protected final List<Jdbi> shardJdbis;
 
     @Inject
-    public KeyValueStoreFactoryImpl(Jdbi jdbi, JsonConverter jsonConverter) {
+    public KeyValueStoreFactoryImpl(Jdbi jdbi, JsonConverter jsonConverter, Environment environment, TaskAppConfiguration configuration) {
         this.jdbi = jdbi;
         this.jsonConverter = jsonConverter;
+        this.environment = environment;
+        this.metricRegistry = environment.metrics();
+        this.groupCommitConfiguration = configuration.getStorage().getGroupCommit();
+        this.schemaManager = new SchemaManager(jdbi);
         this.existingStores = new ConcurrentHashMap<>();
+        this.shardJdbis = buildShardJdbis(configuration.getStorage().getSharding(), environment);
+        this.shardSchemaManagers = shardJdbis.stream().map(SchemaManager::new).collect(Collectors.toList());
+        this.shardExecutor = shardJdbis.isEmpty() ? null : environment.lifecycle()
+                                                                      .executorService("shard-io-%d")
+                                                                      .minThreads(shardJdbis.size() * 2)
+                                                                      .maxThreads(shardJdbis.size() * 2)
+                                                                      .build();
+        this.replicaRouter = buildReplicaRouter(jdbi, configuration.getStorage().getReplicas(), environment);
+        this.logStoreConfiguration = configuration.getStorage().getLogStore();
+        // flushes and compactions of every log structured store
+        this.logStoreExecutor = logStoreConfiguration.getStores().isEmpty() ? null : environment.lifecycle()
+                                                                                               .scheduledExecutorService("log-store-%d")
+                                                                                               .threads(2)
+                                                                                               .build();
+        this.mvStoreConfiguration = configuration.getStorage().getMvStore();
+        this.mvStoreEngine = buildMvStoreEngine(mvStoreConfiguration, environment);
+        ChangeFeedConfiguration changeFeed = configuration.getStorage().getChangeFeed();
+        this.changeRetentionMs = changeFeed.getRetention().toMilliseconds();
+        this.changePruneIntervalMs = changeFeed.getPruneInterval().toMilliseconds();
+        this.changeLogs = new CopyOnWriteArrayList<>();
+    }
+
+    // only once the first store with a change feed is created, most deployments have none
+    private synchronized void scheduleChangePruning() {
+        if (changePruner != null) {
+            return;
+        }
+        changePruner = environment.lifecycle()
+                                  .scheduledExecutorService("change-feed-pruner-%d")
+                                  .build();
+        changePruner.scheduleWithFixedDelay(this::pruneChanges, changePruneIntervalMs, changePruneIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void pruneChanges() {
+        long olderThanMs = System.currentTimeMillis() - changeRetentionMs;
+        for (ChangeLog<?> changeLog : changeLogs) {
+            try {
+                changeLog.prune(olderThanMs);
+            } catch (RuntimeException e) {
+                // the changes are left for the next run
+                LOGGER.warn("Pruning changes failed", e);
+            }
+        }
+    }
+
+    private static MvStoreEngine buildMvStoreEngine(MvStoreConfiguration mvStore, Environment environment) {
+        if (mvStore.getStores().isEmpty()) {
+            return null;
+        }
+        var engine = new MvStoreEngine(mvStore);
+        environment.lifecycle().manage(engine);
+        return engine;
+    }
+
+    private static ReplicaRouter buildReplicaRouter(Jdbi jdbi, ReplicaConfiguration replicas, Environment environment) {
+        if (!replicas.isEnabled()) {
+            return null;
+        }
+        var jdbiFactory = new JdbiFactory();
+        List<Jdbi> replicaJdbis = new ArrayList<>();
+        for (int i = 0; i < replicas.getDataSources().size(); i++) {
+            replicaJdbis.add(jdbiFactory.build(environment, replicas.getDataSources().get(i), "replica-" + i));
+        }
+        // hedged reads keep up to two reads in flight per request
+        int readThreads = Math.max(8, replicaJdbis.size() * 8);
+        return new ReplicaRouter(jdbi,
+                                 replicaJdbis,
+                                 replicas,
+                                 environment.lifecycle().executorService("replica-reads-%d").minThreads(readThreads).maxThreads(readThreads).build(),
+                                 environment.lifecycle().scheduledExecutorService("replica-heartbeat-%d").build(),
+                                 environment.metrics());
+    }
+
+    // every shard gets its own pool (and health check), named after its position in the configuration
+    private static List<Jdbi> buildShardJdbis(ShardingConfiguration sharding, Environment environment) {
+        var jdbiFactory = new JdbiFactory();
+        List<Jdbi> jdbis = new ArrayList<>();
+        for (int i = 0; i < sharding.getShards().size(); i++) {
+            jdbis.add(jdbiFactory.build(environment, sharding.getShards().get(i), "shard-" + i));
+        }
+        return List.copyOf(jdbis);
     }
 
 
     @Override
-    public <V> KeyValueStore<Long, V> createLongKeyValueStore(String tableName, Class<V> payloadKlass, StringUniqueIndexColumn<V> stringUniqueIndexColumn) {
-        return createStoreIfNotExists(tableName, Long.class, payloadKlass, stringUniqueIndexColumn);
+    public <V> KeyValueStore<Long, V> createLongKeyValueStore(String tableName, Class<V> payloadKlass, StoreOptions<V> options) {
+        return createStoreIfNotExists(tableName, Long.class, payloadKlass, options);
     }
 
     @Override
-    public <V> KeyValueStore<String, V> createStringKeyValueStore(String tableName, Class<V> payloadKlass, StringUniqueIndexColumn<V> stringUniqueIndexColumn) {
-        return createStoreIfNotExists(tableName, String.class, payloadKlass, stringUniqueIndexColumn);
+    public <V> KeyValueStore<String, V> createStringKeyValueStore(String tableName, Class<V> payloadKlass, StoreOptions<V> options) {
+        return createStoreIfNotExists(tableName, String.class, payloadKlass, options);
+    }
+
+    private GroupCommitter maybeGroupCommitter(Jdbi storeJdbi, String storeName, StoreOptions<?> options) {
+        if (!options.groupCommit() || !groupCommitConfiguration.isEnabled()) {
+            return null;
+        }
+        var groupCommitter = new GroupCommitter(storeJdbi, groupCommitConfiguration, metricRegistry, storeName);
+        groupCommitter.start();
+        environment.lifecycle().manage(groupCommitter);
+        return groupCommitter;
     }
 
     @SuppressWarnings("unchecked")
-    private <K, V> KeyValueStore<K, V> createStoreIfNotExists(String tableName, Class<K> keyKlass, Class<V> payloadKlass, StringUniqueIndexColumn<V> uniqueIndexColumn) {
+    private <K, V> KeyValueStore<K, V> createStoreIfNotExists(String tableName, Class<K> keyKlass, Class<V> payloadKlass, StoreOptions<V> options) {
         return (KeyValueStore<K, V>) existingStores.compute(tableName, (k, existing) -> {
             if (existing != null) {
                 throw new StoreAlreadyExistsException("Store for %s already exists".formatted(tableName));
             }
-            return new KeyValueStoreImpl<>(jdbi, jsonConverter, tableName, keyKlass, payloadKlass, uniqueIndexColumn);
+            if (logStoreConfiguration.isEnabledFor(tableName)) {
+                warnIfChangeFeed(tableName, options, "log-structured");
+                return createLogStore(tableName, keyKlass, payloadKlass, options);
+            }
+            if (mvStoreConfiguration.isEnabledFor(tableName)) {
+                warnIfChangeFeed(tableName, options, "MVStore");
+                return new MvStoreKeyValueStore<>(mvStoreEngine, tableName, keyKlass, payloadKlass, options, serializerFor(tableName, payloadKlass, options));
+            }
+            if (options.sharded() && !shardJdbis.isEmpty()) {
+                return createShardedStore(tableName, keyKlass, payloadKlass, options);
+            }
+            return createStore(jdbi, schemaManager, tableName, tableName, keyKlass, payloadKlass, options,
+                               options.replicaReads() ? replicaRouter : null, new ChangeSignal());
         });
     }
+
+    // only the JDBC stores keep a change log. A store moved to another engine still starts, its readers find out through
+    // ChangeFeed.maybeOf and have to do without
+    private static void warnIfChangeFeed(String tableName, StoreOptions<?> options, String engine) {
+        if (options.changeFeed()) {
+            LOGGER.warn("Store {} asks for a change feed, which the {} engine doesn't keep", tableName, engine);
+        }
+    }
+
+    private <K, V> KeyValueStore<K, V> createShardedStore(String tableName, Class<K> keyKlass, Class<V> payloadKlass, StoreOptions<V> options) {
+        List<KeyValueStoreImpl<K, V>> shards = new ArrayList<>();
+        List<KeyValueStoreImpl<String, ShardedKeyValueStore.IndexClaim>> indexOwners = new ArrayList<>();
+        // readers of the change feed wait for a write to any shard
+        ChangeSignal changeSignal = new ChangeSignal();
+        for (int i = 0; i < shardJdbis.size(); i++) {
+            Jdbi shardJdbi = shardJdbis.get(i);
+            SchemaManager shardSchemaManager = shardSchemaManagers.get(i);
+            shardSchemaManager.checkShardLayout(tableName, i, shardJdbis.size());
+            // replicas mirror the main database only, shards are always read directly
+            shards.add(createStore(shardJdbi, shardSchemaManager, tableName, "%s-shard%d".formatted(tableName, i), keyKlass, payloadKlass, options, null,
+                                  changeSignal));
+            if (options.uniqueIndexColumn() != null) {
+                String ownersTable = "%s_%s_owners".formatted(tableName, options.uniqueIndexColumn().fieldName());
+                indexOwners.add(createStore(shardJdbi, shardSchemaManager, ownersTable, "%s-shard%d".formatted(ownersTable, i), String.class,
+                                            ShardedKeyValueStore.IndexClaim.class, StoreOptions.defaults(), null, null));
+            }
+        }
+        return new ShardedKeyValueStore<>(shards, indexOwners, options.uniqueIndexColumn(), keyKlass, shardExecutor,
+                                          options.changeFeed() ? changeSignal : null, new UnitOfWorkImpl());
+    }
+
+    private <K, V> KeyValueStore<K, V> createLogStore(String tableName, Class<K> keyKlass, Class<V> payloadKlass, StoreOptions<V> options) {
+        var store = new LogStructuredKeyValueStore<>(Path.of(logStoreConfiguration.getDirectory(), tableName), tableName, keyKlass, payloadKlass,
+                                                     options, serializerFor(tableName, payloadKlass, options), logStoreConfiguration,
+                                                     logStoreExecutor, metricRegistry);
+        environment.lifecycle().manage(store);
+        return store;
+    }
+
+    private <K, V> KeyValueStoreImpl<K, V> createStore(Jdbi storeJdbi, SchemaManager storeSchemaManager, String tableName, String storeName,
+                                                       Class<K> keyKlass, Class<V> payloadKlass, StoreOptions<V> options, ReplicaRouter storeReplicaRouter,
+                                                       ChangeSignal changeSignal) {
+        var uniqueIndexColumn = options.uniqueIndexColumn();
+        var schema = (uniqueIndexColumn == null
+                      ? StoreSchema.of(tableName, keyKlass)
+                      : StoreSchema.withUniqueIndex(tableName, keyKlass, uniqueIndexColumn.fieldName(), uniqueIndexColumn.getType()))
+          .withSecondaryIndexes(options.indexes().stream()
+                                       .map(index -> SecondaryIndex.of(index.name(), index.type(), index.unique()))
+                                       .collect(Collectors.toList()));
+        // tables are created/migrated up front so that no request ever has to deal with a missing table
+        storeSchemaManager.migrate(schema);
+        List<SecondaryIndex> createdIndexColumns = storeSchemaManager.ensureSecondaryIndexes(schema);
+        ChangeLog<K> changeLog = null;
+        if (options.changeFeed()) {
+            storeSchemaManager.ensureChangeTable(schema);
+            changeLog = new ChangeLog<>(storeJdbi, schema.changesTableName(), keyKlass, changeSignal);
+            changeLogs.add(changeLog);
+            scheduleChangePruning();
+        }
+        var serializer = serializerFor(storeName, payloadKlass, options);
+        var store = new KeyValueStoreImpl<>(storeJdbi, jsonConverter, schema, keyKlass, payloadKlass, options, serializer,
+                                            maybeGroupCommitter(storeJdbi, storeName, options), storeReplicaRouter, changeLog);
+        store.backfillIndexes(createdIndexColumns);
+        return store;
+    }
+
+    private <V> PayloadSerializer<V> serializerFor(String storeName, Class<V> payloadKlass, StoreOptions<V> options) {
+        var jsonCodec = new JsonPayloadCodec<>(jsonConverter, payloadKlass);
+        var compressor = options.compressionEnabled() ? new PayloadCompressor(options.compressionThresholdBytes(), metricRegistry, storeName) : null;
+        return new PayloadSerializer<>(options.maybeCodec().orElse(jsonCodec), jsonCodec, compressor);
+    }
 }
@@ -1,201 +1,826 @@
 package com.perapoch.tasksapp.storage.db;
 
 import com.perapoch.tasksapp.core.json.JsonConverter;
+import com.perapoch.tasksapp.storage.cache.CaffeineLruCache;
+import com.perapoch.tasksapp.storage.cache.LruCache;
+import com.perapoch.tasksapp.storage.db.codec.PayloadSerializer;
+import com.perapoch.tasksapp.storage.db.schema.SecondaryIndex;
+import com.perapoch.tasksapp.storage.db.schema.StoreSchema;
 import org.h2.api.ErrorCode;
 import org.h2.jdbc.JdbcSQLException;
 import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.HandleCallback;
 import org.jdbi.v3.core.Jdbi;
 import org.jdbi.v3.core.JdbiException;
+import org.jdbi.v3.core.statement.PreparedBatch;
 import org.jdbi.v3.core.statement.Query;
+import org.jdbi.v3.core.statement.SqlStatement;
 import org.jdbi.v3.core.statement.Update;
 
-import javax.sql.rowset.serial.SerialClob;
-import java.sql.Clob;
+import java.io.InputStream;
+import java.io.Reader;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.StringJoiner;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-public class KeyValueStoreImpl<K, V> implements KeyValueStore<K, V> {
+import static com.perapoch.tasksapp.storage.db.StoreStatements.ID_COLUMN;
+import static com.perapoch.tasksapp.storage.db.StoreStatements.INDEX_VALUE_COLUMN;
+import static com.perapoch.tasksapp.storage.db.StoreStatements.KEYS_LIST;
+import static com.perapoch.tasksapp.storage.db.StoreStatements.PAYLOAD_BIN_COLUMN;
+import static com.perapoch.tasksapp.storage.db.StoreStatements.PAYLOAD_COLUMN;
+import static com.perapoch.tasksapp.storage.db.StoreStatements.VERSION_COLUMN;
 
-    private static final TableColumn ID_COLUMN = new TableColumn("id");
-    private static final TableColumn PAYLOAD_COLUMN = new TableColumn("payload");
+public class KeyValueStoreImpl<K, V> implements KeyValueStore<K, V>, IndexRangeScan<K, V>, ChangeFeed<K> {
+
+    private static final int MAX_KEYS_PER_QUERY = 1000;
+    private static final int MAX_OPTIMISTIC_ATTEMPTS = 10;
+    private static final int BACKFILL_BATCH_SIZE = 1000;
+    private static final Duration INDEX_CACHE_EXPIRE_AFTER = Duration.ofMinutes(5);
     private final Jdbi jdbi;
     private final JsonConverter jsonConverter;
-    private final String tableName;
+    private final StoreSchema schema;
     private final Class<K> keyKlass;
     private final Class<V> payloadKlass;
     private final StringUniqueIndexColumn<V> uniqueIndexField;
-    private final List<TableColumn> columns;
+    private final List<IndexColumn<V, ?>> secondaryIndexes;
+    private final Map<String, IndexColumn<V, ?>> indexesByName;
+    private final Map<String, LruCache<Object, List<K>>> indexCaches;
+    // bumped after every invalidation, so a lookup that raced with a write doesn't cache what it read before the commit
+    private final AtomicLong indexCacheGeneration;
+    private final StoreStatements statements;
+    private final PayloadSerializer<V> serializer;
+    private final GroupCommitter groupCommitter;
+    private final ReplicaRouter replicaRouter;
+    private final ChangeLog<K> changeLog;
+    private final boolean optimisticLocking;
+    private final boolean autonomousWrites;
+
+    public KeyValueStoreImpl(Jdbi jdbi, JsonConverter jsonConverter, StoreSchema schema, Class<K> keyKlass, Class<V> payloadKlass,
+                             StringUniqueIndexColumn<V> uniqueIndexField, PayloadSerializer<V> serializer) {
+        this(jdbi, jsonConverter, schema, keyKlass, payloadKlass, StoreOptions.<V>defaults().withUniqueIndex(uniqueIndexField), serializer,
+             null, null, null);
+    }
 
-    public KeyValueStoreImpl(Jdbi jdbi, JsonConverter jsonConverter, String tableName, Class<K> keyKlass, Class<V> payloadKlass, StringUniqueIndexColumn<V> uniqueIndexField) {
+    public KeyValueStoreImpl(Jdbi jdbi, JsonConverter jsonConverter, StoreSchema schema, Class<K> keyKlass, Class<V> payloadKlass,
+                             StoreOptions<V> options, PayloadSerializer<V> serializer, GroupCommitter groupCommitter, ReplicaRouter replicaRouter,
+                             ChangeLog<K> changeLog) {
         this.jdbi = jdbi;
         this.jsonConverter = jsonConverter;
-        this.tableName = tableName;
+        this.schema = schema;
         this.keyKlass = keyKlass;
         this.payloadKlass = payloadKlass;
-        this.uniqueIndexField = uniqueIndexField;
-        List<TableColumn> columns = new ArrayList<>();
-        columns.add(ID_COLUMN);
-        columns.add(PAYLOAD_COLUMN);
-        if (uniqueIndexField != null) {
-            columns.add(new TableColumn(uniqueIndexField.fieldName()));
-        }
-        this.columns = columns;
+        this.uniqueIndexField = options.uniqueIndexColumn();
+        this.secondaryIndexes = options.indexes();
+        this.indexesByName = new HashMap<>();
+        options.maybeUniqueIndexColumn().ifPresent(index -> indexesByName.put(index.fieldName(), index.toIndexColumn()));
+        secondaryIndexes.forEach(index -> indexesByName.put(index.name(), index));
+        this.indexCaches = new HashMap<>();
+        options.indexCacheSizes().forEach((indexName, maxEntries) -> {
+            if (!indexesByName.containsKey(indexName)) {
+                throw new IllegalArgumentException("Can't cache unknown index %s of store %s".formatted(indexName, schema.tableName()));
+            }
+            indexCaches.put(indexName, new CaffeineLruCache<>(maxEntries, INDEX_CACHE_EXPIRE_AFTER));
+        });
+        this.indexCacheGeneration = new AtomicLong();
+        this.statements = StoreStatements.forSchema(schema);
+        this.serializer = serializer;
+        this.groupCommitter = groupCommitter;
+        this.replicaRouter = replicaRouter;
+        this.changeLog = changeLog;
+        this.optimisticLocking = options.optimisticLocking();
+        this.autonomousWrites = options.autonomousWrites();
     }
 
     @Override
     public Optional<V> getById(K key) {
-        try (Handle handle = jdbi.open()) {
-            Query query = handle.createQuery("select %s from %s where %s = ?".formatted(PAYLOAD_COLUMN.name(), tableName, ID_COLUMN.name()));
+        return getVersionedById(key).map(Versioned::value);
+    }
+
+    @Override
+    public Optional<Versioned<V>> getVersionedById(K key) {
+        return read(handle -> {
+            Query query = handle.createQuery(statements.selectById());
             query.bind(0, key);
-            return query.mapTo(Clob.class).findOne().map(this::fromClob);
-        } catch (JdbiException jdbiException) {
-            var tableCreated = handleExceptionAndMaybeCreateTable(jdbiException);
-            if (tableCreated) {
-                return getById(key);
+            return query.map((rs, ctx) -> readVersioned(rs)).findOne().filter(Versioned::isPresent);
+        });
+    }
+
+    @Override
+    public Map<K, V> getByIds(Collection<? extends K> keys) {
+        Map<K, V> result = new HashMap<>();
+        getVersionedByIds(keys).forEach((key, versioned) -> result.put(key, versioned.value()));
+        return result;
+    }
+
+    @Override
+    public Map<K, Versioned<V>> getVersionedByIds(Collection<? extends K> keys) {
+        if (keys.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return read(handle -> {
+            Map<K, Versioned<V>> result = new HashMap<>();
+            List<K> distinctKeys = new ArrayList<>(new LinkedHashSet<>(keys));
+            for (int from = 0; from < distinctKeys.size(); from += MAX_KEYS_PER_QUERY) {
+                List<K> chunk = distinctKeys.subList(from, Math.min(from + MAX_KEYS_PER_QUERY, distinctKeys.size()));
+                handle.createQuery(statements.selectByIds())
+                      .bindList(KEYS_LIST, chunk)
+                      .map((rs, ctx) -> new KeyedValue<>(readKey(rs), readVersioned(rs)))
+                      .forEach(row -> {
+                          if (row.value().isPresent()) {
+                              result.put(row.key(), row.value());
+                          }
+                      });
             }
-            throw jdbiException;
+            return result;
+        });
+    }
+
+    // plain reads may be served by a replica, reads that are part of a write (or of a unit of work) never are
+    private <T> T read(HandleCallback<T, RuntimeException> callback) {
+        if (replicaRouter == null || boundHandles() != null) {
+            return withHandle(callback);
+        }
+        return replicaRouter.read(callback);
+    }
+
+    // the handle of the unit of work running on this thread, or a handle of its own when there is none
+    private <T> T withHandle(HandleCallback<T, RuntimeException> callback) {
+        BoundHandles handles = boundHandles();
+        return handles == null ? jdbi.withHandle(callback) : callback.withHandle(handles.handle(jdbi));
+    }
+
+    private BoundHandles boundHandles() {
+        return autonomousWrites ? null : BoundHandles.current();
+    }
+
+    // caches and change sequence numbers are only let go once the write is committed, which a unit of work does at its end
+    private void afterCommit(BoundHandles handles, List<V> touched, List<Long> changeSeqs) {
+        Runnable afterCommit = () -> {
+            invalidateIndexCaches(touched);
+            releaseChanges(changeSeqs);
+        };
+        if (handles == null) {
+            afterCommit.run();
+        } else {
+            handles.afterCompletion(afterCommit);
         }
     }
 
     @Override
-    public V update(K key, String indexValue, UnaryOperator<V> updateOperation) {
-        try (Handle handle = jdbi.open()) {
-            return handle.inTransaction(txHandle -> {
-                var whereClause = getWhereClause();
-                Query query = handle.createQuery("select %s from %s where %s for update".formatted(PAYLOAD_COLUMN.name(), tableName, whereClause));
-                query.bind(0, key);
-                if (uniqueIndexField != null) {
-                    query.bind(1, indexValue);
+    public Versioned<V> updateVersioned(K key, String indexValue, long expectedVersion, UnaryOperator<V> updateOperation) {
+        // values read and written, whose index cache entries are invalidated once the write is committed
+        List<V> touched = new ArrayList<>();
+        // sequence numbers of the changes appended by the write, released once it is committed or rolled back
+        List<Long> changeSeqs = new ArrayList<>();
+        BoundHandles handles = boundHandles();
+        try {
+            if (handles != null) {
+                // already in a transaction, which neither waits for a group commit nor needs one of its own
+                Handle txHandle = handles.handle(jdbi);
+                return optimisticLocking
+                       ? optimisticUpdate(txHandle, key, indexValue, expectedVersion, updateOperation, touched, changeSeqs)
+                       : lockingUpdate(txHandle, key, indexValue, expectedVersion, updateOperation, touched, changeSeqs);
+            }
+            if (groupCommitter != null) {
+                return groupCommitter.submit(txHandle -> optimisticLocking
+                                                         ? optimisticUpdate(txHandle, key, indexValue, expectedVersion, updateOperation, touched, changeSeqs)
+                                                         : lockingUpdate(txHandle, key, indexValue, expectedVersion, updateOperation, touched, changeSeqs));
+            }
+            try (Handle handle = jdbi.open()) {
+                if (optimisticLocking) {
+                    // no surrounding transaction: the read and the conditional write are atomic on their own, so no row lock
+                    // is held while the update operation runs
+                    return optimisticUpdate(handle, key, indexValue, expectedVersion, updateOperation, touched, changeSeqs);
                 }
-                Clob payload = query.mapTo(Clob.class).findOne().orElse(null);
-
-                V value = payload == null ? null : fromClob(payload);
-                V result = updateOperation.apply(value);
-
-                if (result == null && value != null) {
-                    // we want to delete the entry
-                    handle.createUpdate("delete from %s where %s = ?".formatted(tableName, ID_COLUMN.name()))
-                          .bind(0, key)
-                          .execute();
-                } else if (result != null) {
-                    Clob clob = toClob(result);
-                    var allColumns = getAllColumnsAsString();
-                    var allQuestionMarks = getAllColumnsAsQuestionMarkString();
-                    var updateClause = getUpdateClause();
-                    Update update = handle.createUpdate("insert into %s %s values %s on duplicate key update %s"
-                                                          .formatted(tableName, allColumns, allQuestionMarks, updateClause))
-                                          .bind(0, key)
-                                          .bind(1, clob);
-                    if (uniqueIndexField != null) {
-                        update.bind(2, uniqueIndexField.extract(result));
+                return handle.inTransaction(txHandle -> lockingUpdate(txHandle, key, indexValue, expectedVersion, updateOperation, touched, changeSeqs));
+            }
+        } catch (JdbiException jdbiException) {
+            throw translate(jdbiException);
+        } finally {
+            afterCommit(handles, touched, changeSeqs);
+        }
+    }
+
+    // a single insert statement, without the read (and its locks) of updateVersioned. Both the write and the conflict
+    // detection are left to the primary key and unique index constraints
+    @Override
+    public Versioned<V> insert(K key, V value) {
+        List<Long> changeSeqs = new ArrayList<>();
+        BoundHandles handles = boundHandles();
+        try {
+            if (handles != null) {
+                insertRow(handles.handle(jdbi), key, value, changeSeqs);
+            } else if (groupCommitter != null) {
+                groupCommitter.submit(txHandle -> insertRow(txHandle, key, value, changeSeqs));
+            } else {
+                try (Handle handle = jdbi.open()) {
+                    if (changeLog == null) {
+                        insertRow(handle, key, value, changeSeqs);
+                    } else {
+                        // the row and its change record commit together
+                        handle.useTransaction(txHandle -> insertRow(txHandle, key, value, changeSeqs));
                     }
-                    update.execute();
                 }
-                return result;
-            });
+            }
+            return Versioned.of(value, 1L);
+        } catch (JdbiException jdbiException) {
+            throw translate(jdbiException);
+        } finally {
+            afterCommit(handles, List.of(value), changeSeqs);
+        }
+    }
+
+    private Void insertRow(Handle handle, K key, V value, List<Long> changeSeqs) {
+        Update insert = handle.createUpdate(statements.insert())
+                              .bind(0, key)
+                              .bind(1, (String) null)
+                              .bind(2, serializer.serialize(value));
+        bindIndexValues(insert, 3, value);
+        insert.execute();
+        recordChange(handle, key, ChangeType.UPSERT, changeSeqs);
+        return null;
+    }
+
+    private Versioned<V> lockingUpdate(Handle txHandle, K key, String indexValue, long expectedVersion, UnaryOperator<V> updateOperation,
+                                       List<V> touched, List<Long> changeSeqs) {
+        CurrentRow<K, V> current = readCurrent(txHandle, statements.selectForUpdate(), key, indexValue);
+        checkExpectedVersion(current, key, expectedVersion);
+        V result = updateOperation.apply(current.value());
+        touched.add(current.value());
+        touched.add(result);
+
+        if (result == null && current.value() != null) {
+            // we want to delete the entry
+            txHandle.createUpdate(statements.deleteById())
+                    .bind(0, key)
+                    .execute();
+            recordChange(txHandle, key, ChangeType.DELETE, changeSeqs);
+        } else if (result != null) {
+            // rows still holding legacy json text get migrated to the binary column on their next write
+            Update update = txHandle.createUpdate(statements.upsert())
+                                    .bind(0, key)
+                                    .bind(1, (String) null)
+                                    .bind(2, serializer.serialize(result));
+            bindIndexValues(update, 3, result);
+            update.execute();
+            recordChange(txHandle, key, ChangeType.UPSERT, changeSeqs);
+            return Versioned.of(result, current.isFor(key) ? current.version() + 1 : 1L);
+        }
+        return Versioned.absent();
+    }
+
+    // read, apply, then write only if the row version is still the one that was read. Losing the race means somebody
+    // else changed the row in between, so the operation is retried on the fresh value
+    private Versioned<V> optimisticUpdate(Handle handle, K key, String indexValue, long expectedVersion, UnaryOperator<V> updateOperation,
+                                          List<V> touched, List<Long> changeSeqs) {
+        for (int attempt = 1; attempt <= MAX_OPTIMISTIC_ATTEMPTS; attempt++) {
+            CurrentRow<K, V> current = readCurrent(handle, statements.selectCurrent(), key, indexValue);
+            checkExpectedVersion(current, key, expectedVersion);
+            V result = updateOperation.apply(current.value());
+            touched.add(current.value());
+            touched.add(result);
+            // with a change feed the write and its change record still have to commit together
+            Optional<Versioned<V>> written = changeLog == null
+                                             ? tryConditionalWrite(handle, key, current, result, changeSeqs)
+                                             : handle.inTransaction(txHandle -> tryConditionalWrite(txHandle, key, current, result, changeSeqs));
+            if (written.isPresent()) {
+                return written.get();
+            }
+            if (expectedVersion != Versioned.ANY_VERSION) {
+                throw versionConflict(key, expectedVersion);
+            }
+        }
+        throw new VersionConflictException("Gave up updating %s %s after %d concurrent modifications".formatted(payloadKlass.getSimpleName(), key,
+                                                                                                              MAX_OPTIMISTIC_ATTEMPTS));
+    }
+
+    private Optional<Versioned<V>> tryConditionalWrite(Handle handle, K key, CurrentRow<K, V> current, V result, List<Long> changeSeqs) {
+        if (current.isFor(key)) {
+            if (result == null) {
+                int deleted = handle.createUpdate(statements.deleteIfVersion())
+                                    .bind(0, key)
+                                    .bind(1, current.version())
+                                    .execute();
+                if (deleted == 1) {
+                    recordChange(handle, key, ChangeType.DELETE, changeSeqs);
+                    return Optional.of(Versioned.absent());
+                }
+                return Optional.empty();
+            }
+            Update update = handle.createUpdate(statements.updateIfVersion())
+                                  .bind(0, (String) null)
+                                  .bind(1, serializer.serialize(result));
+            int position = bindIndexValues(update, 2, result);
+            int updated = update.bind(position++, key)
+                                .bind(position, current.version())
+                                .execute();
+            if (updated == 1) {
+                recordChange(handle, key, ChangeType.UPSERT, changeSeqs);
+                return Optional.of(Versioned.of(result, current.version() + 1));
+            }
+            return Optional.empty();
+        }
+        if (result == null) {
+            return Optional.of(Versioned.absent());
+        }
+        try {
+            insertRow(handle, key, result, changeSeqs);
+            return Optional.of(Versioned.of(result, 1L));
         } catch (JdbiException jdbiException) {
-            var tableCreated = handleExceptionAndMaybeCreateTable(jdbiException);
-            if (tableCreated) {
-                return update(key, updateOperation);
+            if (current.value() == null && isDuplicateKey(jdbiException)) {
+                // the key or the index value was inserted concurrently after our read: re-read and let the operation decide
+                return Optional.empty();
             }
             throw jdbiException;
         }
     }
 
-    private String getWhereClause() {
-        StringBuilder sb = new StringBuilder("%s = ?".formatted(ID_COLUMN.name()));
+    private CurrentRow<K, V> readCurrent(Handle handle, String sql, K key, String indexValue) {
+        Query query = handle.createQuery(sql);
+        query.bind(0, key);
         if (uniqueIndexField != null) {
-            sb.append(" or %s = ?".formatted(uniqueIndexField.fieldName()));
+            query.bind(1, indexValue);
         }
-        return sb.toString();
+        return query.map((rs, ctx) -> new CurrentRow<>(readKey(rs), readValue(rs), rs.getLong(VERSION_COLUMN)))
+                    .findOne()
+                    .orElseGet(CurrentRow::absent);
     }
 
-    private String getUpdateClause() {
-        var sb = new StringBuilder("%1$s = VALUES(%1$s)".formatted(PAYLOAD_COLUMN.name()));
+    private void checkExpectedVersion(CurrentRow<K, V> current, K key, long expectedVersion) {
+        if (expectedVersion != Versioned.ANY_VERSION && (!current.isFor(key) || current.version() != expectedVersion)) {
+            throw versionConflict(key, expectedVersion);
+        }
+    }
+
+    private VersionConflictException versionConflict(K key, long expectedVersion) {
+        return new VersionConflictException("%s %s is no longer at version %d".formatted(payloadKlass.getSimpleName(), key, expectedVersion));
+    }
+
+    // binds the unique index value followed by every secondary index value, in the column order of StoreStatements
+    private <S extends SqlStatement<S>> int bindIndexValues(S statement, int position, V value) {
         if (uniqueIndexField != null) {
-            sb.append(", %s = VALUES(%s)".formatted(uniqueIndexField.fieldName(), uniqueIndexField.fieldName()));
+            statement.bind(position++, uniqueIndexField.extract(value));
+        }
+        for (IndexColumn<V, ?> index : secondaryIndexes) {
+            statement.bindByType(position++, index.extract(value), index.type());
+        }
+        return position;
+    }
+
+    private void recordChange(Handle handle, K key, ChangeType type, List<Long> changeSeqs) {
+        if (changeLog != null) {
+            changeSeqs.addAll(changeLog.append(handle, List.of(key), type));
+        }
+    }
+
+    private void releaseChanges(List<Long> changeSeqs) {
+        if (changeLog != null) {
+            changeLog.release(changeSeqs);
+        }
+    }
+
+    private void invalidateIndexCaches(List<V> touched) {
+        if (indexCaches.isEmpty() || touched.isEmpty()) {
+            return;
         }
-        return sb.toString();
+        indexCaches.forEach((indexName, cache) -> {
+            IndexColumn<V, ?> index = indexesByName.get(indexName);
+            touched.stream()
+                   .map(index::extract)
+                   .filter(Objects::nonNull)
+                   .forEach(cache::remove);
+        });
+        indexCacheGeneration.incrementAndGet();
     }
 
-    private String getAllColumnsAsString() {
-        var sj = new StringJoiner(",", "(", ")");
-        columns.stream().map(TableColumn::name).forEach(sj::add);
-        return sj.toString();
+    @Override
+    public BatchUpdateResult<K, V> updateAll(Map<K, UnaryOperator<V>> updateOperations) {
+        if (updateOperations.isEmpty()) {
+            return BatchUpdateResult.of(Map.of(), Set.of(), Map.of());
+        }
+        List<V> touched = new ArrayList<>();
+        List<Long> changeSeqs = new ArrayList<>();
+        BoundHandles handles = boundHandles();
+        try {
+            return withHandle(handle -> handle.inTransaction(txHandle -> {
+                Map<K, V> existing = selectForUpdate(txHandle, new ArrayList<>(updateOperations.keySet()));
+                touched.addAll(existing.values());
+                Map<K, V> updated = new LinkedHashMap<>();
+                Set<K> deleted = new LinkedHashSet<>();
+                Map<K, RuntimeException> failures = new LinkedHashMap<>();
+                updateOperations.forEach((key, updateOperation) -> {
+                    try {
+                        V result = updateOperation.apply(existing.get(key));
+                        if (result == null) {
+                            deleted.add(key);
+                        } else {
+                            updated.put(key, result);
+                        }
+                    } catch (RuntimeException e) {
+                        failures.put(key, e);
+                    }
+                });
+                if (uniqueIndexField != null) {
+                    rejectUniqueIndexConflicts(txHandle, updated, deleted, failures);
+                }
+
+                // deletes go first so their index values can be taken by the upserts of the same batch
+                List<K> keysToDelete = deleted.stream().filter(existing::containsKey).collect(Collectors.toList());
+                for (int from = 0; from < keysToDelete.size(); from += MAX_KEYS_PER_QUERY) {
+                    PreparedBatch batch = txHandle.prepareBatch(statements.deleteById());
+                    keysToDelete.subList(from, Math.min(from + MAX_KEYS_PER_QUERY, keysToDelete.size()))
+                                .forEach(key -> batch.bind(0, key).add());
+                    batch.execute();
+                }
+                List<Map.Entry<K, V>> upserts = new ArrayList<>(updated.entrySet());
+                for (int from = 0; from < upserts.size(); from += MAX_KEYS_PER_QUERY) {
+                    PreparedBatch batch = txHandle.prepareBatch(statements.upsert());
+                    upserts.subList(from, Math.min(from + MAX_KEYS_PER_QUERY, upserts.size())).forEach(upsert -> {
+                        batch.bind(0, upsert.getKey())
+                             .bind(1, (String) null)
+                             .bind(2, serializer.serialize(upsert.getValue()));
+                        bindIndexValues(batch, 3, upsert.getValue());
+                        batch.add();
+                    });
+                    batch.execute();
+                }
+                if (changeLog != null) {
+                    changeSeqs.addAll(changeLog.append(txHandle, keysToDelete, ChangeType.DELETE));
+                    changeSeqs.addAll(changeLog.append(txHandle, updated.keySet(), ChangeType.UPSERT));
+                }
+                touched.addAll(updated.values());
+                return BatchUpdateResult.of(updated, deleted, failures);
+            }));
+        } catch (JdbiException jdbiException) {
+            throw translate(jdbiException);
+        } finally {
+            afterCommit(handles, touched, changeSeqs);
+        }
+    }
+
+    private Map<K, V> selectForUpdate(Handle handle, List<K> keys) {
+        Map<K, V> result = new HashMap<>();
+        for (int from = 0; from < keys.size(); from += MAX_KEYS_PER_QUERY) {
+            handle.createQuery(statements.selectByIdsForUpdate())
+                  .bindList(KEYS_LIST, keys.subList(from, Math.min(from + MAX_KEYS_PER_QUERY, keys.size())))
+                  .map((rs, ctx) -> new KeyedValue<>(readKey(rs), readValue(rs)))
+                  .forEach(row -> {
+                      if (row.value() != null) {
+                          result.put(row.key(), row.value());
+                      }
+                  });
+        }
+        return result;
     }
 
-    private String getAllColumnsAsQuestionMarkString() {
-        var sj = new StringJoiner(",", "(", ")");
-        columns.forEach(s -> sj.add("?"));
-        return sj.toString();
+    // moves to failures every update whose index value is already taken, either by a row outside the batch or by an
+    // earlier key of the same batch
+    private void rejectUniqueIndexConflicts(Handle handle, Map<K, V> updated, Set<K> deleted, Map<K, RuntimeException> failures) {
+        Map<String, K> claimedIndexValues = new HashMap<>();
+        List<K> conflictingKeys = new ArrayList<>();
+        updated.forEach((key, value) -> {
+            String indexValue = uniqueIndexField.extract(value);
+            if (indexValue != null && claimedIndexValues.putIfAbsent(indexValue, key) != null) {
+                conflictingKeys.add(key);
+            }
+        });
+        List<String> indexValues = new ArrayList<>(claimedIndexValues.keySet());
+        for (int from = 0; from < indexValues.size(); from += MAX_KEYS_PER_QUERY) {
+            handle.createQuery(statements.selectByIndexValuesForUpdate())
+                  .bindList(KEYS_LIST, indexValues.subList(from, Math.min(from + MAX_KEYS_PER_QUERY, indexValues.size())))
+                  .map((rs, ctx) -> new KeyedValue<>(readKey(rs), rs.getString(INDEX_VALUE_COLUMN)))
+                  .forEach(holder -> {
+                      K claimant = claimedIndexValues.get(holder.value());
+                      if (!holder.key().equals(claimant) && !deleted.contains(holder.key())) {
+                          conflictingKeys.add(claimant);
+                      }
+                  });
+        }
+        conflictingKeys.forEach(key -> {
+            updated.remove(key);
+            failures.put(key, new EntityAlreadyExistsException("%s already exists".formatted(payloadKlass.getSimpleName())));
+        });
     }
 
     @Override
     public List<V> getAll(int offset, int limit) {
-        try (Handle handle = jdbi.open()) {
-            Query query = handle.createQuery("select %s from %s order by %s limit ? offset ?".formatted(PAYLOAD_COLUMN.name(), tableName, ID_COLUMN.name()));
+        return values(getAllEntries(offset, limit));
+    }
+
+    List<Map.Entry<K, V>> getAllEntries(int offset, int limit) {
+        return read(handle -> {
+            Query query = handle.createQuery(statements.selectPage());
             query.bind(0, limit);
             query.bind(1, offset);
-            return query.mapTo(Clob.class).list().stream().map(this::fromClob).filter(Objects::nonNull).collect(Collectors.toList());
-        } catch (JdbiException jdbiException) {
-            var tableCreated = handleExceptionAndMaybeCreateTable(jdbiException);
-            if (tableCreated) {
-                return getAll(offset, limit);
+            return readEntries(query);
+        });
+    }
+
+    @Override
+    public List<V> getAllAfter(K afterKey, int limit) {
+        return values(getAllEntriesAfter(afterKey, limit));
+    }
+
+    List<Map.Entry<K, V>> getAllEntriesAfter(K afterKey, int limit) {
+        return present(readRowsAfter(afterKey, limit));
+    }
+
+    private List<KeyedValue<K, V>> readRowsAfter(K afterKey, int limit) {
+        return read(handle -> {
+            Query query;
+            if (afterKey == null) {
+                query = handle.createQuery(statements.selectFirst())
+                              .bind(0, limit);
+            } else {
+                // seeks on the primary key instead of walking and discarding the skipped rows
+                query = handle.createQuery(statements.selectAfter())
+                              .bind(0, afterKey)
+                              .bind(1, limit);
             }
-            throw jdbiException;
-        }
+            return readRows(query);
+        });
     }
 
-    private boolean handleExceptionAndMaybeCreateTable(JdbiException jdbiException) {
-        if (jdbiException.getCause() instanceof JdbcSQLException jdbcSQLException) {
-            if (jdbcSQLException.getErrorCode() == ErrorCode.TABLE_OR_VIEW_NOT_FOUND_1) {
-                try (Handle handle = jdbi.open()) {
-                    var tableColumns = getTableCreateColumns();
-                    handle.execute("create table if not exists %s (%s)".formatted(tableName, tableColumns));
+    @Override
+    public Stream<V> stream(int chunkSize) {
+        return streamEntries(chunkSize).map(Map.Entry::getValue);
+    }
+
+    // keyset chunks of chunkSize rows, each read by a query of its own when the previous one has been consumed. Embedded
+    // H2 materialises a whole result set (in memory or in a temp file) whatever the fetch size, so a single cursor over
+    // the table wouldn't bound the memory used. Rows written while the stream is consumed may or may not be seen
+    Stream<Map.Entry<K, V>> streamEntries(int chunkSize) {
+        Iterator<KeyedValue<K, V>> rows = new Iterator<>() {
+            private Iterator<KeyedValue<K, V>> chunk = Collections.emptyIterator();
+            private K lastKey;
+            private boolean exhausted;
+
+            @Override
+            public boolean hasNext() {
+                if (!chunk.hasNext() && !exhausted) {
+                    List<KeyedValue<K, V>> next = readRowsAfter(lastKey, chunkSize);
+                    exhausted = next.size() < chunkSize;
+                    if (!next.isEmpty()) {
+                        lastKey = next.get(next.size() - 1).key();
+                    }
+                    chunk = next.iterator();
+                }
+                return chunk.hasNext();
+            }
+
+            @Override
+            public KeyedValue<K, V> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
                 }
-                return true;
-            } else if (jdbcSQLException.getErrorCode() == ErrorCode.DUPLICATE_KEY_1) {
-                throw new EntityAlreadyExistsException("%s already exists".formatted(payloadKlass.getSimpleName()));
+                return chunk.next();
             }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(rows, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                            .filter(row -> row.value() != null)
+                            .map(row -> Map.entry(row.key(), row.value()));
+    }
+
+    @Override
+    public ChangeBatch<K> changesSince(String cursor, int limit, long maxWaitMs) {
+        if (changeLog == null) {
+            throw withoutChangeFeed();
         }
-        return false;
+        return changeLog.signal().awaitChanges(() -> changeLog.since(cursor, limit), maxWaitMs);
     }
 
-    private String getTableCreateColumns() {
-        var keyType = getKeyType(keyKlass);
-        var sb = new StringBuilder("%s %s primary key, %s text".formatted(ID_COLUMN.name(), keyType, PAYLOAD_COLUMN.name()));
-        if (uniqueIndexField != null) {
-            sb.append(", %1$s %2$s, UNIQUE KEY unique_%1$s (%1$s)".formatted(uniqueIndexField.fieldName(), getKeyType(uniqueIndexField.getType())));
+    @Override
+    public CompletableFuture<Boolean> nextChange(long maxWaitMs) {
+        if (changeLog == null) {
+            throw withoutChangeFeed();
+        }
+        return changeLog.signal().nextSignal(maxWaitMs);
+    }
+
+    @Override
+    public String latestChangeCursor() {
+        if (changeLog == null) {
+            throw withoutChangeFeed();
         }
-        return sb.toString();
+        return changeLog.latestCursor();
     }
 
-    private String getKeyType(Class<?> klass) {
-        return klass.equals(Long.class) ? "bigint" : "varchar(100)";
+    private UnsupportedCapabilityException withoutChangeFeed() {
+        return new UnsupportedCapabilityException("Store %s was created without StoreOptions.withChangeFeed()".formatted(schema.tableName()));
     }
 
-    private V fromClob(Clob payload) {
-        try {
-            return payload == null ? null : jsonConverter.fromJson(payload.getCharacterStream(), payloadKlass);
-        } catch (SQLException e) {
-            throw new DatabaseException("Error reading Clob payload from db", e);
+    @Override
+    public List<V> getByIndex(String indexName, Object value, int limit) {
+        return values(getEntriesByIndex(indexName, value, limit));
+    }
+
+    List<Map.Entry<K, V>> getEntriesByIndex(String indexName, Object value, int limit) {
+        IndexColumn<V, ?> index = indexColumn(indexName);
+        if (value == null) {
+            return List.of();
+        }
+        LruCache<Object, List<K>> cache = indexCaches.get(indexName);
+        if (cache == null) {
+            return selectByIndex(index, value, limit);
+        }
+        Optional<List<Map.Entry<K, V>>> cached = cache.get(value).flatMap(keys -> fromCachedKeys(index, value, keys, limit));
+        if (cached.isPresent()) {
+            return cached.get();
         }
+        long generation = indexCacheGeneration.get();
+        List<Map.Entry<K, V>> rows = selectByIndex(index, value, limit);
+        // only complete results can be cached, a truncated one would be wrong for a bigger limit
+        if ((index.unique() || rows.size() < limit) && generation == indexCacheGeneration.get()) {
+            cache.put(value, rows.stream().map(Map.Entry::getKey).collect(Collectors.toList()));
+        }
+        return rows;
     }
 
-    private Clob toClob(V data) {
-        String jsonPayload = jsonConverter.toJson(data);
+    @Override
+    public List<V> getByIndexRange(String indexName, Object fromInclusive, Object toExclusive, IndexPosition<K> after, int limit) {
+        return values(getEntriesByIndexRange(indexName, fromInclusive, toExclusive, after, limit));
+    }
+
+    // range scans aren't cached: a write anywhere in the range would invalidate them
+    List<Map.Entry<K, V>> getEntriesByIndexRange(String indexName, Object fromInclusive, Object toExclusive, IndexPosition<K> after, int limit) {
+        IndexColumn<V, ?> index = indexColumn(indexName);
+        String sql = statements.selectByIndexRange(index.name(), fromInclusive != null, after != null, toExclusive != null);
         try {
-            return new SerialClob(jsonPayload.toCharArray());
-        } catch (SQLException e) {
-            throw new DatabaseException("Error creating Clob payload", e);
+            return withHandle(handle -> {
+                Query query = handle.createQuery(sql);
+                int position = 0;
+                if (fromInclusive != null) {
+                    query.bindByType(position++, fromInclusive, index.type());
+                }
+                if (after != null) {
+                    query.bindByType(position++, after.value(), index.type())
+                         .bindByType(position++, after.value(), index.type())
+                         .bind(position++, after.key());
+                }
+                if (toExclusive != null) {
+                    query.bindByType(position++, toExclusive, index.type());
+                }
+                query.bind(position, limit);
+                return readEntries(query);
+            });
+        } catch (JdbiException jdbiException) {
+            throw translate(jdbiException);
+        }
+    }
+
+    IndexColumn<V, ?> indexColumn(String indexName) {
+        IndexColumn<V, ?> index = indexesByName.get(indexName);
+        if (index == null) {
+            throw new IllegalArgumentException("Store %s has no index %s".formatted(schema.tableName(), indexName));
+        }
+        return index;
+    }
+
+    private List<Map.Entry<K, V>> selectByIndex(IndexColumn<V, ?> index, Object value, int limit) {
+        return withHandle(handle -> {
+            Query query = handle.createQuery(statements.selectByIndex().get(index.name()))
+                                .bindByType(0, value, index.type())
+                                .bind(1, limit);
+            return readEntries(query);
+        });
+    }
+
+    // the cached keys are re-read and re-checked, an entry that no longer matches means it is stale and the db is asked
+    private Optional<List<Map.Entry<K, V>>> fromCachedKeys(IndexColumn<V, ?> index, Object value, List<K> keys, int limit) {
+        List<K> wantedKeys = keys.subList(0, Math.min(limit, keys.size()));
+        Map<K, Versioned<V>> rows = getVersionedByIds(wantedKeys);
+        List<Map.Entry<K, V>> result = new ArrayList<>(wantedKeys.size());
+        for (K key : wantedKeys) {
+            Versioned<V> row = rows.get(key);
+            if (row == null || !value.equals(index.extract(row.value()))) {
+                return Optional.empty();
+            }
+            result.add(Map.entry(key, row.value()));
+        }
+        return Optional.of(result);
+    }
+
+    // fills in the index columns that were just added to a table that already had rows
+    void backfillIndexes(List<SecondaryIndex> createdColumns) {
+        if (createdColumns.isEmpty()) {
+            return;
+        }
+        List<IndexColumn<V, ?>> indexes = createdColumns.stream()
+                                                        .map(column -> indexesByName.get(column.column()))
+                                                        .collect(Collectors.toList());
+        String updateIndexColumns = StoreStatements.updateIndexColumns(schema.tableName(), createdColumns);
+        try (Handle readHandle = jdbi.open();
+             Handle writeHandle = jdbi.open();
+             Stream<KeyedValue<K, V>> rows = readHandle.createQuery(statements.selectAll())
+                                                       .setFetchSize(BACKFILL_BATCH_SIZE)
+                                                       .map((rs, ctx) -> new KeyedValue<>(readKey(rs), readValue(rs)))
+                                                       .stream()) {
+            PreparedBatch batch = writeHandle.prepareBatch(updateIndexColumns);
+            int backfilled = 0;
+            for (KeyedValue<K, V> row : (Iterable<KeyedValue<K, V>>) rows::iterator) {
+                if (row.value() == null) {
+                    continue;
+                }
+                int position = 0;
+                for (IndexColumn<V, ?> index : indexes) {
+                    batch.bindByType(position++, index.extract(row.value()), index.type());
+                }
+                batch.bind(position, row.key()).add();
+                if (++backfilled % BACKFILL_BATCH_SIZE == 0) {
+                    batch.execute();
+                    batch = writeHandle.prepareBatch(updateIndexColumns);
+                }
+            }
+            if (backfilled % BACKFILL_BATCH_SIZE != 0) {
+                batch.execute();
+            }
+        } catch (JdbiException jdbiException) {
+            throw translate(jdbiException);
+        }
+    }
+
+    private List<Map.Entry<K, V>> readEntries(Query query) {
+        return present(readRows(query));
+    }
+
+    private List<KeyedValue<K, V>> readRows(Query query) {
+        return query.map((rs, ctx) -> new KeyedValue<>(readKey(rs), readValue(rs))).list();
+    }
+
+    private static <K, V> List<Map.Entry<K, V>> present(List<KeyedValue<K, V>> rows) {
+        return rows.stream()
+                   .filter(row -> row.value() != null)
+                   .map(row -> Map.entry(row.key(), row.value()))
+                   .collect(Collectors.toList());
+    }
+
+    private static <K, V> List<V> values(List<Map.Entry<K, V>> entries) {
+        return entries.stream().map(Map.Entry::getValue).collect(Collectors.toList());
+    }
+
+    private RuntimeException translate(JdbiException jdbiException) {
+        if (isDuplicateKey(jdbiException)) {
+            return new EntityAlreadyExistsException("%s already exists".formatted(payloadKlass.getSimpleName()));
         }
+        return jdbiException;
+    }
+
+    private static boolean isDuplicateKey(JdbiException jdbiException) {
+        return jdbiException.getCause() instanceof JdbcSQLException jdbcSQLException
+          && jdbcSQLException.getErrorCode() == ErrorCode.DUPLICATE_KEY_1;
+    }
+
+    private K readKey(ResultSet rs) throws SQLException {
+        Object key = keyKlass.equals(Long.class) ? rs.getLong(ID_COLUMN) : rs.getString(ID_COLUMN);
+        return keyKlass.cast(key);
     }
 
-    private record TableColumn(String name) {}
+    // the column streams read the bytes H2 already holds for the row, getBytes and getClob would copy them first
+    private V readValue(ResultSet rs) throws SQLException {
+        InputStream payload = rs.getBinaryStream(PAYLOAD_BIN_COLUMN);
+        if (payload != null) {
+            return serializer.deserialize(payload);
+        }
+        Reader legacyPayload = rs.getCharacterStream(PAYLOAD_COLUMN);
+        return legacyPayload == null ? null : jsonConverter.fromJson(legacyPayload, payloadKlass);
+    }
+
+    private Versioned<V> readVersioned(ResultSet rs) throws SQLException {
+        V value = readValue(rs);
+        return value == null ? Versioned.absent() : Versioned.of(value, rs.getLong(VERSION_COLUMN));
+    }
+
+    private record KeyedValue<K, V>(K key, V value) {}
+
+    private record CurrentRow<K, V>(K key, V value, long version) {
+
+        static <K, V> CurrentRow<K, V> absent() {
+            return new CurrentRow<>(null, null, 0L);
+        }
+
+        boolean isFor(K otherKey) {
+            return value != null && otherKey.equals(key);
+        }
+    }
 }
@@ -0,0 +1,176 @@
+package com.perapoch.tasksapp.storage.db;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.perapoch.tasksapp.storage.ReplicaConfiguration;
+import org.jdbi.v3.core.HandleCallback;
+import org.jdbi.v3.core.Jdbi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Sends the reads of the stores that opt in to read replicas. The primary writes a heartbeat row every heartbeatInterval
+// and a replica only gets reads while the heartbeat it has replicated is at most maxStaleness old. A read still running
+// after the p95 replica read latency gets a backup read on another replica (or on the primary when there is only one)
+// and the first answer wins, so a single slow replica doesn't make the tail.
+public class ReplicaRouter {
+
+    static final String HEARTBEAT_TABLE = "replica_heartbeat";
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicaRouter.class);
+    private static final long UNKNOWN_LAG = -1L;
+
+    private final Jdbi primary;
+    private final List<Jdbi> replicas;
+    private final long maxStalenessMs;
+    private final boolean hedgedReads;
+    private final long minHedgeDelayNanos;
+    private final ExecutorService readExecutor;
+    private final Timer replicaReadTime;
+    private final Meter primaryReads;
+    private final Meter hedges;
+    private final AtomicLongArray replicaLagsMs;
+    private final AtomicInteger nextReplica;
+    private volatile List<Jdbi> freshReplicas;
+    private volatile long hedgeDelayNanos;
+
+    public ReplicaRouter(Jdbi primary, List<Jdbi> replicas, ReplicaConfiguration configuration, ExecutorService readExecutor,
+                         ScheduledExecutorService heartbeatExecutor, MetricRegistry metricRegistry) {
+        this.primary = primary;
+        this.replicas = List.copyOf(replicas);
+        this.maxStalenessMs = configuration.getMaxStaleness().toMilliseconds();
+        this.hedgedReads = configuration.isHedgedReads();
+        this.minHedgeDelayNanos = configuration.getMinHedgeDelay().toNanoseconds();
+        this.readExecutor = readExecutor;
+        this.replicaReadTime = metricRegistry.timer(MetricRegistry.name(ReplicaRouter.class, "replica-read-time"));
+        this.primaryReads = metricRegistry.meter(MetricRegistry.name(ReplicaRouter.class, "primary-reads"));
+        this.hedges = metricRegistry.meter(MetricRegistry.name(ReplicaRouter.class, "hedged-reads"));
+        this.replicaLagsMs = new AtomicLongArray(replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            int replica = i;
+            replicaLagsMs.set(replica, UNKNOWN_LAG);
+            metricRegistry.register(MetricRegistry.name(ReplicaRouter.class, "replica-" + replica, "lag-ms"), (Gauge<Long>) () -> replicaLagsMs.get(replica));
+        }
+        this.nextReplica = new AtomicInteger();
+        this.freshReplicas = List.of();
+        this.hedgeDelayNanos = minHedgeDelayNanos;
+        primary.useHandle(handle -> handle.execute("create table if not exists %s (id int primary key, written_at_ms bigint not null)".formatted(HEARTBEAT_TABLE)));
+        long heartbeatIntervalMs = configuration.getHeartbeatInterval().toMilliseconds();
+        heartbeatExecutor.scheduleWithFixedDelay(this::heartbeat, 0, heartbeatIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public <T> T read(HandleCallback<T, RuntimeException> read) {
+        List<Jdbi> candidates = freshReplicas;
+        if (candidates.isEmpty()) {
+            return readFromPrimary(read);
+        }
+        int first = Math.floorMod(nextReplica.getAndIncrement(), candidates.size());
+        Jdbi replica = candidates.get(first);
+        if (!hedgedReads) {
+            return readFromReplica(replica, read);
+        }
+        CompletableFuture<T> firstRead = CompletableFuture.supplyAsync(() -> readFromReplica(replica, read), readExecutor);
+        try {
+            return firstRead.get(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            hedges.mark();
+            CompletableFuture<T> backupRead = candidates.size() > 1
+                                              ? CompletableFuture.supplyAsync(() -> readFromReplica(candidates.get((first + 1) % candidates.size()), read), readExecutor)
+                                              : CompletableFuture.supplyAsync(() -> readFromPrimary(read), readExecutor);
+            return await(firstSuccessful(firstRead, backupRead), read);
+        } catch (ExecutionException e) {
+            LOGGER.warn("Read from replica failed, falling back to the primary", e.getCause());
+            return readFromPrimary(read);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseException("Interrupted while reading from a replica", e);
+        }
+    }
+
+    private <T> T await(CompletableFuture<T> reads, HandleCallback<T, RuntimeException> read) {
+        try {
+            return reads.get();
+        } catch (ExecutionException e) {
+            LOGGER.warn("Hedged reads failed, falling back to the primary", e.getCause());
+            return readFromPrimary(read);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseException("Interrupted while reading from a replica", e);
+        }
+    }
+
+    // unlike CompletableFuture.anyOf, a failing read only loses if the other one fails too
+    private static <T> CompletableFuture<T> firstSuccessful(CompletableFuture<T> read, CompletableFuture<T> otherRead) {
+        CompletableFuture<T> winner = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        read.whenComplete((value, error) -> complete(winner, failures, value, error));
+        otherRead.whenComplete((value, error) -> complete(winner, failures, value, error));
+        return winner;
+    }
+
+    private static <T> void complete(CompletableFuture<T> winner, AtomicInteger failures, T value, Throwable error) {
+        if (error == null) {
+            winner.complete(value);
+        } else if (failures.incrementAndGet() == 2) {
+            winner.completeExceptionally(error);
+        }
+    }
+
+    private <T> T readFromPrimary(HandleCallback<T, RuntimeException> read) {
+        primaryReads.mark();
+        return primary.withHandle(read);
+    }
+
+    private <T> T readFromReplica(Jdbi replica, HandleCallback<T, RuntimeException> read) {
+        try (Timer.Context ignored = replicaReadTime.time()) {
+            return replica.withHandle(read);
+        }
+    }
+
+    private void heartbeat() {
+        try {
+            long nowMs = System.currentTimeMillis();
+            primary.useHandle(handle -> handle.createUpdate("merge into %s (id, written_at_ms) key (id) values (1, ?)".formatted(HEARTBEAT_TABLE))
+                                              .bind(0, nowMs)
+                                              .execute());
+            List<Jdbi> fresh = new ArrayList<>(replicas.size());
+            for (int i = 0; i < replicas.size(); i++) {
+                long lagMs = lagMs(replicas.get(i), nowMs);
+                replicaLagsMs.set(i, lagMs);
+                if (lagMs != UNKNOWN_LAG && lagMs <= maxStalenessMs) {
+                    fresh.add(replicas.get(i));
+                }
+            }
+            freshReplicas = List.copyOf(fresh);
+            hedgeDelayNanos = Math.max(minHedgeDelayNanos, (long) replicaReadTime.getSnapshot().get95thPercentile());
+        } catch (RuntimeException e) {
+            // without a heartbeat the lag of the replicas is unknown, so everything goes to the primary
+            LOGGER.warn("Replica heartbeat failed", e);
+            freshReplicas = List.of();
+        }
+    }
+
+    private static long lagMs(Jdbi replica, long nowMs) {
+        try {
+            return replica.withHandle(handle -> handle.createQuery("select written_at_ms from %s where id = 1".formatted(HEARTBEAT_TABLE))
+                                                      .mapTo(Long.class)
+                                                      .findOne())
+                          .map(replicatedMs -> Math.max(0L, nowMs - replicatedMs))
+                          .orElse(UNKNOWN_LAG);
+        } catch (RuntimeException e) {
+            LOGGER.debug("Replica unreachable", e);
+            return UNKNOWN_LAG;
+        }
+    }
+}
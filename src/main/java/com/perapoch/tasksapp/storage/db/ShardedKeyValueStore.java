@@ -0,0 +1,518 @@
+package com.perapoch.tasksapp.storage.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Hash partitions the keys of a store across several databases, each one with its own pool and commit path, so writes
+// to different shards never wait for each other. Single key operations go to the shard owning the key, range reads ask
+// every shard in parallel and merge the results in key order.
+//
+// Unique index values are claimed in an owners store, itself partitioned by index value, before the row holding them is
+// written, and released once the row no longer holds them. The claim and the row are written in one unit of work, so a
+// row write that fails rolls its claim back. The unit of work commits the database of the claim first: a claim left
+// behind by a row whose own commit failed is taken over once it is older than CLAIM_TIMEOUT_MS and its owner row doesn't
+// hold the value.
+//
+// The change feed cursor holds the position of every shard, joined with CURSOR_SEPARATOR, and changes of different
+// shards are merged in the order they were made.
+public class ShardedKeyValueStore<K, V> implements KeyValueStore<K, V>, IndexRangeScan<K, V>, ChangeFeed<K> {
+
+    static final long CLAIM_TIMEOUT_MS = 30_000;
+    private static final int MAX_WRITE_ATTEMPTS = 10;
+    private static final String CURSOR_SEPARATOR = ".";
+
+    private final List<KeyValueStoreImpl<K, V>> shards;
+    private final List<KeyValueStoreImpl<String, IndexClaim>> indexOwners;
+    private final StringUniqueIndexColumn<V> uniqueIndexField;
+    private final Class<K> keyKlass;
+    private final Comparator<Map.Entry<K, V>> keyOrder;
+    private final ExecutorService readExecutor;
+    private final ChangeSignal changeSignal;
+    private final UnitOfWork unitOfWork;
+
+    ShardedKeyValueStore(List<KeyValueStoreImpl<K, V>> shards, List<KeyValueStoreImpl<String, IndexClaim>> indexOwners,
+                         StringUniqueIndexColumn<V> uniqueIndexField, Class<K> keyKlass, ExecutorService readExecutor,
+                         ChangeSignal changeSignal, UnitOfWork unitOfWork) {
+        this.shards = List.copyOf(shards);
+        this.indexOwners = List.copyOf(indexOwners);
+        this.uniqueIndexField = uniqueIndexField;
+        this.keyKlass = keyKlass;
+        this.keyOrder = Map.Entry.<K, V>comparingByKey(ShardedKeyValueStore::compareKeys);
+        this.readExecutor = readExecutor;
+        this.changeSignal = changeSignal;
+        this.unitOfWork = unitOfWork;
+    }
+
+    @Override
+    public Optional<V> getById(K key) {
+        return shardFor(key).getById(key);
+    }
+
+    @Override
+    public Optional<Versioned<V>> getVersionedById(K key) {
+        return shardFor(key).getVersionedById(key);
+    }
+
+    @Override
+    public Map<K, V> getByIds(Collection<? extends K> keys) {
+        Map<K, V> result = new HashMap<>();
+        onShardsOf(keys, KeyValueStoreImpl::getByIds).forEach(result::putAll);
+        return result;
+    }
+
+    @Override
+    public Map<K, Versioned<V>> getVersionedByIds(Collection<? extends K> keys) {
+        Map<K, Versioned<V>> result = new HashMap<>();
+        onShardsOf(keys, KeyValueStoreImpl::getVersionedByIds).forEach(result::putAll);
+        return result;
+    }
+
+    // The claim of the new index value lives in another store (often another database) than the row, so both are written
+    // in one unit of work, which the caller's joins if there is one. Inside it the row write skips group commit: a group
+    // commit runs on the committer thread in a transaction shared with other keys, which the claim can't be part of.
+    // The operation is applied to the row read here, its index value is claimed, and only then the row is written, if it
+    // is still at the version that was read. Losing that race releases the claim and starts over on the fresh row
+    @Override
+    public Versioned<V> updateVersioned(K key, String indexValue, long expectedVersion, UnaryOperator<V> updateOperation) {
+        KeyValueStoreImpl<K, V> shard = shardFor(key);
+        if (uniqueIndexField == null) {
+            return shard.updateVersioned(key, null, expectedVersion, updateOperation);
+        }
+        return unitOfWork.execute(() -> claimAndUpdate(shard, key, indexValue, expectedVersion, updateOperation));
+    }
+
+    private Versioned<V> claimAndUpdate(KeyValueStoreImpl<K, V> shard, K key, String indexValue, long expectedVersion,
+                                        UnaryOperator<V> updateOperation) {
+        for (int attempt = 1; attempt <= MAX_WRITE_ATTEMPTS; attempt++) {
+            Versioned<V> current = shard.getVersionedById(key).orElseGet(Versioned::absent);
+            if (expectedVersion != Versioned.ANY_VERSION && (!current.isPresent() || current.version() != expectedVersion)) {
+                throw versionConflict(key, expectedVersion);
+            }
+            // the shard only sees its own rows, so the row holding indexValue (if it belongs to another key) is looked up here
+            V base = current.isPresent() || indexValue == null ? current.value() : holderOf(indexValue, key).orElse(null);
+            V updated = updateOperation.apply(base);
+            if (updated == null && !current.isPresent()) {
+                return Versioned.absent();
+            }
+            String oldIndexValue = indexValueOf(current.value());
+            String newIndexValue = indexValueOf(updated);
+            boolean claimed = newIndexValue != null && claim(newIndexValue, key);
+            // a failing write rolls the claim back with the unit of work, unless it is the caller's and carries on
+            Optional<Versioned<V>> written;
+            try {
+                written = tryWrite(shard, key, current, updated);
+            } catch (RuntimeException e) {
+                if (claimed) {
+                    releaseUnlessHeld(newIndexValue, key);
+                }
+                throw e;
+            }
+            if (written.isPresent()) {
+                if (oldIndexValue != null && !oldIndexValue.equals(newIndexValue)) {
+                    release(oldIndexValue, key);
+                }
+                return written.get();
+            }
+            if (claimed) {
+                releaseUnlessHeld(newIndexValue, key);
+            }
+            if (expectedVersion != Versioned.ANY_VERSION) {
+                throw versionConflict(key, expectedVersion);
+            }
+        }
+        throw new VersionConflictException("Gave up updating %s after %d concurrent modifications".formatted(key, MAX_WRITE_ATTEMPTS));
+    }
+
+    // empty if the row changed since it was read
+    private Optional<Versioned<V>> tryWrite(KeyValueStoreImpl<K, V> shard, K key, Versioned<V> current, V updated) {
+        try {
+            if (!current.isPresent()) {
+                return Optional.of(shard.insert(key, updated));
+            }
+            return Optional.of(shard.updateVersioned(key, null, current.version(), existing -> updated));
+        } catch (VersionConflictException e) {
+            return Optional.empty();
+        } catch (EntityAlreadyExistsException e) {
+            if (!current.isPresent() && shard.getById(key).isPresent()) {
+                // the key was inserted concurrently after our read
+                return Optional.empty();
+            }
+            throw e;
+        }
+    }
+
+    private static VersionConflictException versionConflict(Object key, long expectedVersion) {
+        return new VersionConflictException("%s is no longer at version %d".formatted(key, expectedVersion));
+    }
+
+    // the unique index of a shard only covers its own rows, so the index value is claimed first, in the same unit of work
+    // as the row, as updateVersioned does
+    @Override
+    public Versioned<V> insert(K key, V value) {
+        String indexValue = uniqueIndexField == null ? null : uniqueIndexField.extract(value);
+        if (indexValue == null) {
+            return shardFor(key).insert(key, value);
+        }
+        return unitOfWork.execute(() -> {
+            boolean claimed = claim(indexValue, key);
+            try {
+                return shardFor(key).insert(key, value);
+            } catch (RuntimeException e) {
+                if (claimed) {
+                    release(indexValue, key);
+                }
+                throw e;
+            }
+        });
+    }
+
+    @Override
+    public BatchUpdateResult<K, V> updateAll(Map<K, UnaryOperator<V>> updateOperations) {
+        if (uniqueIndexField != null) {
+            // every key has to go through the claims of its index values
+            return KeyValueStore.super.updateAll(updateOperations);
+        }
+        Map<Integer, Map<K, UnaryOperator<V>>> operationsByShard = new HashMap<>();
+        updateOperations.forEach((key, operation) -> operationsByShard.computeIfAbsent(shardIndexOf(key, shards.size()), i -> new LinkedHashMap<>())
+                                                                      .put(key, operation));
+        Map<K, V> updated = new LinkedHashMap<>();
+        Set<K> deleted = new LinkedHashSet<>();
+        Map<K, RuntimeException> failures = new LinkedHashMap<>();
+        List<Callable<BatchUpdateResult<K, V>>> batches = new ArrayList<>();
+        operationsByShard.forEach((shardIndex, operations) -> batches.add(() -> shards.get(shardIndex).updateAll(operations)));
+        inParallel(batches).forEach(batch -> {
+            updated.putAll(batch.updated());
+            deleted.addAll(batch.deleted());
+            failures.putAll(batch.failures());
+        });
+        return BatchUpdateResult.of(updated, deleted, failures);
+    }
+
+    @Override
+    public List<V> getAll(int offset, int limit) {
+        // any shard may hold the whole requested range, so every shard has to provide offset + limit rows: a page costs
+        // O(shards * (offset + limit)) and deep pages get slower the deeper they are. Page with getAllAfter instead
+        int perShardLimit = offset + limit;
+        return merge(onEveryShard(shard -> shard.getAllEntries(0, perShardLimit)), offset, limit);
+    }
+
+    @Override
+    public List<V> getAllAfter(K afterKey, int limit) {
+        return merge(onEveryShard(shard -> shard.getAllEntriesAfter(afterKey, limit)), 0, limit);
+    }
+
+    @Override
+    public List<V> getByIndex(String indexName, Object value, int limit) {
+        return merge(onEveryShard(shard -> shard.getEntriesByIndex(indexName, value, limit)), 0, limit);
+    }
+
+    @Override
+    public List<V> getByIndexRange(String indexName, Object fromInclusive, Object toExclusive, IndexPosition<K> after, int limit) {
+        IndexColumn<V, ?> index = shards.get(0).indexColumn(indexName);
+        // the databases sort rows without an index value first
+        Comparator<Map.Entry<K, V>> indexOrder = Comparator.<Map.Entry<K, V>, Object>comparing(entry -> index.extract(entry.getValue()),
+                                                                                                 Comparator.nullsFirst(ShardedKeyValueStore::compareKeys))
+                                                           .thenComparing(keyOrder);
+        return merge(onEveryShard(shard -> shard.getEntriesByIndexRange(indexName, fromInclusive, toExclusive, after, limit)), indexOrder, 0, limit);
+    }
+
+    @Override
+    public Stream<V> stream(int chunkSize) {
+        List<Stream<Map.Entry<K, V>>> shardStreams = new ArrayList<>(shards.size());
+        try {
+            shards.forEach(shard -> shardStreams.add(shard.streamEntries(chunkSize)));
+        } catch (RuntimeException e) {
+            shardStreams.forEach(Stream::close);
+            throw e;
+        }
+        var merged = new MergingIterator<>(shardStreams.stream().map(Stream::iterator).collect(Collectors.toList()), keyOrder);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                            .map(Map.Entry::getValue)
+                            .onClose(() -> shardStreams.forEach(Stream::close));
+    }
+
+    @Override
+    public ChangeBatch<K> changesSince(String cursor, int limit, long maxWaitMs) {
+        if (changeSignal == null) {
+            throw withoutChangeFeed();
+        }
+        List<String> shardCursors = splitCursor(cursor);
+        return changeSignal.awaitChanges(() -> mergeChanges(shardCursors, limit), maxWaitMs);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> nextChange(long maxWaitMs) {
+        if (changeSignal == null) {
+            throw withoutChangeFeed();
+        }
+        return changeSignal.nextSignal(maxWaitMs);
+    }
+
+    @Override
+    public String latestChangeCursor() {
+        if (changeSignal == null) {
+            throw withoutChangeFeed();
+        }
+        return String.join(CURSOR_SEPARATOR, onEveryShard(KeyValueStoreImpl::latestChangeCursor));
+    }
+
+    private UnsupportedCapabilityException withoutChangeFeed() {
+        return new UnsupportedCapabilityException("Sharded store was created without StoreOptions.withChangeFeed()");
+    }
+
+    private ChangeBatch<K> mergeChanges(List<String> shardCursors, int limit) {
+        List<Callable<ChangeBatch<K>>> reads = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            KeyValueStoreImpl<K, V> shard = shards.get(i);
+            String shardCursor = shardCursors.get(i);
+            reads.add(() -> shard.changesSince(shardCursor, limit, 0));
+        }
+        List<ChangeBatch<K>> batches = inParallel(reads);
+        List<Iterator<ShardChange<K>>> runs = new ArrayList<>(batches.size());
+        String[] positions = new String[batches.size()];
+        boolean gap = false;
+        for (int i = 0; i < batches.size(); i++) {
+            int shardIndex = i;
+            ChangeBatch<K> batch = batches.get(i);
+            runs.add(batch.changes().stream().map(change -> new ShardChange<>(shardIndex, change)).iterator());
+            positions[i] = positionBefore(batch, shardCursors.get(i));
+            gap |= batch.gap();
+        }
+        var merged = new MergingIterator<>(runs, Comparator.<ShardChange<K>>comparingLong(shardChange -> shardChange.change().changedAtMs())
+                                                           .thenComparingInt(ShardChange::shardIndex));
+        List<Change<K>> changes = new ArrayList<>(limit);
+        while (changes.size() < limit && merged.hasNext()) {
+            ShardChange<K> next = merged.next();
+            positions[next.shardIndex()] = next.change().cursor();
+            changes.add(Change.of(next.change().key(), next.change().type(), next.change().changedAtMs(), String.join(CURSOR_SEPARATOR, positions)));
+        }
+        return ChangeBatch.of(changes, String.join(CURSOR_SEPARATOR, positions), gap);
+    }
+
+    // the position of a shard before any of the changes it returned. Reading from the start, that's right before its first
+    // change rather than 0, so the position never falls behind what gets pruned
+    private static <K> String positionBefore(ChangeBatch<K> batch, String shardCursor) {
+        if (shardCursor != null) {
+            return shardCursor;
+        }
+        if (batch.changes().isEmpty()) {
+            return batch.cursor();
+        }
+        return String.valueOf(ChangeLog.parseCursor(batch.changes().get(0).cursor()) - 1);
+    }
+
+    private List<String> splitCursor(String cursor) {
+        if (cursor == null) {
+            return Collections.nCopies(shards.size(), null);
+        }
+        List<String> shardCursors = List.of(cursor.split(Pattern.quote(CURSOR_SEPARATOR), -1));
+        if (shardCursors.size() != shards.size()) {
+            throw new IllegalArgumentException("Invalid change cursor " + cursor);
+        }
+        return shardCursors;
+    }
+
+    // true if the value wasn't claimed by key yet
+    private boolean claim(String indexValue, K key) {
+        String owner = key.toString();
+        AtomicReference<Boolean> newClaim = new AtomicReference<>(false);
+        ownersOf(indexValue).update(indexValue, claim -> {
+            if (claim != null && !claim.ownerKey().equals(owner) && !isAbandoned(claim, indexValue)) {
+                throw new EntityAlreadyExistsException("Index value %s is already taken".formatted(indexValue));
+            }
+            newClaim.set(claim == null || !claim.ownerKey().equals(owner));
+            return new IndexClaim(owner, System.currentTimeMillis());
+        });
+        return newClaim.get();
+    }
+
+    // a concurrent write of the same key may have written the value meanwhile, its row keeps the claim then
+    private void releaseUnlessHeld(String indexValue, K key) {
+        if (!indexValue.equals(shardFor(key).getById(key).map(this::indexValueOf).orElse(null))) {
+            release(indexValue, key);
+        }
+    }
+
+    private String indexValueOf(V value) {
+        return value == null ? null : uniqueIndexField.extract(value);
+    }
+
+    private void release(String indexValue, K key) {
+        String owner = key.toString();
+        ownersOf(indexValue).update(indexValue, claim -> claim != null && claim.ownerKey().equals(owner) ? null : claim);
+    }
+
+    private Optional<V> holderOf(String indexValue, K key) {
+        return ownersOf(indexValue).getById(indexValue)
+                                   .map(claim -> parseKey(claim.ownerKey()))
+                                   .filter(owner -> !owner.equals(key))
+                                   .flatMap(owner -> shardFor(owner).getById(owner))
+                                   .filter(holder -> indexValue.equals(uniqueIndexField.extract(holder)));
+    }
+
+    private boolean isAbandoned(IndexClaim claim, String indexValue) {
+        if (System.currentTimeMillis() - claim.claimedAtMs() < CLAIM_TIMEOUT_MS) {
+            // the owner may still be writing its row
+            return false;
+        }
+        K owner = parseKey(claim.ownerKey());
+        return shardFor(owner).getById(owner)
+                              .map(holder -> !indexValue.equals(uniqueIndexField.extract(holder)))
+                              .orElse(true);
+    }
+
+    private KeyValueStoreImpl<K, V> shardFor(K key) {
+        return shards.get(shardIndexOf(key, shards.size()));
+    }
+
+    private KeyValueStoreImpl<String, IndexClaim> ownersOf(String indexValue) {
+        return indexOwners.get(shardIndexOf(indexValue, indexOwners.size()));
+    }
+
+    // Long and String hash codes are specified, so keys keep their shard across restarts and JVMs
+    static int shardIndexOf(Object key, int shardCount) {
+        return Math.floorMod(key.hashCode(), shardCount);
+    }
+
+    private K parseKey(String key) {
+        return keyKlass.equals(Long.class) ? keyKlass.cast(Long.valueOf(key)) : keyKlass.cast(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> int compareKeys(K key, K otherKey) {
+        return ((Comparable<K>) key).compareTo(otherKey);
+    }
+
+    private List<V> merge(List<List<Map.Entry<K, V>>> sortedRuns, int offset, int limit) {
+        return merge(sortedRuns, keyOrder, offset, limit);
+    }
+
+    private List<V> merge(List<List<Map.Entry<K, V>>> sortedRuns, Comparator<Map.Entry<K, V>> order, int offset, int limit) {
+        var merged = new MergingIterator<>(sortedRuns.stream().map(List::iterator).collect(Collectors.toList()), order);
+        List<V> result = new ArrayList<>(limit);
+        for (int skipped = 0; skipped < offset && merged.hasNext(); skipped++) {
+            merged.next();
+        }
+        while (result.size() < limit && merged.hasNext()) {
+            result.add(merged.next().getValue());
+        }
+        return result;
+    }
+
+    private <T> List<T> onEveryShard(Function<KeyValueStoreImpl<K, V>, T> read) {
+        return inParallel(shards.stream().<Callable<T>>map(shard -> () -> read.apply(shard)).collect(Collectors.toList()));
+    }
+
+    private <T> List<T> onShardsOf(Collection<? extends K> keys, ShardRead<K, V, T> read) {
+        Map<Integer, List<K>> keysByShard = new HashMap<>();
+        keys.forEach(key -> keysByShard.computeIfAbsent(shardIndexOf(key, shards.size()), i -> new ArrayList<>()).add(key));
+        List<Callable<T>> reads = new ArrayList<>();
+        keysByShard.forEach((shardIndex, shardKeys) -> reads.add(() -> read.apply(shards.get(shardIndex), shardKeys)));
+        return inParallel(reads);
+    }
+
+    private <T> List<T> inParallel(List<Callable<T>> tasks) {
+        // nothing to overlap with, spare the thread hop. Inside a unit of work the reads have to stay on this thread, the
+        // one its handles are bound to, or they wouldn't see its own writes
+        if (tasks.size() == 1 || BoundHandles.current() != null) {
+            List<T> results = new ArrayList<>(tasks.size());
+            try {
+                for (Callable<T> task : tasks) {
+                    results.add(task.call());
+                }
+                return results;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new DatabaseException("Shard operation failed", e);
+            }
+        }
+        List<Future<T>> futures = tasks.stream().map(task -> readExecutor.submit(task)).collect(Collectors.toList());
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new DatabaseException("Shard operation failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseException("Interrupted while waiting for the shards", e);
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    public record IndexClaim(String ownerKey, long claimedAtMs) {}
+
+    private record ShardChange<K>(int shardIndex, Change<K> change) {}
+
+    @FunctionalInterface
+    private interface ShardRead<K, V, T> {
+        T apply(KeyValueStoreImpl<K, V> shard, List<K> keys);
+    }
+
+    // k-way merge of iterators that are each sorted already
+    private static final class MergingIterator<T> implements Iterator<T> {
+
+        private final PriorityQueue<Head<T>> heads;
+
+        MergingIterator(List<Iterator<T>> sortedIterators, Comparator<T> order) {
+            this.heads = new PriorityQueue<>(Math.max(1, sortedIterators.size()), (a, b) -> order.compare(a.value(), b.value()));
+            sortedIterators.forEach(this::advance);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            Head<T> head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            advance(head.rest());
+            return head.value();
+        }
+
+        private void advance(Iterator<T> iterator) {
+            if (iterator.hasNext()) {
+                heads.add(new Head<>(iterator.next(), iterator));
+            }
+        }
+
+        private record Head<T>(T value, Iterator<T> rest) {}
+    }
+}
@@ -0,0 +1,188 @@
+package com.perapoch.tasksapp.storage.db;
+
+import com.perapoch.tasksapp.storage.db.codec.PayloadCodec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+public record StoreOptions<V>(StringUniqueIndexColumn<V> uniqueIndexColumn, PayloadCodec<V> codec, int compressionThresholdBytes,
+                              boolean groupCommit, boolean optimisticLocking, List<IndexColumn<V, ?>> indexes,
+                              Map<String, Long> indexCacheSizes, boolean sharded, boolean replicaReads,
+                              boolean changeFeed, boolean autonomousWrites) {
+
+    private static final int NO_COMPRESSION = 0;
+
+    public static <V> StoreOptions<V> defaults() {
+        return new Builder<V>().build();
+    }
+
+    public StoreOptions<V> withUniqueIndex(StringUniqueIndexColumn<V> uniqueIndexColumn) {
+        return toBuilder().uniqueIndexColumn(uniqueIndexColumn).build();
+    }
+
+    public StoreOptions<V> withCodec(PayloadCodec<V> codec) {
+        return toBuilder().codec(codec).build();
+    }
+
+    // payloads whose encoded size is at least thresholdBytes get deflated
+    public StoreOptions<V> withCompression(int thresholdBytes) {
+        if (thresholdBytes <= 0) {
+            throw new IllegalArgumentException("Compression threshold must be > 0. Got: " + thresholdBytes);
+        }
+        return toBuilder().compressionThresholdBytes(thresholdBytes).build();
+    }
+
+    // single key updates may share a transaction with concurrent ones when group commit is enabled in the configuration.
+    // Update operations then run on the committer thread, so they must not call back into the store. Writes made in a unit
+    // of work never do, and neither do those of a sharded store with a unique index, which write their claim along
+    public StoreOptions<V> withGroupCommit() {
+        return toBuilder().groupCommit(true).build();
+    }
+
+    // updates read without row locks and write only if the row version didn't change in between, retrying otherwise.
+    // Update operations may then run more than once, so they must be free of side effects
+    public StoreOptions<V> withOptimisticLocking() {
+        return toBuilder().optimisticLocking(true).build();
+    }
+
+    // secondary indexes can be added at any time, existing rows get the new column filled in when the store is created
+    public StoreOptions<V> withIndex(IndexColumn<V, ?> index) {
+        List<IndexColumn<V, ?>> newIndexes = new ArrayList<>(indexes);
+        newIndexes.add(index);
+        return toBuilder().indexes(List.copyOf(newIndexes)).build();
+    }
+
+    // caches up to maxEntries index value -> keys lookups of the given index (unique or secondary)
+    public StoreOptions<V> withIndexCache(String indexName, long maxEntries) {
+        Map<String, Long> newIndexCacheSizes = new HashMap<>(indexCacheSizes);
+        newIndexCacheSizes.put(indexName, maxEntries);
+        return toBuilder().indexCacheSizes(Map.copyOf(newIndexCacheSizes)).build();
+    }
+
+    // keys are hash partitioned across the shards listed in the configuration, if any. Without shards the option is ignored
+    public StoreOptions<V> withSharding() {
+        return toBuilder().sharded(true).build();
+    }
+
+    // getById(s) and getAll(After) read from the replicas listed in the configuration, if any, and may then be up to the
+    // configured staleness behind. Writes and the reads they do always go to the primary
+    public StoreOptions<V> withReplicaReads() {
+        return toBuilder().replicaReads(true).build();
+    }
+
+    // every write also appends a change record in the same transaction, so the store can be followed with changesSince.
+    // Changes are kept for the retention set in the configuration
+    public StoreOptions<V> withChangeFeed() {
+        return toBuilder().changeFeed(true).build();
+    }
+
+    // writes commit on their own even inside a unit of work, for stores whose writes must survive a rollback of the
+    // caller (e.g. handed out id ranges)
+    public StoreOptions<V> withAutonomousWrites() {
+        return toBuilder().autonomousWrites(true).build();
+    }
+
+    public boolean compressionEnabled() {
+        return compressionThresholdBytes > NO_COMPRESSION;
+    }
+
+    public Optional<StringUniqueIndexColumn<V>> maybeUniqueIndexColumn() {
+        return Optional.ofNullable(uniqueIndexColumn);
+    }
+
+    public Optional<PayloadCodec<V>> maybeCodec() {
+        return Optional.ofNullable(codec);
+    }
+
+    private Builder<V> toBuilder() {
+        return new Builder<V>().uniqueIndexColumn(uniqueIndexColumn)
+                               .codec(codec)
+                               .compressionThresholdBytes(compressionThresholdBytes)
+                               .groupCommit(groupCommit)
+                               .optimisticLocking(optimisticLocking)
+                               .indexes(indexes)
+                               .indexCacheSizes(indexCacheSizes)
+                               .sharded(sharded)
+                               .replicaReads(replicaReads)
+                               .changeFeed(changeFeed)
+                               .autonomousWrites(autonomousWrites);
+    }
+
+    // the one place that lists every option, so that each withX only names the option it changes
+    private static final class Builder<V> {
+        private StringUniqueIndexColumn<V> uniqueIndexColumn;
+        private PayloadCodec<V> codec;
+        private int compressionThresholdBytes = NO_COMPRESSION;
+        private boolean groupCommit;
+        private boolean optimisticLocking;
+        private List<IndexColumn<V, ?>> indexes = List.of();
+        private Map<String, Long> indexCacheSizes = Map.of();
+        private boolean sharded;
+        private boolean replicaReads;
+        private boolean changeFeed;
+        private boolean autonomousWrites;
+
+        private Builder<V> uniqueIndexColumn(StringUniqueIndexColumn<V> uniqueIndexColumn) {
+            this.uniqueIndexColumn = uniqueIndexColumn;
+            return this;
+        }
+
+        private Builder<V> codec(PayloadCodec<V> codec) {
+            this.codec = codec;
+            return this;
+        }
+
+        private Builder<V> compressionThresholdBytes(int compressionThresholdBytes) {
+            this.compressionThresholdBytes = compressionThresholdBytes;
+            return this;
+        }
+
+        private Builder<V> groupCommit(boolean groupCommit) {
+            this.groupCommit = groupCommit;
+            return this;
+        }
+
+        private Builder<V> optimisticLocking(boolean optimisticLocking) {
+            this.optimisticLocking = optimisticLocking;
+            return this;
+        }
+
+        private Builder<V> indexes(List<IndexColumn<V, ?>> indexes) {
+            this.indexes = indexes;
+            return this;
+        }
+
+        private Builder<V> indexCacheSizes(Map<String, Long> indexCacheSizes) {
+            this.indexCacheSizes = indexCacheSizes;
+            return this;
+        }
+
+        private Builder<V> sharded(boolean sharded) {
+            this.sharded = sharded;
+            return this;
+        }
+
+        private Builder<V> replicaReads(boolean replicaReads) {
+            this.replicaReads = replicaReads;
+            return this;
+        }
+
+        private Builder<V> changeFeed(boolean changeFeed) {
+            this.changeFeed = changeFeed;
+            return this;
+        }
+
+        private Builder<V> autonomousWrites(boolean autonomousWrites) {
+            this.autonomousWrites = autonomousWrites;
+            return this;
+        }
+
+        private StoreOptions<V> build() {
+            return new StoreOptions<>(uniqueIndexColumn, codec, compressionThresholdBytes, groupCommit, optimisticLocking, indexes,
+                                      indexCacheSizes, sharded, replicaReads, changeFeed, autonomousWrites);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.perapoch.tasksapp.storage.db;
+
+import com.perapoch.tasksapp.storage.db.schema.SecondaryIndex;
+import com.perapoch.tasksapp.storage.db.schema.StoreSchema;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.stream.Collectors;
+
+// All the SQL a store needs, built once when the store is created instead of on every call
+record StoreStatements(String selectById,
+                       String selectByIds,
+                       String selectCurrent,
+                       String selectForUpdate,
+                       String upsert,
+                       String insert,
+                       String updateIfVersion,
+                       String deleteById,
+                       String deleteIfVersion,
+                       String selectPage,
+                       String selectFirst,
+                       String selectAfter,
+                       String selectAll,
+                       String selectByIdsForUpdate,
+                       String selectByIndexValuesForUpdate,
+                       Map<String, String> selectByIndex,
+                       Map<String, List<String>> selectByIndexRange) {
+
+    static final String ID_COLUMN = "id";
+    static final String PAYLOAD_COLUMN = "payload";
+    static final String PAYLOAD_BIN_COLUMN = "payload_bin";
+    static final String VERSION_COLUMN = "row_version";
+    private static final String PAYLOAD_COLUMNS = PAYLOAD_COLUMN + ", " + PAYLOAD_BIN_COLUMN;
+    private static final String VERSIONED_PAYLOAD_COLUMNS = PAYLOAD_COLUMNS + ", " + VERSION_COLUMN;
+    static final String KEYS_LIST = "keys";
+    static final String INDEX_VALUE_COLUMN = "index_value";
+
+    static StoreStatements forSchema(StoreSchema schema) {
+        var table = schema.tableName();
+        List<String> columns = new ArrayList<>(List.of(ID_COLUMN, PAYLOAD_COLUMN, PAYLOAD_BIN_COLUMN));
+        var whereClause = new StringBuilder("%s = ?".formatted(ID_COLUMN));
+        var updateClause = new StringBuilder("%1$s = VALUES(%1$s), %2$s = VALUES(%2$s)".formatted(PAYLOAD_COLUMN, PAYLOAD_BIN_COLUMN));
+        var setClause = new StringBuilder("%s = ?, %s = ?".formatted(PAYLOAD_COLUMN, PAYLOAD_BIN_COLUMN));
+        if (schema.hasUniqueIndex()) {
+            var indexColumn = schema.uniqueIndexColumn();
+            columns.add(indexColumn);
+            whereClause.append(" or %s = ?".formatted(indexColumn));
+            updateClause.append(", %1$s = VALUES(%1$s)".formatted(indexColumn));
+            setClause.append(", %s = ?".formatted(indexColumn));
+        }
+        for (SecondaryIndex index : schema.secondaryIndexes()) {
+            columns.add(index.column());
+            updateClause.append(", %1$s = VALUES(%1$s)".formatted(index.column()));
+            setClause.append(", %s = ?".formatted(index.column()));
+        }
+        // every write bumps the row version, new rows start at 1
+        updateClause.append(", %1$s = %1$s + 1".formatted(VERSION_COLUMN));
+        setClause.append(", %1$s = %1$s + 1".formatted(VERSION_COLUMN));
+        var allColumns = new StringJoiner(",", "(", ")");
+        var allQuestionMarks = new StringJoiner(",", "(", ")");
+        columns.forEach(column -> {
+            allColumns.add(column);
+            allQuestionMarks.add("?");
+        });
+        allColumns.add(VERSION_COLUMN);
+        allQuestionMarks.add("1");
+        var selectCurrent = "select %s, %s from %s where %s".formatted(ID_COLUMN, VERSIONED_PAYLOAD_COLUMNS, table, whereClause);
+        Map<String, String> selectByIndex = new HashMap<>();
+        List<String> indexColumns = new ArrayList<>();
+        if (schema.hasUniqueIndex()) {
+            indexColumns.add(schema.uniqueIndexColumn());
+        }
+        schema.secondaryIndexes().forEach(index -> indexColumns.add(index.column()));
+        indexColumns.forEach(column -> selectByIndex.put(column, "select %s, %s from %s where %s = ? order by %s limit ?".formatted(ID_COLUMN, VERSIONED_PAYLOAD_COLUMNS,
+                                                                                                                                table, column, ID_COLUMN)));
+        // one statement per combination of bounds, at the position rangeVariant gives it
+        Map<String, List<String>> selectByIndexRange = new HashMap<>();
+        indexColumns.forEach(column -> {
+            List<String> variants = new ArrayList<>();
+            for (int variant = 0; variant < 8; variant++) {
+                variants.add(buildSelectByIndexRange(table, column, (variant & 1) != 0, (variant & 2) != 0, (variant & 4) != 0));
+            }
+            selectByIndexRange.put(column, List.copyOf(variants));
+        });
+
+        return new StoreStatements(
+          "select %s from %s where %s = ?".formatted(VERSIONED_PAYLOAD_COLUMNS, table, ID_COLUMN),
+          "select %s, %s from %s where %s in (<%s>)".formatted(ID_COLUMN, VERSIONED_PAYLOAD_COLUMNS, table, ID_COLUMN, KEYS_LIST),
+          selectCurrent,
+          selectCurrent + " for update",
+          "insert into %s %s values %s on duplicate key update %s".formatted(table, allColumns, allQuestionMarks, updateClause),
+          "insert into %s %s values %s".formatted(table, allColumns, allQuestionMarks),
+          "update %s set %s where %s = ? and %s = ?".formatted(table, setClause, ID_COLUMN, VERSION_COLUMN),
+          "delete from %s where %s = ?".formatted(table, ID_COLUMN),
+          "delete from %s where %s = ? and %s = ?".formatted(table, ID_COLUMN, VERSION_COLUMN),
+          "select %s, %s from %s order by %s limit ? offset ?".formatted(ID_COLUMN, PAYLOAD_COLUMNS, table, ID_COLUMN),
+          "select %s, %s from %s order by %s limit ?".formatted(ID_COLUMN, PAYLOAD_COLUMNS, table, ID_COLUMN),
+          "select %s, %s from %s where %s > ? order by %s limit ?".formatted(ID_COLUMN, PAYLOAD_COLUMNS, table, ID_COLUMN, ID_COLUMN),
+          "select %s, %s from %s order by %s".formatted(ID_COLUMN, PAYLOAD_COLUMNS, table, ID_COLUMN),
+          "select %s, %s from %s where %s in (<%s>) for update".formatted(ID_COLUMN, PAYLOAD_COLUMNS, table, ID_COLUMN, KEYS_LIST),
+          schema.hasUniqueIndex()
+            ? "select %s, %s as %s from %s where %s in (<%s>) for update".formatted(ID_COLUMN, schema.uniqueIndexColumn(), INDEX_VALUE_COLUMN, table,
+                                                                                   schema.uniqueIndexColumn(), KEYS_LIST)
+            : null,
+          Map.copyOf(selectByIndex),
+          Map.copyOf(selectByIndexRange)
+        );
+    }
+
+    String selectByIndexRange(String column, boolean from, boolean after, boolean to) {
+        return selectByIndexRange.get(column).get(rangeVariant(from, after, to));
+    }
+
+    private static int rangeVariant(boolean from, boolean after, boolean to) {
+        return (from ? 1 : 0) | (after ? 2 : 0) | (to ? 4 : 0);
+    }
+
+    // a range scan of an index, in (index value, id) order which is also the order of the index itself. Only the bounds
+    // in use are part of the statement, so the database can seek straight to the first row
+    private static String buildSelectByIndexRange(String table, String column, boolean from, boolean after, boolean to) {
+        List<String> conditions = new ArrayList<>();
+        if (from) {
+            conditions.add("%s >= ?".formatted(column));
+        }
+        if (after) {
+            conditions.add("(%1$s > ? or (%1$s = ? and %2$s > ?))".formatted(column, ID_COLUMN));
+        }
+        if (to) {
+            conditions.add("%s < ?".formatted(column));
+        }
+        String where = conditions.isEmpty() ? "" : " where " + String.join(" and ", conditions);
+        return "select %s, %s from %s%s order by %s, %s limit ?".formatted(ID_COLUMN, VERSIONED_PAYLOAD_COLUMNS, table, where, column, ID_COLUMN);
+    }
+
+    static String updateIndexColumns(String table, List<SecondaryIndex> indexes) {
+        String setClause = indexes.stream()
+                                  .map(index -> "%s = ?".formatted(index.column()))
+                                  .collect(Collectors.joining(", "));
+        return "update %s set %s where %s = ?".formatted(table, setClause, ID_COLUMN);
+    }
+}
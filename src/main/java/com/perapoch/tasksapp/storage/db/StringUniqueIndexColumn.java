@@ -15,4 +15,8 @@ public record StringUniqueIndexColumn<V>(String fieldName, Function<V, String> e
     public String extract(V target) {
         return extractor.apply(target);
     }
+
+    public IndexColumn<V, String> toIndexColumn() {
+        return IndexColumn.unique(fieldName, String.class, extractor);
+    }
 }
@@ -0,0 +1,19 @@
+package com.perapoch.tasksapp.storage.db;
+
+import java.util.function.Supplier;
+
+// Runs a piece of work with one handle and transaction per database, shared by every store call the work makes on the
+// calling thread. Everything commits when the work returns and rolls back when it throws; work started inside another
+// unit of work joins it. Writes are atomic per database only: stores sharded over several databases commit one after
+// the other. Stores not backed by jdbc, and stores created withAutonomousWrites, keep committing on their own.
+public interface UnitOfWork {
+
+    <T> T execute(Supplier<T> work);
+
+    default void execute(Runnable work) {
+        execute(() -> {
+            work.run();
+            return null;
+        });
+    }
+}
@@ -0,0 +1,27 @@
+package com.perapoch.tasksapp.storage.db;
+
+import jakarta.inject.Singleton;
+
+import java.util.function.Supplier;
+
+@Singleton
+public class UnitOfWorkImpl implements UnitOfWork {
+
+    @Override
+    public <T> T execute(Supplier<T> work) {
+        if (BoundHandles.current() != null) {
+            return work.get();
+        }
+        BoundHandles handles = BoundHandles.bind();
+        try {
+            T result = work.get();
+            handles.commit();
+            return result;
+        } catch (RuntimeException | Error e) {
+            handles.rollback(e);
+            throw e;
+        } finally {
+            handles.unbind();
+        }
+    }
+}
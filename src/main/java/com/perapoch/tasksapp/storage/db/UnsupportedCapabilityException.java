@@ -0,0 +1,10 @@
+package com.perapoch.tasksapp.storage.db;
+
+import com.perapoch.tasksapp.exception.InternalException;
+
+public class UnsupportedCapabilityException extends InternalException {
+
+    public UnsupportedCapabilityException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,10 @@
+package com.perapoch.tasksapp.storage.db;
+
+import com.perapoch.tasksapp.exception.InternalException;
+
+public class VersionConflictException extends InternalException {
+
+    public VersionConflictException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,21 @@
+package com.perapoch.tasksapp.storage.db;
+
+// A stored value together with the version of its row. Every write bumps the version, so it can be used for
+// conditional (compare-and-set) updates. A null value means there is no row for the key.
+public record Versioned<V>(V value, long version) {
+
+    // expected version meaning "whatever is stored", i.e. an unconditional update
+    public static final long ANY_VERSION = -1L;
+
+    public static <V> Versioned<V> of(V value, long version) {
+        return new Versioned<>(value, version);
+    }
+
+    public static <V> Versioned<V> absent() {
+        return new Versioned<>(null, 0L);
+    }
+
+    public boolean isPresent() {
+        return value != null;
+    }
+}
@@ -0,0 +1,50 @@
+package com.perapoch.tasksapp.storage.db.codec;
+
+import com.perapoch.tasksapp.core.json.JsonConverter;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+public class JsonPayloadCodec<V> implements PayloadCodec<V> {
+
+    public static final byte ID = 1;
+    private static final byte VERSION = 1;
+
+    private final JsonConverter jsonConverter;
+    private final Class<V> payloadKlass;
+
+    public JsonPayloadCodec(JsonConverter jsonConverter, Class<V> payloadKlass) {
+        this.jsonConverter = jsonConverter;
+        this.payloadKlass = payloadKlass;
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public byte version() {
+        return VERSION;
+    }
+
+    @Override
+    public byte[] encode(V value) {
+        return jsonConverter.toJsonBytes(value);
+    }
+
+    @Override
+    public V decode(ByteBuffer buffer, byte version) {
+        return jsonConverter.fromJson(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), payloadKlass);
+    }
+
+    @Override
+    public void encode(V value, PayloadBuffer out) {
+        jsonConverter.toJson(out, value);
+    }
+
+    @Override
+    public V decode(InputStream in, byte version) {
+        return jsonConverter.fromJson(in, payloadKlass);
+    }
+}
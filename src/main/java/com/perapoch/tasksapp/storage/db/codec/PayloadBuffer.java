@@ -0,0 +1,39 @@
+package com.perapoch.tasksapp.storage.db.codec;
+
+import java.io.ByteArrayOutputStream;
+
+// The growable buffer payloads are encoded into. The serializer keeps one per thread, so encoding a payload allocates
+// nothing but the final array bound to the statement.
+public class PayloadBuffer extends ByteArrayOutputStream {
+
+    private static final int INITIAL_SIZE = 1024;
+    // a thread that once wrote a huge payload doesn't keep its array forever
+    private static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+    PayloadBuffer() {
+        super(INITIAL_SIZE);
+    }
+
+    public void writeLong(long value) {
+        for (int shift = Long.SIZE - Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+            write((int) (value >>> shift));
+        }
+    }
+
+    public void writeInt(int value) {
+        for (int shift = Integer.SIZE - Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+            write(value >>> shift);
+        }
+    }
+
+    byte[] array() {
+        return buf;
+    }
+
+    void release() {
+        if (buf.length > MAX_RETAINED_SIZE) {
+            buf = new byte[INITIAL_SIZE];
+        }
+        reset();
+    }
+}
@@ -0,0 +1,28 @@
+package com.perapoch.tasksapp.storage.db.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+// Encodes store values into bytes. The id and version are written in every payload header, so a codec must keep
+// decoding all the versions it ever wrote, and ids must not be reused by different codecs.
+public interface PayloadCodec<V> {
+
+    byte id();
+
+    byte version();
+
+    byte[] encode(V value);
+
+    V decode(ByteBuffer buffer, byte version);
+
+    // the serializer encodes into its reusable buffer and decodes straight from the db column through these. Codecs that
+    // can write and read streams should override them to skip the intermediate arrays
+    default void encode(V value, PayloadBuffer out) {
+        out.writeBytes(encode(value));
+    }
+
+    default V decode(InputStream in, byte version) throws IOException {
+        return decode(ByteBuffer.wrap(in.readAllBytes()), version);
+    }
+}
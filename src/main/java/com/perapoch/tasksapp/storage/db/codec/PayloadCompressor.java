@@ -0,0 +1,88 @@
+package com.perapoch.tasksapp.storage.db.codec;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.perapoch.tasksapp.storage.db.DatabaseException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Deflates payloads above a size threshold. Deflater/Inflater hold native memory, so one of each is kept per thread.
+public class PayloadCompressor {
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[8 * 1024]);
+
+    static final PayloadCompressor DECOMPRESS_ONLY = new PayloadCompressor(Integer.MAX_VALUE, new MetricRegistry(), "decompress-only");
+
+    private final int thresholdBytes;
+    private final Histogram compressionRatio;
+    private final Timer compressionTime;
+    private final Timer decompressionTime;
+
+    public PayloadCompressor(int thresholdBytes, MetricRegistry metricRegistry, String storeName) {
+        this.thresholdBytes = thresholdBytes;
+        this.compressionRatio = metricRegistry.histogram(MetricRegistry.name(PayloadCompressor.class, storeName, "compression-ratio-percent"));
+        this.compressionTime = metricRegistry.timer(MetricRegistry.name(PayloadCompressor.class, storeName, "compression-time"));
+        this.decompressionTime = metricRegistry.timer(MetricRegistry.name(PayloadCompressor.class, storeName, "decompression-time"));
+    }
+
+    public boolean shouldCompress(int length) {
+        return length >= thresholdBytes;
+    }
+
+    // returns null when deflating doesn't make the payload smaller
+    public byte[] compress(byte[] body) {
+        return compress(body, 0, body.length);
+    }
+
+    public byte[] compress(byte[] body, int offset, int length) {
+        try (Timer.Context ignored = compressionTime.time()) {
+            Deflater deflater = DEFLATER.get();
+            deflater.reset();
+            deflater.setInput(body, offset, length);
+            deflater.finish();
+            byte[] buffer = BUFFER.get();
+            var out = new ByteArrayOutputStream(length / 2 + Integer.BYTES);
+            out.writeBytes(ByteBuffer.allocate(Integer.BYTES).putInt(length).array());
+            while (!deflater.finished()) {
+                int written = deflater.deflate(buffer);
+                out.write(buffer, 0, written);
+                if (out.size() >= length) {
+                    return null;
+                }
+            }
+            compressionRatio.update(out.size() * 100L / Math.max(1, length));
+            return out.toByteArray();
+        }
+    }
+
+    public ByteBuffer decompress(ByteBuffer compressed) {
+        try (Timer.Context ignored = decompressionTime.time()) {
+            int uncompressedLength = compressed.getInt();
+            byte[] body = new byte[uncompressedLength];
+            Inflater inflater = INFLATER.get();
+            inflater.reset();
+            inflater.setInput(compressed.array(), compressed.arrayOffset() + compressed.position(), compressed.remaining());
+            int read = 0;
+            while (read < uncompressedLength && !inflater.finished()) {
+                int inflated = inflater.inflate(body, read, uncompressedLength - read);
+                if (inflated == 0 && inflater.needsInput()) {
+                    break;
+                }
+                read += inflated;
+            }
+            if (read != uncompressedLength) {
+                throw new DatabaseException("Truncated compressed payload", null);
+            }
+            return ByteBuffer.wrap(body);
+        } catch (DataFormatException e) {
+            throw new DatabaseException("Corrupted compressed payload", e);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.perapoch.tasksapp.storage.db.codec;
+
+import com.perapoch.tasksapp.storage.db.DatabaseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+// Frames every payload as [format version][flags][codec id][codec version][body] (format 1 had no flags byte and is
+// still readable). Payloads written by the JSON codec can always be read, so a store can switch to a binary codec and
+// have its existing rows rewritten lazily.
+public class PayloadSerializer<V> {
+
+    private static final byte FORMAT_V1 = 1;
+    private static final int HEADER_V1_SIZE = 3;
+    private static final byte FORMAT_V2 = 2;
+    private static final int HEADER_V2_SIZE = 4;
+    private static final byte FLAG_DEFLATED = 1;
+    private static final ThreadLocal<PayloadBuffer> BUFFER = ThreadLocal.withInitial(PayloadBuffer::new);
+
+    private final PayloadCodec<V> codec;
+    private final JsonPayloadCodec<V> jsonCodec;
+    private final PayloadCompressor compressor;
+
+    public PayloadSerializer(PayloadCodec<V> codec, JsonPayloadCodec<V> jsonCodec) {
+        this(codec, jsonCodec, null);
+    }
+
+    public PayloadSerializer(PayloadCodec<V> codec, JsonPayloadCodec<V> jsonCodec, PayloadCompressor compressor) {
+        this.codec = codec;
+        this.jsonCodec = jsonCodec;
+        this.compressor = compressor;
+    }
+
+    // the header and body are written into the thread's buffer, so the only copy is the returned array
+    public byte[] serialize(V value) {
+        PayloadBuffer buffer = BUFFER.get();
+        try {
+            for (int i = 0; i < HEADER_V2_SIZE; i++) {
+                buffer.write(0);
+            }
+            codec.encode(value, buffer);
+            int bodyLength = buffer.size() - HEADER_V2_SIZE;
+            if (compressor != null && compressor.shouldCompress(bodyLength)) {
+                byte[] compressed = compressor.compress(buffer.array(), HEADER_V2_SIZE, bodyLength);
+                if (compressed != null) {
+                    byte[] payload = new byte[HEADER_V2_SIZE + compressed.length];
+                    writeHeader(payload, FLAG_DEFLATED);
+                    System.arraycopy(compressed, 0, payload, HEADER_V2_SIZE, compressed.length);
+                    return payload;
+                }
+            }
+            byte[] payload = buffer.toByteArray();
+            writeHeader(payload, (byte) 0);
+            return payload;
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private void writeHeader(byte[] payload, byte flags) {
+        payload[0] = FORMAT_V2;
+        payload[1] = flags;
+        payload[2] = codec.id();
+        payload[3] = codec.version();
+    }
+
+    public V deserialize(byte[] payload) {
+        if (payload.length >= HEADER_V2_SIZE && payload[0] == FORMAT_V2) {
+            ByteBuffer body = ByteBuffer.wrap(payload, HEADER_V2_SIZE, payload.length - HEADER_V2_SIZE).slice();
+            if ((payload[1] & FLAG_DEFLATED) != 0) {
+                body = decompressor().decompress(body);
+            }
+            return codecFor(payload[2]).decode(body, payload[3]);
+        } else if (payload.length >= HEADER_V1_SIZE && payload[0] == FORMAT_V1) {
+            ByteBuffer body = ByteBuffer.wrap(payload, HEADER_V1_SIZE, payload.length - HEADER_V1_SIZE).slice();
+            return codecFor(payload[1]).decode(body, payload[2]);
+        }
+        throw new DatabaseException("Unsupported payload format " + (payload.length == 0 ? "<empty>" : payload[0]), null);
+    }
+
+    // reads the payload straight from the db column: the header byte by byte, then the body is handed to the codec as
+    // a stream, so json bodies are parsed without being copied into an array first
+    public V deserialize(InputStream payload) {
+        try (payload) {
+            int format = payload.read();
+            if (format == FORMAT_V2) {
+                int flags = payload.read();
+                byte codecId = (byte) payload.read();
+                byte codecVersion = readHeaderByte(payload);
+                if ((flags & FLAG_DEFLATED) != 0) {
+                    return codecFor(codecId).decode(decompressor().decompress(ByteBuffer.wrap(payload.readAllBytes())), codecVersion);
+                }
+                return codecFor(codecId).decode(payload, codecVersion);
+            } else if (format == FORMAT_V1) {
+                byte codecId = (byte) payload.read();
+                return codecFor(codecId).decode(payload, readHeaderByte(payload));
+            }
+            throw new DatabaseException("Unsupported payload format " + (format < 0 ? "<empty>" : format), null);
+        } catch (IOException e) {
+            throw new DatabaseException("Error reading payload from db", e);
+        }
+    }
+
+    // the last header byte, a missing one meaning the header was cut short
+    private static byte readHeaderByte(InputStream payload) throws IOException {
+        int value = payload.read();
+        if (value < 0) {
+            throw new DatabaseException("Truncated payload header", null);
+        }
+        return (byte) value;
+    }
+
+    private PayloadCompressor decompressor() {
+        if (compressor == null) {
+            // compression was turned off for this store after some rows were written compressed
+            return PayloadCompressor.DECOMPRESS_ONLY;
+        }
+        return compressor;
+    }
+
+    private PayloadCodec<V> codecFor(byte codecId) {
+        if (codecId == codec.id()) {
+            return codec;
+        } else if (codecId == JsonPayloadCodec.ID) {
+            return jsonCodec;
+        }
+        throw new DatabaseException("Unknown payload codec " + codecId, null);
+    }
+}
@@ -0,0 +1,29 @@
+package com.perapoch.tasksapp.storage.db.log;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+// How keys are written in the log records. Only the key types the store factory supports are handled
+record KeyCodec<K>(Function<K, byte[]> encoder, Function<byte[], K> decoder) {
+
+    @SuppressWarnings("unchecked")
+    static <K> KeyCodec<K> forClass(Class<K> keyKlass) {
+        if (keyKlass == Long.class) {
+            return (KeyCodec<K>) new KeyCodec<Long>(key -> ByteBuffer.allocate(Long.BYTES).putLong(key).array(),
+                                                    bytes -> ByteBuffer.wrap(bytes).getLong());
+        } else if (keyKlass == String.class) {
+            return (KeyCodec<K>) new KeyCodec<String>(key -> key.getBytes(StandardCharsets.UTF_8),
+                                                      bytes -> new String(bytes, StandardCharsets.UTF_8));
+        }
+        throw new IllegalArgumentException("Unsupported key type " + keyKlass.getName());
+    }
+
+    byte[] encode(K key) {
+        return encoder.apply(key);
+    }
+
+    K decode(byte[] bytes) {
+        return decoder.apply(bytes);
+    }
+}
@@ -0,0 +1,146 @@
+package com.perapoch.tasksapp.storage.db.log;
+
+import com.perapoch.tasksapp.storage.db.DatabaseException;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// One memory-mapped, fixed size file of the log. Only the active segment is appended to (by the writer holding the
+// store lock); reads use absolute accessors so they never touch the shared buffer position.
+final class LogSegment {
+
+    static final String FILE_PREFIX = "segment-";
+    static final String FILE_SUFFIX = ".log";
+
+    private final long id;
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private int writePosition;
+    private long liveBytes;
+
+    private LogSegment(long id, Path path, FileChannel channel, MappedByteBuffer buffer, int capacity) {
+        this.id = id;
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = capacity;
+    }
+
+    static LogSegment create(Path directory, long id, int capacity) {
+        return map(id, directory.resolve(fileName(id)), capacity, StandardOpenOption.CREATE_NEW);
+    }
+
+    static LogSegment open(Path path, long id) {
+        try {
+            return map(id, path, Math.toIntExact(Files.size(path)));
+        } catch (IOException e) {
+            throw new DatabaseException("Can't open log segment " + path, e);
+        }
+    }
+
+    private static LogSegment map(long id, Path path, int capacity, StandardOpenOption... extraOptions) {
+        try {
+            Set<StandardOpenOption> options = new HashSet<>(List.of(StandardOpenOption.READ, StandardOpenOption.WRITE));
+            options.addAll(List.of(extraOptions));
+            FileChannel channel = FileChannel.open(path, options);
+            // mapping past the end of the file grows it, so new segments are allocated in one go
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            return new LogSegment(id, path, channel, buffer, capacity);
+        } catch (IOException e) {
+            throw new DatabaseException("Can't map log segment " + path, e);
+        }
+    }
+
+    static String fileName(long id) {
+        return FILE_PREFIX + "%012d".formatted(id) + FILE_SUFFIX;
+    }
+
+    static long idOf(Path path) {
+        String fileName = path.getFileName().toString();
+        return Long.parseLong(fileName.substring(FILE_PREFIX.length(), fileName.length() - FILE_SUFFIX.length()));
+    }
+
+    long id() {
+        return id;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    int writePosition() {
+        return writePosition;
+    }
+
+    void setWritePosition(int writePosition) {
+        this.writePosition = writePosition;
+    }
+
+    boolean fits(int length) {
+        return writePosition + length <= capacity;
+    }
+
+    // returns the offset the bytes were written at
+    int append(byte[] bytes) {
+        int offset = writePosition;
+        buffer.put(offset, bytes);
+        writePosition += bytes.length;
+        return offset;
+    }
+
+    int readInt(int offset) {
+        return buffer.getInt(offset);
+    }
+
+    byte[] read(int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return bytes;
+    }
+
+    void zero(int from) {
+        byte[] zeros = new byte[Math.min(64 * 1024, capacity)];
+        for (int offset = from; offset < capacity; offset += zeros.length) {
+            buffer.put(offset, zeros, 0, Math.min(zeros.length, capacity - offset));
+        }
+    }
+
+    synchronized long liveBytes() {
+        return liveBytes;
+    }
+
+    synchronized void addLiveBytes(long delta) {
+        liveBytes += delta;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    void delete() {
+        try {
+            channel.close();
+            // the mapping stays valid until it is garbage collected, so concurrent readers are not affected
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new DatabaseException("Can't delete log segment " + path, e);
+        }
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new DatabaseException("Can't close log segment " + path, e);
+        }
+    }
+}
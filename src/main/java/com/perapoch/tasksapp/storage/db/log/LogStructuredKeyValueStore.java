@@ -0,0 +1,676 @@
+package com.perapoch.tasksapp.storage.db.log;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.perapoch.tasksapp.storage.LogStoreConfiguration;
+import com.perapoch.tasksapp.storage.db.DatabaseException;
+import com.perapoch.tasksapp.storage.db.EntityAlreadyExistsException;
+import com.perapoch.tasksapp.storage.db.IndexColumn;
+import com.perapoch.tasksapp.storage.db.KeyValueStore;
+import com.perapoch.tasksapp.storage.db.StoreOptions;
+import com.perapoch.tasksapp.storage.db.StringUniqueIndexColumn;
+import com.perapoch.tasksapp.storage.db.VersionConflictException;
+import com.perapoch.tasksapp.storage.db.Versioned;
+import com.perapoch.tasksapp.storage.db.codec.PayloadSerializer;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vyarus.dropwizard.guice.module.installer.scanner.InvisibleForScanner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// A store kept in an append-only log of memory-mapped segment files instead of the database (Bitcask style): every
+// write appends a record to the active segment and points the in-memory key index at it, so reads are one map lookup
+// plus a copy out of the mapping. Appends are fsync-ed in batches every fsyncInterval, recovery replays the segments
+// listed in the MANIFEST and a background compaction rewrites the sealed segments once enough of them is garbage.
+// Writes are serialised, so optimistic locking and group commit don't apply; sharding and replica reads are ignored.
+@InvisibleForScanner
+public class LogStructuredKeyValueStore<K, V> implements KeyValueStore<K, V>, Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogStructuredKeyValueStore.class);
+    static final String MANIFEST = "MANIFEST";
+    private static final String SEALED = "sealed";
+    private static final String ACTIVE = "active";
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    // [int length][int crc32 of everything after it][byte type][long seq][long version][int key length][key][payload]
+    private static final int CRC_OFFSET = 4;
+    private static final int TYPE_OFFSET = 8;
+    private static final int SEQ_OFFSET = 9;
+    private static final int VERSION_OFFSET = 17;
+    private static final int KEY_LENGTH_OFFSET = 25;
+    private static final int HEADER_SIZE = 29;
+    private static final byte[] NO_PAYLOAD = new byte[0];
+    // how long a compaction waits for the records replacing the compacted ones to be flushed
+    private static final long FLUSH_WAIT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final String storeName;
+    private final Path directory;
+    private final Class<V> payloadKlass;
+    private final KeyCodec<K> keyCodec;
+    private final PayloadSerializer<V> serializer;
+    private final StringUniqueIndexColumn<V> uniqueIndexField;
+    private final Map<String, IndexColumn<V, ?>> indexesByName;
+    private final List<IndexColumn<V, ?>> uniqueIndexes;
+    // index value -> keys holding it, for every index. Rebuilt from the values on recovery
+    private final Map<String, ConcurrentMap<Object, NavigableSet<K>>> valueIndexes;
+    private final ConcurrentSkipListMap<K, Location> index;
+    private final int segmentSize;
+    private final boolean durableWrites;
+    private final double compactionGarbageRatio;
+    private final Histogram fsyncBatchSizes;
+    private final Timer fsyncTime;
+
+    // guards the segments, the sequence numbers and every change of the index
+    private final ReentrantLock writeLock;
+    private final List<LogSegment> sealedSegments;
+    private final Set<LogSegment> unflushedSegments;
+    private final AtomicLong nextSegmentId;
+    private LogSegment activeSegment;
+    private long nextSeq;
+    private long appendedSeq;
+
+    private final Object durableMonitor;
+    private long durableSeq;
+    private volatile boolean closed;
+
+    private final Object compactionMonitor;
+    private final ScheduledFuture<?> flusher;
+    private final ScheduledFuture<?> compactor;
+
+    public LogStructuredKeyValueStore(Path directory, String storeName, Class<K> keyKlass, Class<V> payloadKlass, StoreOptions<V> options,
+                                      PayloadSerializer<V> serializer, LogStoreConfiguration configuration, ScheduledExecutorService executor,
+                                      MetricRegistry metricRegistry) {
+        this.storeName = storeName;
+        this.directory = directory;
+        this.payloadKlass = payloadKlass;
+        this.keyCodec = KeyCodec.forClass(keyKlass);
+        this.serializer = serializer;
+        this.uniqueIndexField = options.uniqueIndexColumn();
+        this.indexesByName = new HashMap<>();
+        options.maybeUniqueIndexColumn().ifPresent(index -> indexesByName.put(index.fieldName(), index.toIndexColumn()));
+        options.indexes().forEach(index -> indexesByName.put(index.name(), index));
+        this.uniqueIndexes = indexesByName.values().stream().filter(IndexColumn::unique).collect(Collectors.toList());
+        this.valueIndexes = new HashMap<>();
+        indexesByName.keySet().forEach(indexName -> valueIndexes.put(indexName, new ConcurrentHashMap<>()));
+        this.index = new ConcurrentSkipListMap<>();
+        this.segmentSize = Math.toIntExact(configuration.getSegmentSize().toBytes());
+        this.durableWrites = configuration.isDurableWrites();
+        this.compactionGarbageRatio = configuration.getCompactionGarbageRatio();
+        this.fsyncBatchSizes = metricRegistry.histogram(MetricRegistry.name(LogStructuredKeyValueStore.class, storeName, "fsync-batch-size"));
+        this.fsyncTime = metricRegistry.timer(MetricRegistry.name(LogStructuredKeyValueStore.class, storeName, "fsync-time"));
+        this.writeLock = new ReentrantLock();
+        this.sealedSegments = new ArrayList<>();
+        this.unflushedSegments = new LinkedHashSet<>();
+        this.nextSegmentId = new AtomicLong();
+        this.durableMonitor = new Object();
+        this.compactionMonitor = new Object();
+        recover();
+        long fsyncIntervalMicros = configuration.getFsyncInterval().toMicroseconds();
+        this.flusher = executor.scheduleWithFixedDelay(this::flush, fsyncIntervalMicros, fsyncIntervalMicros, TimeUnit.MICROSECONDS);
+        long compactionIntervalMs = configuration.getCompactionInterval().toMilliseconds();
+        this.compactor = executor.scheduleWithFixedDelay(this::compactQuietly, compactionIntervalMs, compactionIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Optional<V> getById(K key) {
+        return Optional.ofNullable(index.get(key)).map(this::valueAt);
+    }
+
+    @Override
+    public Optional<Versioned<V>> getVersionedById(K key) {
+        return Optional.ofNullable(index.get(key)).map(location -> Versioned.of(valueAt(location), location.version()));
+    }
+
+    @Override
+    public Map<K, V> getByIds(Collection<? extends K> keys) {
+        Map<K, V> values = new LinkedHashMap<>();
+        getVersionedByIds(keys).forEach((key, versioned) -> values.put(key, versioned.value()));
+        return values;
+    }
+
+    @Override
+    public Map<K, Versioned<V>> getVersionedByIds(Collection<? extends K> keys) {
+        Map<K, Versioned<V>> values = new LinkedHashMap<>();
+        for (K key : keys) {
+            getVersionedById(key).ifPresent(versioned -> values.put(key, versioned));
+        }
+        return values;
+    }
+
+    @Override
+    public Versioned<V> updateVersioned(K key, String indexValue, long expectedVersion, UnaryOperator<V> updateOperation) {
+        Versioned<V> result;
+        long seq;
+        writeLock.lock();
+        try {
+            checkOpen();
+            Location current = index.get(key);
+            if (expectedVersion != Versioned.ANY_VERSION && (current == null || current.version() != expectedVersion)) {
+                throw new VersionConflictException("%s %s is no longer at version %d".formatted(payloadKlass.getSimpleName(), key, expectedVersion));
+            }
+            // like the database stores, a key without a value sees the value holding the unique index value, if any
+            V currentValue = current == null ? holderOf(indexValue) : valueAt(current);
+            V newValue = updateOperation.apply(currentValue);
+            if (newValue == null) {
+                if (current == null) {
+                    return Versioned.absent();
+                }
+                Location tombstone = append(DELETE, key, current.version() + 1, NO_PAYLOAD);
+                index.remove(key);
+                current.segment().addLiveBytes(-current.length());
+                removeFromIndexes(key, currentValue);
+                seq = tombstone.seq();
+                result = Versioned.absent();
+            } else {
+                rejectUniqueIndexConflicts(key, newValue);
+                long version = current == null ? 1L : current.version() + 1;
+                Location written = append(PUT, key, version, serializer.serialize(newValue));
+                index.put(key, written);
+                written.segment().addLiveBytes(written.length());
+                if (current != null) {
+                    current.segment().addLiveBytes(-current.length());
+                    removeFromIndexes(key, currentValue);
+                }
+                addToIndexes(key, newValue);
+                seq = written.seq();
+                result = Versioned.of(newValue, version);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        // waiting outside of the lock lets the writes arriving meanwhile share the same fsync
+        if (durableWrites) {
+            awaitDurable(seq);
+        }
+        return result;
+    }
+
+    private V holderOf(String indexValue) {
+        if (uniqueIndexField == null || indexValue == null) {
+            return null;
+        }
+        NavigableSet<K> holders = valueIndexes.get(uniqueIndexField.fieldName()).get(indexValue);
+        if (holders == null || holders.isEmpty()) {
+            return null;
+        }
+        return getById(holders.first()).orElse(null);
+    }
+
+    private void rejectUniqueIndexConflicts(K key, V value) {
+        for (IndexColumn<V, ?> uniqueIndex : uniqueIndexes) {
+            Object indexValue = uniqueIndex.extract(value);
+            NavigableSet<K> holders = indexValue == null ? null : valueIndexes.get(uniqueIndex.name()).get(indexValue);
+            if (holders != null && holders.stream().anyMatch(holder -> !holder.equals(key))) {
+                throw new EntityAlreadyExistsException("%s already exists".formatted(payloadKlass.getSimpleName()));
+            }
+        }
+    }
+
+    private void addToIndexes(K key, V value) {
+        indexesByName.forEach((indexName, column) -> {
+            Object indexValue = column.extract(value);
+            if (indexValue != null) {
+                valueIndexes.get(indexName).computeIfAbsent(indexValue, ignored -> new ConcurrentSkipListSet<>()).add(key);
+            }
+        });
+    }
+
+    private void removeFromIndexes(K key, V value) {
+        indexesByName.forEach((indexName, column) -> {
+            Object indexValue = column.extract(value);
+            if (indexValue != null) {
+                valueIndexes.get(indexName).computeIfPresent(indexValue, (ignored, keys) -> {
+                    keys.remove(key);
+                    return keys.isEmpty() ? null : keys;
+                });
+            }
+        });
+    }
+
+    // must hold the write lock
+    private Location append(byte type, K key, long version, byte[] payload) {
+        long seq = nextSeq++;
+        byte[] record = encode(type, seq, version, keyCodec.encode(key), payload);
+        if (record.length > segmentSize) {
+            throw new DatabaseException("%s %s takes %d bytes, more than a whole segment".formatted(payloadKlass.getSimpleName(), key, record.length), null);
+        }
+        if (!activeSegment.fits(record.length)) {
+            sealedSegments.add(activeSegment);
+            activeSegment = LogSegment.create(directory, nextSegmentId.getAndIncrement(), segmentSize);
+            writeManifest();
+        }
+        int offset = activeSegment.append(record);
+        unflushedSegments.add(activeSegment);
+        appendedSeq = seq;
+        return new Location(activeSegment, offset, record.length, seq, version);
+    }
+
+    private static byte[] encode(byte type, long seq, long version, byte[] key, byte[] payload) {
+        int length = HEADER_SIZE + key.length + payload.length;
+        ByteBuffer buffer = ByteBuffer.allocate(length)
+                                      .putInt(length)
+                                      .putInt(0)
+                                      .put(type)
+                                      .putLong(seq)
+                                      .putLong(version)
+                                      .putInt(key.length)
+                                      .put(key)
+                                      .put(payload);
+        buffer.putInt(CRC_OFFSET, checksum(buffer.array()));
+        return buffer.array();
+    }
+
+    private static int checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, TYPE_OFFSET, record.length - TYPE_OFFSET);
+        return (int) crc.getValue();
+    }
+
+    private V valueAt(Location location) {
+        LogSegment segment = location.segment();
+        int payloadStart = HEADER_SIZE + segment.readInt(location.offset() + KEY_LENGTH_OFFSET);
+        return serializer.deserialize(segment.read(location.offset() + payloadStart, location.length() - payloadStart));
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new DatabaseException("Log store %s is closed".formatted(storeName), null);
+        }
+    }
+
+    private void awaitDurable(long seq) {
+        synchronized (durableMonitor) {
+            while (durableSeq < seq) {
+                checkOpen();
+                try {
+                    durableMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DatabaseException("Interrupted while waiting for the log to be flushed", e);
+                }
+            }
+        }
+    }
+
+    private void flush() {
+        List<LogSegment> segments;
+        long flushedSeq;
+        writeLock.lock();
+        try {
+            if (unflushedSegments.isEmpty()) {
+                return;
+            }
+            segments = List.copyOf(unflushedSegments);
+            unflushedSegments.clear();
+            flushedSeq = appendedSeq;
+        } finally {
+            writeLock.unlock();
+        }
+        try (Timer.Context ignored = fsyncTime.time()) {
+            segments.forEach(LogSegment::force);
+        } catch (RuntimeException e) {
+            // the writers keep waiting and the next run tries again
+            LOGGER.error("Can't flush log store {}", storeName, e);
+            writeLock.lock();
+            try {
+                unflushedSegments.addAll(segments);
+            } finally {
+                writeLock.unlock();
+            }
+            return;
+        }
+        synchronized (durableMonitor) {
+            fsyncBatchSizes.update(flushedSeq - durableSeq);
+            durableSeq = flushedSeq;
+            durableMonitor.notifyAll();
+        }
+    }
+
+    @Override
+    public List<V> getAll(int offset, int limit) {
+        return index.values().stream()
+                    .skip(offset)
+                    .limit(limit)
+                    .map(this::valueAt)
+                    .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<V> getAllAfter(K afterKey, int limit) {
+        NavigableMap<K, Location> after = afterKey == null ? index : index.tailMap(afterKey, false);
+        return after.values().stream()
+                    .limit(limit)
+                    .map(this::valueAt)
+                    .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<V> getByIndex(String indexName, Object value, int limit) {
+        IndexColumn<V, ?> column = indexesByName.get(indexName);
+        if (column == null) {
+            throw new IllegalArgumentException("Store %s has no index %s".formatted(storeName, indexName));
+        }
+        NavigableSet<K> keys = value == null ? null : valueIndexes.get(indexName).get(value);
+        if (keys == null) {
+            return List.of();
+        }
+        List<V> values = new ArrayList<>();
+        for (K key : keys) {
+            if (values.size() == limit) {
+                break;
+            }
+            // the value index is updated after the key index, so a concurrent write may have moved the key on already
+            getById(key).filter(current -> value.equals(column.extract(current)))
+                        .ifPresent(values::add);
+        }
+        return values;
+    }
+
+    // everything is in memory already, so there are no chunks to read nor anything to close
+    @Override
+    public Stream<V> stream(int chunkSize) {
+        return index.values().stream().map(this::valueAt);
+    }
+
+    // merges the flushed sealed segments into new ones holding only the live records, then drops the old files. A record
+    // left out because a newer one replaced it may still be the latest durable version of its key, when the newer one
+    // sits in a segment that isn't flushed yet: everything appended so far is flushed before the old files are dropped,
+    // and the compaction is given up if it can't be. Tombstones can go as well: the records they delete are older, so
+    // they were flushed before them and are in the merged segments too
+    public void compact() {
+        synchronized (compactionMonitor) {
+            List<LogSegment> candidates;
+            writeLock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                // segments waiting for their fsync are left for the next compaction
+                candidates = sealedSegments.stream().filter(segment -> !unflushedSegments.contains(segment)).collect(Collectors.toList());
+            } finally {
+                writeLock.unlock();
+            }
+            long totalBytes = candidates.stream().mapToLong(LogSegment::writePosition).sum();
+            long liveBytes = candidates.stream().mapToLong(LogSegment::liveBytes).sum();
+            if (totalBytes == 0 || totalBytes - liveBytes < compactionGarbageRatio * totalBytes) {
+                return;
+            }
+            Set<LogSegment> compacting = Collections.newSetFromMap(new IdentityHashMap<>());
+            compacting.addAll(candidates);
+            Map<K, Move> moves = new HashMap<>();
+            List<LogSegment> merged = new ArrayList<>();
+            LogSegment output = null;
+            for (Map.Entry<K, Location> entry : index.entrySet()) {
+                Location from = entry.getValue();
+                if (!compacting.contains(from.segment())) {
+                    continue;
+                }
+                byte[] record = from.segment().read(from.offset(), from.length());
+                if (output == null || !output.fits(record.length)) {
+                    output = LogSegment.create(directory, nextSegmentId.getAndIncrement(), segmentSize);
+                    merged.add(output);
+                }
+                int offset = output.append(record);
+                moves.put(entry.getKey(), new Move(from, new Location(output, offset, from.length(), from.seq(), from.version())));
+            }
+            merged.forEach(LogSegment::force);
+            long replacedUpTo;
+            writeLock.lock();
+            try {
+                replacedUpTo = appendedSeq;
+            } finally {
+                writeLock.unlock();
+            }
+            // a key written from now on keeps its copy in the merged segments: the swap below leaves it there
+            if (!flushUpTo(replacedUpTo)) {
+                LOGGER.warn("Giving up the compaction of log store {}, the records replacing the compacted ones aren't flushed", storeName);
+                merged.forEach(LogSegment::delete);
+                return;
+            }
+            writeLock.lock();
+            try {
+                // keys written while merging already point at a newer record, their copy is garbage
+                moves.forEach((key, move) -> {
+                    if (index.replace(key, move.from(), move.to())) {
+                        move.to().segment().addLiveBytes(move.to().length());
+                    }
+                });
+                sealedSegments.removeAll(candidates);
+                sealedSegments.addAll(merged);
+                writeManifest();
+            } finally {
+                writeLock.unlock();
+            }
+            candidates.forEach(LogSegment::delete);
+            LOGGER.info("Compacted {} segments of log store {} into {} ({} of {} bytes were live)", candidates.size(), storeName, merged.size(),
+                        liveBytes, totalBytes);
+        }
+    }
+
+    // flushes now rather than waiting for the flusher, which may be in the middle of a flush already, hence the wait
+    private boolean flushUpTo(long seq) {
+        flush();
+        long deadline = System.nanoTime() + FLUSH_WAIT_NANOS;
+        synchronized (durableMonitor) {
+            while (durableSeq < seq) {
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs <= 0) {
+                    return false;
+                }
+                try {
+                    durableMonitor.wait(remainingMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (RuntimeException e) {
+            LOGGER.error("Compaction of log store {} failed", storeName, e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        synchronized (compactionMonitor) {
+            flusher.cancel(false);
+            compactor.cancel(false);
+            flush();
+            writeLock.lock();
+            try {
+                closed = true;
+                sealedSegments.forEach(LogSegment::close);
+                activeSegment.close();
+            } finally {
+                writeLock.unlock();
+            }
+            synchronized (durableMonitor) {
+                durableMonitor.notifyAll();
+            }
+        }
+    }
+
+    private void recover() {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new DatabaseException("Can't create the directory of log store " + storeName, e);
+        }
+        Manifest manifest = readManifest();
+        deleteUnlistedSegments(manifest);
+        Map<K, Long> deletedAt = new HashMap<>();
+        for (long id : manifest.sealed()) {
+            LogSegment segment = LogSegment.open(directory.resolve(LogSegment.fileName(id)), id);
+            replay(segment, deletedAt);
+            sealedSegments.add(segment);
+        }
+        if (manifest.active() == null) {
+            activeSegment = LogSegment.create(directory, manifest.maxId() + 1, segmentSize);
+        } else {
+            activeSegment = LogSegment.open(directory.resolve(LogSegment.fileName(manifest.active())), manifest.active());
+            replay(activeSegment, deletedAt);
+        }
+        nextSegmentId.set(Math.max(manifest.maxId(), activeSegment.id()) + 1);
+        writeManifest();
+        durableSeq = appendedSeq;
+        nextSeq = appendedSeq + 1;
+        if (!indexesByName.isEmpty()) {
+            index.forEach((key, location) -> addToIndexes(key, valueAt(location)));
+        }
+        LOGGER.info("Recovered {} keys of log store {} from {} segments", index.size(), storeName, sealedSegments.size() + 1);
+    }
+
+    // records are applied by sequence number and not by position, merged segments hold records of any age
+    private void replay(LogSegment segment, Map<K, Long> deletedAt) {
+        int position = 0;
+        while (position + HEADER_SIZE <= segment.capacity()) {
+            int length = segment.readInt(position);
+            if (length == 0) {
+                break;
+            }
+            byte[] record = length >= HEADER_SIZE && position + length <= segment.capacity() ? segment.read(position, length) : null;
+            if (record == null || ByteBuffer.wrap(record).getInt(CRC_OFFSET) != checksum(record)) {
+                // a write torn by a crash, nothing after it was acknowledged
+                LOGGER.warn("Discarding the tail of {} of log store {} from offset {}", LogSegment.fileName(segment.id()), storeName, position);
+                segment.zero(position);
+                break;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            long seq = buffer.getLong(SEQ_OFFSET);
+            K key = keyCodec.decode(Arrays.copyOfRange(record, HEADER_SIZE, HEADER_SIZE + buffer.getInt(KEY_LENGTH_OFFSET)));
+            Location current = index.get(key);
+            Long deletedSeq = deletedAt.get(key);
+            if ((current == null || current.seq() < seq) && (deletedSeq == null || deletedSeq < seq)) {
+                if (current != null) {
+                    current.segment().addLiveBytes(-current.length());
+                }
+                if (buffer.get(TYPE_OFFSET) == PUT) {
+                    index.put(key, new Location(segment, position, length, seq, buffer.getLong(VERSION_OFFSET)));
+                    segment.addLiveBytes(length);
+                    deletedAt.remove(key);
+                } else {
+                    index.remove(key);
+                    deletedAt.put(key, seq);
+                }
+            }
+            appendedSeq = Math.max(appendedSeq, seq);
+            position += length;
+        }
+        segment.setWritePosition(position);
+    }
+
+    private Manifest readManifest() {
+        Path path = directory.resolve(MANIFEST);
+        if (!Files.exists(path)) {
+            return new Manifest(List.of(), null);
+        }
+        try {
+            List<Long> sealed = new ArrayList<>();
+            Long active = null;
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                String[] parts = line.split(" ");
+                if (parts[0].equals(SEALED)) {
+                    sealed.add(Long.parseLong(parts[1]));
+                } else if (parts[0].equals(ACTIVE)) {
+                    active = Long.parseLong(parts[1]);
+                }
+            }
+            return new Manifest(sealed, active);
+        } catch (IOException | RuntimeException e) {
+            throw new DatabaseException("Can't read the manifest of log store " + storeName, e);
+        }
+    }
+
+    // segments a crash left behind before they made it into the manifest (or after they were dropped from it)
+    private void deleteUnlistedSegments(Manifest manifest) {
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, LogSegment.FILE_PREFIX + "*" + LogSegment.FILE_SUFFIX)) {
+            for (Path segment : segments) {
+                if (!manifest.lists(LogSegment.idOf(segment))) {
+                    LOGGER.info("Deleting unlisted segment {} of log store {}", segment.getFileName(), storeName);
+                    Files.delete(segment);
+                }
+            }
+        } catch (IOException e) {
+            throw new DatabaseException("Can't list the segments of log store " + storeName, e);
+        }
+    }
+
+    // written aside and renamed, so a crash leaves either the old or the new list of segments
+    private void writeManifest() {
+        StringBuilder content = new StringBuilder();
+        sealedSegments.forEach(segment -> content.append(SEALED).append(' ').append(segment.id()).append('\n'));
+        content.append(ACTIVE).append(' ').append(activeSegment.id()).append('\n');
+        Path temporary = directory.resolve(MANIFEST + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.write(ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8)));
+                channel.force(true);
+            }
+            Files.move(temporary, directory.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new DatabaseException("Can't write the manifest of log store " + storeName, e);
+        }
+    }
+
+    private record Location(LogSegment segment, int offset, int length, long seq, long version) {}
+
+    private record Move(Location from, Location to) {}
+
+    private record Manifest(List<Long> sealed, Long active) {
+
+        boolean lists(long id) {
+            return sealed.contains(id) || Long.valueOf(id).equals(active);
+        }
+
+        long maxId() {
+            long maxId = active == null ? -1L : active;
+            for (long id : sealed) {
+                maxId = Math.max(maxId, id);
+            }
+            return maxId;
+        }
+    }
+}
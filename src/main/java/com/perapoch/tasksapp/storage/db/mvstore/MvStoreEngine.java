@@ -0,0 +1,65 @@
+package com.perapoch.tasksapp.storage.db.mvstore;
+
+import com.perapoch.tasksapp.storage.MvStoreConfiguration;
+import com.perapoch.tasksapp.storage.db.DatabaseException;
+import io.dropwizard.lifecycle.Managed;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.db.TransactionStore;
+import ru.vyarus.dropwizard.guice.module.installer.scanner.InvisibleForScanner;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// The MVStore (and its transaction store) shared by every store configured to use it
+@InvisibleForScanner
+public class MvStoreEngine implements Managed {
+
+    private static final long BYTES_PER_MB = 1024L * 1024L;
+
+    private final MVStore mvStore;
+    private final TransactionStore transactionStore;
+    private final boolean durableWrites;
+
+    public MvStoreEngine(MvStoreConfiguration configuration) {
+        MVStore.Builder builder = new MVStore.Builder()
+          .cacheSize(Math.toIntExact(Math.max(1L, configuration.getCacheSize().toBytes() / BYTES_PER_MB)));
+        if (configuration.getFile() != null) {
+            createParentDirectories(Path.of(configuration.getFile()));
+            builder.fileName(configuration.getFile());
+        }
+        this.mvStore = builder.open();
+        this.mvStore.setAutoCommitDelay(Math.toIntExact(configuration.getAutoCommitDelay().toMilliseconds()));
+        this.transactionStore = new TransactionStore(mvStore);
+        // rolls back whatever was left open by a crash
+        this.transactionStore.init();
+        this.durableWrites = configuration.isDurableWrites();
+    }
+
+    private static void createParentDirectories(Path file) {
+        Path parent = file.toAbsolutePath().getParent();
+        try {
+            Files.createDirectories(parent);
+        } catch (IOException e) {
+            throw new DatabaseException("Can't create the directory of MVStore file " + file, e);
+        }
+    }
+
+    TransactionStore.Transaction begin() {
+        return transactionStore.begin();
+    }
+
+    // called once a write transaction has committed
+    void written() {
+        if (durableWrites) {
+            mvStore.commit();
+            mvStore.sync();
+        }
+    }
+
+    @Override
+    public void stop() {
+        transactionStore.close();
+        mvStore.close();
+    }
+}
@@ -0,0 +1,318 @@
+package com.perapoch.tasksapp.storage.db.mvstore;
+
+import com.perapoch.tasksapp.storage.db.DatabaseException;
+import com.perapoch.tasksapp.storage.db.EntityAlreadyExistsException;
+import com.perapoch.tasksapp.storage.db.IndexColumn;
+import com.perapoch.tasksapp.storage.db.KeyValueStore;
+import com.perapoch.tasksapp.storage.db.StoreOptions;
+import com.perapoch.tasksapp.storage.db.StringUniqueIndexColumn;
+import com.perapoch.tasksapp.storage.db.VersionConflictException;
+import com.perapoch.tasksapp.storage.db.Versioned;
+import com.perapoch.tasksapp.storage.db.codec.PayloadSerializer;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.db.TransactionStore.Transaction;
+import org.h2.mvstore.db.TransactionStore.TransactionMap;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// A store kept in MVStore transaction maps instead of SQL tables: rows are [long version][payload] values of a map named
+// after the table, unique indexes are maps of index value -> key and non-unique ones are maps of "value\0key" -> key,
+// scanned by prefix. Reads and writes are plain map calls in a transaction, so there's no SQL to parse nor plan.
+// Sharding, replica reads and group commit don't apply
+public class MvStoreKeyValueStore<K, V> implements KeyValueStore<K, V> {
+
+    private static final int LOCK_STRIPES = 64;
+    private static final int MAX_ATTEMPTS = 10;
+    private static final char INDEX_KEY_SEPARATOR = '\0';
+
+    private final MvStoreEngine engine;
+    private final String mapName;
+    private final Class<K> keyKlass;
+    private final Class<V> payloadKlass;
+    private final PayloadSerializer<V> serializer;
+    private final StringUniqueIndexColumn<V> uniqueIndexField;
+    private final Map<String, IndexColumn<V, ?>> indexesByName;
+    // single key updates of the same key are serialised here, so their read-modify-write can't lose updates
+    private final ReentrantLock[] keyLocks;
+
+    public MvStoreKeyValueStore(MvStoreEngine engine, String mapName, Class<K> keyKlass, Class<V> payloadKlass, StoreOptions<V> options,
+                                PayloadSerializer<V> serializer) {
+        this.engine = engine;
+        this.mapName = mapName;
+        this.keyKlass = keyKlass;
+        this.payloadKlass = payloadKlass;
+        this.serializer = serializer;
+        this.uniqueIndexField = options.uniqueIndexColumn();
+        this.indexesByName = new HashMap<>();
+        options.maybeUniqueIndexColumn().ifPresent(index -> indexesByName.put(index.fieldName(), index.toIndexColumn()));
+        options.indexes().forEach(index -> indexesByName.put(index.name(), index));
+        this.keyLocks = new ReentrantLock[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            keyLocks[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public Optional<V> getById(K key) {
+        return getVersionedById(key).map(Versioned::value);
+    }
+
+    @Override
+    public Optional<Versioned<V>> getVersionedById(K key) {
+        return read(transaction -> Optional.ofNullable(this.<K, byte[]>rows(transaction).get(key)).map(this::decode));
+    }
+
+    @Override
+    public Map<K, V> getByIds(Collection<? extends K> keys) {
+        Map<K, V> values = new LinkedHashMap<>();
+        getVersionedByIds(keys).forEach((key, versioned) -> values.put(key, versioned.value()));
+        return values;
+    }
+
+    @Override
+    public Map<K, Versioned<V>> getVersionedByIds(Collection<? extends K> keys) {
+        return read(transaction -> {
+            TransactionMap<K, byte[]> rows = rows(transaction);
+            Map<K, Versioned<V>> values = new LinkedHashMap<>();
+            for (K key : keys) {
+                byte[] row = rows.get(key);
+                if (row != null) {
+                    values.put(key, decode(row));
+                }
+            }
+            return values;
+        });
+    }
+
+    @Override
+    public Versioned<V> updateVersioned(K key, String indexValue, long expectedVersion, UnaryOperator<V> updateOperation) {
+        ReentrantLock keyLock = keyLocks[Math.floorMod(key.hashCode(), LOCK_STRIPES)];
+        keyLock.lock();
+        try {
+            for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+                Transaction transaction = engine.begin();
+                try {
+                    Versioned<V> result = update(transaction, key, indexValue, expectedVersion, updateOperation);
+                    transaction.commit();
+                    engine.written();
+                    return result;
+                } catch (IllegalStateException e) {
+                    transaction.rollback();
+                    // an index entry is being written by another key's uncommitted transaction, the operation runs again
+                    if (DataUtils.getErrorCode(e.getMessage()) != DataUtils.ERROR_TRANSACTION_LOCKED) {
+                        throw new DatabaseException("Can't update %s %s".formatted(payloadKlass.getSimpleName(), key), e);
+                    }
+                } catch (RuntimeException e) {
+                    transaction.rollback();
+                    throw e;
+                }
+            }
+            throw new VersionConflictException("Gave up updating %s %s after %d concurrent modifications".formatted(payloadKlass.getSimpleName(), key,
+                                                                                                                  MAX_ATTEMPTS));
+        } finally {
+            keyLock.unlock();
+        }
+    }
+
+    private Versioned<V> update(Transaction transaction, K key, String indexValue, long expectedVersion, UnaryOperator<V> updateOperation) {
+        TransactionMap<K, byte[]> rows = rows(transaction);
+        byte[] row = rows.get(key);
+        boolean exists = row != null;
+        if (!exists && uniqueIndexField != null && indexValue != null) {
+            // like the database stores, a key without a row sees the row holding the unique index value, if any
+            K holder = this.<Object, K>indexEntries(transaction, uniqueIndexField.fieldName()).get(indexValue);
+            row = holder == null ? null : rows.get(holder);
+        }
+        Versioned<V> current = row == null ? Versioned.absent() : decode(row);
+        if (expectedVersion != Versioned.ANY_VERSION && (!exists || current.version() != expectedVersion)) {
+            throw new VersionConflictException("%s %s is no longer at version %d".formatted(payloadKlass.getSimpleName(), key, expectedVersion));
+        }
+        V currentValue = exists ? current.value() : null;
+        V result = updateOperation.apply(current.value());
+        if (result == null) {
+            if (exists) {
+                rows.remove(key);
+                updateIndexEntries(transaction, key, currentValue, null);
+            }
+            return Versioned.absent();
+        }
+        updateIndexEntries(transaction, key, currentValue, result);
+        long version = exists ? current.version() + 1 : 1L;
+        rows.put(key, encode(version, result));
+        return Versioned.of(result, version);
+    }
+
+    private void updateIndexEntries(Transaction transaction, K key, V oldValue, V newValue) {
+        for (IndexColumn<V, ?> index : indexesByName.values()) {
+            Object oldIndexValue = index.extract(oldValue);
+            Object newIndexValue = index.extract(newValue);
+            if (Objects.equals(oldIndexValue, newIndexValue)) {
+                continue;
+            }
+            TransactionMap<Object, K> entries = indexEntries(transaction, index.name());
+            if (oldIndexValue != null) {
+                entries.remove(indexEntryKey(index, oldIndexValue, key));
+            }
+            if (newIndexValue != null) {
+                if (index.unique()) {
+                    K holder = entries.get(newIndexValue);
+                    if (holder != null && !holder.equals(key)) {
+                        throw new EntityAlreadyExistsException("%s already exists".formatted(payloadKlass.getSimpleName()));
+                    }
+                }
+                entries.put(indexEntryKey(index, newIndexValue, key), key);
+            }
+        }
+    }
+
+    private Object indexEntryKey(IndexColumn<V, ?> index, Object indexValue, K key) {
+        return index.unique() ? indexValue : indexEntryPrefix(indexValue) + sortableKey(key);
+    }
+
+    private static String indexEntryPrefix(Object indexValue) {
+        return String.valueOf(indexValue) + INDEX_KEY_SEPARATOR;
+    }
+
+    // entries of a non-unique index sort by their key, so numeric keys are written in a fixed width that sorts like the number
+    private String sortableKey(K key) {
+        if (keyKlass == Long.class) {
+            return "%016x".formatted((Long) key ^ Long.MIN_VALUE);
+        }
+        return key.toString();
+    }
+
+    @Override
+    public List<V> getAll(int offset, int limit) {
+        return read(transaction -> values(rows(transaction), null, offset, limit));
+    }
+
+    @Override
+    public List<V> getAllAfter(K afterKey, int limit) {
+        return read(transaction -> {
+            TransactionMap<K, byte[]> rows = rows(transaction);
+            // the iteration starts at afterKey itself, if it is still there
+            int skip = afterKey != null && rows.get(afterKey) != null ? 1 : 0;
+            return values(rows, afterKey, skip, limit);
+        });
+    }
+
+    private List<V> values(TransactionMap<K, byte[]> rows, K from, int skip, int limit) {
+        List<V> values = new ArrayList<>();
+        Iterator<K> keys = rows.keyIterator(from);
+        for (int skipped = 0; skipped < skip && keys.hasNext(); skipped++) {
+            keys.next();
+        }
+        while (values.size() < limit && keys.hasNext()) {
+            byte[] row = rows.get(keys.next());
+            if (row != null) {
+                values.add(decode(row).value());
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public List<V> getByIndex(String indexName, Object value, int limit) {
+        IndexColumn<V, ?> index = indexesByName.get(indexName);
+        if (index == null) {
+            throw new IllegalArgumentException("Store %s has no index %s".formatted(mapName, indexName));
+        }
+        if (value == null) {
+            return List.of();
+        }
+        return read(transaction -> {
+            TransactionMap<K, byte[]> rows = rows(transaction);
+            TransactionMap<Object, K> entries = indexEntries(transaction, indexName);
+            List<K> keys = new ArrayList<>();
+            if (index.unique()) {
+                Optional.ofNullable(entries.get(value)).ifPresent(keys::add);
+            } else {
+                String prefix = indexEntryPrefix(value);
+                Iterator<Object> entryKeys = entries.keyIterator(prefix);
+                while (keys.size() < limit && entryKeys.hasNext()) {
+                    Object entryKey = entryKeys.next();
+                    if (!entryKey.toString().startsWith(prefix)) {
+                        break;
+                    }
+                    keys.add(entries.get(entryKey));
+                }
+            }
+            List<V> values = new ArrayList<>(keys.size());
+            for (K key : keys.subList(0, Math.min(limit, keys.size()))) {
+                byte[] row = rows.get(key);
+                if (row != null) {
+                    values.add(decode(row).value());
+                }
+            }
+            return values;
+        });
+    }
+
+    // the transaction is kept open (and the snapshot it reads stable) until the stream is closed
+    @Override
+    public Stream<V> stream(int chunkSize) {
+        Transaction transaction = engine.begin();
+        try {
+            TransactionMap<K, byte[]> rows = rows(transaction);
+            Iterator<K> keys = rows.keyIterator(null);
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(keys, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                                .map(rows::get)
+                                .filter(Objects::nonNull)
+                                .map(row -> decode(row).value())
+                                .onClose(transaction::commit);
+        } catch (RuntimeException e) {
+            transaction.rollback();
+            throw e;
+        }
+    }
+
+    // reads run in a transaction of their own, which sees the committed data as of its start
+    private <T> T read(Function<Transaction, T> reader) {
+        Transaction transaction = engine.begin();
+        try {
+            return reader.apply(transaction);
+        } finally {
+            transaction.commit();
+        }
+    }
+
+    private <MK, MV> TransactionMap<MK, MV> rows(Transaction transaction) {
+        return transaction.openMap(mapName);
+    }
+
+    private <MK, MV> TransactionMap<MK, MV> indexEntries(Transaction transaction, String indexName) {
+        return transaction.openMap(mapName + "_idx_" + indexName);
+    }
+
+    private byte[] encode(long version, V value) {
+        byte[] payload = serializer.serialize(value);
+        return ByteBuffer.allocate(Long.BYTES + payload.length)
+                         .putLong(version)
+                         .put(payload)
+                         .array();
+    }
+
+    private Versioned<V> decode(byte[] row) {
+        ByteBuffer buffer = ByteBuffer.wrap(row);
+        long version = buffer.getLong();
+        byte[] payload = new byte[buffer.remaining()];
+        buffer.get(payload);
+        return Versioned.of(serializer.deserialize(payload), version);
+    }
+}
@@ -0,0 +1,123 @@
+package com.perapoch.tasksapp.storage.db.schema;
+
+import com.perapoch.tasksapp.storage.db.DatabaseException;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+public class SchemaManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(SchemaManager.class);
+    public static final String SCHEMA_VERSION_TABLE = "schema_version";
+    public static final String SHARD_LAYOUT_TABLE = "shard_layout";
+
+    private final Jdbi jdbi;
+    private final List<SchemaMigration> migrations;
+
+    public SchemaManager(Jdbi jdbi) {
+        this(jdbi, SchemaMigrations.ALL);
+    }
+
+    public SchemaManager(Jdbi jdbi, List<SchemaMigration> migrations) {
+        this.jdbi = jdbi;
+        this.migrations = migrations;
+        jdbi.useHandle(handle -> handle.execute("create table if not exists %s (store_name varchar(100) primary key, version int not null)"
+                                                  .formatted(SCHEMA_VERSION_TABLE)));
+    }
+
+    public synchronized int migrate(StoreSchema schema) {
+        try (Handle handle = jdbi.open()) {
+            int currentVersion = handle.createQuery("select version from %s where store_name = ?".formatted(SCHEMA_VERSION_TABLE))
+                                       .bind(0, schema.tableName())
+                                       .mapTo(Integer.class)
+                                       .findOne()
+                                       .orElse(0);
+            for (SchemaMigration migration : migrations) {
+                if (migration.version() <= currentVersion) {
+                    continue;
+                }
+                // a step and its version bump commit together, so a failed step is applied again on the next start. H2 commits
+                // on every DDL statement though, which is why the statements must be idempotent as well
+                handle.useTransaction(transaction -> {
+                    migration.statementsFor(schema).forEach(transaction::execute);
+                    transaction.createUpdate("merge into %s (store_name, version) key (store_name) values (?, ?)".formatted(SCHEMA_VERSION_TABLE))
+                               .bind(0, schema.tableName())
+                               .bind(1, migration.version())
+                               .execute();
+                });
+                currentVersion = migration.version();
+                logger.info("Migrated store {} to version {} ({})", schema.tableName(), migration.version(), migration.description());
+            }
+            return currentVersion;
+        }
+    }
+
+    // declared secondary indexes are reconciled on every start instead of being versioned, so stores can add indexes
+    // without a new migration. Returns the columns that didn't exist yet and therefore still have to be backfilled
+    public synchronized List<SecondaryIndex> ensureSecondaryIndexes(StoreSchema schema) {
+        List<SecondaryIndex> createdColumns = new ArrayList<>();
+        try (Handle handle = jdbi.open()) {
+            for (SecondaryIndex index : schema.secondaryIndexes()) {
+                if (!columnExists(handle, schema.tableName(), index.column())) {
+                    handle.execute("alter table %s add column if not exists %s %s".formatted(schema.tableName(), index.column(), StoreSchema.sqlType(index.klass())));
+                    createdColumns.add(index);
+                    logger.info("Added index column {} to store {}", index.column(), schema.tableName());
+                }
+                // non unique indexes also hold the id so lookups come back in key order without a sort
+                handle.execute("create %s index if not exists %s on %s (%s)".formatted(index.unique() ? "unique" : "",
+                                                                                      index.indexName(schema.tableName()),
+                                                                                      schema.tableName(),
+                                                                                      index.unique() ? index.column() : index.column() + ", id"));
+            }
+        }
+        return createdColumns;
+    }
+
+    // like secondary indexes, the change table of a store with a change feed is created on start when it's missing
+    public synchronized void ensureChangeTable(StoreSchema schema) {
+        String changesTable = schema.changesTableName();
+        try (Handle handle = jdbi.open()) {
+            handle.execute("create table if not exists %s (seq bigint primary key, id %s not null, change_type tinyint not null, changed_at_ms bigint not null)"
+                             .formatted(changesTable, StoreSchema.sqlType(schema.keyKlass())));
+            handle.execute("create index if not exists idx_%1$s_changed_at_ms on %1$s (changed_at_ms)".formatted(changesTable));
+        }
+    }
+
+    // rows are never moved between shards, so a shard must always be opened at the same position of the same layout
+    public synchronized void checkShardLayout(String storeName, int shardIndex, int shardCount) {
+        try (Handle handle = jdbi.open()) {
+            handle.execute("create table if not exists %s (store_name varchar(100) primary key, shard_index int not null, shard_count int not null)"
+                             .formatted(SHARD_LAYOUT_TABLE));
+            Optional<ShardLayout> layout = handle.createQuery("select shard_index, shard_count from %s where store_name = ?".formatted(SHARD_LAYOUT_TABLE))
+                                                 .bind(0, storeName)
+                                                 .map((rs, ctx) -> new ShardLayout(rs.getInt("shard_index"), rs.getInt("shard_count")))
+                                                 .findOne();
+            if (layout.isEmpty()) {
+                handle.createUpdate("insert into %s (store_name, shard_index, shard_count) values (?, ?, ?)".formatted(SHARD_LAYOUT_TABLE))
+                      .bind(0, storeName)
+                      .bind(1, shardIndex)
+                      .bind(2, shardCount)
+                      .execute();
+            } else if (!layout.get().equals(new ShardLayout(shardIndex, shardCount))) {
+                throw new DatabaseException("Store %s was created as shard %d of %d, it can't be opened as shard %d of %d. Resharding is not supported"
+                                              .formatted(storeName, layout.get().shardIndex(), layout.get().shardCount(), shardIndex, shardCount), null);
+            }
+        }
+    }
+
+    private static boolean columnExists(Handle handle, String tableName, String column) {
+        return handle.createQuery("select count(*) from information_schema.columns where table_name = ? and column_name = ?")
+                     .bind(0, tableName.toUpperCase(Locale.ROOT))
+                     .bind(1, column.toUpperCase(Locale.ROOT))
+                     .mapTo(Integer.class)
+                     .one() > 0;
+    }
+
+    private record ShardLayout(int shardIndex, int shardCount) {}
+}
@@ -0,0 +1,11 @@
+package com.perapoch.tasksapp.storage.db.schema;
+
+import java.util.List;
+import java.util.function.Function;
+
+public record SchemaMigration(int version, String description, Function<StoreSchema, List<String>> statements) {
+
+    public List<String> statementsFor(StoreSchema schema) {
+        return statements.apply(schema);
+    }
+}
@@ -0,0 +1,33 @@
+package com.perapoch.tasksapp.storage.db.schema;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.perapoch.tasksapp.storage.db.schema.StoreSchema.sqlType;
+
+// Migrations applied in order to every key-value store. Statements must be idempotent, since tables created before
+// the schema_version table existed are migrated from version 0.
+public class SchemaMigrations {
+
+    private SchemaMigrations() {}
+
+    public static final List<SchemaMigration> ALL = List.of(
+      new SchemaMigration(1, "create table", SchemaMigrations::createTable),
+      new SchemaMigration(2, "add binary payload column", schema -> List.of(
+        "alter table %s add column if not exists payload_bin blob".formatted(schema.tableName()))),
+      new SchemaMigration(3, "add row version column", schema -> List.of(
+        "alter table %s add column if not exists row_version bigint default 0 not null".formatted(schema.tableName())))
+    );
+
+    private static List<String> createTable(StoreSchema schema) {
+        var columns = new StringBuilder("id %s primary key, payload text".formatted(sqlType(schema.keyKlass())));
+        if (schema.hasUniqueIndex()) {
+            // constraint names are unique per schema, not per table
+            columns.append(", %1$s %2$s, UNIQUE KEY unique_%3$s_%1$s (%1$s)".formatted(schema.uniqueIndexColumn(), sqlType(schema.uniqueIndexKlass()),
+                                                                                    schema.tableName()));
+        }
+        List<String> statements = new ArrayList<>();
+        statements.add("create table if not exists %s (%s)".formatted(schema.tableName(), columns));
+        return statements;
+    }
+}
@@ -0,0 +1,12 @@
+package com.perapoch.tasksapp.storage.db.schema;
+
+public record SecondaryIndex(String column, Class<?> klass, boolean unique) {
+
+    public static SecondaryIndex of(String column, Class<?> klass, boolean unique) {
+        return new SecondaryIndex(column, klass, unique);
+    }
+
+    public String indexName(String tableName) {
+        return "idx_%s_%s".formatted(tableName, column);
+    }
+}
@@ -0,0 +1,38 @@
+package com.perapoch.tasksapp.storage.db.schema;
+
+import java.util.List;
+
+public record StoreSchema(String tableName, Class<?> keyKlass, String uniqueIndexColumn, Class<?> uniqueIndexKlass,
+                          List<SecondaryIndex> secondaryIndexes) {
+
+    public static StoreSchema of(String tableName, Class<?> keyKlass) {
+        return new StoreSchema(tableName, keyKlass, null, null, List.of());
+    }
+
+    public static StoreSchema withUniqueIndex(String tableName, Class<?> keyKlass, String uniqueIndexColumn, Class<?> uniqueIndexKlass) {
+        return new StoreSchema(tableName, keyKlass, uniqueIndexColumn, uniqueIndexKlass, List.of());
+    }
+
+    public StoreSchema withSecondaryIndexes(List<SecondaryIndex> secondaryIndexes) {
+        return new StoreSchema(tableName, keyKlass, uniqueIndexColumn, uniqueIndexKlass, List.copyOf(secondaryIndexes));
+    }
+
+    public String changesTableName() {
+        return tableName + "_changes";
+    }
+
+    public boolean hasUniqueIndex() {
+        return uniqueIndexColumn != null;
+    }
+
+    public static String sqlType(Class<?> klass) {
+        if (klass.equals(Long.class)) {
+            return "bigint";
+        } else if (klass.equals(Integer.class)) {
+            return "int";
+        } else if (klass.equals(Boolean.class)) {
+            return "boolean";
+        }
+        return "varchar(100)";
+    }
+}
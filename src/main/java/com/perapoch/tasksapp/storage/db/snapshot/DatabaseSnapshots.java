@@ -0,0 +1,196 @@
+package com.perapoch.tasksapp.storage.db.snapshot;
+
+import com.perapoch.tasksapp.TaskAppConfiguration;
+import com.perapoch.tasksapp.storage.db.DatabaseException;
+import io.dropwizard.db.DataSourceFactory;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.h2.tools.DeleteDbFiles;
+import org.h2.tools.Restore;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.JdbiException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// Snapshots of the databases behind the JDBC stores, the main one and every shard. A snapshot is H2's BACKUP of each
+// database: a zip of its files taken without locking anything, consistent because H2 stops reusing file space while it
+// copies. Restoring unzips every database next to the current files and only then moves them into place, a file copy
+// instead of one write per row, so it needs the service stopped. Stores kept by the log-structured or MVStore engines have their own files and aren't included
+@Singleton
+public class DatabaseSnapshots {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseSnapshots.class);
+    private static final String MAIN_DATABASE = "main";
+    private static final String H2_URL_PREFIX = "jdbc:h2:";
+    private static final String FILE_SUFFIX = ".zip";
+    private static final DateTimeFormatter SNAPSHOT_NAME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneOffset.UTC);
+
+    private final Map<String, DataSourceFactory> databases;
+    private final Path directory;
+
+    @Inject
+    public DatabaseSnapshots(TaskAppConfiguration configuration) {
+        this.databases = new LinkedHashMap<>();
+        databases.put(MAIN_DATABASE, configuration.getDataSourceFactory());
+        List<DataSourceFactory> shards = configuration.getStorage().getSharding().getShards();
+        for (int i = 0; i < shards.size(); i++) {
+            databases.put(shardName(i), shards.get(i));
+        }
+        this.directory = Path.of(configuration.getStorage().getSnapshot().getDirectory());
+    }
+
+    private static String shardName(int shard) {
+        return "shard-" + shard;
+    }
+
+    // one snapshot at a time, H2 turns file space reuse back on as soon as a backup ends. Databases are copied one after
+    // the other, so a snapshot is consistent per database but not across shards
+    public synchronized Path snapshot() {
+        Path snapshot = directory.resolve(SNAPSHOT_NAME.format(Instant.now()));
+        try {
+            Files.createDirectories(snapshot);
+        } catch (IOException e) {
+            throw new DatabaseException("Can't create snapshot directory " + snapshot, e);
+        }
+        databases.forEach((name, database) -> {
+            Path file = snapshot.resolve(name + FILE_SUFFIX);
+            long startMs = System.currentTimeMillis();
+            try {
+                jdbiFor(database).useHandle(handle -> handle.execute("backup to ?", file.toString()));
+            } catch (JdbiException e) {
+                throw new DatabaseException("Can't snapshot the %s database".formatted(name), e);
+            }
+            LOGGER.info("Snapshot of the {} database written to {} in {} ms", name, file, System.currentTimeMillis() - startMs);
+        });
+        return snapshot;
+    }
+
+    public void restore(Path snapshot) {
+        // everything is checked before the first file is overwritten
+        Map<String, Path> databaseFiles = new LinkedHashMap<>();
+        databases.forEach((name, database) -> {
+            if (!Files.isRegularFile(snapshot.resolve(name + FILE_SUFFIX))) {
+                throw new DatabaseException("Snapshot %s has no %s database".formatted(snapshot, name), null);
+            }
+            databaseFiles.put(name, databaseFile(database.getUrl()));
+        });
+        if (Files.exists(snapshot.resolve(shardName(databases.size() - 1) + FILE_SUFFIX))) {
+            throw new DatabaseException("Snapshot %s was taken with more shards than the %d configured".formatted(snapshot, databases.size() - 1), null);
+        }
+        databases.forEach(DatabaseSnapshots::ensureNotInUse);
+        // every database is unzipped next to its files before any of them is replaced, so a broken zip or a full disk
+        // leaves the current databases as they were. Only the moves afterwards, renames within each directory, touch them
+        Map<String, Path> stagingDirectories = new LinkedHashMap<>();
+        try {
+            databaseFiles.forEach((name, databaseFile) -> stagingDirectories.put(name, unzip(snapshot, name, databaseFile)));
+        } catch (RuntimeException e) {
+            stagingDirectories.values().forEach(DatabaseSnapshots::deleteQuietly);
+            throw e;
+        }
+        List<String> replaced = new ArrayList<>();
+        stagingDirectories.forEach((name, stagingDirectory) -> {
+            Path databaseFile = databaseFiles.get(name);
+            try {
+                moveInPlace(stagingDirectory, databaseFile);
+            } catch (IOException | RuntimeException e) {
+                // the files already moved can't be put back. The unzipped ones are kept, they may be the only copy of the
+                // database that failed, and the message says which databases hold the snapshot
+                throw new DatabaseException("Can't move the %s database of snapshot %s into place from %s, the databases %s were already replaced and the rest weren't"
+                        .formatted(name, snapshot, stagingDirectory, replaced), e);
+            }
+            replaced.add(name);
+            LOGGER.info("The {} database restored from {}", name, snapshot);
+        });
+    }
+
+    private static Path unzip(Path snapshot, String name, Path databaseFile) {
+        long startMs = System.currentTimeMillis();
+        Path stagingDirectory;
+        try {
+            stagingDirectory = Files.createTempDirectory(databaseFile.toAbsolutePath().getParent(), ".restore-" + name + "-");
+        } catch (IOException e) {
+            throw new DatabaseException("Can't create a directory to unzip the %s database into".formatted(name), e);
+        }
+        try {
+            Restore.execute(snapshot.resolve(name + FILE_SUFFIX).toString(), stagingDirectory.toString(), databaseFile.getFileName().toString());
+        } catch (RuntimeException e) {
+            deleteQuietly(stagingDirectory);
+            throw new DatabaseException("Can't unzip the %s database of snapshot %s, no database was replaced".formatted(name, snapshot), e);
+        }
+        LOGGER.info("The {} database unzipped from {} in {} ms", name, snapshot, System.currentTimeMillis() - startMs);
+        return stagingDirectory;
+    }
+
+    private static void moveInPlace(Path stagingDirectory, Path databaseFile) throws IOException {
+        Path databaseDirectory = stagingDirectory.getParent();
+        DeleteDbFiles.execute(databaseDirectory.toString(), databaseFile.getFileName().toString(), true);
+        try (Stream<Path> files = Files.list(stagingDirectory)) {
+            for (Path file : files.toList()) {
+                Files.move(file, databaseDirectory.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.delete(stagingDirectory);
+    }
+
+    private static void deleteQuietly(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Can't delete {}", directory, e);
+        }
+    }
+
+    // an embedded H2 database locks its files while it's open, so this fails while the service is running
+    private static void ensureNotInUse(String name, DataSourceFactory database) {
+        try {
+            jdbiFor(database).useHandle(handle -> handle.execute("select 1"));
+        } catch (JdbiException e) {
+            throw new DatabaseException("Can't open the %s database, the service has to be stopped to restore it".formatted(name), e);
+        }
+    }
+
+    // a connection of its own instead of the pool: embedded H2 databases are shared by every connection of the process
+    private static Jdbi jdbiFor(DataSourceFactory database) {
+        return Jdbi.create(database.getUrl(), database.getUser(), database.getPassword());
+    }
+
+    // jdbc:h2:[file:]<path>[;settings]. Other kinds of databases (mem:, tcp:, ...) have no local files to restore
+    private static Path databaseFile(String url) {
+        if (!url.startsWith(H2_URL_PREFIX)) {
+            throw new DatabaseException("Only H2 databases can be restored, got " + url, null);
+        }
+        String location = url.substring(H2_URL_PREFIX.length());
+        int settings = location.indexOf(';');
+        if (settings >= 0) {
+            location = location.substring(0, settings);
+        }
+        if (location.startsWith("file:")) {
+            location = location.substring("file:".length());
+        } else if (location.matches("^[a-zA-Z]{2,}:.*")) {
+            throw new DatabaseException("Only embedded file databases can be restored, got " + url, null);
+        }
+        if (location.startsWith("~")) {
+            location = System.getProperty("user.home") + location.substring(1);
+        }
+        return Path.of(location);
+    }
+}
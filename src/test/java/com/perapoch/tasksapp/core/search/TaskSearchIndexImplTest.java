@@ -0,0 +1,104 @@
+package com.perapoch.tasksapp.core.search;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TaskSearchIndexImplTest {
+
+    // SUT
+    private TaskSearchIndexImpl searchIndex;
+
+    @BeforeEach
+    void init() {
+        searchIndex = new TaskSearchIndexImpl();
+    }
+
+    @Test
+    void search_shouldOnlyReturnTasksHoldingEveryQueryWord() {
+        // Given
+        searchIndex.index(1L, "Buy milk", 1L);
+        searchIndex.index(2L, "Buy bread", 1L);
+        searchIndex.index(3L, "Drink milk, then buy more", 1L);
+        // When
+        List<Long> taskIds = searchIndex.search("MILK buy", 10);
+        // Then
+        assertThat(taskIds).containsExactlyInAnyOrder(1L, 3L);
+        assertThat(searchIndex.search("buy cheese", 10)).isEmpty();
+        assertThat(searchIndex.search("  ,; ", 10)).isEmpty();
+    }
+
+    @Test
+    void search_shouldRankShorterAndRepeatedMatchesFirst() {
+        // Given
+        searchIndex.index(1L, "call the bank about the mortgage and the car loan", 1L);
+        searchIndex.index(2L, "call the bank", 1L);
+        searchIndex.index(3L, "bank bank bank: call them", 1L);
+        searchIndex.index(4L, "walk the dog", 1L);
+        // When
+        List<Long> taskIds = searchIndex.search("bank", 10);
+        // Then
+        assertThat(taskIds).containsExactly(3L, 2L, 1L);
+    }
+
+    @Test
+    void search_shouldKeepTheBestMatchesUpToTheLimitAndBreakTiesByTaskId() {
+        // Given
+        LongStream.rangeClosed(1L, 50L).forEach(taskId -> searchIndex.index(taskId, "task number " + taskId, 1L));
+        // When
+        List<Long> taskIds = searchIndex.search("task number", 3);
+        // Then
+        assertThat(taskIds).containsExactly(1L, 2L, 3L);
+    }
+
+    @Test
+    void index_shouldReplaceThePreviousDescription() {
+        // Given
+        searchIndex.index(1L, "Buy milk", 1L);
+        // When
+        searchIndex.index(1L, "Buy bread", 2L);
+        // Then
+        assertThat(searchIndex.search("milk", 10)).isEmpty();
+        assertThat(searchIndex.search("bread", 10)).containsExactly(1L);
+        assertThat(searchIndex.size()).isEqualTo(1);
+    }
+
+    @Test
+    void index_shouldIgnoreOlderVersions() {
+        // Given
+        searchIndex.index(1L, "Buy bread", 2L);
+        // When
+        searchIndex.index(1L, "Buy milk", 1L);
+        // Then
+        assertThat(searchIndex.search("milk", 10)).isEmpty();
+        assertThat(searchIndex.search("bread", 10)).containsExactly(1L);
+    }
+
+    @Test
+    void remove_shouldDropTheTaskFromEveryPostingList() {
+        // Given
+        searchIndex.index(1L, "Buy milk", 1L);
+        searchIndex.index(2L, "Buy bread", 1L);
+        // When
+        searchIndex.remove(1L);
+        // Then
+        assertThat(searchIndex.search("buy", 10)).containsExactly(2L);
+        assertThat(searchIndex.search("milk", 10)).isEmpty();
+        assertThat(searchIndex.size()).isEqualTo(1);
+    }
+
+    @Test
+    void search_shouldIntersectLongPostingLists() {
+        // Given
+        LongStream.rangeClosed(1L, 10_000L).forEach(taskId -> searchIndex.index(taskId, taskId % 7 == 0 ? "common rare" : "common", 1L));
+        // When
+        List<Long> taskIds = searchIndex.search("rare common", 10_000);
+        // Then
+        assertThat(taskIds).hasSize(10_000 / 7)
+                           .allMatch(taskId -> taskId % 7 == 0);
+    }
+}
@@ -0,0 +1,78 @@
+package com.perapoch.tasksapp.core.stats;
+
+import com.perapoch.tasksapp.core.task.Task;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.Stream;
+
+import static com.perapoch.tasksapp.core.stats.TaskStatsCounterImpl.BUCKET_MS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TaskStatsCounterImplTest {
+
+    private static final long NOW_MS = 100 * BUCKET_MS + 10L;
+
+    // SUT
+    private TaskStatsCounterImpl statsCounter;
+
+    @BeforeEach
+    void init() {
+        statsCounter = new TaskStatsCounterImpl();
+    }
+
+    @Test
+    void record_shouldCountCreatedUpdatedAndDeletedTasks() {
+        // Given
+        var overdueTask = new Task(1L, "t1", 1L, NOW_MS - BUCKET_MS, false);
+        var dueSoonTask = new Task(2L, "t2", 1L, NOW_MS + BUCKET_MS, false);
+        var deletedTask = new Task(3L, "t3", 1L, NOW_MS + BUCKET_MS, false);
+        // When
+        statsCounter.record(null, overdueTask);
+        statsCounter.record(null, dueSoonTask);
+        statsCounter.record(null, deletedTask);
+        statsCounter.record(deletedTask, null);
+        statsCounter.record(overdueTask, new Task(1L, "t1", 1L, NOW_MS - BUCKET_MS, true));
+        // Then
+        TaskStats stats = statsCounter.getStats(NOW_MS);
+        assertThat(stats.total()).isEqualTo(2L);
+        assertThat(stats.completed()).isEqualTo(1L);
+        assertThat(stats.open()).isEqualTo(1L);
+        assertThat(stats.overdue()).isZero();
+        assertThat(stats.dueSoon()).containsExactly(new TaskStats.DueBucket(101 * BUCKET_MS, 102 * BUCKET_MS, 1L));
+    }
+
+    @Test
+    void getStats_shouldMoveTheOpenTasksToOverdueAsTimeGoesBy() {
+        // Given
+        statsCounter.record(null, new Task(1L, "t1", 1L, NOW_MS, false));
+        statsCounter.record(null, new Task(2L, "t2", 1L, NOW_MS + BUCKET_MS, false));
+        statsCounter.record(null, new Task(3L, "t3", 1L, NOW_MS + 30 * BUCKET_MS, false));
+        assertThat(statsCounter.getStats(NOW_MS).overdue()).isZero();
+        // When
+        TaskStats stats = statsCounter.getStats(NOW_MS + 2 * BUCKET_MS);
+        // Then
+        assertThat(stats.overdue()).isEqualTo(2L);
+        assertThat(stats.dueSoon()).isEmpty();
+        // tasks written in an hour already counted as overdue are counted there too
+        statsCounter.record(null, new Task(4L, "t4", 1L, NOW_MS, false));
+        assertThat(statsCounter.getStats(NOW_MS + 2 * BUCKET_MS).overdue()).isEqualTo(3L);
+    }
+
+    @Test
+    void reconcile_shouldReplaceTheCountsWithTheRecountedOnes() {
+        // Given
+        statsCounter.record(null, new Task(1L, "t1", 1L, NOW_MS, false));
+        // When
+        statsCounter.reconcile(Stream.of(new Task(2L, "t2", 1L, NOW_MS - BUCKET_MS, false),
+                                         new Task(3L, "t3", 1L, NOW_MS, true)),
+                               NOW_MS);
+        // Then
+        TaskStats stats = statsCounter.getStats(NOW_MS);
+        assertThat(stats.total()).isEqualTo(2L);
+        assertThat(stats.completed()).isEqualTo(1L);
+        assertThat(stats.overdue()).isEqualTo(1L);
+        assertThat(stats.dueSoon()).isEmpty();
+        assertThat(stats.reconciledAtMs()).isEqualTo(NOW_MS);
+    }
+}
@@ -0,0 +1,145 @@
+package com.perapoch.tasksapp.core.task;
+
+import com.perapoch.tasksapp.storage.db.Change;
+import com.perapoch.tasksapp.storage.db.ChangeBatch;
+import com.perapoch.tasksapp.storage.db.ChangeType;
+import com.perapoch.tasksapp.storage.db.DatabaseExecutor;
+import com.perapoch.tasksapp.storage.db.Versioned;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class AsyncTaskManagerImplTest {
+
+    // SUT
+    private AsyncTaskManagerImpl asyncTaskManager;
+    @Mock
+    private TaskManager taskManager;
+    @Mock
+    private DatabaseExecutor databaseExecutor;
+
+    @BeforeEach
+    void init() {
+        // runs the submitted work on the calling thread
+        when(databaseExecutor.submit(any())).thenAnswer(invocation -> CompletableFuture.supplyAsync(invocation.<Supplier<?>>getArgument(0), Runnable::run));
+        asyncTaskManager = new AsyncTaskManagerImpl(taskManager, databaseExecutor);
+    }
+
+    @Test
+    void getVersionedTaskById_shouldCompleteWithTheTaskOfTheTaskManager() {
+        // Given
+        var task = Versioned.of(new Task(7L, "a task", 50L, 100L, false), 3L);
+        when(taskManager.getVersionedTaskById(7L)).thenReturn(Optional.of(task));
+        // When
+        Optional<Versioned<Task>> result = asyncTaskManager.getVersionedTaskById(7L).join();
+        // Then
+        assertThat(result).contains(task);
+    }
+
+    @Test
+    void updateTask_shouldCompleteExceptionallyWithTheExceptionOfTheTaskManager() {
+        // Given
+        var newTaskRequest = new NewTaskRequest("updated", 200L);
+        when(taskManager.updateTask(7L, newTaskRequest, 2L)).thenThrow(new TaskVersionMismatchException("Task 7 is not at version 2"));
+        // When
+        CompletableFuture<Versioned<Task>> result = asyncTaskManager.updateTask(7L, newTaskRequest, 2L);
+        // Then
+        CompletionException error = assertThrows(CompletionException.class, result::join);
+        assertThat(error.getCause()).isInstanceOf(TaskVersionMismatchException.class);
+    }
+
+    @Test
+    void deleteTask_shouldDeleteOnTheDatabaseExecutor() {
+        // Given
+        doThrow(new TaskNotFoundException("Task with id=8 does not exist!")).when(taskManager).deleteTask(8L, Versioned.ANY_VERSION);
+        // When
+        CompletableFuture<Void> missing = asyncTaskManager.deleteTask(8L, Versioned.ANY_VERSION);
+        asyncTaskManager.deleteTask(7L, Versioned.ANY_VERSION).join();
+        // Then
+        assertThat(missing).isCompletedExceptionally();
+        verify(taskManager).deleteTask(7L, Versioned.ANY_VERSION);
+    }
+
+    @Test
+    void getTaskChanges_shouldStopWaitingWhenThereAreChangesAlready() {
+        // Given
+        CompletableFuture<Boolean> nextChange = new CompletableFuture<>();
+        var changes = ChangeBatch.of(List.of(Change.of(7L, ChangeType.UPSERT, 100L, "1")), "1", false);
+        when(taskManager.nextTaskChange(15_000L)).thenReturn(nextChange);
+        when(taskManager.getTaskChanges(null, 10, 0L)).thenReturn(changes);
+        // When
+        ChangeBatch<Long> result = asyncTaskManager.getTaskChanges(null, 10, 15_000L).join();
+        // Then
+        assertThat(result).isEqualTo(changes);
+        assertThat(nextChange).isCancelled();
+    }
+
+    @Test
+    void getTaskChanges_shouldReadAgainOnceSignalled() {
+        // Given
+        CompletableFuture<Boolean> nextChange = new CompletableFuture<>();
+        var noChanges = ChangeBatch.<Long>of(List.of(), "1", false);
+        var changes = ChangeBatch.of(List.of(Change.of(7L, ChangeType.UPSERT, 100L, "2")), "2", false);
+        CompletableFuture<Boolean> waitAfterTheReadAgain = new CompletableFuture<>();
+        // the read after the signal waits again, in case it finds nothing
+        when(taskManager.nextTaskChange(anyLong())).thenReturn(nextChange, waitAfterTheReadAgain);
+        when(taskManager.getTaskChanges(null, 10, 0L)).thenReturn(noChanges);
+        when(taskManager.getTaskChanges("1", 10, 0L)).thenReturn(changes);
+        // When
+        CompletableFuture<ChangeBatch<Long>> result = asyncTaskManager.getTaskChanges(null, 10, 15_000L);
+        assertThat(result).isNotDone();
+        nextChange.complete(true);
+        // Then
+        assertThat(result.join()).isEqualTo(changes);
+        assertThat(waitAfterTheReadAgain).isCancelled();
+    }
+
+    @Test
+    void getTaskChanges_shouldKeepWaitingWhenTheSignallingWriteLeftNothingToRead() {
+        // Given
+        CompletableFuture<Boolean> rolledBackChange = new CompletableFuture<>();
+        CompletableFuture<Boolean> nextChange = new CompletableFuture<>();
+        var noChanges = ChangeBatch.<Long>of(List.of(), "1", false);
+        var changes = ChangeBatch.of(List.of(Change.of(7L, ChangeType.UPSERT, 100L, "2")), "2", false);
+        when(taskManager.nextTaskChange(anyLong())).thenReturn(rolledBackChange, nextChange);
+        when(taskManager.getTaskChanges(null, 10, 0L)).thenReturn(noChanges);
+        when(taskManager.getTaskChanges("1", 10, 0L)).thenReturn(noChanges, changes);
+        // When
+        CompletableFuture<ChangeBatch<Long>> result = asyncTaskManager.getTaskChanges(null, 10, 15_000L);
+        rolledBackChange.complete(true);
+        assertThat(result).isNotDone();
+        nextChange.complete(true);
+        // Then
+        assertThat(result.join()).isEqualTo(changes);
+    }
+
+    @Test
+    void getTaskChanges_shouldNotWaitWithoutTimeout() {
+        // Given
+        var noChanges = ChangeBatch.<Long>of(List.of(), "1", false);
+        when(taskManager.getTaskChanges(null, 10, 0L)).thenReturn(noChanges);
+        // When
+        ChangeBatch<Long> result = asyncTaskManager.getTaskChanges(null, 10, 0L).join();
+        // Then
+        assertThat(result).isEqualTo(noChanges);
+        verify(taskManager, never()).nextTaskChange(anyLong());
+    }
+}
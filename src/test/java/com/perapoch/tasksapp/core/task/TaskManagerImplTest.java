@@ -2,11 +2,27 @@ package com.perapoch.tasksapp.core.task;
 
 import com.perapoch.tasksapp.core.idgenerator.IdGenerator;
 import com.perapoch.tasksapp.core.idgenerator.IdGeneratorFactory;
+import com.perapoch.tasksapp.core.search.TaskSearchIndex;
+import com.perapoch.tasksapp.core.stats.TaskStats;
+import com.perapoch.tasksapp.core.stats.TaskStatsCounter;
 import com.perapoch.tasksapp.core.time.TimeProvider;
 import com.perapoch.tasksapp.storage.cache.CacheManager;
 import com.perapoch.tasksapp.storage.cache.LruCache;
+import com.perapoch.tasksapp.storage.db.Change;
+import com.perapoch.tasksapp.storage.db.ChangeBatch;
+import com.perapoch.tasksapp.storage.db.ChangeFeed;
+import com.perapoch.tasksapp.storage.db.ChangeType;
+import com.perapoch.tasksapp.storage.db.DatabaseException;
+import com.perapoch.tasksapp.storage.db.EntityAlreadyExistsException;
+import com.perapoch.tasksapp.storage.db.IndexPosition;
+import com.perapoch.tasksapp.storage.db.IndexRangeScan;
 import com.perapoch.tasksapp.storage.db.KeyValueStore;
 import com.perapoch.tasksapp.storage.db.KeyValueStoreFactory;
+import com.perapoch.tasksapp.storage.db.StoreOptions;
+import com.perapoch.tasksapp.storage.db.UnitOfWorkImpl;
+import com.perapoch.tasksapp.storage.db.UnsupportedCapabilityException;
+import com.perapoch.tasksapp.storage.db.VersionConflictException;
+import com.perapoch.tasksapp.storage.db.Versioned;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -18,17 +34,23 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -38,25 +60,37 @@ class TaskManagerImplTest {
     // SUT
     private TaskManagerImpl taskManager;
     @Mock
-    private KeyValueStore<Long, Task> store;
+    private TaskStore store;
+    @Mock
+    private KeyValueStore<Long, Task> archiveStore;
     @Mock
     private IdGenerator idGenerator;
     @Mock
-    private LruCache<Long, Task> taskCache;
+    private LruCache<Long, Versioned<Task>> taskCache;
     @Mock
     private LruCache<TaskManagerImpl.GetAllCacheKey, List<Task>> getAllCache;
+    @Mock
+    private TaskSearchIndex searchIndex;
+    @Mock
+    private TaskStatsCounter statsCounter;
+    @Mock
+    private TimeProvider timeProvider;
 
     @BeforeEach
     void init() {
+        taskManager = taskManagerOn(store);
+    }
+
+    private TaskManagerImpl taskManagerOn(KeyValueStore<Long, Task> taskStore) {
         KeyValueStoreFactory keyValueStoreFactory = mock(KeyValueStoreFactory.class);
-        when(keyValueStoreFactory.createLongKeyValueStore(eq("tasks"), eq(Task.class), any())).thenReturn(store);
+        when(keyValueStoreFactory.createLongKeyValueStore(eq("tasks"), eq(Task.class), any(StoreOptions.class))).thenReturn(taskStore);
+        when(keyValueStoreFactory.createLongKeyValueStore(eq("tasks_archive"), eq(Task.class), any(StoreOptions.class))).thenReturn(archiveStore);
         IdGeneratorFactory idGeneratorFactory = mock(IdGeneratorFactory.class);
         when(idGeneratorFactory.getOrCreate("taskId", 10)).thenReturn(idGenerator);
-        TimeProvider timeProvider = mock(TimeProvider.class);
         CacheManager cacheManager = mock(CacheManager.class);
         doReturn(taskCache).when(cacheManager).createLruCache(eq("task-cache"), any(), anyLong(), any());
         doReturn(getAllCache).when(cacheManager).createLruCache(eq("task-get-all-cache"), anyLong(), any());
-        taskManager = new TaskManagerImpl(keyValueStoreFactory, cacheManager, idGeneratorFactory, timeProvider);
+        return new TaskManagerImpl(keyValueStoreFactory, cacheManager, idGeneratorFactory, timeProvider, searchIndex, statsCounter, new UnitOfWorkImpl());
     }
 
     @ParameterizedTest
@@ -81,7 +115,20 @@ class TaskManagerImplTest {
         // Given
         var taskId = 100L;
         var task = new Task(100L, "descr", 1L, 9L, true);
-        when(taskCache.get(taskId)).thenReturn(Optional.of(task));
+        when(taskCache.get(taskId)).thenReturn(Optional.of(Versioned.of(task, 3L)));
+        // When
+        Optional<Task> maybeTask = taskManager.getTaskById(taskId);
+        // Then
+        assertThat(maybeTask).contains(task);
+    }
+
+    @Test
+    void getTaskById_shouldFallBackToTheArchive() {
+        // Given
+        var taskId = 100L;
+        var task = new Task(100L, "descr", 1L, 9L, true);
+        when(taskCache.get(taskId)).thenReturn(Optional.empty());
+        when(archiveStore.getVersionedById(taskId)).thenReturn(Optional.of(Versioned.of(task, 1L)));
         // When
         Optional<Task> maybeTask = taskManager.getTaskById(taskId);
         // Then
@@ -114,6 +161,205 @@ class TaskManagerImplTest {
         assertThat(taskManager.getTasks(offset, limit)).isEqualTo(existingTasks);
     }
 
+    @ParameterizedTest
+    @ValueSource(strings = {"", "not-a-cursor", "djE6YWJj"})
+    void getTasksWithCursor_shouldThrowIfInvalidCursor(String cursor) {
+        assertThrows(InvalidParameterException.class, () -> taskManager.getTasks(cursor, 10));
+    }
+
+    @Test
+    void getTasksWithCursor_shouldSeekAfterTheCursorTaskId() {
+        // Given
+        List<Task> nextTasks = List.of(new Task(8L, "t8", 1L, 9L, false),
+                                       new Task(9L, "t9", 4L, 9L, false));
+        when(store.getAllAfter(7L, 2)).thenReturn(nextTasks);
+        // When
+        TaskPage page = taskManager.getTasks(new TaskCursor(7L).encode(), 2);
+        // Then
+        assertThat(page.tasks()).isEqualTo(nextTasks);
+        assertThat(page.nextCursor()).contains(new TaskCursor(9L).encode());
+    }
+
+    @Test
+    void getTasksWithCursor_shouldStartFromTheBeginningAndHaveNoNextCursorOnLastPage() {
+        // Given
+        List<Task> tasks = List.of(new Task(1L, "t1", 1L, 9L, false));
+        when(store.getAllAfter(null, 10)).thenReturn(tasks);
+        // When
+        TaskPage page = taskManager.getTasks(null, 10);
+        // Then
+        assertThat(page.tasks()).isEqualTo(tasks);
+        assertThat(page.nextCursor()).isEmpty();
+    }
+
+    @Test
+    void streamTasks_shouldStreamFromTheStoreBypassingTheCaches() {
+        // Given
+        List<Task> tasks = List.of(new Task(1L, "t1", 1L, 9L, false),
+                                   new Task(2L, "t2", 1L, 9L, false));
+        when(store.stream(anyInt())).thenReturn(tasks.stream());
+        // When
+        List<Task> streamed;
+        try (Stream<Task> stream = taskManager.streamTasks()) {
+            streamed = stream.collect(Collectors.toList());
+        }
+        // Then
+        assertThat(streamed).isEqualTo(tasks);
+        verify(getAllCache, never()).get(any());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "  "})
+    void getTasksByDescription_shouldThrowIfBlank(String description) {
+        assertThrows(InvalidParameterException.class, () -> taskManager.getTasksByDescription(description));
+    }
+
+    @Test
+    void getTasksByDescription_shouldLookUpTheDescriptionIndex() {
+        // Given
+        var task = new Task(4L, "buy milk", 1L, 9L, false);
+        when(store.getByIndex("description", "buy milk", 1)).thenReturn(List.of(task));
+        // When
+        List<Task> tasks = taskManager.getTasksByDescription("buy milk");
+        // Then
+        assertThat(tasks).containsExactly(task);
+    }
+
+    @Test
+    void getTaskChanges_shouldStartFromTheLatestChangeWithoutCursor() {
+        // Given
+        var changes = ChangeBatch.of(List.of(Change.of(3L, ChangeType.UPSERT, 5L, "8")), "8", false);
+        when(store.latestChangeCursor()).thenReturn("7");
+        when(store.changesSince("7", 100, 1000L)).thenReturn(changes);
+        // When
+        ChangeBatch<Long> result = taskManager.getTaskChanges(null, 100, 1000L);
+        // Then
+        assertThat(result).isEqualTo(changes);
+    }
+
+    @Test
+    void getTaskChanges_shouldThrowOnInvalidCursor() {
+        // Given
+        when(store.changesSince("nope", 100, 0L)).thenThrow(new IllegalArgumentException("Invalid change cursor nope"));
+        // When - Then
+        assertThrows(InvalidParameterException.class, () -> taskManager.getTaskChanges("nope", 100, 0L));
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = {-1L, 30_001L})
+    void getTaskChanges_shouldThrowOnInvalidWait(long maxWaitMs) {
+        assertThrows(InvalidParameterException.class, () -> taskManager.getTaskChanges("1", 100, maxWaitMs));
+        verify(store, never()).changesSince(any(), anyInt(), anyLong());
+    }
+
+    @Test
+    void getTasksByDeadline_shouldScanTheDeadlineIndexFromTheCursor() {
+        // Given
+        var task1 = new Task(7L, "t7", 1L, 50L, false);
+        var task2 = new Task(3L, "t3", 1L, 60L, false);
+        String cursor = new DeadlineCursor(50L, 5L).encode();
+        when(store.getByIndexRange("ends_at_ms", 10L, 100L, IndexPosition.of(50L, 5L), 2)).thenReturn(List.of(task1, task2));
+        // When
+        TaskPage page = taskManager.getTasksByDeadline(10L, 100L, cursor, 2);
+        // Then
+        assertThat(page.tasks()).containsExactly(task1, task2);
+        assertThat(page.nextCursor()).contains(new DeadlineCursor(60L, 3L).encode());
+    }
+
+    @Test
+    void getTasksByDeadline_shouldThrowOnEmptyRange() {
+        assertThrows(InvalidParameterException.class, () -> taskManager.getTasksByDeadline(100L, 100L, null, 10));
+    }
+
+    @Test
+    void getTasksByDeadline_shouldThrowWithoutRangeScans() {
+        // Given
+        TaskManagerImpl keyValueOnlyTaskManager = taskManagerOn(mock(KeyValueStore.class));
+        // When / Then
+        assertThrows(UnsupportedCapabilityException.class, () -> keyValueOnlyTaskManager.getTasksByDeadline(null, 100L, null, 10));
+    }
+
+    @Test
+    void getTaskChanges_shouldThrowWithoutChangeFeed() {
+        // Given
+        TaskManagerImpl keyValueOnlyTaskManager = taskManagerOn(mock(KeyValueStore.class));
+        // When / Then
+        assertThrows(UnsupportedCapabilityException.class, () -> keyValueOnlyTaskManager.getTaskChanges(null, 100, 0L));
+        assertThrows(UnsupportedCapabilityException.class, () -> keyValueOnlyTaskManager.nextTaskChange(1000L));
+    }
+
+    @Test
+    void getTasksByDeadline_shouldThrowOnTaskCursor() {
+        String taskCursor = new TaskCursor(5L).encode();
+        assertThrows(InvalidParameterException.class, () -> taskManager.getTasksByDeadline(null, null, taskCursor, 10));
+    }
+
+    @Test
+    void getTaskStats_shouldReadTheCountersAtTheCurrentTime() {
+        // Given
+        var stats = new TaskStats(3L, 1L, 2L, 1L, List.of(), 50L);
+        when(timeProvider.getCurrentTimeMs()).thenReturn(100L);
+        when(statsCounter.getStats(100L)).thenReturn(stats);
+        // Then
+        assertThat(taskManager.getTaskStats()).isEqualTo(stats);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "  "})
+    void searchTasks_shouldThrowIfBlankQuery(String query) {
+        assertThrows(InvalidParameterException.class, () -> taskManager.searchTasks(query, 10));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, -1, 1001})
+    void searchTasks_shouldThrowIfInvalidLimit(int limit) {
+        assertThrows(InvalidParameterException.class, () -> taskManager.searchTasks("buy milk", limit));
+    }
+
+    @Test
+    void searchTasks_shouldReturnTheRankedTasksStillMatchingTheQuery() {
+        // Given
+        var task1 = new Task(1L, "Buy milk", 1L, 9L, false);
+        var task2 = new Task(2L, "Buy bread", 1L, 9L, false);
+        var task3 = new Task(3L, "milk and buy it", 1L, 9L, false);
+        List<Long> taskIds = List.of(3L, 2L, 4L, 1L);
+        when(searchIndex.search("buy MILK", 5)).thenReturn(taskIds);
+        when(taskCache.getAll(taskIds)).thenReturn(Map.of(1L, Versioned.of(task1, 1L), 2L, Versioned.of(task2, 3L), 3L, Versioned.of(task3, 1L)));
+        // When
+        List<Task> tasks = taskManager.searchTasks("buy MILK", 5);
+        // Then
+        assertThat(tasks).containsExactly(task3, task1);
+    }
+
+    @Test
+    void getTasksByIds_shouldThrowIfNoIds() {
+        assertThrows(InvalidParameterException.class, () -> taskManager.getTasksByIds(List.of()));
+    }
+
+    @Test
+    void getTasksByIds_shouldThrowIfInvalidTaskId() {
+        assertThrows(InvalidParameterException.class, () -> taskManager.getTasksByIds(List.of(1L, 0L)));
+    }
+
+    @Test
+    void getTasksByIds_shouldThrowIfTooManyIds() {
+        List<Long> taskIds = LongStream.rangeClosed(1L, 1001L).boxed().collect(Collectors.toList());
+        assertThrows(InvalidParameterException.class, () -> taskManager.getTasksByIds(taskIds));
+    }
+
+    @Test
+    void getTasksByIds_shouldReturnFoundTasksInRequestedOrder() {
+        // Given
+        var task1 = new Task(1L, "t1", 1L, 9L, false);
+        var task3 = new Task(3L, "t3", 5L, 9L, false);
+        List<Long> taskIds = List.of(3L, 2L, 1L);
+        when(taskCache.getAll(taskIds)).thenReturn(Map.of(1L, Versioned.of(task1, 1L), 3L, Versioned.of(task3, 1L)));
+        // When
+        List<Task> tasks = taskManager.getTasksByIds(taskIds);
+        // Then
+        assertThat(tasks).containsExactly(task3, task1);
+    }
+
     @ParameterizedTest
     @MethodSource("provideInvalidNewTaskRequests")
     void createTask_shouldThrowOnInvalidNewTaskRequests(NewTaskRequest newTaskRequest) {
@@ -129,7 +375,16 @@ class TaskManagerImplTest {
     void createTask_shouldForwardStoreException() {
         // Given
         var newTaskRequest = new NewTaskRequest("descr", 10L);
-        when(store.update(anyLong(), any(), any())).thenThrow(new TaskAlreadyExistsException(""));
+        when(store.insert(anyLong(), any())).thenThrow(new DatabaseException("db is down", null));
+        // Then
+        assertThrows(DatabaseException.class, () -> taskManager.createTask(newTaskRequest));
+    }
+
+    @Test
+    void createTask_shouldThrowTaskAlreadyExistsWhenTheStoreHasTheTaskAlready() {
+        // Given
+        var newTaskRequest = new NewTaskRequest("descr", 10L);
+        when(store.insert(anyLong(), any())).thenThrow(new EntityAlreadyExistsException("Task already exists"));
         // Then
         assertThrows(TaskAlreadyExistsException.class, () -> taskManager.createTask(newTaskRequest));
     }
@@ -139,12 +394,16 @@ class TaskManagerImplTest {
         // Given
         var newTaskRequest = new NewTaskRequest("descr", 10L);
         var task = new Task(70L, "descr", 99L, 10L, false);
-        when(store.update(anyLong(), any(), any())).thenReturn(task);
+        when(idGenerator.newId()).thenReturn(70L);
+        when(store.insert(eq(70L), any())).thenReturn(Versioned.of(task, 1L));
         // When
         taskManager.createTask(newTaskRequest);
         // Then
         verify(idGenerator).newId();
-        verify(taskCache).put(task.id(), task);
+        verify(store, never()).updateVersioned(anyLong(), any(), anyLong(), any());
+        verify(taskCache).put(task.id(), Versioned.of(task, 1L));
+        verify(searchIndex).index(70L, "descr", 1L);
+        verify(statsCounter).record(null, task);
     }
 
     @ParameterizedTest
@@ -167,18 +426,49 @@ class TaskManagerImplTest {
         long taskId = 10L;
         NewTaskRequest newTaskRequest = new NewTaskRequest("description", 4L);
         var updatedTask = new Task(taskId, newTaskRequest.description(), 200L, newTaskRequest.endsAtMs(), true);
-        when(store.update(eq(taskId), any())).thenReturn(updatedTask);
+        when(store.updateVersioned(eq(taskId), any(), eq(Versioned.ANY_VERSION), any())).thenReturn(Versioned.of(updatedTask, 2L));
         // When
         taskManager.updateTask(taskId, newTaskRequest);
         // Then
         verify(idGenerator, never()).newId();
-        verify(taskCache).put(taskId, updatedTask);
+        verify(taskCache).put(taskId, Versioned.of(updatedTask, 2L));
+        verify(searchIndex).index(taskId, "description", 2L);
+    }
+
+    @Test
+    void updateTask_shouldPassTheExpectedVersionToTheStore() {
+        // Given
+        long taskId = 10L;
+        NewTaskRequest newTaskRequest = new NewTaskRequest("description", 4L);
+        var updatedTask = new Task(taskId, newTaskRequest.description(), 200L, newTaskRequest.endsAtMs(), false);
+        when(store.updateVersioned(eq(taskId), any(), eq(5L), any())).thenReturn(Versioned.of(updatedTask, 6L));
+        // When
+        Versioned<Task> result = taskManager.updateTask(taskId, newTaskRequest, 5L);
+        // Then
+        assertThat(result).isEqualTo(Versioned.of(updatedTask, 6L));
+    }
+
+    @Test
+    void updateTask_shouldThrowVersionMismatchAndEvictTheCachedTaskOnConflict() {
+        // Given
+        when(store.updateVersioned(eq(10L), any(), eq(5L), any())).thenThrow(new VersionConflictException(""));
+        // Then
+        assertThrows(TaskVersionMismatchException.class, () -> taskManager.updateTask(10L, new NewTaskRequest("d1", 90L), 5L));
+        verify(taskCache).remove(10L);
+    }
+
+    @Test
+    void deleteTask_shouldThrowVersionMismatchOnConflict() {
+        // Given
+        when(store.updateVersioned(eq(10L), any(), eq(5L), any())).thenThrow(new VersionConflictException(""));
+        // Then
+        assertThrows(TaskVersionMismatchException.class, () -> taskManager.deleteTask(10L, 5L));
     }
 
     @Test
     void updateTask_shouldForwardExceptionFromTheStore() {
         // Given
-        when(store.update(anyLong(), any())).thenThrow(new TaskNotFoundException(""));
+        when(store.updateVersioned(anyLong(), any(), anyLong(), any())).thenThrow(new TaskNotFoundException(""));
         // Then
         assertThrows(TaskNotFoundException.class, () -> taskManager.updateTask(10L, new NewTaskRequest("d1", 90L)));
     }
@@ -196,7 +486,77 @@ class TaskManagerImplTest {
         long taskId = 100L;
         taskManager.deleteTask(taskId);
         // Then
-        verify(store).update(eq(taskId), any());
+        verify(store).updateVersioned(eq(taskId), any(), eq(Versioned.ANY_VERSION), any());
+        verify(searchIndex).remove(taskId);
+        verify(archiveStore).update(eq(taskId), any());
+    }
+
+    @Test
+    void deleteTask_shouldUncountTheDeletedTask() {
+        // Given
+        var task = new Task(100L, "description", 1L, 9L, false);
+        when(store.updateVersioned(eq(100L), any(), eq(Versioned.ANY_VERSION), any())).thenAnswer(invocation -> {
+            UnaryOperator<Task> updateOperation = invocation.getArgument(3);
+            return Versioned.of(updateOperation.apply(task), 2L);
+        });
+        // When
+        taskManager.deleteTask(100L);
+        // Then
+        verify(statsCounter).record(task, null);
+    }
+
+    @Test
+    void deleteTask_shouldKeepTheSearchIndexOnConflict() {
+        // Given
+        when(store.updateVersioned(eq(10L), any(), eq(5L), any())).thenThrow(new VersionConflictException(""));
+        // Then
+        assertThrows(TaskVersionMismatchException.class, () -> taskManager.deleteTask(10L, 5L));
+        verify(searchIndex, never()).remove(anyLong());
+    }
+
+    @Test
+    void archiveTasks_shouldMoveTheCompletedTasksOfThePageToTheArchive() {
+        // Given
+        var openTask = new Task(1L, "t1", 1L, 5L, false);
+        var completedTask = new Task(2L, "t2", 1L, 6L, true);
+        var reopenedTask = new Task(3L, "t3", 1L, 7L, true);
+        when(store.getByIndexRange("ends_at_ms", null, 100L, null, 3)).thenReturn(List.of(openTask, completedTask, reopenedTask));
+        when(store.getVersionedByIds(List.of(2L, 3L))).thenReturn(Map.of(2L, Versioned.of(completedTask, 4L), 3L, Versioned.of(reopenedTask, 2L)));
+        when(store.updateVersioned(eq(2L), any(), eq(4L), any())).thenReturn(Versioned.absent());
+        when(store.updateVersioned(eq(3L), any(), eq(2L), any())).thenThrow(new VersionConflictException(""));
+        // When
+        ArchiveBatch batch = taskManager.archiveTasks(100L, null, 3);
+        // Then
+        assertThat(batch.scanned()).isEqualTo(3);
+        assertThat(batch.archived()).isEqualTo(1);
+        assertThat(batch.nextCursor()).contains(new DeadlineCursor(7L, 3L).encode());
+        verify(store).updateVersioned(eq(2L), any(), eq(4L), any());
+        verify(archiveStore, times(2)).update(eq(3L), any());
+        verify(taskCache).remove(2L);
+        verify(searchIndex).remove(2L);
+        verify(statsCounter).record(completedTask, null);
+        verify(statsCounter, never()).record(reopenedTask, null);
+    }
+
+    @Test
+    void archiveTasks_shouldWalkTheTasksByIdWithoutRangeScans() {
+        // Given
+        KeyValueStore<Long, Task> keyValueOnlyStore = mock(KeyValueStore.class);
+        TaskManagerImpl keyValueOnlyTaskManager = taskManagerOn(keyValueOnlyStore);
+        var openTask = new Task(1L, "t1", 1L, 5L, false);
+        var completedTask = new Task(2L, "t2", 1L, 6L, true);
+        var completedLaterTask = new Task(3L, "t3", 1L, 200L, true);
+        when(keyValueOnlyStore.getAllAfter(null, 3)).thenReturn(List.of(openTask, completedTask, completedLaterTask));
+        when(keyValueOnlyStore.getVersionedByIds(List.of(2L))).thenReturn(Map.of(2L, Versioned.of(completedTask, 4L)));
+        when(keyValueOnlyStore.updateVersioned(eq(2L), any(), eq(4L), any())).thenReturn(Versioned.absent());
+        // When
+        ArchiveBatch batch = keyValueOnlyTaskManager.archiveTasks(100L, null, 3);
+        // Then
+        assertThat(batch.scanned()).isEqualTo(3);
+        assertThat(batch.archived()).isEqualTo(1);
+        assertThat(batch.nextCursor()).contains(new TaskCursor(3L).encode());
+        verify(archiveStore).update(eq(2L), any());
+        verify(keyValueOnlyStore, never()).updateVersioned(eq(3L), any(), anyLong(), any());
     }
 
     @Test
@@ -211,4 +571,6 @@ class TaskManagerImplTest {
                          Arguments.of(new NewTaskRequest("d", -1L)));
     }
 
-}
\ No newline at end of file
+    // the JDBC stores the tasks are kept in scan index ranges and keep a change feed as well
+    interface TaskStore extends KeyValueStore<Long, Task>, IndexRangeScan<Long, Task>, ChangeFeed<Long> {}
+}
@@ -0,0 +1,184 @@
+package com.perapoch.tasksapp.core.task;
+
+import com.codahale.metrics.MetricRegistry;
+import com.perapoch.tasksapp.core.json.JsonConverter;
+import com.perapoch.tasksapp.storage.db.DatabaseException;
+import com.perapoch.tasksapp.storage.db.codec.JsonPayloadCodec;
+import com.perapoch.tasksapp.storage.db.codec.PayloadCompressor;
+import com.perapoch.tasksapp.storage.db.codec.PayloadSerializer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TaskPayloadCodecTest {
+
+    // SUT
+    private TaskPayloadCodec codec;
+
+    @BeforeEach
+    void init() {
+        codec = new TaskPayloadCodec();
+    }
+
+    @Test
+    void decode_shouldReadWhatWasEncoded() {
+        // Given
+        var task = new Task(42L, "Write the report – à l'heure 🚀", 1000L, 2000L, true);
+
+        // When
+        Task decoded = codec.decode(ByteBuffer.wrap(codec.encode(task)), codec.version());
+
+        // Then
+        assertThat(decoded).isEqualTo(task);
+    }
+
+    @Test
+    void decode_shouldThrowOnUnknownVersion() {
+        // Given
+        byte[] encoded = codec.encode(new Task(1L, "d", 1L, 2L, false));
+        // Then
+        assertThrows(DatabaseException.class, () -> codec.decode(ByteBuffer.wrap(encoded), (byte) 99));
+    }
+
+    @Test
+    void serializer_shouldStillDecodePayloadsWrittenAsJson() {
+        // Given
+        var task = new Task(7L, "json task", 1L, 2L, false);
+        byte[] json = "{\"id\":7}".getBytes(StandardCharsets.UTF_8);
+        JsonConverter jsonConverter = mock(JsonConverter.class);
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(0).write(json);
+            return null;
+        }).when(jsonConverter).toJson(any(OutputStream.class), eq(task));
+        when(jsonConverter.fromJson(any(byte[].class), anyInt(), eq(json.length), eq(Task.class))).thenReturn(task);
+        var jsonCodec = new JsonPayloadCodec<>(jsonConverter, Task.class);
+        byte[] jsonPayload = new PayloadSerializer<>(jsonCodec, jsonCodec).serialize(task);
+
+        // When
+        Task decoded = new PayloadSerializer<>(codec, jsonCodec).deserialize(jsonPayload);
+
+        // Then
+        assertThat(decoded).isEqualTo(task);
+    }
+
+    @Test
+    void serializer_shouldUseTheBinaryCodecForNewPayloads() {
+        // Given
+        var task = new Task(7L, "binary task", 1L, 2L, false);
+        var serializer = new PayloadSerializer<>(codec, new JsonPayloadCodec<>(mock(JsonConverter.class), Task.class));
+
+        // When
+        byte[] payload = serializer.serialize(task);
+
+        // Then
+        assertThat(payload[2]).isEqualTo(TaskPayloadCodec.ID);
+        assertThat(serializer.deserialize(payload)).isEqualTo(task);
+    }
+
+    @Test
+    void serializer_shouldCompressPayloadsAboveTheThreshold() {
+        // Given
+        var task = new Task(7L, "a very long description ".repeat(100), 1L, 2L, false);
+        var compressor = new PayloadCompressor(512, new MetricRegistry(), "tasks");
+        var serializer = new PayloadSerializer<>(codec, new JsonPayloadCodec<>(mock(JsonConverter.class), Task.class), compressor);
+
+        // When
+        byte[] payload = serializer.serialize(task);
+
+        // Then
+        assertThat(payload[1]).isEqualTo((byte) 1);
+        assertThat(payload.length).isLessThan(codec.encode(task).length);
+        assertThat(serializer.deserialize(payload)).isEqualTo(task);
+    }
+
+    @Test
+    void serializer_shouldNotCompressPayloadsBelowTheThreshold() {
+        // Given
+        var task = new Task(7L, "short", 1L, 2L, false);
+        var compressor = new PayloadCompressor(512, new MetricRegistry(), "tasks");
+        var serializer = new PayloadSerializer<>(codec, new JsonPayloadCodec<>(mock(JsonConverter.class), Task.class), compressor);
+
+        // When
+        byte[] payload = serializer.serialize(task);
+
+        // Then
+        assertThat(payload[1]).isEqualTo((byte) 0);
+        assertThat(serializer.deserialize(payload)).isEqualTo(task);
+    }
+
+    @Test
+    void serializer_shouldDecompressEvenIfCompressionWasTurnedOff() {
+        // Given
+        var task = new Task(7L, "a very long description ".repeat(100), 1L, 2L, false);
+        var jsonCodec = new JsonPayloadCodec<>(mock(JsonConverter.class), Task.class);
+        byte[] payload = new PayloadSerializer<>(codec, jsonCodec, new PayloadCompressor(512, new MetricRegistry(), "tasks")).serialize(task);
+
+        // When
+        Task decoded = new PayloadSerializer<>(codec, jsonCodec).deserialize(payload);
+
+        // Then
+        assertThat(decoded).isEqualTo(task);
+    }
+
+    @Test
+    void serializer_shouldDecodePayloadsStreamedFromTheDb() {
+        // Given
+        var task = new Task(7L, "a very long description ".repeat(100), 1L, 2L, false);
+        var jsonCodec = new JsonPayloadCodec<>(mock(JsonConverter.class), Task.class);
+        var serializer = new PayloadSerializer<>(codec, jsonCodec, new PayloadCompressor(512, new MetricRegistry(), "tasks"));
+        byte[] compressed = serializer.serialize(task);
+        byte[] uncompressed = new PayloadSerializer<>(codec, jsonCodec).serialize(task);
+
+        // When
+        Task decodedCompressed = serializer.deserialize(new ByteArrayInputStream(compressed));
+        Task decodedUncompressed = serializer.deserialize(new ByteArrayInputStream(uncompressed));
+
+        // Then
+        assertThat(decodedCompressed).isEqualTo(task);
+        assertThat(decodedUncompressed).isEqualTo(task);
+    }
+
+    @Test
+    void serializer_shouldStreamJsonPayloadsToTheJsonConverter() {
+        // Given
+        var task = new Task(7L, "json task", 1L, 2L, false);
+        byte[] json = "{\"id\":7}".getBytes(StandardCharsets.UTF_8);
+        JsonConverter jsonConverter = mock(JsonConverter.class);
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(0).write(json);
+            return null;
+        }).when(jsonConverter).toJson(any(OutputStream.class), eq(task));
+        when(jsonConverter.fromJson(any(InputStream.class), eq(Task.class))).thenAnswer(invocation -> {
+            assertThat(invocation.<InputStream>getArgument(0).readAllBytes()).isEqualTo(json);
+            return task;
+        });
+        var jsonCodec = new JsonPayloadCodec<>(jsonConverter, Task.class);
+        byte[] jsonPayload = new PayloadSerializer<>(jsonCodec, jsonCodec).serialize(task);
+
+        // When
+        Task decoded = new PayloadSerializer<>(codec, jsonCodec).deserialize(new ByteArrayInputStream(jsonPayload));
+
+        // Then
+        assertThat(decoded).isEqualTo(task);
+    }
+
+    @Test
+    void serializer_shouldThrowOnTruncatedHeaders() {
+        assertThrows(DatabaseException.class, () -> new PayloadSerializer<>(codec, new JsonPayloadCodec<>(mock(JsonConverter.class), Task.class))
+                                                         .deserialize(new ByteArrayInputStream(new byte[]{2, 0})));
+    }
+}
@@ -0,0 +1,88 @@
+package com.perapoch.tasksapp.storage.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChangeSignalTest {
+
+    private static final Duration MAX_WAIT = Duration.ofSeconds(5);
+
+    // SUT
+    private final ChangeSignal changeSignal = new ChangeSignal();
+
+    @Test
+    void nextSignal_shouldCompleteWithTrueOnTheNextSignal() {
+        // Given
+        CompletableFuture<Boolean> nextSignal = changeSignal.nextSignal(60_000L);
+        // When
+        changeSignal.signal();
+        // Then
+        assertThat(nextSignal).isCompletedWithValue(true);
+        assertThat(changeSignal.waiterCount()).isZero();
+    }
+
+    @Test
+    void nextSignal_shouldNotLeaveWaitersBehindOnAnIdleFeed() {
+        // Given
+        CompletableFuture<Boolean> subscriber = changeSignal.nextSignal(60_000L);
+        // When
+        for (int poll = 0; poll < 100; poll++) {
+            assertThat(changeSignal.nextSignal(1L)).succeedsWithin(MAX_WAIT).isEqualTo(false);
+        }
+        // Then
+        assertThat(changeSignal.waiterCount()).isEqualTo(1);
+        assertThat(subscriber).isNotDone();
+    }
+
+    @Test
+    void nextSignal_shouldStopWaitingOnceCancelled() {
+        // Given
+        CompletableFuture<Boolean> nextSignal = changeSignal.nextSignal(60_000L);
+        // When
+        nextSignal.cancel(false);
+        // Then
+        assertThat(changeSignal.waiterCount()).isZero();
+    }
+
+    @Test
+    void nextSignal_shouldDropTheTimeoutOfACancelledWait() {
+        // Given
+        int pendingTimeouts = ChangeSignal.pendingTimeoutCount();
+        CompletableFuture<Boolean> nextSignal = changeSignal.nextSignal(60_000L);
+        assertThat(ChangeSignal.pendingTimeoutCount()).isEqualTo(pendingTimeouts + 1);
+        // When
+        nextSignal.cancel(false);
+        // Then
+        assertThat(ChangeSignal.pendingTimeoutCount()).isEqualTo(pendingTimeouts);
+    }
+
+    @Test
+    void awaitChanges_shouldKeepWaitingWhenTheSignallingWriteLeftNothingToRead() {
+        // Given
+        var noChanges = ChangeBatch.<Long>of(List.of(), "1", false);
+        var changes = ChangeBatch.of(List.of(Change.of(7L, ChangeType.UPSERT, 100L, "2")), "2", false);
+        AtomicInteger reads = new AtomicInteger();
+        // the first signal comes from a write that rolled back, the second from one that committed
+        Supplier<ChangeBatch<Long>> read = () -> {
+            int n = reads.incrementAndGet();
+            if (n < 3) {
+                CompletableFuture.runAsync(changeSignal::signal, CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS));
+                return noChanges;
+            }
+            return changes;
+        };
+        // When
+        ChangeBatch<Long> result = changeSignal.awaitChanges(read, MAX_WAIT.toMillis());
+        // Then
+        assertThat(result).isEqualTo(changes);
+        assertThat(reads).hasValue(3);
+    }
+}
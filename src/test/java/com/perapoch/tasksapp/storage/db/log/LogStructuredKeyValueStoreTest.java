@@ -0,0 +1,120 @@
+package com.perapoch.tasksapp.storage.db.log;
+
+import com.codahale.metrics.MetricRegistry;
+import com.perapoch.tasksapp.core.json.JsonConverter;
+import com.perapoch.tasksapp.core.task.Task;
+import com.perapoch.tasksapp.core.task.TaskPayloadCodec;
+import com.perapoch.tasksapp.storage.LogStoreConfiguration;
+import com.perapoch.tasksapp.storage.db.StoreOptions;
+import com.perapoch.tasksapp.storage.db.codec.JsonPayloadCodec;
+import com.perapoch.tasksapp.storage.db.codec.PayloadSerializer;
+import io.dropwizard.util.DataSize;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class LogStructuredKeyValueStoreTest {
+
+    private static final String STORE_NAME = "tasks";
+
+    @TempDir
+    Path directory;
+
+    private MetricRegistry metricRegistry;
+    private LogStoreConfiguration configuration;
+    // the flusher of the last store opened, run by hand so the test knows what reached the disk
+    private Runnable flusher;
+
+    // SUT
+    private LogStructuredKeyValueStore<Long, Task> store;
+
+    @BeforeEach
+    void init() {
+        metricRegistry = new MetricRegistry();
+        configuration = new LogStoreConfiguration();
+        configuration.setSegmentSize(DataSize.kilobytes(4));
+        configuration.setDurableWrites(false);
+        store = open();
+    }
+
+    @Test
+    void compact_shouldKeepTheLatestDurableVersionOfKeysOverwrittenInUnflushedSegments() throws IOException {
+        // Given
+        store.update(1L, old -> task(1L, "durable"));
+        // rolls a few segments, mostly garbage, so that they get compacted
+        for (int i = 0; i < 200; i++) {
+            int n = i;
+            store.update(2L, old -> task(2L, "overwritten " + n));
+        }
+        flusher.run();
+        Path activeSegment = directory.resolve(LogSegment.fileName(activeSegmentId()));
+        byte[] durableActiveSegment = Files.readAllBytes(activeSegment);
+        long fsyncs = fsyncCount();
+        // replaces the durable version, in the active segment that isn't flushed
+        store.update(1L, old -> task(1L, "latest"));
+        assertThat(directory.resolve(LogSegment.fileName(activeSegmentId()))).isEqualTo(activeSegment);
+
+        // When
+        store.compact();
+        // a crash loses whatever was appended since the last fsync
+        if (fsyncCount() == fsyncs) {
+            try (FileChannel channel = FileChannel.open(activeSegment, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(durableActiveSegment), 0);
+            }
+        }
+        LogStructuredKeyValueStore<Long, Task> recovered = open();
+
+        // Then
+        assertThat(recovered.getById(1L)).hasValueSatisfying(task -> assertThat(task.description()).isIn("durable", "latest"));
+        assertThat(recovered.getById(2L)).contains(task(2L, "overwritten 199"));
+    }
+
+    private LogStructuredKeyValueStore<Long, Task> open() {
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        when(executor.scheduleWithFixedDelay(any(), anyLong(), anyLong(), any(TimeUnit.class))).thenAnswer(invocation -> mock(ScheduledFuture.class));
+        var serializer = new PayloadSerializer<>(new TaskPayloadCodec(), new JsonPayloadCodec<>(mock(JsonConverter.class), Task.class));
+        var opened = new LogStructuredKeyValueStore<>(directory, STORE_NAME, Long.class, Task.class, StoreOptions.defaults(), serializer,
+                                                      configuration, executor, metricRegistry);
+        // the flusher is scheduled first, then the compactor
+        ArgumentCaptor<Runnable> scheduled = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor, times(2)).scheduleWithFixedDelay(scheduled.capture(), anyLong(), anyLong(), any(TimeUnit.class));
+        flusher = scheduled.getAllValues().get(0);
+        return opened;
+    }
+
+    private long activeSegmentId() throws IOException {
+        return Files.readAllLines(directory.resolve(LogStructuredKeyValueStore.MANIFEST), StandardCharsets.UTF_8).stream()
+                    .filter(line -> line.startsWith("active "))
+                    .mapToLong(line -> Long.parseLong(line.substring("active ".length())))
+                    .findFirst()
+                    .orElseThrow();
+    }
+
+    private long fsyncCount() {
+        return metricRegistry.histogram(MetricRegistry.name(LogStructuredKeyValueStore.class, STORE_NAME, "fsync-batch-size")).getCount();
+    }
+
+    private static Task task(long id, String description) {
+        return new Task(id, description, 1000L, 2000L, false);
+    }
+}